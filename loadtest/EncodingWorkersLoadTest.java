@@ -0,0 +1,137 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Drives the shared encoding queue with a batch of uploads and reports which worker ran each
+ * job and the batch's wall-clock throughput. Run it once per cluster size and compare.
+ *
+ * Several workers on one machine, all on the web app's database and working directory:
+ *
+ *   ./mvnw -q package -DskipTests
+ *   java -jar target/meskot-0.0.1-SNAPSHOT.jar --app.jobs.worker-id=web --app.jobs.concurrency=1 &
+ *   java -jar target/meskot-0.0.1-SNAPSHOT.jar --spring.profiles.active=worker \
+ *       --app.jobs.worker-id=worker-1 --app.jobs.concurrency=1 &
+ *   java -jar target/meskot-0.0.1-SNAPSHOT.jar --spring.profiles.active=worker \
+ *       --app.jobs.worker-id=worker-2 --app.jobs.concurrency=1 &
+ *   java loadtest/EncodingWorkersLoadTest.java http://localhost:8080 sample.mp4 12
+ *
+ * Arguments: web app base URL, video to upload, uploads (12), resolution (480p). To check
+ * lease reclaiming, kill -9 one worker mid-run: its jobs go back to PENDING once its lease
+ * (app.jobs.lease-seconds) runs out and another worker finishes them, so the run still passes.
+ * It passes when every job completes.
+ */
+public class EncodingWorkersLoadTest {
+
+    private static final Pattern FIELD = Pattern.compile("\"(\\w+)\"\\s*:\\s*(\"([^\"]*)\"|[^,}\\s]+)");
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("usage: java EncodingWorkersLoadTest.java <base-url> <video> [uploads] [resolution]");
+            System.exit(2);
+        }
+        String baseUrl = args[0];
+        Path video = Path.of(args[1]);
+        int uploads = args.length > 2 ? Integer.parseInt(args[2]) : 12;
+        String resolution = args.length > 3 ? args[3] : "480p";
+        HttpClient client = HttpClient.newHttpClient();
+
+        long started = System.nanoTime();
+        List<String> jobIds = new ArrayList<>();
+        for (int i = 0; i < uploads; i++) {
+            Map<String, String> response = upload(client, baseUrl, video, "loadtest-" + i, resolution);
+            jobIds.add(response.get("jobId"));
+        }
+        System.out.printf("Submitted %d jobs in %.1fs%n", uploads, (System.nanoTime() - started) / 1e9);
+
+        Map<String, Integer> perWorker = new TreeMap<>();
+        int completed = 0;
+        int failed = 0;
+        List<String> open = new ArrayList<>(jobIds);
+        while (!open.isEmpty()) {
+            Thread.sleep(2000);
+            List<String> still = new ArrayList<>();
+            for (String jobId : open) {
+                Map<String, String> job = get(client, baseUrl + "/api/jobs/" + jobId);
+                String status = job.get("status");
+                if ("COMPLETED".equals(status) || "FAILED".equals(status)) {
+                    if ("COMPLETED".equals(status)) {
+                        completed++;
+                    } else {
+                        failed++;
+                        System.out.println("job " + jobId + " failed: " + job.get("errorMessage"));
+                    }
+                    // workerId is cleared only on requeue, so it names the worker that finished it
+                    perWorker.merge(String.valueOf(job.get("workerId")), 1, Integer::sum);
+                } else {
+                    still.add(jobId);
+                }
+            }
+            open = still;
+            System.out.printf("t=%4.0fs done=%d failed=%d waiting=%d%n",
+                    (System.nanoTime() - started) / 1e9, completed, failed, open.size());
+        }
+
+        double seconds = (System.nanoTime() - started) / 1e9;
+        System.out.println("---");
+        System.out.printf("jobs=%d completed=%d failed=%d in %.1fs (%.2f jobs/min)%n",
+                uploads, completed, failed, seconds, completed * 60 / seconds);
+        System.out.println("jobs per worker: " + perWorker);
+        boolean passed = completed == uploads;
+        System.out.println(passed ? "PASS" : "FAIL");
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static Map<String, String> upload(HttpClient client, String baseUrl, Path video, String title,
+                                              String resolution) throws IOException, InterruptedException {
+        String boundary = UUID.randomUUID().toString();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (String[] field : new String[][]{{"title", title}, {"resolution", resolution}, {"priority", "bulk"}}) {
+            body.write(("--" + boundary + "\r\nContent-Disposition: form-data; name=\"" + field[0] + "\"\r\n\r\n"
+                    + field[1] + "\r\n").getBytes(StandardCharsets.UTF_8));
+        }
+        body.write(("--" + boundary + "\r\nContent-Disposition: form-data; name=\"file\"; filename=\""
+                + video.getFileName() + "\"\r\nContent-Type: video/mp4\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+        body.write(Files.readAllBytes(video));
+        body.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/api/movies/upload"))
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body.toByteArray()))
+                .build();
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 202) {
+            throw new IOException("Upload failed: HTTP " + response.statusCode() + " " + response.body());
+        }
+        return fields(response.body());
+    }
+
+    private static Map<String, String> get(HttpClient client, String url) throws IOException, InterruptedException {
+        HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(url)).build(),
+                HttpResponse.BodyHandlers.ofString());
+        return fields(response.body());
+    }
+
+    /** Top-level fields of a flat JSON object; enough for the two responses read here. */
+    private static Map<String, String> fields(String json) {
+        Map<String, String> fields = new TreeMap<>();
+        Matcher m = FIELD.matcher(json);
+        while (m.find()) {
+            fields.put(m.group(1), m.group(3) != null ? m.group(3) : m.group(2));
+        }
+        return fields;
+    }
+}
@@ -0,0 +1,142 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Aggregate /stream throughput for a local movie at a fixed number of concurrent readers.
+ *
+ * Every client loops for the run duration: it asks for a random range-size window of the file
+ * and drains the body as fast as it arrives, so the figure is what the server can push, not
+ * what a player would consume. Run it once per server mode against the same movie and compare
+ * MB/s and p99 time to last byte:
+ *
+ *   copy path (before):  --app.streaming.local.zero-copy=false
+ *   transferTo:          --app.streaming.local.sendfile=false
+ *   sendfile (default):  no arguments
+ *
+ *   ./mvnw spring-boot:run -Dspring-boot.run.arguments="--app.scheduler.enabled=false --app.streaming.local.zero-copy=false"
+ *   java loadtest/LocalStreamThroughputBenchmark.java http://localhost:8080/api/movies/1/stream 200 60 4194304
+ *
+ * Arguments: stream URL of a LOCAL movie, concurrent streams (200), seconds (60), bytes per
+ * range (4 MiB). The scheduler is switched off so its pacing does not cap the result. Warm
+ * the page cache with one short run first, or every mode ends up measuring the disk.
+ */
+public class LocalStreamThroughputBenchmark {
+
+    private static final AtomicLong bytes = new AtomicLong();
+    private static final AtomicInteger ranges = new AtomicInteger();
+    private static final AtomicInteger failed = new AtomicInteger();
+    private static final Map<String, AtomicInteger> errors = new ConcurrentHashMap<>();
+    private static final long[] latencyMillis = new long[1 << 20];
+    private static final AtomicInteger latencyCount = new AtomicInteger();
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("usage: java LocalStreamThroughputBenchmark.java <stream-url> [streams] [seconds] [range-bytes]");
+            System.exit(2);
+        }
+        URI uri = URI.create(args[0]);
+        int streams = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 60;
+        long rangeBytes = args.length > 3 ? Long.parseLong(args[3]) : 4L * 1024 * 1024;
+
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .executor(Executors.newCachedThreadPool())
+                .build();
+        long size = contentLength(client, uri);
+        System.out.printf("%d streams x %ds, %d-byte ranges of a %d-byte file at %s%n",
+                streams, seconds, rangeBytes, size, uri);
+
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        CountDownLatch done = new CountDownLatch(streams);
+        ExecutorService clients = Executors.newFixedThreadPool(streams);
+        long started = System.nanoTime();
+        for (int i = 0; i < streams; i++) {
+            clients.submit(() -> {
+                try {
+                    while (System.nanoTime() < deadline) {
+                        readRange(client, uri, size, rangeBytes);
+                    }
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        while (!done.await(5, TimeUnit.SECONDS)) {
+            double elapsed = (System.nanoTime() - started) / 1e9;
+            System.out.printf("t=%4.0fs ranges=%d failed=%d aggregate=%.1f MB/s%n",
+                    elapsed, ranges.get(), failed.get(), bytes.get() / elapsed / 1_000_000);
+        }
+        clients.shutdown();
+        double elapsed = (System.nanoTime() - started) / 1e9;
+
+        int n = Math.min(latencyCount.get(), latencyMillis.length);
+        long[] sorted = Arrays.copyOf(latencyMillis, n);
+        Arrays.sort(sorted);
+        System.out.println("---");
+        System.out.printf("streams=%d ranges=%d failed=%d bytes=%d%n", streams, ranges.get(), failed.get(), bytes.get());
+        System.out.printf("aggregate=%.1f MB/s per-stream=%.2f MB/s%n",
+                bytes.get() / elapsed / 1_000_000, bytes.get() / elapsed / 1_000_000 / streams);
+        if (n > 0) {
+            System.out.printf("time to last byte p50=%dms p99=%dms max=%dms%n",
+                    sorted[n / 2], sorted[Math.min(n - 1, (int) (n * 0.99))], sorted[n - 1]);
+        }
+        System.out.println("errors: " + errors);
+        System.exit(failed.get() == 0 ? 0 : 1);
+    }
+
+    private static long contentLength(HttpClient client, URI uri) throws IOException, InterruptedException {
+        HttpRequest head = HttpRequest.newBuilder(uri).method("HEAD", HttpRequest.BodyPublishers.noBody()).build();
+        HttpResponse<Void> response = client.send(head, HttpResponse.BodyHandlers.discarding());
+        return response.headers().firstValueAsLong("Content-Length")
+                .orElseThrow(() -> new IOException("HEAD returned no Content-Length (HTTP " + response.statusCode() + ")"));
+    }
+
+    private static void readRange(HttpClient client, URI uri, long size, long rangeBytes) {
+        long start = size > rangeBytes ? ThreadLocalRandom.current().nextLong(size - rangeBytes) : 0;
+        long end = Math.min(size, start + rangeBytes) - 1;
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .header("Range", "bytes=" + start + "-" + end)
+                .timeout(Duration.ofSeconds(60))
+                .build();
+        long began = System.nanoTime();
+        try {
+            HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            if (response.statusCode() != 206) {
+                response.body().close();
+                throw new IOException("HTTP " + response.statusCode());
+            }
+            try (InputStream in = response.body()) {
+                byte[] buffer = new byte[64 * 1024];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    bytes.addAndGet(read);
+                }
+            }
+            ranges.incrementAndGet();
+            int slot = latencyCount.getAndIncrement();
+            if (slot < latencyMillis.length) {
+                latencyMillis[slot] = (System.nanoTime() - began) / 1_000_000;
+            }
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            errors.computeIfAbsent(e.getClass().getSimpleName() + ": " + e.getMessage(), k -> new AtomicInteger()).incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds thousands of slow-reading streams open against one server node.
+ *
+ * Every client opens a plain socket, sends a ranged GET and then reads at a fixed trickle with
+ * a small receive buffer, so the server's writer really blocks on the client the way it does
+ * for a viewer on a poor connection. The run passes when at least 99% of the streams were
+ * answered with 2xx and were still delivering bytes when the hold period ended.
+ *
+ * Run against a server started with the virtual profile:
+ *
+ *   ./mvnw spring-boot:run -Dspring-boot.run.profiles=virtual \
+ *       -Dspring-boot.run.arguments=--app.scheduler.client-bytes-per-second=0
+ *   java loadtest/SlowReaderLoadTest.java http://localhost:8080/api/movies/1/stream 5000 16384 300
+ *
+ * Arguments: stream URL, concurrent streams (5000), bytes per second per stream (16384),
+ * hold seconds (300). The client needs a file-descriptor limit above the stream count
+ * (ulimit -n 20000), as does the server. All streams come from one address, so the per-client
+ * rate limit has to be lifted (0 = unlimited) or it caps the whole run.
+ */
+public class SlowReaderLoadTest {
+
+    private static final AtomicInteger connected = new AtomicInteger();
+    private static final AtomicInteger streaming = new AtomicInteger();
+    private static final AtomicInteger completed = new AtomicInteger();
+    private static final AtomicInteger failed = new AtomicInteger();
+    private static final AtomicLong bytes = new AtomicLong();
+    private static final Map<String, AtomicInteger> statuses = new ConcurrentHashMap<>();
+    private static final Map<String, AtomicInteger> errors = new ConcurrentHashMap<>();
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("usage: java SlowReaderLoadTest.java <stream-url> [streams] [bytes-per-second] [hold-seconds]");
+            System.exit(2);
+        }
+        URI uri = URI.create(args[0]);
+        int streams = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+        int rate = args.length > 2 ? Integer.parseInt(args[2]) : 16384;
+        int holdSeconds = args.length > 3 ? Integer.parseInt(args[3]) : 300;
+
+        Instant deadline = Instant.now().plusSeconds(holdSeconds);
+        CountDownLatch done = new CountDownLatch(streams);
+        System.out.printf("Opening %d streams at %d B/s each for %ds against %s%n", streams, rate, holdSeconds, uri);
+
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < streams; i++) {
+                clients.submit(() -> {
+                    try {
+                        slowRead(uri, rate, deadline);
+                    } catch (Exception e) {
+                        failed.incrementAndGet();
+                        errors.computeIfAbsent(e.getClass().getSimpleName(), k -> new AtomicInteger()).incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                });
+                // Ramp up over roughly 10 seconds rather than a SYN flood
+                if (i % 500 == 499) {
+                    Thread.sleep(1000);
+                }
+            }
+
+            long started = System.nanoTime();
+            while (!done.await(5, TimeUnit.SECONDS)) {
+                double seconds = (System.nanoTime() - started) / 1e9;
+                System.out.printf("t=%4.0fs connected=%d streaming=%d failed=%d aggregate=%.1f MB/s%n",
+                        seconds, connected.get(), streaming.get(), failed.get(),
+                        bytes.get() / seconds / 1_000_000);
+            }
+        }
+
+        System.out.println("---");
+        System.out.printf("streams=%d held=%d failed=%d bytes=%d%n", streams, completed.get(), failed.get(), bytes.get());
+        System.out.println("status lines: " + statuses);
+        System.out.println("errors: " + errors);
+        boolean passed = completed.get() >= streams * 0.99;
+        System.out.println(passed ? "PASS" : "FAIL");
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static void slowRead(URI uri, int rate, Instant deadline) throws IOException, InterruptedException {
+        int port = uri.getPort() > 0 ? uri.getPort() : 80;
+        try (Socket socket = new Socket()) {
+            // A small window so the server sees backpressure instead of filling kernel buffers
+            socket.setReceiveBufferSize(16 * 1024);
+            socket.connect(new InetSocketAddress(uri.getHost(), port), 10_000);
+            socket.setSoTimeout(60_000);
+            connected.incrementAndGet();
+
+            OutputStream out = socket.getOutputStream();
+            String path = uri.getRawPath() + (uri.getRawQuery() != null ? "?" + uri.getRawQuery() : "");
+            out.write(("GET " + path + " HTTP/1.1\r\n"
+                    + "Host: " + uri.getHost() + ":" + port + "\r\n"
+                    + "Range: bytes=0-\r\n"
+                    + "User-Agent: SlowReaderLoadTest\r\n"
+                    + "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            InputStream in = socket.getInputStream();
+            String status = readLine(in);
+            String code = status.length() >= 12 ? status.substring(9, 12) : status;
+            statuses.computeIfAbsent(code, k -> new AtomicInteger()).incrementAndGet();
+            if (!code.startsWith("2")) {
+                throw new IOException("HTTP " + code);
+            }
+            while (!readLine(in).isEmpty()) {
+                // skip response headers
+            }
+
+            streaming.incrementAndGet();
+            try {
+                byte[] buffer = new byte[Math.max(1, rate / 10)];
+                while (Instant.now().isBefore(deadline)) {
+                    int n = in.read(buffer);
+                    if (n < 0) {
+                        throw new IOException("Stream ended early");
+                    }
+                    bytes.addAndGet(n);
+                    Thread.sleep(Duration.ofMillis(Math.max(1, n * 1000L / rate)));
+                }
+                completed.incrementAndGet();
+            } finally {
+                streaming.decrementAndGet();
+            }
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) >= 0 && c != '\n') {
+            if (c != '\r') {
+                line.append((char) c);
+            }
+        }
+        if (c < 0 && line.isEmpty()) {
+            throw new IOException("Connection closed before response");
+        }
+        return line.toString();
+    }
+}
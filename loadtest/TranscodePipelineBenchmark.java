@@ -0,0 +1,123 @@
+import com.neu.finalproject.meskot.service.CompressionService;
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.bytedeco.javacv.Frame;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * End-to-end encode throughput, single grab/record loop against the staged pipeline.
+ *
+ * Both runs decode the same file and write the same H.264 + AAC output at the same size, CRF
+ * and preset; the sequential run is the loop CompressionService used before the decode, scale
+ * and encode stages were split. Each mode is run once to warm up and then timed, alternating,
+ * and fps is decoded video frames over wall-clock seconds. The figure that matters is the
+ * ratio, on the machine that will run the encodes; absolute fps depends on its cores.
+ *
+ * Run from a built tree, with the runtime classpath:
+ *
+ *   ./mvnw -q compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ *   java -cp "target/classes:$(cat target/cp.txt)" loadtest/TranscodePipelineBenchmark.java movie.mp4 720p 3
+ *
+ * Arguments: source video, output resolution (720p; "source" keeps the source size), timed
+ * runs per mode (3).
+ */
+public class TranscodePipelineBenchmark {
+
+    private static final int CRF = 23;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("usage: java TranscodePipelineBenchmark.java <video> [resolution] [runs]");
+            System.exit(2);
+        }
+        File input = new File(args[0]);
+        String resolution = args.length > 1 && !"source".equals(args[1]) ? args[1] : null;
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+        long frames = new CompressionService().getVideoInfo(input).totalFrames;
+        System.out.printf("%s, %d frames, to %s, %d runs per mode, %d cores%n", input.getName(), frames,
+                resolution != null ? resolution : "source size", runs, Runtime.getRuntime().availableProcessors());
+
+        sequential(input, resolution);
+        pipelined(input, resolution);
+        List<Double> sequentialFps = new ArrayList<>();
+        List<Double> pipelinedFps = new ArrayList<>();
+        for (int i = 0; i < runs; i++) {
+            sequentialFps.add(frames / sequential(input, resolution));
+            pipelinedFps.add(frames / pipelined(input, resolution));
+            System.out.printf("run %d: sequential %.1f fps, pipelined %.1f fps%n", i + 1,
+                    sequentialFps.get(i), pipelinedFps.get(i));
+        }
+
+        double sequential = median(sequentialFps);
+        double pipelined = median(pipelinedFps);
+        System.out.println("---");
+        System.out.printf("median: sequential %.1f fps, pipelined %.1f fps, speedup %.2fx%n",
+                sequential, pipelined, pipelined / sequential);
+    }
+
+    /** Seconds for the single-threaded grab/record loop. */
+    private static double sequential(File input, String resolution) throws Exception {
+        File output = File.createTempFile("bench-sequential", ".mp4");
+        long started = System.nanoTime();
+        FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(input);
+        grabber.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+        try {
+            grabber.start();
+            int height = resolution != null ? Integer.parseInt(resolution.replace("p", "")) : grabber.getImageHeight();
+            int width = (int) (height * (double) grabber.getImageWidth() / grabber.getImageHeight());
+            if (width % 2 != 0) width++;
+            if (height % 2 != 0) height++;
+            FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(output, width, height, grabber.getAudioChannels());
+            try {
+                recorder.setFormat("mp4");
+                recorder.setOption("movflags", "+faststart");
+                recorder.setFrameRate(grabber.getFrameRate());
+                recorder.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+                recorder.setVideoCodec(avcodec.AV_CODEC_ID_H264);
+                recorder.setAudioCodec(avcodec.AV_CODEC_ID_AAC);
+                if (grabber.getAudioChannels() > 0) {
+                    recorder.setSampleRate(grabber.getSampleRate());
+                    recorder.setAudioChannels(grabber.getAudioChannels());
+                }
+                recorder.setVideoOption("crf", String.valueOf(CRF));
+                recorder.setVideoOption("preset", "medium");
+                recorder.start();
+                Frame frame;
+                while ((frame = grabber.grab()) != null) {
+                    recorder.record(frame);
+                }
+            } finally {
+                recorder.stop();
+                recorder.release();
+            }
+        } finally {
+            grabber.stop();
+            grabber.release();
+        }
+        double seconds = (System.nanoTime() - started) / 1e9;
+        output.delete();
+        return seconds;
+    }
+
+    /** Seconds for the same encode through CompressionService's decode/scale/encode stages. */
+    private static double pipelined(File input, String resolution) throws Exception {
+        File output = File.createTempFile("bench-pipelined", ".mp4");
+        long started = System.nanoTime();
+        new CompressionService().compress(input, output, resolution, "h264", CRF, null);
+        double seconds = (System.nanoTime() - started) / 1e9;
+        output.delete();
+        return seconds;
+    }
+
+    private static double median(List<Double> values) {
+        List<Double> sorted = new ArrayList<>(values);
+        sorted.sort(null);
+        int mid = sorted.size() / 2;
+        return sorted.size() % 2 == 1 ? sorted.get(mid) : (sorted.get(mid - 1) + sorted.get(mid)) / 2;
+    }
+}
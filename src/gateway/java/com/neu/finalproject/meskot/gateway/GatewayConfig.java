@@ -0,0 +1,44 @@
+package com.neu.finalproject.meskot.gateway;
+
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.ServerResponse;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.springframework.web.reactive.function.server.RequestPredicates.GET;
+import static org.springframework.web.reactive.function.server.RequestPredicates.HEAD;
+import static org.springframework.web.reactive.function.server.RouterFunctions.route;
+
+@Configuration
+public class GatewayConfig {
+
+    /**
+     * Netty explicitly: Tomcat is on the classpath too (the services are shared with the MVC
+     * build) and would otherwise be picked as the reactive server.
+     */
+    @Bean
+    public NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+        return new NettyReactiveWebServerFactory();
+    }
+
+    /**
+     * Runs the blocking parts of a request (database lookup, remote stat, writing a body
+     * through the chunk cache) off the event loop. Virtual threads, so a viewer whose body
+     * writer is parked waiting for demand costs a few KB rather than a platform thread.
+     */
+    @Bean(name = "gatewayBlockingExecutor", destroyMethod = "close")
+    public ExecutorService gatewayBlockingExecutor() {
+        return Executors.newVirtualThreadPerTaskExecutor();
+    }
+
+    @Bean
+    public RouterFunction<ServerResponse> deliveryRoutes(ReactiveDeliveryHandler handler) {
+        return route(GET("/api/movies/{id}/stream"), handler::stream)
+                .andRoute(HEAD("/api/movies/{id}/stream"), handler::stream)
+                .andRoute(GET("/api/movies/{id}/download"), handler::download);
+    }
+}
@@ -0,0 +1,233 @@
+package com.neu.finalproject.meskot.gateway;
+
+import com.neu.finalproject.meskot.model.Movie;
+import com.neu.finalproject.meskot.service.InternetArchiveMovieService;
+import com.neu.finalproject.meskot.service.LocalRangeSource;
+import com.neu.finalproject.meskot.service.MovieService;
+import com.neu.finalproject.meskot.service.RangeRequestEngine;
+import com.neu.finalproject.meskot.service.RangeSource;
+import com.neu.finalproject.meskot.service.StreamScheduler;
+import org.reactivestreams.Publisher;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ZeroCopyHttpOutputMessage;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * /stream and /download on Reactor Netty. Status and headers come from the same
+ * {@link RangeRequestEngine} plan as the MVC endpoints, so ranges, validators and 304/416
+ * behave identically. Bodies are published as DataBuffers on demand: local files go out as
+ * zero-copy file regions and everything else is written through the range source into a
+ * publisher that only accepts bytes when the client has asked for more, so a stalled viewer
+ * holds one parked virtual thread and no buffered movie data.
+ */
+@Component
+public class ReactiveDeliveryHandler {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final MovieService movieService;
+    private final InternetArchiveMovieService iaMovieService;
+    private final RangeRequestEngine rangeRequestEngine;
+    private final StreamScheduler streamScheduler;
+    private final ExecutorService blockingExecutor;
+    private final Scheduler blockingScheduler;
+
+    // where transcoded downloads (?resolution=720p) are sent; they stay on the MVC app
+    @Value("${app.gateway.mvc-base-url:http://localhost:8080}")
+    private String mvcBaseUrl;
+
+    public ReactiveDeliveryHandler(MovieService movieService,
+                                   InternetArchiveMovieService iaMovieService,
+                                   RangeRequestEngine rangeRequestEngine,
+                                   StreamScheduler streamScheduler,
+                                   @Qualifier("gatewayBlockingExecutor") ExecutorService blockingExecutor) {
+        this.movieService = movieService;
+        this.iaMovieService = iaMovieService;
+        this.rangeRequestEngine = rangeRequestEngine;
+        this.streamScheduler = streamScheduler;
+        this.blockingExecutor = blockingExecutor;
+        this.blockingScheduler = Schedulers.fromExecutorService(blockingExecutor);
+    }
+
+    /**
+     * A planned response, or for Internet Archive downloads the archive.org URL to redirect to.
+     */
+    private record Delivery(RangeSource source, RangeRequestEngine.Plan plan, String redirect) {
+    }
+
+    public Mono<ServerResponse> stream(ServerRequest request) {
+        return deliver(request, StreamScheduler.StreamClass.PLAYBACK, HttpMethod.HEAD.equals(request.method()));
+    }
+
+    public Mono<ServerResponse> download(ServerRequest request) {
+        String resolution = request.queryParam("resolution").orElse("Original");
+        if (!"Original".equalsIgnoreCase(resolution)) {
+            URI uri = request.uri();
+            return ServerResponse.temporaryRedirect(URI.create(mvcBaseUrl + uri.getRawPath() + "?" + uri.getRawQuery()))
+                    .build();
+        }
+        return deliver(request, StreamScheduler.StreamClass.DOWNLOAD, false);
+    }
+
+    private Mono<ServerResponse> deliver(ServerRequest request, StreamScheduler.StreamClass streamClass,
+                                         boolean headOnly) {
+        Long id = parseId(request.pathVariable("id"));
+        if (id == null) {
+            return ServerResponse.badRequest().build();
+        }
+        boolean attachment = streamClass == StreamScheduler.StreamClass.DOWNLOAD;
+        HttpHeaders requestHeaders = request.headers().asHttpHeaders();
+        Double startSeconds = attachment ? null
+                : request.queryParam("t").map(ReactiveDeliveryHandler::parseSeconds).orElse(null);
+
+        return Mono.fromCallable(() -> prepare(id, requestHeaders, attachment, startSeconds))
+                .subscribeOn(blockingScheduler)
+                .flatMap(delivery -> respond(request, delivery, streamClass, headOnly))
+                .switchIfEmpty(Mono.defer(() -> ServerResponse.notFound().build()))
+                .onErrorResume(FileNotFoundException.class, e -> ServerResponse.notFound().build())
+                .onErrorResume(e -> {
+                    System.out.println("ERROR: Gateway failed to serve movie " + id + ": " + e.getMessage());
+                    return ServerResponse.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+                });
+    }
+
+    /**
+     * The blocking part: movie lookup, source resolution and the stat behind the plan.
+     * Returns null (an empty Mono) when the movie or its file doesn't exist.
+     */
+    private Delivery prepare(Long id, HttpHeaders requestHeaders, boolean attachment, Double startSeconds)
+            throws Exception {
+        Optional<Movie> movieOpt = movieService.getMovieById(id);
+        if (movieOpt.isEmpty()) {
+            return null;
+        }
+        Movie movie = movieOpt.get();
+
+        if (attachment && "INTERNET_ARCHIVE".equals(movie.getSourceType())) {
+            // archive.org handles ranges and validators itself
+            return new Delivery(null, null, iaMovieService.getMovieDownloadUrl(id));
+        }
+
+        RangeSource source = movieService.rangeSourceFor(movie);
+        if (source == null) {
+            return null;
+        }
+        HttpHeaders responseHeaders = new HttpHeaders();
+        responseHeaders.setCacheControl(movieService.cacheControlFor(movie.getSourceType()));
+        if (attachment) {
+            String filename = movie.getTitle().replaceAll("[^a-zA-Z0-9.-]", "_") + ".mp4";
+            responseHeaders.set(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"");
+        }
+        // ?t= becomes a range from the keyframe, exactly as on the MVC endpoint
+        HttpHeaders planHeaders = movieService.seekRequestHeaders(movie, source, requestHeaders, startSeconds, responseHeaders);
+        return new Delivery(source, rangeRequestEngine.plan(source, planHeaders, responseHeaders), null);
+    }
+
+    private Mono<ServerResponse> respond(ServerRequest request, Delivery delivery,
+                                         StreamScheduler.StreamClass streamClass, boolean headOnly) {
+        if (delivery.redirect() != null) {
+            return ServerResponse.status(HttpStatus.FOUND).location(URI.create(delivery.redirect())).build();
+        }
+        RangeRequestEngine.Plan plan = delivery.plan();
+        ServerResponse.BodyBuilder builder = ServerResponse.status(plan.status())
+                .headers(headers -> headers.addAll(plan.headers()));
+        if (headOnly || plan.ranges().isEmpty()) {
+            return builder.build();
+        }
+
+        // No login session here: the budget is keyed by address, forwarded only by a trusted proxy
+        String peer = request.remoteAddress()
+                .map(address -> address.getAddress() != null ? address.getAddress().getHostAddress() : address.getHostString())
+                .orElse(null);
+        List<String> forwarded = request.headers().header("X-Forwarded-For");
+        String client = streamScheduler.clientKey(null, peer, forwarded.isEmpty() ? null : String.join(",", forwarded));
+        return builder.body((message, context) -> write(message, delivery.source(), plan, streamClass, client));
+    }
+
+    /**
+     * Admit and send the body. Admission happens only once the body is subscribed, and the
+     * ticket is released when that subscription ends however it ends, so an exchange dropped
+     * before its body is written never holds a slot. Nothing is committed before the first
+     * write, so a refused stream can still be turned into a 503.
+     */
+    private Mono<Void> write(ServerHttpResponse message, RangeSource source, RangeRequestEngine.Plan plan,
+                             StreamScheduler.StreamClass streamClass, String client) {
+        return Mono.defer(() -> {
+            StreamScheduler.Ticket ticket = null;
+            if (streamScheduler.isEnabled()) {
+                ticket = streamScheduler.admit(streamClass, client);
+                if (ticket == null) {
+                    message.setStatusCode(HttpStatus.SERVICE_UNAVAILABLE);
+                    message.getHeaders().clear();
+                    message.getHeaders().set(HttpHeaders.RETRY_AFTER, String.valueOf(streamScheduler.getRetryAfterSeconds()));
+                    return message.setComplete();
+                }
+            }
+            StreamScheduler.Ticket admitted = ticket;
+            return writeBody(message, source, plan, admitted).doFinally(signal -> release(admitted));
+        });
+    }
+
+    private Mono<Void> writeBody(ServerHttpResponse message, RangeSource source, RangeRequestEngine.Plan plan,
+                                 StreamScheduler.Ticket ticket) {
+        if (source instanceof LocalRangeSource local && !plan.multipart()
+                && message instanceof ZeroCopyHttpOutputMessage zeroCopy) {
+            // Netty sends the file region itself; like sendfile in the MVC app it is charged up front, not paced
+            RangeRequestEngine.ByteRange range = plan.ranges().get(0);
+            if (ticket != null) {
+                ticket.charge(range.length());
+            }
+            return zeroCopy.writeWith(local.getPath(), range.start(), range.length());
+        }
+        Publisher<DataBuffer> body = DataBufferUtils.outputStreamPublisher(out -> {
+            try {
+                rangeRequestEngine.writeBody(source, plan, ticket != null ? ticket.wrap(out) : out);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, message.bufferFactory(), blockingExecutor, BUFFER_SIZE);
+        return message.writeWith(body);
+    }
+
+    private static Long parseId(String value) {
+        try {
+            return Long.valueOf(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static Double parseSeconds(String value) {
+        try {
+            return Double.valueOf(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static void release(StreamScheduler.Ticket ticket) {
+        if (ticket != null) {
+            ticket.close();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.neu.finalproject.meskot.gateway;
+
+import com.neu.finalproject.meskot.MeskotApplication;
+import com.neu.finalproject.meskot.config.WebMvcConfig;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.FilterType;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+
+/**
+ * Reactor Netty server for the hot delivery endpoints: /api/movies/{id}/stream and
+ * /api/movies/{id}/download. It shares the services, repositories and database with the
+ * Spring MVC application but none of its controllers, so catalog, upload and admin traffic
+ * stays on MVC while a proxy sends stream and download paths here.
+ *
+ * Built and run with the gateway Maven profile:
+ * ./mvnw -Pgateway spring-boot:run
+ */
+@SpringBootConfiguration
+@EnableAutoConfiguration
+@EntityScan("com.neu.finalproject.meskot.model")
+@EnableJpaRepositories("com.neu.finalproject.meskot.repository")
+@ComponentScan(basePackages = "com.neu.finalproject.meskot",
+        excludeFilters = {
+                @ComponentScan.Filter(type = FilterType.REGEX,
+                        pattern = "com\\.neu\\.finalproject\\.meskot\\.(controller|interceptor|security|ui)\\..*"),
+                @ComponentScan.Filter(type = FilterType.ASSIGNABLE_TYPE,
+                        classes = {MeskotApplication.class, WebMvcConfig.class})
+        })
+public class StreamingGatewayApplication {
+
+    public static void main(String[] args) {
+        SpringApplication app = new SpringApplication(StreamingGatewayApplication.class);
+        app.setWebApplicationType(WebApplicationType.REACTIVE);
+        app.setAdditionalProfiles("gateway");
+        app.run(args);
+    }
+}
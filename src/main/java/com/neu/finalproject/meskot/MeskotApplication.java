@@ -5,6 +5,7 @@ import com.neu.finalproject.meskot.ui.PlayerPresenter;
 import com.neu.finalproject.meskot.ui.VideoPlayerUI;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.ConfigurableApplicationContext;
 
 import javax.swing.*;
 
@@ -14,7 +15,11 @@ public class MeskotApplication {
 	public static void main(String[] args) {
 
         System.setProperty("java.awt.headless", "false");
-        SpringApplication.run(MeskotApplication.class, args);
+        ConfigurableApplicationContext context = SpringApplication.run(MeskotApplication.class, args);
+        // Headless encoding workers (--spring.profiles.active=worker) have no player window
+        if (!context.getEnvironment().getProperty("app.ui.enabled", Boolean.class, true)) {
+            return;
+        }
         //set the vlc path f
         SwingUtilities.invokeLater(() -> {
 
@@ -1,20 +1,27 @@
 package com.neu.finalproject.meskot.config;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.EnableAsync;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 import java.util.concurrent.Executor;
 
 @Configuration
 @EnableAsync
+@EnableScheduling
 public class AsyncConfig {
 
     /**
      * Defines a dedicated thread pool for CPU-intensive encoding tasks.
      * We give it a small, fixed size so it doesn't overwhelm the system,
      * and a large queue to hold pending uploads.
+     * These stay platform threads even in virtual-thread mode: encoding is CPU-bound and
+     * spends its time in native FFmpeg calls, which would pin a virtual thread anyway.
      */
     @Bean(name = "encodingTaskExecutor")
     public Executor encodingTaskExecutor() {
@@ -29,4 +36,73 @@ public class AsyncConfig {
         executor.initialize();
         return executor;
     }
-}
\ No newline at end of file
+
+    /**
+     * Segments of split encodes (SegmentedEncodingService). Kept apart from the encoding pool
+     * because the jobs running there wait on their segments: sharing one pool, a full set of
+     * waiting jobs would leave no thread to run the segments they wait for. Each job keeps at
+     * most this many of its segments in flight; the queue only holds other jobs' turns.
+     */
+    @Bean(name = "segmentTaskExecutor")
+    public ThreadPoolTaskExecutor segmentTaskExecutor(@Value("${app.encoding.split.threads:0}") int threads) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        int size = threads > 0 ? threads : Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+        executor.setCorePoolSize(size);
+        executor.setMaxPoolSize(size);
+        executor.setThreadNamePrefix("Segment-");
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * Threads that write StreamingResponseBody bodies for /stream. Each open stream holds a
+     * thread for as long as the client keeps reading, so this pool is sized for concurrent
+     * viewers rather than for CPU. With spring.threads.virtual.enabled every body gets its own
+     * virtual thread instead, so a slow reader costs a few KB of stack rather than a platform
+     * thread; admission is then left to the stream scheduler's open-stream ceiling.
+     */
+    @Bean(name = "streamingTaskExecutor")
+    public AsyncTaskExecutor streamingTaskExecutor(
+            @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads,
+            @Value("${app.streaming.max-threads:400}") int maxThreads) {
+        if (virtualThreads) {
+            SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("Streaming-");
+            executor.setVirtualThreads(true);
+            return executor;
+        }
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(Math.min(32, maxThreads));
+        executor.setMaxPoolSize(maxThreads);
+        executor.setQueueCapacity(0); // grow to max before rejecting instead of queueing viewers
+        executor.setThreadNamePrefix("Streaming-");
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * Background fetches of chunks ahead of a playing viewer. Bounded in both threads and queue:
+     * when it is full, read-ahead is skipped rather than competing with viewers' own reads.
+     * In virtual-thread mode the bound is a concurrency limit that rejects rather than blocks,
+     * since tasks are submitted from the streaming threads.
+     */
+    @Bean(name = "prefetchTaskExecutor")
+    public AsyncTaskExecutor prefetchTaskExecutor(
+            @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads,
+            @Value("${app.prefetch.max-threads:16}") int maxThreads,
+            @Value("${app.prefetch.queue-capacity:256}") int queueCapacity) {
+        if (virtualThreads) {
+            SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("Prefetch-");
+            executor.setVirtualThreads(true);
+            executor.setConcurrencyLimit(maxThreads);
+            executor.setRejectTasksWhenLimitReached(true);
+            return executor;
+        }
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(maxThreads);
+        executor.setMaxPoolSize(maxThreads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("Prefetch-");
+        executor.initialize();
+        return executor;
+    }
+}
@@ -2,17 +2,30 @@ package com.neu.finalproject.meskot.config;
 
 import com.neu.finalproject.meskot.interceptor.AuthenticationInterceptor;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 @Configuration
 public class WebMvcConfig implements WebMvcConfigurer {
     private final AuthenticationInterceptor authenticationInterceptor;
+    private final AsyncTaskExecutor streamingTaskExecutor;
 
     @Autowired
-    public WebMvcConfig(AuthenticationInterceptor authenticationInterceptor) {
+    public WebMvcConfig(AuthenticationInterceptor authenticationInterceptor,
+                        @Qualifier("streamingTaskExecutor") AsyncTaskExecutor streamingTaskExecutor) {
         this.authenticationInterceptor = authenticationInterceptor;
+        this.streamingTaskExecutor = streamingTaskExecutor;
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(streamingTaskExecutor);
+        // A movie stream can legitimately stay open for hours
+        configurer.setDefaultTimeout(-1);
     }
 
     @Override
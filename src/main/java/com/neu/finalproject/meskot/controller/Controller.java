@@ -4,20 +4,27 @@ import com.neu.finalproject.meskot.dto.MovieDto;
 import com.neu.finalproject.meskot.model.Movie;
 import com.neu.finalproject.meskot.model.UploadJob;
 import com.neu.finalproject.meskot.repository.MovieRepository;
+import com.neu.finalproject.meskot.interceptor.RequiresAdmin;
 import com.neu.finalproject.meskot.repository.UploadJobRepository;
+import com.neu.finalproject.meskot.service.EncodingJobQueue;
+import com.neu.finalproject.meskot.service.FaststartService;
 import com.neu.finalproject.meskot.service.InternetArchiveMovieService;
 import com.neu.finalproject.meskot.service.LocalStorageService;
+import com.neu.finalproject.meskot.service.MediaProbeService;
 import com.neu.finalproject.meskot.service.MovieService;
+import com.neu.finalproject.meskot.service.StreamScheduler;
+import com.neu.finalproject.meskot.service.TrickplayService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.Resource;
 import org.springframework.http.*;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.File;
+import java.net.URI;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -36,6 +43,10 @@ public class Controller {
     private final MovieService movieService;
     private final MovieRepository movieRepository;
     private final InternetArchiveMovieService iaMovieService;
+    private final StreamScheduler streamScheduler;
+    private final FaststartService faststartService;
+    private final MediaProbeService mediaProbeService;
+    private final EncodingJobQueue encodingJobQueue;
 
     // =========================================================================
     // MOVIE LISTING - All Sources
@@ -145,16 +156,145 @@ public class Controller {
     @Tag(name = "5. Streaming")
     @Operation(summary = "Stream a movie with range support")
     @GetMapping("/movies/{id}/stream")
-    public ResponseEntity<Resource> streamVideo(
+    public ResponseEntity<StreamingResponseBody> streamVideo(
             @PathVariable Long id,
-            @RequestHeader(value = "Range", required = false) String rangeHeader) {
+            @RequestParam(required = false) Double t,
+            @RequestHeader HttpHeaders headers) {
         try {
-            return movieService.streamMovie(id, rangeHeader);
+            return movieService.streamMovie(id, headers, false, t);
         } catch (Exception e) {
             return ResponseEntity.notFound().build();
         }
     }
 
+    @Tag(name = "5. Streaming")
+    @Operation(summary = "Stream headers only (length, range support) without opening the movie")
+    @RequestMapping(value = "/movies/{id}/stream", method = RequestMethod.HEAD)
+    public ResponseEntity<StreamingResponseBody> streamVideoHead(
+            @PathVariable Long id,
+            @RequestParam(required = false) Double t,
+            @RequestHeader HttpHeaders headers) {
+        try {
+            return movieService.streamMovie(id, headers, true, t);
+        } catch (Exception e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    @Tag(name = "5. Streaming")
+    @Operation(summary = "Byte offset of the keyframe at or before a time (seconds), from the keyframe index")
+    @GetMapping("/movies/{id}/seek")
+    public ResponseEntity<Map<String, Object>> seek(
+            @PathVariable Long id,
+            @RequestParam double t,
+            @RequestParam(required = false) String rendition) {
+        return movieService.seek(id, t, rendition);
+    }
+
+    @Tag(name = "5. Streaming")
+    @Operation(summary = "HLS master playlist listing every rendition of the ladder")
+    @GetMapping("/movies/{id}/hls/master.m3u8")
+    public ResponseEntity<StreamingResponseBody> hlsMaster(@PathVariable Long id, @RequestHeader HttpHeaders headers) {
+        return movieService.serveHlsMaster(id, headers);
+    }
+
+    @Tag(name = "5. Streaming")
+    @Operation(summary = "Poster picked at ingest; ?w= selects the smallest variant at least that wide")
+    @GetMapping("/movies/{id}/poster")
+    public ResponseEntity<StreamingResponseBody> poster(
+            @PathVariable Long id,
+            @RequestParam(required = false) Integer w,
+            @RequestHeader HttpHeaders headers) {
+        return movieService.servePoster(id, w, headers);
+    }
+
+    @Tag(name = "5. Streaming")
+    @Operation(summary = "Seek-preview thumbnails: redirects to the WebVTT index of sprite tiles")
+    @GetMapping("/movies/{id}/trickplay")
+    public ResponseEntity<Void> trickplay(@PathVariable Long id) {
+        // Relative, so the index's sprite references resolve under /trickplay/ as well
+        return ResponseEntity.status(HttpStatus.FOUND)
+                .location(URI.create("trickplay/" + TrickplayService.INDEX_NAME))
+                .build();
+    }
+
+    @Tag(name = "5. Streaming")
+    @Operation(summary = "Seek-preview WebVTT index or sprite sheet")
+    @GetMapping("/movies/{id}/trickplay/{file:.+}")
+    public ResponseEntity<StreamingResponseBody> trickplayFile(
+            @PathVariable Long id,
+            @PathVariable String file,
+            @RequestHeader HttpHeaders headers) {
+        return movieService.serveTrickplayFile(id, file, headers);
+    }
+
+    @Tag(name = "5. Streaming")
+    @Operation(summary = "HLS media playlist for one rendition")
+    @GetMapping("/movies/{id}/hls/{rendition}/index.m3u8")
+    public ResponseEntity<StreamingResponseBody> hlsPlaylist(
+            @PathVariable Long id,
+            @PathVariable String rendition,
+            @RequestHeader HttpHeaders headers) {
+        return movieService.serveHlsFile(id, rendition, "index.m3u8", headers);
+    }
+
+    @Tag(name = "5. Streaming")
+    @Operation(summary = "HLS init or media segment for one rendition")
+    @GetMapping("/movies/{id}/hls/{rendition}/{segment:.+}")
+    public ResponseEntity<StreamingResponseBody> hlsSegment(
+            @PathVariable Long id,
+            @PathVariable String rendition,
+            @PathVariable String segment,
+            @RequestHeader HttpHeaders headers) {
+        return movieService.serveHlsFile(id, rendition, segment, headers);
+    }
+
+    @Tag(name = "5. Streaming")
+    @Operation(summary = "Current stream admissions and bandwidth allocations")
+    @RequiresAdmin
+    @GetMapping("/admin/streaming/stats")
+    public ResponseEntity<Map<String, Object>> streamingStats() {
+        return ResponseEntity.ok(streamScheduler.snapshot());
+    }
+
+    @Tag(name = "5. Streaming")
+    @Operation(summary = "Rewrite stored MP4s so moov comes before the media data")
+    @RequiresAdmin
+    @PostMapping("/admin/faststart/backfill")
+    public ResponseEntity<Map<String, Object>> startFaststartBackfill() {
+        if (!faststartService.startBackfill()) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(faststartService.status());
+        }
+        return ResponseEntity.accepted().body(faststartService.status());
+    }
+
+    @Tag(name = "5. Streaming")
+    @Operation(summary = "Progress and per-object moov offsets of the faststart backfill")
+    @RequiresAdmin
+    @GetMapping("/admin/faststart/backfill")
+    public ResponseEntity<Map<String, Object>> faststartBackfillStatus() {
+        return ResponseEntity.ok(faststartService.status());
+    }
+
+    @Tag(name = "5. Streaming")
+    @Operation(summary = "Probe stored renditions and imports for duration, dimensions, codecs and bitrate")
+    @RequiresAdmin
+    @PostMapping("/admin/probe/backfill")
+    public ResponseEntity<Map<String, Object>> startProbeBackfill() {
+        if (!mediaProbeService.startBackfill()) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(mediaProbeService.status());
+        }
+        return ResponseEntity.accepted().body(mediaProbeService.status());
+    }
+
+    @Tag(name = "5. Streaming")
+    @Operation(summary = "Progress and per-object results of the probe backfill")
+    @RequiresAdmin
+    @GetMapping("/admin/probe/backfill")
+    public ResponseEntity<Map<String, Object>> probeBackfillStatus() {
+        return ResponseEntity.ok(mediaProbeService.status());
+    }
+
     // =========================================================================
     // DOWNLOAD
     // =========================================================================
@@ -162,9 +302,10 @@ public class Controller {
     @Tag(name = "6. Download")
     @Operation(summary = "Download a movie (optionally with resolution conversion)")
     @GetMapping("/movies/{id}/download")
-    public ResponseEntity<Resource> downloadMovie(
+    public ResponseEntity<?> downloadMovie(
             @PathVariable Long id,
-            @RequestParam(required = false, defaultValue = "Original") String resolution) {
+            @RequestParam(required = false, defaultValue = "Original") String resolution,
+            @RequestHeader HttpHeaders headers) {
 
         Optional<Movie> movieOpt = movieService.getMovieById(id);
         if (movieOpt.isEmpty()) {
@@ -175,11 +316,11 @@ public class Controller {
 
         // For original resolution or Internet Archive, use direct download
         if ("Original".equalsIgnoreCase(resolution)) {
-            return movieService.downloadMovie(id);
+            return movieService.downloadMovie(id, headers);
         }
 
         // For other resolutions, convert on-the-fly (synchronous)
-        return movieService.downloadMovieWithResolution(id, resolution);
+        return movieService.downloadMovieWithResolution(id, resolution, headers);
     }
 
     // =========================================================================
@@ -193,23 +334,34 @@ public class Controller {
             @RequestParam("file") MultipartFile file,
             @RequestParam("title") String title,
             @RequestParam(value = "resolution", defaultValue = "720p") String resolution,
-            @RequestParam(value = "sourceType", defaultValue = "LOCAL") String sourceType) {
+            @RequestParam(value = "sourceType", defaultValue = "LOCAL") String sourceType,
+            @RequestParam(value = "packaging", defaultValue = "mp4") String packaging,
+            @RequestParam(value = "priority", required = false) String priority) {
+        // A single conversion is someone waiting on it; a full HLS ladder is ingest
+        boolean packageHls = "hls".equalsIgnoreCase(packaging);
+        UploadJob.JobPriority jobPriority = packageHls ? UploadJob.JobPriority.BULK : UploadJob.JobPriority.INTERACTIVE;
+        if (priority != null) {
+            // Checked before the upload is saved, so a bad value leaves no temp file behind
+            try {
+                jobPriority = UploadJob.JobPriority.valueOf(priority.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().body(Map.of("error", "Unknown priority '" + priority
+                        + "'; expected one of " + Arrays.toString(UploadJob.JobPriority.values())));
+            }
+        }
+
         try {
+            // submit spools the file and deletes it, whether or not the spooling succeeds
             File tempFile = localStorageService.saveTempFile(file);
 
-            UploadJob job = new UploadJob();
-            String jobId = UUID.randomUUID().toString();
-            job.setId(jobId);
-            job.setStatus("PENDING");
-            job.setProgress(0);
-            uploadJobRepository.save(job);
-
-            // Pass source type to handle upload
-            movieService.handleUpload(tempFile, title, resolution, jobId, 1L, sourceType);
+            // Pass source type to handle upload; packaging=hls also produces an HLS package
+            UploadJob job = encodingJobQueue.submit(tempFile, title, resolution, 1L, sourceType, packageHls,
+                    jobPriority);
 
             Map<String, Object> response = new HashMap<>();
-            response.put("jobId", jobId);
+            response.put("jobId", job.getId());
             response.put("status", "PENDING");
+            response.put("priority", jobPriority);
             response.put("message", "Upload started");
 
             return ResponseEntity.accepted().body(response);
@@ -233,11 +385,21 @@ public class Controller {
                     response.put("progress", job.getProgress());
                     response.put("errorMessage", job.getErrorMessage());
                     response.put("resultingMovieId", job.getResultingMovieId());
+                    response.put("priority", job.getPriority());
+                    response.put("workerId", job.getWorkerId());
                     return ResponseEntity.ok(response);
                 })
                 .orElse(ResponseEntity.notFound().build());
     }
 
+    @Tag(name = "7. Upload")
+    @Operation(summary = "Encoding queue: this worker, all workers' leases and waiting jobs in dispatch order")
+    @RequiresAdmin
+    @GetMapping("/admin/jobs")
+    public ResponseEntity<Map<String, Object>> encodingQueue() {
+        return ResponseEntity.ok(encodingJobQueue.status());
+    }
+
     // =========================================================================
     // INTERNET ARCHIVE IMPORT
     // =========================================================================
@@ -19,6 +19,8 @@ public class MovieDto {
     private Integer releaseYear;
     private Integer durationMinutes;
     private String thumbnailUrl;
+    private boolean adaptive; // true when an HLS master playlist is available
+    private boolean trickplay; // true when seek-preview sprites are available
 
     // Default constructor
     public MovieDto() {
@@ -47,6 +49,7 @@ public class MovieDto {
         dto.setReleaseYear(movie.getReleaseYear());
         dto.setDurationMinutes(movie.getDurationMinutes());
         dto.setThumbnailUrl(movie.getThumbnailUrl());
+        dto.setTrickplay(movie.getTrickplayPath() != null);
 
         // Get metadata if available
         if (movie.getMetadataList() != null && !movie.getMetadataList().isEmpty()) {
@@ -54,6 +57,7 @@ public class MovieDto {
             dto.setResolution(meta.getResolution());
             dto.setSizeInBytes(meta.getSizeInBytes());
             dto.setFormat(meta.getFormat());
+            dto.setAdaptive(movie.getMetadataList().stream().anyMatch(m -> m.getHlsPath() != null));
         }
 
         return dto;
@@ -20,6 +20,7 @@ public class CacheEntry {
     private Long size;
     private LocalDateTime createdAt = LocalDateTime.now();
     private LocalDateTime expiresAt;
+    private LocalDateTime lastAccessedAt;   // drives LRU eviction of cached chunks
 
     @ManyToOne
     @JoinColumn(name = "metadata_id")
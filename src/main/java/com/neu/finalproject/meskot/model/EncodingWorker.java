@@ -0,0 +1,29 @@
+package com.neu.finalproject.meskot.model;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * A process that claims jobs from the upload_job queue. Its row is its lease: a worker whose
+ * heartbeat is older than the lease time is taken for dead and its jobs are put back.
+ */
+@Entity
+@Data
+public class EncodingWorker {
+
+    @Id
+    private String id;
+
+    private String host;
+
+    private int slots; // encodes it runs at once
+
+    private int activeJobs;
+
+    private LocalDateTime startedAt;
+
+    private LocalDateTime heartbeatAt; // database clock, so workers' own clocks never matter
+}
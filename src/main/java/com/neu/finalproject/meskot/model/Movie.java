@@ -29,6 +29,12 @@ public class Movie {
     @Column(name = "thumbnail_url")
     private String thumbnailUrl;
 
+    @Column(name = "poster_path")
+    private String posterPath; // storage key prefix of the generated poster variants, null if none
+
+    @Column(name = "trickplay_path")
+    private String trickplayPath; // storage key prefix of the seek-preview sprites, null if none
+
     @Column(name = "release_year")
     private Integer releaseYear;
 
@@ -27,6 +27,14 @@ public class MovieMetadata {
     private Integer bitrate;
     private LocalDateTime uploadDate = LocalDateTime.now();
     private Long sizeInBytes;
+    private String hlsPath;           // storage key prefix of the HLS package, null if not packaged
+    private String keyframeIndexPath; // storage key of the keyframe index sidecar, null if not indexed
+    private Integer width;
+    private Integer height;
+    private Double frameRate;
+    private String audioCodec;
+    private Integer audioChannels;
+    private Integer sampleRate;
 
     @ManyToOne
     @JoinColumn(name = "movie_id")
@@ -0,0 +1,42 @@
+package com.neu.finalproject.meskot.model;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.Setter;
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "remote_object_metadata",
+        uniqueConstraints = @UniqueConstraint(columnNames = {"source_type", "object_key"}))
+@Getter
+@Setter
+public class RemoteObjectMetadata {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    // INTERNET_ARCHIVE or SUPABASE
+    @Column(nullable = false)
+    private String sourceType;
+
+    // "item/file" for Internet Archive, the bucket key for Supabase
+    @Column(nullable = false, length = 1024)
+    private String objectKey;
+
+    private Long size;
+
+    // epoch millis, null if the remote didn't say
+    private Long lastModified;
+
+    private String etag;
+
+    private String contentType;
+
+    // final URL after redirects (Internet Archive data node)
+    @Column(length = 2048)
+    private String resolvedUrl;
+
+    private LocalDateTime fetchedAt = LocalDateTime.now();
+    private LocalDateTime expiresAt;
+}
@@ -1,13 +1,24 @@
 package com.neu.finalproject.meskot.model;
 
 import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
 import jakarta.persistence.Id;
 import lombok.Data;
 
+import java.time.LocalDateTime;
+
 @Entity
 @Data // From Lombok
 public class UploadJob {
 
+    /**
+     * Queue class of a job. Every interactive job is dispatched before any bulk one.
+     */
+    public enum JobPriority {
+        INTERACTIVE, BULK
+    }
+
     @Id
     private String id;
 
@@ -18,4 +29,24 @@ public class UploadJob {
     private Long resultingMovieId; // The ID of the movie once complete
 
     private String errorMessage; // If it failed
-}
\ No newline at end of file
+
+    // What to encode, kept on the row so a job can be re-run after a restart
+    private String sourcePath; // spooled upload (a spool storage key), deleted when the job finishes
+    private String title;
+    private String resolution;
+    private String sourceType;
+    private Boolean packageHls;
+    private Long uploaderId;
+
+    @Enumerated(EnumType.STRING)
+    private JobPriority priority;
+
+    private Double estimatedCost; // megapixels to decode and encode; shortest first within a class
+
+    private Integer attempts; // dispatches so far, including ones cut short by a restart
+
+    private String workerId; // the EncodingWorker running it while ENCODING
+
+    private LocalDateTime createdAt;
+    private LocalDateTime startedAt;
+}
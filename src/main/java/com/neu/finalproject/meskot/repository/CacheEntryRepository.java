@@ -4,6 +4,10 @@ package com.neu.finalproject.meskot.repository;
 import com.neu.finalproject.meskot.model.CacheEntry;
 import com.neu.finalproject.meskot.model.MovieMetadata;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 import java.util.List;
 import java.util.Optional;
 
@@ -11,4 +15,10 @@ public interface CacheEntryRepository extends JpaRepository<CacheEntry, Long> {
     List<CacheEntry> findByMovieMetadata(MovieMetadata metadata);
     Optional<CacheEntry> findByCacheKey(String cacheKey);
     void deleteByExpiresAtBefore(java.time.LocalDateTime t);
+    List<CacheEntry> findByCacheKeyStartingWith(String prefix);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE CacheEntry e SET e.lastAccessedAt = :accessedAt WHERE e.id IN :ids")
+    int touch(@Param("ids") List<Long> ids, @Param("accessedAt") java.time.LocalDateTime accessedAt);
 }
@@ -0,0 +1,34 @@
+package com.neu.finalproject.meskot.repository;
+
+import com.neu.finalproject.meskot.model.EncodingWorker;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+@Repository
+public interface EncodingWorkerRepository extends JpaRepository<EncodingWorker, String> {
+
+    /**
+     * Register a worker, or renew its lease if it is already registered.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO encoding_worker (id, host, slots, active_jobs, started_at, heartbeat_at)"
+            + " VALUES (:id, :host, :slots, :activeJobs, LOCALTIMESTAMP, LOCALTIMESTAMP)"
+            + " ON CONFLICT (id) DO UPDATE SET host = :host, slots = :slots, active_jobs = :activeJobs,"
+            + " heartbeat_at = LOCALTIMESTAMP", nativeQuery = true)
+    int heartbeat(@Param("id") String id, @Param("host") String host, @Param("slots") int slots,
+                  @Param("activeJobs") int activeJobs);
+
+    /**
+     * Forget workers that have been silent for more than the given seconds.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "DELETE FROM encoding_worker"
+            + " WHERE heartbeat_at < LOCALTIMESTAMP - make_interval(secs => :seconds)", nativeQuery = true)
+    int deleteSilentFor(@Param("seconds") int seconds);
+}
@@ -0,0 +1,16 @@
+package com.neu.finalproject.meskot.repository;
+
+import com.neu.finalproject.meskot.model.RemoteObjectMetadata;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+public interface RemoteObjectMetadataRepository extends JpaRepository<RemoteObjectMetadata, Long> {
+    Optional<RemoteObjectMetadata> findBySourceTypeAndObjectKey(String sourceType, String objectKey);
+    List<RemoteObjectMetadata> findByExpiresAtAfterOrderByFetchedAtDesc(LocalDateTime t, Pageable pageable);
+    List<RemoteObjectMetadata> findAllByOrderByFetchedAtAsc(Pageable pageable);
+    void deleteBySourceTypeAndObjectKey(String sourceType, String objectKey);
+    void deleteByExpiresAtBefore(LocalDateTime t);
+}
@@ -2,8 +2,96 @@ package com.neu.finalproject.meskot.repository;
 
 import com.neu.finalproject.meskot.model.UploadJob;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface UploadJobRepository extends JpaRepository<UploadJob, String> {
-}
\ No newline at end of file
+
+    /**
+     * Interactive before bulk; within a class, jobs waiting longer than :maxWaitMinutes first,
+     * then shortest estimated encode, then oldest.
+     */
+    String DISPATCH_ORDER = " ORDER BY CASE WHEN priority = 'INTERACTIVE' THEN 0 ELSE 1 END,"
+            + " CASE WHEN created_at < LOCALTIMESTAMP - make_interval(mins => :maxWaitMinutes) THEN 0 ELSE 1 END,"
+            + " estimated_cost ASC NULLS LAST, created_at ASC NULLS LAST";
+
+    List<UploadJob> findByStatus(String status);
+
+    @Query(value = "SELECT * FROM upload_job WHERE status = 'PENDING' AND source_path IS NOT NULL"
+            + DISPATCH_ORDER, nativeQuery = true)
+    List<UploadJob> findPendingInDispatchOrder(@Param("maxWaitMinutes") int maxWaitMinutes);
+
+    /**
+     * The next job to dispatch, row-locked until the calling transaction ends. Rows another
+     * worker is claiming at the same moment are skipped instead of waited on, so any number of
+     * workers can poll at once and never get the same job.
+     */
+    @Query(value = "SELECT * FROM upload_job WHERE status = 'PENDING' AND source_path IS NOT NULL"
+            + DISPATCH_ORDER + " LIMIT 1 FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    Optional<UploadJob> lockNextPending(@Param("maxWaitMinutes") int maxWaitMinutes);
+
+    /**
+     * ENCODING jobs whose worker is gone or has not renewed its lease within :leaseSeconds,
+     * locked for reclaiming. Rows another process is reclaiming or completing at the moment are
+     * skipped. A running encode holds no lock on its row, so a worker that is only slow can
+     * lose its job here; its later writes are fenced on worker_id and attempts and change
+     * nothing.
+     */
+    @Query(value = "SELECT j.* FROM upload_job j LEFT JOIN encoding_worker w ON w.id = j.worker_id"
+            + " WHERE j.status = 'ENCODING'"
+            + " AND (w.id IS NULL OR w.heartbeat_at < LOCALTIMESTAMP - make_interval(secs => :leaseSeconds))"
+            + " FOR UPDATE OF j SKIP LOCKED", nativeQuery = true)
+    List<UploadJob> lockOrphaned(@Param("leaseSeconds") int leaseSeconds);
+
+    /**
+     * Stamp a new job's created_at from the database clock, the one the dispatch order's
+     * max-wait test reads.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE upload_job SET created_at = LOCALTIMESTAMP WHERE id = :id", nativeQuery = true)
+    int stampCreatedAt(@Param("id") String id);
+
+    /**
+     * Record progress if :workerId still runs attempt :attempts of the job; 0 rows once it has
+     * been reclaimed.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE upload_job SET progress = :progress"
+            + " WHERE id = :id AND status = 'ENCODING' AND worker_id = :workerId AND attempts = :attempts",
+            nativeQuery = true)
+    int updateProgressIfOwned(@Param("id") String id, @Param("workerId") String workerId,
+                              @Param("attempts") int attempts, @Param("progress") int progress);
+
+    /**
+     * Complete the job if :workerId still runs attempt :attempts of it. Joins the caller's
+     * transaction, so the job and the movie it produced commit together or not at all.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE upload_job SET status = 'COMPLETED', progress = 100, resulting_movie_id = :movieId,"
+            + " error_message = NULL"
+            + " WHERE id = :id AND status = 'ENCODING' AND worker_id = :workerId AND attempts = :attempts",
+            nativeQuery = true)
+    int completeIfOwned(@Param("id") String id, @Param("workerId") String workerId,
+                        @Param("attempts") int attempts, @Param("movieId") Long movieId);
+
+    /**
+     * Fail the job if :workerId still runs attempt :attempts of it.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE upload_job SET status = 'FAILED', error_message = :errorMessage"
+            + " WHERE id = :id AND status = 'ENCODING' AND worker_id = :workerId AND attempts = :attempts",
+            nativeQuery = true)
+    int failIfOwned(@Param("id") String id, @Param("workerId") String workerId,
+                    @Param("attempts") int attempts, @Param("errorMessage") String errorMessage);
+}
@@ -7,7 +7,7 @@ import jakarta.servlet.http.HttpSession;
 
 @Component
 public class SessionManager {
-    private static final String USER_SESSION_ATTR = "CURRENT_USER";
+    public static final String USER_SESSION_ATTR = "CURRENT_USER";
     private static final int SESSION_TIMEOUT_SECONDS = 30 * 60; // 30 minutes
 
     private final HttpSession httpSession;
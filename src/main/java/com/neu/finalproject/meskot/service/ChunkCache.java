@@ -0,0 +1,443 @@
+package com.neu.finalproject.meskot.service;
+
+import com.neu.finalproject.meskot.model.CacheEntry;
+import com.neu.finalproject.meskot.repository.CacheEntryRepository;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Read-through disk cache for remote movie bytes, in fixed-size chunks.
+ *
+ * A range read is split on chunk boundaries; chunks already on disk are sent from there and
+ * missing ones are fetched from the backend with one ranged read each, written to disk, then
+ * sent. Every chunk is recorded in cache_entries (key "chunk:{source}:{version}:{index}") so
+ * the cache survives restarts. The version hashes the object key, size and modification time,
+ * so a changed object never serves stale chunks; the old ones simply age out.
+ *
+ * Concurrent misses on the same chunk are coalesced: the first reader fetches it and the rest
+ * wait for that fill, so upstream traffic for a popular title grows with the number of
+ * distinct chunks read rather than with the number of viewers. The coalesced fill is the chunk
+ * file itself, so this only happens with the cache enabled; with it off every range goes
+ * straight to the backend and concurrent viewers each fetch their own bytes.
+ *
+ * Disk use is capped by a byte budget. When it is exceeded the least recently read chunks are
+ * deleted first.
+ */
+@Service
+public class ChunkCache {
+
+    private static final String KEY_PREFIX = "chunk:";
+
+    @Value("${app.chunk-cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.chunk-cache.chunk-size-bytes:4194304}")
+    private long chunkSize;
+
+    @Value("${app.chunk-cache.dir:./data/chunk-cache}")
+    private String cacheDir;
+
+    @Value("${app.chunk-cache.max-bytes:10737418240}")
+    private long maxBytes;
+
+    private final CacheEntryRepository cacheEntryRepository;
+
+    private final Map<String, Chunk> chunks = new ConcurrentHashMap<>();
+    // ids whose last access hasn't been written back yet
+    private final Set<Long> touched = ConcurrentHashMap.newKeySet();
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong prefetches = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    // fills in progress, keyed like chunks; later readers of the same chunk wait on these
+    private final Map<String, CompletableFuture<Path>> inflight = new ConcurrentHashMap<>();
+    // a ReentrantLock rather than synchronized: eviction does file and database I/O, which would
+    // pin a virtual thread to its carrier for the whole pass
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    public ChunkCache(CacheEntryRepository cacheEntryRepository) {
+        this.cacheEntryRepository = cacheEntryRepository;
+    }
+
+    private static final class Chunk {
+        final Long entryId;
+        final Path path;
+        final long size;
+        volatile long lastAccess;
+
+        Chunk(Long entryId, Path path, long size, long lastAccess) {
+            this.entryId = entryId;
+            this.path = path;
+            this.size = size;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    /**
+     * Rebuild the in-memory index from cache_entries, dropping rows whose file is gone.
+     */
+    @PostConstruct
+    public void load() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            for (CacheEntry entry : cacheEntryRepository.findByCacheKeyStartingWith(KEY_PREFIX)) {
+                Path path = Paths.get(entry.getPath());
+                if (!Files.exists(path) || entry.getSize() == null || Files.size(path) != entry.getSize()) {
+                    cacheEntryRepository.delete(entry);
+                    Files.deleteIfExists(path);
+                    continue;
+                }
+                LocalDateTime accessed = entry.getLastAccessedAt() != null ? entry.getLastAccessedAt() : entry.getCreatedAt();
+                long lastAccess = accessed != null ? accessed.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli() : 0;
+                chunks.put(entry.getCacheKey(), new Chunk(entry.getId(), path, entry.getSize(), lastAccess));
+                usedBytes.addAndGet(entry.getSize());
+            }
+            System.out.println("Chunk cache loaded: " + chunks.size() + " chunks, " + usedBytes.get() + " bytes");
+        } catch (DataAccessException | IOException e) {
+            System.out.println("Chunk cache starting empty: " + e.getMessage());
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Write bytes [start, end] of a remote object to the client, going through the cache.
+     */
+    public void writeRange(String sourceType, StorageService storage, String objectKey, StorageService.ObjectStat stat,
+                           long start, long end, OutputStream out) throws IOException {
+        writeRange(sourceType, storage, objectKey, stat, start, end, out, null);
+    }
+
+    /**
+     * As above, reporting the reads to a read-ahead session so it can prefetch what follows.
+     */
+    public void writeRange(String sourceType, StorageService storage, String objectKey, StorageService.ObjectStat stat,
+                           long start, long end, OutputStream out, ReadAheadPrefetcher.Session readAhead)
+            throws IOException {
+        String version = version(sourceType, objectKey, stat);
+        WritableByteChannel target = Channels.newChannel(out);
+        long first = start / chunkSize;
+        long last = end / chunkSize;
+        ReadAheadPrefetcher.Session.Cursor cursor = readAhead != null ? readAhead.rangeStarted(start) : null;
+        for (long index = first; index <= last; index++) {
+            long chunkStart = index * chunkSize;
+            long from = Math.max(start, chunkStart) - chunkStart;
+            long to = Math.min(end, chunkStart + chunkSize - 1) - chunkStart;
+            try (FileChannel channel = open(sourceType, storage, objectKey, stat, version, index)) {
+                if (cursor != null) {
+                    // Before the transfer, so the next chunks load while this one drains to the client
+                    cursor.chunkRead(stat, version, index, chunkStart + to);
+                }
+                long position = from;
+                long remaining = to - from + 1;
+                while (remaining > 0) {
+                    long written = channel.transferTo(position, remaining, target);
+                    if (written <= 0) {
+                        break;
+                    }
+                    position += written;
+                    remaining -= written;
+                }
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Open a cached chunk for reading, fetching it from the backend first if it isn't on disk.
+     * The channel is open before this returns, so eviction deleting the file afterwards cannot
+     * cut a response short; a chunk evicted between the lookup and the open is fetched again.
+     */
+    FileChannel open(String sourceType, StorageService storage, String objectKey, StorageService.ObjectStat stat,
+                     String version, long index) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            Path path = chunk(sourceType, storage, objectKey, stat, version, index);
+            try {
+                return FileChannel.open(path, StandardOpenOption.READ);
+            } catch (NoSuchFileException e) {
+                if (attempt > 0) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Path of a cached chunk, fetching it from the backend first if it isn't on disk.
+     */
+    private Path chunk(String sourceType, StorageService storage, String objectKey, StorageService.ObjectStat stat,
+                       String version, long index) throws IOException {
+        String key = KEY_PREFIX + sourceType + ":" + version + ":" + index;
+        Chunk cached = chunks.get(key);
+        if (cached != null) {
+            if (Files.exists(cached.path)) {
+                cached.lastAccess = System.currentTimeMillis();
+                if (cached.entryId != null) {
+                    touched.add(cached.entryId);
+                }
+                hits.incrementAndGet();
+                return cached.path;
+            }
+            forget(key, cached);
+        }
+        misses.incrementAndGet();
+        return fetch(key, storage, objectKey, stat, version, index, null);
+    }
+
+    /**
+     * Fetch a chunk into the cache ahead of a reader. Does nothing if it is already cached.
+     * The upstream stream is handed to {@code onUpstream} once open, so the caller can close it
+     * to abort the transfer.
+     */
+    void prefetch(String sourceType, StorageService storage, String objectKey, StorageService.ObjectStat stat,
+                  String version, long index, Consumer<Closeable> onUpstream) throws IOException {
+        String key = KEY_PREFIX + sourceType + ":" + version + ":" + index;
+        Chunk cached = chunks.get(key);
+        if (cached != null && Files.exists(cached.path)) {
+            return;
+        }
+        if (fetch(key, storage, objectKey, stat, version, index, onUpstream) != null) {
+            prefetches.incrementAndGet();
+        }
+    }
+
+    /**
+     * Fill a chunk, or wait for the fill already in flight for it, so concurrent readers of a
+     * chunk share one upstream transfer. A waiter whose fill fails (for example a prefetch
+     * cancelled by a seek) tries once more itself before giving up.
+     *
+     * @param onUpstream set for prefetches, which never wait: if the chunk is already being
+     *                   fetched they return null straight away
+     */
+    private Path fetch(String key, StorageService storage, String objectKey, StorageService.ObjectStat stat,
+                       String version, long index, Consumer<Closeable> onUpstream) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            CompletableFuture<Path> flight = new CompletableFuture<>();
+            CompletableFuture<Path> leader = inflight.putIfAbsent(key, flight);
+            if (leader == null) {
+                try {
+                    // The previous fill may have finished between our miss and taking the lead
+                    Chunk cached = chunks.get(key);
+                    Path path = cached != null && Files.exists(cached.path)
+                            ? cached.path
+                            : fill(key, storage, objectKey, stat, version, index, onUpstream);
+                    flight.complete(path);
+                    return path;
+                } catch (IOException | RuntimeException e) {
+                    // Out of the map before the waiters wake, so their retry starts a new fill
+                    // instead of rejoining this failed one
+                    inflight.remove(key, flight);
+                    flight.completeExceptionally(e);
+                    throw e;
+                } finally {
+                    inflight.remove(key, flight);
+                }
+            }
+            if (onUpstream != null) {
+                return null;
+            }
+            coalesced.incrementAndGet();
+            try {
+                return leader.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for chunk " + index + " of " + objectKey);
+            } catch (ExecutionException e) {
+                if (attempt > 0) {
+                    Throwable cause = e.getCause();
+                    throw cause instanceof IOException io ? io : new IOException(cause);
+                }
+            }
+        }
+    }
+
+    private Path fill(String key, StorageService storage, String objectKey, StorageService.ObjectStat stat,
+                      String version, long index, Consumer<Closeable> onUpstream) throws IOException {
+        long chunkStart = index * chunkSize;
+        long chunkEnd = Math.min(stat.size(), chunkStart + chunkSize) - 1;
+        Path dir = Paths.get(cacheDir, version);
+        Files.createDirectories(dir);
+        Path path = dir.resolve(index + ".chunk");
+        Path temp = Files.createTempFile(dir, index + "-", ".part");
+        try {
+            try (InputStream in = storage.openRange(objectKey, chunkStart, chunkEnd)) {
+                if (onUpstream != null) {
+                    onUpstream.accept(in);
+                }
+                Files.copy(in, temp, StandardCopyOption.REPLACE_EXISTING);
+            }
+            long size = Files.size(temp);
+            if (size != chunkEnd - chunkStart + 1) {
+                throw new IOException("Short read filling chunk " + index + " of " + objectKey
+                        + ": " + size + " of " + (chunkEnd - chunkStart + 1) + " bytes");
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+
+        long size = chunkEnd - chunkStart + 1;
+        Long entryId = null;
+        try {
+            CacheEntry entry = cacheEntryRepository.findByCacheKey(key).orElseGet(CacheEntry::new);
+            entry.setCacheKey(key);
+            entry.setPath(path.toAbsolutePath().toString());
+            entry.setSize(size);
+            entry.setCreatedAt(LocalDateTime.now());
+            entry.setLastAccessedAt(LocalDateTime.now());
+            entryId = cacheEntryRepository.save(entry).getId();
+        } catch (DataAccessException e) {
+            // Still usable for this process; it just won't survive a restart
+            System.out.println("Could not record chunk " + key + ": " + e.getMessage());
+        }
+
+        Chunk previous = chunks.put(key, new Chunk(entryId, path, size, System.currentTimeMillis()));
+        usedBytes.addAndGet(previous == null ? size : size - previous.size);
+        evictIfNeeded(key);
+        return path;
+    }
+
+    /**
+     * Delete least recently read chunks until the cache is back under its byte budget. The
+     * chunk just filled is kept even if its access time ties with the oldest: its reader is
+     * about to open it.
+     */
+    private void evictIfNeeded(String justFilled) {
+        if (usedBytes.get() <= maxBytes) {
+            return;
+        }
+        evictionLock.lock();
+        try {
+            if (usedBytes.get() <= maxBytes) {
+                return;
+            }
+            List<Map.Entry<String, Chunk>> byAge = new ArrayList<>(chunks.entrySet());
+            byAge.sort(Comparator.comparingLong(e -> e.getValue().lastAccess));
+            // Free a little more than needed so a burst of fills doesn't evict on every chunk
+            long target = maxBytes - maxBytes / 20;
+            for (Map.Entry<String, Chunk> e : byAge) {
+                if (usedBytes.get() <= target) {
+                    break;
+                }
+                if (!e.getKey().equals(justFilled)) {
+                    forget(e.getKey(), e.getValue());
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private void forget(String key, Chunk chunk) {
+        if (!chunks.remove(key, chunk)) {
+            return;
+        }
+        usedBytes.addAndGet(-chunk.size);
+        try {
+            Files.deleteIfExists(chunk.path);
+        } catch (IOException ignored) {
+        }
+        if (chunk.entryId != null) {
+            touched.remove(chunk.entryId);
+            try {
+                cacheEntryRepository.deleteById(chunk.entryId);
+            } catch (DataAccessException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Write recent access times back so LRU order survives a restart.
+     */
+    @Scheduled(fixedDelayString = "${app.chunk-cache.flush-ms:60000}")
+    public void flushAccessTimes() {
+        if (touched.isEmpty()) {
+            return;
+        }
+        List<Long> ids = new ArrayList<>(touched);
+        touched.removeAll(ids);
+        try {
+            cacheEntryRepository.touch(ids, LocalDateTime.now());
+        } catch (DataAccessException e) {
+            System.out.println("Could not record chunk access times: " + e.getMessage());
+        }
+    }
+
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getPrefetchCount() {
+        return prefetches.get();
+    }
+
+    /**
+     * Misses that waited on another reader's fill instead of going upstream.
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    private static String version(String sourceType, String objectKey, StorageService.ObjectStat stat) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest((sourceType + "|" + objectKey + "|" + stat.size() + "|" + stat.lastModified())
+                    .getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
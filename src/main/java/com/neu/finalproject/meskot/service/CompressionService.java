@@ -6,6 +6,7 @@ import org.bytedeco.javacv.*;
 import org.springframework.stereotype.Service;
 
 import java.io.File;
+import java.util.List;
 import java.util.function.Consumer;
 
 /**
@@ -44,7 +45,6 @@ public class CompressionService {
             grabber.start();
 
             long totalFrames = grabber.getLengthInFrames();
-            int currentFrame = 0;
 
             // Calculate target dimensions
             int targetWidth = grabber.getImageWidth();
@@ -62,67 +62,32 @@ public class CompressionService {
 
             System.out.println("Output dimensions: " + targetWidth + "x" + targetHeight);
 
-            FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(
-                    outputFile, targetWidth, targetHeight, grabber.getAudioChannels()
-            );
-
-            try {
-                // Configure recorder
-                recorder.setFormat("mp4");
-                recorder.setFrameRate(grabber.getFrameRate());
-                recorder.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
-
-                // Set video codec
-                if ("h265".equalsIgnoreCase(codec)) {
-                    recorder.setVideoCodec(avcodec.AV_CODEC_ID_HEVC);
-                } else {
-                    recorder.setVideoCodec(avcodec.AV_CODEC_ID_H264);
-                }
-
-                // Set audio codec
-                recorder.setAudioCodec(avcodec.AV_CODEC_ID_AAC);
-                if (grabber.getAudioChannels() > 0) {
-                    recorder.setSampleRate(grabber.getSampleRate());
-                    recorder.setAudioChannels(grabber.getAudioChannels());
-                }
-
-                // Set quality
-                recorder.setVideoOption("crf", String.valueOf(crf));
-                recorder.setVideoOption("preset", "medium");
-
-                recorder.start();
-
-                System.out.println("Encoding started...");
-
-                // Process frames
-                Frame frame;
-                int lastReportedPercent = -1;
-
-                while ((frame = grabber.grab()) != null) {
-                    recorder.record(frame);
-                    currentFrame++;
-
-                    // Report progress
-                    if (totalFrames > 0 && currentFrame % 30 == 0) {
-                        int percent = (int) (((double) currentFrame / totalFrames) * 100);
-                        if (percent != lastReportedPercent && progressCallback != null) {
-                            progressCallback.accept(percent);
-                            lastReportedPercent = percent;
+            FramePipeline.Branch output = new CompressionBranch(outputFile, targetWidth, targetHeight, codec, crf);
+            System.out.println("Encoding started...");
+
+            // Decode, scale and encode run as separate stages; progress is reported from
+            // this thread as frames are decoded, throttled by the encoder
+            int[] lastReportedPercent = {-1};
+            new FramePipeline(FramePipeline.DEFAULT_QUEUE_FRAMES).run(grabber, 0, Long.MAX_VALUE, List.of(output),
+                    currentFrame -> {
+                        if (totalFrames > 0 && currentFrame % 30 == 0) {
+                            int percent = (int) (((double) currentFrame / totalFrames) * 100);
+                            if (percent != lastReportedPercent[0] && progressCallback != null) {
+                                progressCallback.accept(percent);
+                                lastReportedPercent[0] = percent;
+                            }
                         }
-                    }
-                }
-
-                // Final progress update
-                if (progressCallback != null) {
-                    progressCallback.accept(100);
-                }
-
-                System.out.println("Encoding complete!");
+                    });
+            if (output.isFailed()) {
+                throw output.getFailure();
+            }
 
-            } finally {
-                recorder.stop();
-                recorder.release();
+            // Final progress update
+            if (progressCallback != null) {
+                progressCallback.accept(100);
             }
+
+            System.out.println("Encoding complete!");
         } finally {
             grabber.stop();
             grabber.release();
@@ -131,6 +96,80 @@ public class CompressionService {
         return outputFile;
     }
 
+    /**
+     * The compressed output: HEVC or H.264 at the requested CRF plus AAC audio.
+     */
+    private static class CompressionBranch extends FramePipeline.Branch {
+        private final File outputFile;
+        private final int width;
+        private final int height;
+        private final String codec;
+        private final int crf;
+        private FFmpegFrameRecorder recorder;
+
+        CompressionBranch(File outputFile, int width, int height, String codec, int crf) {
+            super("compress");
+            this.outputFile = outputFile;
+            this.width = width;
+            this.height = height;
+            this.codec = codec;
+            this.crf = crf;
+        }
+
+        @Override
+        int[] outputSize(FFmpegFrameGrabber source) {
+            return new int[]{width, height};
+        }
+
+        @Override
+        void open(FFmpegFrameGrabber grabber) throws Exception {
+            recorder = new FFmpegFrameRecorder(outputFile, width, height, grabber.getAudioChannels());
+
+            // Configure recorder
+            recorder.setFormat("mp4");
+            recorder.setOption("movflags", "+faststart");
+            recorder.setFrameRate(grabber.getFrameRate());
+            recorder.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+
+            // Set video codec
+            if ("h265".equalsIgnoreCase(codec)) {
+                recorder.setVideoCodec(avcodec.AV_CODEC_ID_HEVC);
+            } else {
+                recorder.setVideoCodec(avcodec.AV_CODEC_ID_H264);
+            }
+
+            // Set audio codec
+            recorder.setAudioCodec(avcodec.AV_CODEC_ID_AAC);
+            if (grabber.getAudioChannels() > 0) {
+                recorder.setSampleRate(grabber.getSampleRate());
+                recorder.setAudioChannels(grabber.getAudioChannels());
+            }
+
+            // Set quality
+            recorder.setVideoOption("crf", String.valueOf(crf));
+            recorder.setVideoOption("preset", "medium");
+
+            recorder.start();
+        }
+
+        @Override
+        void accept(Frame frame) throws Exception {
+            if (frame.image != null) {
+                recorder.record(frame, avutil.AV_PIX_FMT_YUV420P);
+            } else {
+                recorder.recordSamples(frame.sampleRate, frame.audioChannels, frame.samples);
+            }
+        }
+
+        @Override
+        void close() throws Exception {
+            if (recorder != null) {
+                recorder.stop();
+                recorder.release();
+            }
+        }
+    }
+
     /**
      * Parse resolution string to height in pixels
      */
@@ -0,0 +1,549 @@
+package com.neu.finalproject.meskot.service;
+
+import com.neu.finalproject.meskot.model.EncodingWorker;
+import com.neu.finalproject.meskot.model.StoredObject;
+import com.neu.finalproject.meskot.model.UploadJob;
+import com.neu.finalproject.meskot.model.UploadJob.JobPriority;
+import com.neu.finalproject.meskot.repository.EncodingWorkerRepository;
+import com.neu.finalproject.meskot.repository.StoredObjectRepository;
+import com.neu.finalproject.meskot.repository.UploadJobRepository;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Durable queue of upload encodes, shared by every meskot process on the same database. The
+ * queue is the upload_job table itself: a submitted upload is spooled to storage and its
+ * parameters are written to its job row, so nothing about a waiting or running job lives only
+ * in one process's memory.
+ *
+ * Any process with workers enabled - the web app, or the same jar run headless with the worker
+ * profile - polls the table and claims jobs with SELECT ... FOR UPDATE SKIP LOCKED, so workers
+ * never wait on each other and never get the same job. Each worker renews a lease row in
+ * encoding_worker on every heartbeat; the jobs of a worker silent for longer than the lease are
+ * put back in the queue by whichever process notices first, or failed once they have been tried
+ * max-attempts times, so a file that takes workers down cannot do it forever. A worker that was
+ * only slow may still be encoding a job it lost: each claim sets worker_id and bumps attempts,
+ * and every later write of the run is fenced on both, so a stale run's progress and completion
+ * change nothing, and only the run that records the outcome deletes the spooled upload. Each
+ * attempt stores its outputs under a prefix of its own; a failed or fenced-out attempt deletes
+ * what it stored, and the next attempt deletes what an interrupted one left.
+ *
+ * Dispatch order is interactive before bulk, then shortest job first by estimated encode cost,
+ * then oldest first. A job that has waited longer than max-wait-minutes goes to the front of
+ * its class, so a steady stream of short jobs cannot starve a long one.
+ */
+@Service
+public class EncodingJobQueue {
+
+    public static final String PENDING = "PENDING";
+    public static final String ENCODING = "ENCODING";
+    public static final String FAILED = "FAILED";
+
+    private final UploadJobRepository uploadJobRepository;
+    private final EncodingWorkerRepository encodingWorkerRepository;
+    private final StoredObjectRepository storedObjectRepository;
+    private final UploadHistoryService uploadHistoryService;
+    private final MovieService movieService;
+    private final CompressionService compressionService;
+    private final LocalStorageService localStorageService;
+    private final SupabaseStorageService supabaseStorageService;
+    private final Executor encodingExecutor;
+    private final TransactionTemplate transactionTemplate;
+
+    // LOCAL spools under app.storage.local.base-dir, which workers on one machine (or on a
+    // shared mount) see alike; SUPABASE lets workers on any machine fetch the upload
+    @Value("${app.jobs.spool-storage:LOCAL}")
+    private String spoolStorage;
+
+    // false for web nodes that only accept uploads and leave encoding to workers
+    @Value("${app.jobs.worker.enabled:true}")
+    private boolean workerEnabled;
+
+    // stable ids let a restarted worker put its own interrupted jobs back at once, without
+    // waiting out the lease; blank = host-pid
+    @Value("${app.jobs.worker-id:}")
+    private String workerId;
+
+    // encodes run at once; 0 = one per thread of the encoding pool
+    @Value("${app.jobs.concurrency:0}")
+    private int concurrency;
+
+    @Value("${app.jobs.lease-seconds:60}")
+    private int leaseSeconds;
+
+    @Value("${app.jobs.max-attempts:3}")
+    private int maxAttempts;
+
+    @Value("${app.jobs.max-wait-minutes:60}")
+    private int maxWaitMinutes;
+
+    private final Set<String> activeJobs = new LinkedHashSet<>();
+    // pump claims over JDBC; a lock rather than a monitor keeps virtual threads unpinned
+    private final ReentrantLock pumpLock = new ReentrantLock();
+    private final AtomicBoolean pumpRequested = new AtomicBoolean();
+    private String host;
+
+    public EncodingJobQueue(UploadJobRepository uploadJobRepository,
+                            EncodingWorkerRepository encodingWorkerRepository,
+                            StoredObjectRepository storedObjectRepository,
+                            UploadHistoryService uploadHistoryService,
+                            MovieService movieService,
+                            CompressionService compressionService,
+                            LocalStorageService localStorageService,
+                            SupabaseStorageService supabaseStorageService,
+                            @Qualifier("encodingTaskExecutor") Executor encodingExecutor,
+                            PlatformTransactionManager transactionManager) {
+        this.uploadJobRepository = uploadJobRepository;
+        this.encodingWorkerRepository = encodingWorkerRepository;
+        this.storedObjectRepository = storedObjectRepository;
+        this.uploadHistoryService = uploadHistoryService;
+        this.movieService = movieService;
+        this.compressionService = compressionService;
+        this.localStorageService = localStorageService;
+        this.supabaseStorageService = supabaseStorageService;
+        this.encodingExecutor = encodingExecutor;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @PostConstruct
+    void init() {
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            host = "localhost";
+        }
+        if (workerId == null || workerId.isBlank()) {
+            workerId = host + "-" + ProcessHandle.current().pid();
+        }
+    }
+
+    /**
+     * Queue an uploaded file for encoding. The file is copied to spool storage and deleted;
+     * the spooled copy belongs to the job from here on.
+     */
+    public UploadJob submit(File upload, String title, String resolution, Long uploaderId, String sourceType,
+                            boolean packageHls, JobPriority priority) throws IOException {
+        String jobId = UUID.randomUUID().toString();
+        Double estimatedCost = estimateCost(upload, resolution, packageHls);
+        long size = upload.length();
+        String spoolKey = "spool/" + jobId + "/" + upload.getName();
+        try {
+            spool().store(upload, spoolKey);
+        } finally {
+            upload.delete();
+        }
+
+        UploadJob job = new UploadJob();
+        job.setId(jobId);
+        job.setStatus(PENDING);
+        job.setProgress(0);
+        job.setSourcePath(spoolKey);
+        job.setTitle(title);
+        job.setResolution(resolution);
+        job.setSourceType(sourceType);
+        job.setPackageHls(packageHls);
+        job.setUploaderId(uploaderId);
+        job.setPriority(priority);
+        job.setEstimatedCost(estimatedCost);
+        job.setAttempts(0);
+        // created_at comes from the database clock, which the dispatch order compares it with
+        transactionTemplate.executeWithoutResult(tx -> {
+            uploadJobRepository.save(job);
+            uploadJobRepository.stampCreatedAt(jobId);
+        });
+        uploadHistoryService.create(uploaderId != null ? uploaderId.intValue() : 1, title,
+                upload.getName(), size, resolution, jobId);
+
+        System.out.println("Queued job " + jobId + " (" + priority + ", cost " + estimatedCost + ")");
+        pump();
+        return job;
+    }
+
+    /**
+     * Megapixels the encode will push through: every source frame decoded once, plus one
+     * scaled copy per rendition encoded. Null when the source cannot be probed; such jobs go
+     * last in their class.
+     */
+    Double estimateCost(File source, String resolution, boolean packageHls) {
+        try {
+            CompressionService.VideoInfo info = compressionService.getVideoInfo(source);
+            if (info.totalFrames <= 0 || info.height <= 0) {
+                return null;
+            }
+            double pixels = (double) info.width * info.height;
+            List<String> rungs = packageHls ? movieService.ladderFor(source, resolution) : List.of(resolution);
+            for (String rung : rungs) {
+                int height = Integer.parseInt(rung.replaceAll("p", ""));
+                pixels += (double) EncodingService.targetWidth(info.width, info.height, height) * height;
+            }
+            return info.totalFrames * pixels / 1_000_000;
+        } catch (Exception e) {
+            System.err.println("Could not estimate encode cost of " + source.getName() + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Register this worker and put back what its previous run left behind, then start
+     * dispatching.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void recover() {
+        int requeued = 0;
+        int failed = 0;
+        if (workerEnabled) {
+            encodingWorkerRepository.heartbeat(workerId, host, slots(), 0);
+        }
+        List<UploadJob> interrupted = new ArrayList<>();
+        for (UploadJob job : uploadJobRepository.findByStatus(ENCODING)) {
+            // This process runs nothing yet, so jobs under its id are from before a restart
+            if (workerEnabled && workerId.equals(job.getWorkerId())) {
+                interrupted.add(job);
+            }
+        }
+        // Jobs queued before jobs were persisted have nothing to re-run from
+        uploadJobRepository.findByStatus(PENDING).stream()
+                .filter(job -> job.getSourcePath() == null)
+                .forEach(interrupted::add);
+        for (UploadJob job : interrupted) {
+            if (requeueOrFail(job)) {
+                requeued++;
+            } else {
+                failed++;
+            }
+        }
+        System.out.println("Encoding worker " + workerId + (workerEnabled ? "" : " (disabled)") + " recovered "
+                + requeued + " requeued, " + failed + " failed");
+        reclaim();
+        pump();
+    }
+
+    /**
+     * Renew this worker's lease and put back the jobs of workers whose leases ran out.
+     */
+    @Scheduled(fixedDelayString = "${app.jobs.heartbeat-ms:10000}", initialDelayString = "${app.jobs.heartbeat-ms:10000}")
+    public void heartbeat() {
+        try {
+            if (workerEnabled) {
+                encodingWorkerRepository.heartbeat(workerId, host, slots(), activeCount());
+            }
+            reclaim();
+            // Long-dead workers' rows are only kept around for the admin view
+            encodingWorkerRepository.deleteSilentFor(leaseSeconds * 10);
+        } catch (RuntimeException e) {
+            System.err.println("Encoding worker heartbeat failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Pick up jobs submitted through other processes.
+     */
+    @Scheduled(fixedDelayString = "${app.jobs.poll-ms:2000}", initialDelayString = "${app.jobs.poll-ms:2000}")
+    public void poll() {
+        try {
+            pump();
+        } catch (RuntimeException e) {
+            System.err.println("Encoding queue poll failed: " + e.getMessage());
+        }
+    }
+
+    private void reclaim() {
+        Integer reclaimed = transactionTemplate.execute(tx -> {
+            int count = 0;
+            for (UploadJob job : uploadJobRepository.lockOrphaned(leaseSeconds)) {
+                if (isActive(job.getId())) {
+                    continue; // ours and running; our lease is just late
+                }
+                System.out.println("Reclaiming job " + job.getId() + " from worker " + job.getWorkerId());
+                requeueOrFail(job);
+                count++;
+            }
+            return count;
+        });
+        if (reclaimed != null && reclaimed > 0) {
+            System.out.println("Reclaimed " + reclaimed + " jobs from silent workers");
+        }
+    }
+
+    /**
+     * Put an interrupted job back in the queue, or fail it if its upload is gone or it has
+     * used up its attempts. Returns true if it was requeued.
+     */
+    private boolean requeueOrFail(UploadJob job) {
+        String reason = null;
+        if (job.getSourcePath() == null || !spoolExists(job.getSourcePath())) {
+            reason = "Interrupted and the upload is gone";
+        } else if (attempts(job) >= maxAttempts) {
+            reason = "Interrupted " + attempts(job) + " times";
+        }
+        job.setWorkerId(null);
+        if (reason == null) {
+            job.setStatus(PENDING);
+            job.setProgress(0);
+            uploadJobRepository.save(job);
+            uploadHistoryService.markPending(job.getId());
+            return true;
+        }
+        job.setStatus(FAILED);
+        job.setErrorMessage(reason);
+        uploadJobRepository.save(job);
+        uploadHistoryService.markFailed(job.getId(), reason);
+        deleteSpool(job);
+        deleteOutputs(MovieService.jobOutputPrefix(job.getTitle(), job.getId()), null);
+        return false;
+    }
+
+    /**
+     * Start queued jobs until every encoding slot on this worker is busy. A caller that finds
+     * another thread pumping leaves it a request to go round once more, instead of waiting.
+     */
+    private void pump() {
+        if (!workerEnabled) {
+            return;
+        }
+        pumpRequested.set(true);
+        while (pumpRequested.get() && pumpLock.tryLock()) {
+            try {
+                pumpRequested.set(false);
+                dispatch();
+            } finally {
+                pumpLock.unlock();
+            }
+        }
+    }
+
+    private void dispatch() {
+        while (activeCount() < slots()) {
+            UploadJob job = claimNext();
+            if (job == null) {
+                return;
+            }
+            synchronized (activeJobs) {
+                activeJobs.add(job.getId());
+            }
+            try {
+                encodingExecutor.execute(() -> run(job));
+            } catch (RuntimeException e) {
+                // Pool saturated by other work (backfills); the job waits for the next poll
+                synchronized (activeJobs) {
+                    activeJobs.remove(job.getId());
+                }
+                job.setStatus(PENDING);
+                job.setWorkerId(null);
+                job.setAttempts(attempts(job) - 1);
+                uploadJobRepository.save(job);
+                System.err.println("Could not dispatch job " + job.getId() + ": " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    /**
+     * Take the job that should run next off the queue, marking it ENCODING under this worker.
+     * The row stays locked only for this short transaction, not for the encode.
+     */
+    private UploadJob claimNext() {
+        return transactionTemplate.execute(tx -> uploadJobRepository.lockNextPending(maxWaitMinutes)
+                .map(job -> {
+                    job.setStatus(ENCODING);
+                    job.setWorkerId(workerId);
+                    job.setAttempts(attempts(job) + 1);
+                    job.setStartedAt(LocalDateTime.now());
+                    return uploadJobRepository.save(job);
+                })
+                .orElse(null));
+    }
+
+    private void run(UploadJob job) {
+        File source = null;
+        // set once this run's outcome is on the job row; until then the upload may still be needed
+        boolean recorded = false;
+        String attemptPrefix = MovieService.attemptOutputPrefix(job.getTitle(), job.getId(), attempts(job));
+        try {
+            System.out.println("Worker " + workerId + " running job " + job.getId() + " (attempt " + attempts(job) + ")");
+            // Whatever an interrupted earlier attempt stored is no use to this one
+            deleteOutputs(MovieService.jobOutputPrefix(job.getTitle(), job.getId()), attemptPrefix);
+            source = fetchSource(job.getSourcePath());
+            movieService.handleUpload(source, job.getTitle(), job.getResolution(), job.getId(),
+                    job.getUploaderId(), job.getSourceType(), Boolean.TRUE.equals(job.getPackageHls()),
+                    workerId, attempts(job));
+            recorded = true;
+        } catch (Exception e) {
+            System.err.println("Job " + job.getId() + " failed: " + e.getMessage());
+            // Failed or fenced out, nothing this attempt stored will be served
+            deleteOutputs(attemptPrefix, null);
+            if (uploadJobRepository.failIfOwned(job.getId(), workerId, attempts(job), e.getMessage()) > 0) {
+                uploadHistoryService.markFailed(job.getId(), e.getMessage());
+                recorded = true;
+            } else {
+                System.err.println("Job " + job.getId() + " was reclaimed meanwhile; leaving it to its new run");
+            }
+        } finally {
+            // A local spool is the upload itself; only a fetched copy is this run's to delete
+            if (source != null && "SUPABASE".equalsIgnoreCase(spoolStorage) && source.exists()) {
+                source.delete();
+            }
+            if (recorded) {
+                deleteSpool(job);
+            }
+            synchronized (activeJobs) {
+                activeJobs.remove(job.getId());
+            }
+            pump();
+        }
+    }
+
+    /**
+     * A local file holding the spooled upload: the spool file itself for local storage,
+     * otherwise a temp copy fetched in bounded slices.
+     */
+    private File fetchSource(String spoolKey) throws IOException {
+        if (!"SUPABASE".equalsIgnoreCase(spoolStorage)) {
+            return localStorageService.resolve(spoolKey).toFile();
+        }
+        File copy = File.createTempFile("job-source-", ".mp4");
+        long size = supabaseStorageService.stat(spoolKey).size();
+        try (FileOutputStream out = new FileOutputStream(copy)) {
+            long slice = 64L * 1024 * 1024;
+            for (long start = 0; start < size; start += slice) {
+                long end = Math.min(size, start + slice) - 1;
+                try (InputStream in = supabaseStorageService.openRange(spoolKey, start, end)) {
+                    in.transferTo(out);
+                }
+            }
+        } catch (IOException e) {
+            copy.delete();
+            throw e;
+        }
+        return copy;
+    }
+
+    private StorageService spool() {
+        return "SUPABASE".equalsIgnoreCase(spoolStorage) ? supabaseStorageService : localStorageService;
+    }
+
+    private boolean spoolExists(String spoolKey) {
+        try {
+            spool().stat(spoolKey);
+            return true;
+        } catch (FileNotFoundException e) {
+            return false;
+        } catch (IOException e) {
+            return true; // can't tell; let the next attempt find out
+        }
+    }
+
+    private void deleteSpool(UploadJob job) {
+        if (job.getSourcePath() == null) {
+            return;
+        }
+        try {
+            spool().delete(job.getSourcePath());
+        } catch (IOException e) {
+            System.err.println("Could not delete spooled upload " + job.getSourcePath() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Delete the stored objects under prefix, except those under keepPrefix, found through the
+     * stored_object row every store writes. A leftover only wastes space, so failures are
+     * logged and skipped.
+     */
+    private void deleteOutputs(String prefix, String keepPrefix) {
+        for (StoredObject object : storedObjectRepository.findByObjectKeyStartingWith(prefix + "/")) {
+            String key = object.getObjectKey();
+            if (keepPrefix != null && key.startsWith(keepPrefix + "/")) {
+                continue;
+            }
+            StorageService storage = "SUPABASE".equals(object.getLocationType())
+                    ? supabaseStorageService : localStorageService;
+            try {
+                storage.delete(key);
+            } catch (IOException e) {
+                System.err.println("Could not delete job output " + key + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private boolean isActive(String jobId) {
+        synchronized (activeJobs) {
+            return activeJobs.contains(jobId);
+        }
+    }
+
+    private int activeCount() {
+        synchronized (activeJobs) {
+            return activeJobs.size();
+        }
+    }
+
+    private int slots() {
+        return concurrency > 0 ? concurrency : Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+    }
+
+    private static int attempts(UploadJob job) {
+        return job.getAttempts() != null ? job.getAttempts() : 0;
+    }
+
+    /**
+     * This worker, every worker holding or recently holding a lease, and the waiting jobs in
+     * the order they will be dispatched.
+     */
+    public Map<String, Object> status() {
+        List<Map<String, Object>> pending = new ArrayList<>();
+        for (UploadJob job : uploadJobRepository.findPendingInDispatchOrder(maxWaitMinutes)) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("jobId", job.getId());
+            entry.put("title", job.getTitle());
+            entry.put("priority", job.getPriority());
+            entry.put("estimatedCost", job.getEstimatedCost());
+            entry.put("createdAt", job.getCreatedAt());
+            pending.add(entry);
+        }
+        List<Map<String, Object>> workers = new ArrayList<>();
+        for (EncodingWorker worker : encodingWorkerRepository.findAll()) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("workerId", worker.getId());
+            entry.put("host", worker.getHost());
+            entry.put("slots", worker.getSlots());
+            entry.put("activeJobs", worker.getActiveJobs());
+            entry.put("heartbeatAt", worker.getHeartbeatAt());
+            workers.add(entry);
+        }
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("workerId", workerId);
+        status.put("workerEnabled", workerEnabled);
+        status.put("slots", slots());
+        synchronized (activeJobs) {
+            status.put("active", new ArrayList<>(activeJobs));
+        }
+        status.put("workers", workers);
+        status.put("pending", pending);
+        return status;
+    }
+}
@@ -18,6 +18,10 @@ public class EncodingService {
     @Value("${app.ffmpeg.path:ffmpeg}")
     private String ffmpegPath; // allow override via properties
 
+    // Keyframe interval in seconds; matches the HLS segment length so segments cut cleanly
+    @Value("${app.hls.segment-seconds:4}")
+    private int keyframeIntervalSeconds;
+
 //    File encode(File input, String resolution, String outputFormat) throws IOException, InterruptedException {
 //        return null;
 //    }
@@ -48,14 +52,49 @@ public class EncodingService {
         }
     }
 
-    // In EncodingService.java
+    /**
+     * Bitrate cap for a ladder rung. Encodes stay CRF-driven, but capping the peak keeps each
+     * rung inside the bandwidth a player expects when it picks that rung.
+     */
+    private int getMaxBitrateKbps(String resolution) {
+        switch (resolution.toLowerCase()) {
+            case "1080p":
+                return 5000;
+            case "720p":
+                return 2800;
+            case "480p":
+                return 1400;
+            case "360p":
+                return 800;
+            default:
+                return 0;
+        }
+    }
+
 
     public File encode(File input, String resolution, String outputFormat, String codec, ProgressCallback callback)
             throws IOException, FrameGrabber.Exception, FrameRecorder.Exception {
+        return encode(input, resolution, outputFormat, codec, callback, null);
+    }
+
+    /**
+     * As above, handing each decoded video frame (YUV420P, source size) to frameCallback.
+     * The callback runs on the pipeline's scale thread, in frame order.
+     */
+    public File encode(File input, String resolution, String outputFormat, String codec, ProgressCallback callback,
+                       FrameCallback frameCallback)
+            throws IOException, FrameGrabber.Exception, FrameRecorder.Exception {
 
         String baseName = input.getName().substring(0, input.getName().lastIndexOf('.'));
         File output = new File(input.getParentFile(), baseName + "_" + resolution + "_" + codec + "." + outputFormat);
 
+        FramePipeline.Branch rendition = rendition(resolution, codec, output, outputFormat, true, 0);
+        List<FramePipeline.Branch> branches = new ArrayList<>();
+        branches.add(rendition);
+        if (frameCallback != null) {
+            branches.add(FramePipeline.frames("frames", frameCallback));
+        }
+
         FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(input);
         grabber.setFormat("mp4"); // You can try setting the input format here if known
         // Tell the grabber to grab frames in YUV420P format if possible
@@ -63,71 +102,131 @@ public class EncodingService {
         try {
             grabber.start();
 
-            // --- Get Total Frames for Progress ---
-            long totalFrames = grabber.getLengthInFrames();
-            int currentFrame = 0;
+            // --- Report Progress --- (on this thread; the encoder runs on its own)
+            int[] lastPercent = {-1};
+            new FramePipeline(FramePipeline.DEFAULT_QUEUE_FRAMES).run(grabber, 0, Long.MAX_VALUE, branches,
+                    framesDone -> {
+                        int percent = rendition.getProgress();
+                        if (callback != null && framesDone % 100 == 0 && percent > lastPercent[0] && percent < 100) {
+                            lastPercent[0] = percent;
+                            callback.onProgress(percent);
+                        }
+                    });
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Encode of " + input.getName() + " failed", e);
+        } finally {
+            grabber.stop();
+            grabber.release();
+        }
+        if (rendition.isFailed()) {
+            throw new IOException("Encode of " + input.getName() + " at " + resolution + " failed",
+                    rendition.getFailure());
+        }
+
+        // --- Final progress update ---
+        if (callback != null) {
+            callback.onProgress(100);
+        }
+        return output;
+    }
 
-            // --- (Your existing aspect ratio logic) ---
-            int targetHeight = Integer.parseInt(resolution.replaceAll("p", ""));
-            double aspectRatio = (double) grabber.getImageWidth() / grabber.getImageHeight();
-            int targetWidth = (int) (targetHeight * aspectRatio);
-            if (targetWidth % 2 != 0) {
-                targetWidth++;
+    /**
+     * A rendition at resolution written to output as a pipeline branch; the pipeline scales
+     * frames to size before they reach the recorder. encoderThreads 0 leaves x264 its default.
+     */
+    FramePipeline.Branch rendition(String resolution, String codec, File output, String outputFormat,
+                                   boolean withAudio, int encoderThreads) {
+        int targetHeight = Integer.parseInt(resolution.replaceAll("p", ""));
+        return new FramePipeline.Branch(resolution) {
+            private FFmpegFrameRecorder recorder;
+            private int width;
+
+            @Override
+            boolean wantsAudio() {
+                return withAudio;
             }
 
-            FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(output,
-                    targetWidth, targetHeight, grabber.getAudioChannels());
+            @Override
+            int[] outputSize(FFmpegFrameGrabber source) {
+                return new int[]{width, targetHeight};
+            }
 
-            try {
-                // --- (Your existing recorder setup) ---
+            @Override
+            void open(FFmpegFrameGrabber source) throws Exception {
+                width = targetWidth(source.getImageWidth(), source.getImageHeight(), targetHeight);
+                recorder = new FFmpegFrameRecorder(output, width, targetHeight,
+                        withAudio ? source.getAudioChannels() : 0);
                 recorder.setFormat(outputFormat);
-                // Inside EncodingService.java in the encode method
-                if ("h265".equalsIgnoreCase(codec)) {
-                    recorder.setVideoCodec(avcodec.AV_CODEC_ID_H264);
-                    recorder.setVideoOption("preset", "medium"); // Example preset
-                    recorder.setVideoOption("tune", "film");     // Example tune
-                    recorder.setAudioCodec(avcodec.AV_CODEC_ID_AAC);
-                } else {
-                    recorder.setVideoCodec(avcodec.AV_CODEC_ID_H264);
+                if ("mp4".equalsIgnoreCase(outputFormat) || "mov".equalsIgnoreCase(outputFormat)) {
+                    // moov ahead of mdat, so players can start without fetching the file tail first
+                    recorder.setOption("movflags", "+faststart");
+                }
+                configureVideo(recorder, source.getFrameRate(), resolution, codec);
+                if (encoderThreads > 0) {
+                    recorder.setVideoOption("threads", String.valueOf(encoderThreads));
+                }
+                if (withAudio) {
                     recorder.setAudioCodec(avcodec.AV_CODEC_ID_AAC);
                 }
-                recorder.setFrameRate(grabber.getFrameRate());
-                recorder.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
-                recorder.setVideoOption("crf", "23");
-
                 recorder.start();
+            }
 
-                // --- Main Encoding Loop ---
-                Frame frame;
-                while ((frame = grabber.grab()) != null) {
-                    recorder.record(frame);
-
-                    // --- Report Progress ---
-                    currentFrame++;
-                    if (totalFrames > 0 && currentFrame % 100 == 0) { // Report every 100 frames
-                        int percent = (int) (((double) currentFrame / totalFrames) * 100);
-                        if(callback != null) {
-                            callback.onProgress(percent);
-                        }
-                    }
+            @Override
+            void accept(Frame frame) throws Exception {
+                if (frame.image != null) {
+                    recorder.record(frame, avutil.AV_PIX_FMT_YUV420P);
+                } else {
+                    recorder.recordSamples(frame.sampleRate, frame.audioChannels, frame.samples);
                 }
+            }
 
-                // --- Final progress update ---
-                if(callback != null) {
-                    callback.onProgress(100);
+            @Override
+            void close() throws Exception {
+                if (recorder != null) {
+                    recorder.stop();
+                    recorder.release();
                 }
-
-            } finally {
-                recorder.stop();
-                recorder.release();
             }
-        } finally {
-            grabber.stop();
-            grabber.release();
-        }
+        };
+    }
 
-        return output;
+    /**
+     * Output width for a target height, keeping the source aspect ratio; even, as YUV420P needs.
+     */
+    static int targetWidth(int sourceWidth, int sourceHeight, int targetHeight) {
+        double aspectRatio = (double) sourceWidth / sourceHeight;
+        int targetWidth = (int) (targetHeight * aspectRatio);
+        if (targetWidth % 2 != 0) {
+            targetWidth++;
+        }
+        return targetWidth;
     }
 
-// You can now delete your getWidthForResolution and getHeightForResolution methods
-   }
+    /**
+     * Video encoder settings shared by whole-file and segmented encodes, so both produce the
+     * same bitstream parameters for a rung.
+     */
+    void configureVideo(FFmpegFrameRecorder recorder, double frameRate, String resolution, String codec) {
+        if ("h265".equalsIgnoreCase(codec)) {
+            recorder.setVideoCodec(avcodec.AV_CODEC_ID_H264);
+            recorder.setVideoOption("preset", "medium"); // Example preset
+            recorder.setVideoOption("tune", "film");     // Example tune
+        } else {
+            recorder.setVideoCodec(avcodec.AV_CODEC_ID_H264);
+        }
+        recorder.setFrameRate(frameRate);
+        recorder.setGopSize((int) Math.max(1, Math.round(frameRate * keyframeIntervalSeconds)));
+        recorder.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+        recorder.setVideoOption("crf", "23");
+        // Fixed GOPs with no scene-cut keyframes keep every rung's keyframes on the same
+        // timestamps, so a player can switch renditions at any segment boundary
+        recorder.setVideoOption("sc_threshold", "0");
+        int maxBitrate = getMaxBitrateKbps(resolution);
+        if (maxBitrate > 0) {
+            recorder.setVideoOption("maxrate", maxBitrate + "k");
+            recorder.setVideoOption("bufsize", (maxBitrate * 2) + "k");
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.neu.finalproject.meskot.service;
+
+import com.neu.finalproject.meskot.model.Movie;
+import com.neu.finalproject.meskot.model.MovieMetadata;
+import com.neu.finalproject.meskot.repository.MovieMetadataRepository;
+import com.neu.finalproject.meskot.repository.MovieRepository;
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Moves the moov box of stored MP4s ahead of the media data. New encodes are written that
+ * way already; the backfill remuxes older uploads in place - packets are copied, never
+ * re-encoded - and records where moov sat before and after so time-to-first-frame can be
+ * compared per object.
+ */
+@Service
+public class FaststartService {
+
+    private final MovieRepository movieRepository;
+    private final MovieMetadataRepository movieMetadataRepository;
+    private final LocalStorageService localStorageService;
+    private final SupabaseStorageService supabaseStorageService;
+    private final Executor encodingExecutor;
+
+    @Value("${app.faststart.backfill.max-results:500}")
+    private int maxResults;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicInteger scanned = new AtomicInteger();
+    private final AtomicInteger rewritten = new AtomicInteger();
+    private final AtomicInteger alreadyFaststart = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final List<Map<String, Object>> results = new ArrayList<>();
+    private volatile long startedAt;
+    private volatile long finishedAt;
+
+    public FaststartService(MovieRepository movieRepository,
+                            MovieMetadataRepository movieMetadataRepository,
+                            LocalStorageService localStorageService,
+                            SupabaseStorageService supabaseStorageService,
+                            @Qualifier("encodingTaskExecutor") Executor encodingExecutor) {
+        this.movieRepository = movieRepository;
+        this.movieMetadataRepository = movieMetadataRepository;
+        this.localStorageService = localStorageService;
+        this.supabaseStorageService = supabaseStorageService;
+        this.encodingExecutor = encodingExecutor;
+    }
+
+    /**
+     * Start a backfill over every uploaded movie and rendition. Internet Archive titles are
+     * skipped: those files are not ours to rewrite.
+     *
+     * @return false if a backfill is already running
+     */
+    public boolean startBackfill() {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        scanned.set(0);
+        rewritten.set(0);
+        alreadyFaststart.set(0);
+        skipped.set(0);
+        failed.set(0);
+        synchronized (results) {
+            results.clear();
+        }
+        startedAt = System.currentTimeMillis();
+        finishedAt = 0;
+        try {
+            encodingExecutor.execute(this::runBackfill);
+        } catch (RuntimeException e) {
+            running.set(false);
+            throw e;
+        }
+        return true;
+    }
+
+    private void runBackfill() {
+        System.out.println("=== FASTSTART BACKFILL STARTED ===");
+        try {
+            for (Movie movie : movieRepository.findUserUploadedMovies()) {
+                StorageService storage = "SUPABASE".equals(movie.getSourceType())
+                        ? supabaseStorageService : localStorageService;
+                for (String key : objectKeys(movie)) {
+                    scanned.incrementAndGet();
+                    ensureFaststart(movie, storage, key);
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("Faststart backfill aborted: " + e.getMessage());
+        } finally {
+            finishedAt = System.currentTimeMillis();
+            running.set(false);
+            System.out.println("=== FASTSTART BACKFILL DONE: " + rewritten.get() + " rewritten, "
+                    + alreadyFaststart.get() + " already faststart, " + failed.get() + " failed ===");
+        }
+    }
+
+    /**
+     * The movie's main file plus any rendition files recorded for it.
+     */
+    private Set<String> objectKeys(Movie movie) {
+        Set<String> keys = new LinkedHashSet<>();
+        if (movie.getFilePath() != null) {
+            keys.add(movie.getFilePath());
+        }
+        for (MovieMetadata meta : movieMetadataRepository.findByMovie(movie)) {
+            if (meta.getFilePath() != null) {
+                keys.add(meta.getFilePath());
+            }
+        }
+        return keys;
+    }
+
+    private void ensureFaststart(Movie movie, StorageService storage, String key) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("movieId", movie.getId());
+        result.put("objectKey", key);
+        long started = System.nanoTime();
+        File source = null;
+        File remuxed = null;
+        try {
+            Mp4Layout before = Mp4Layout.probe(storage, key);
+            result.put("size", before.getSize());
+            result.put("moovOffsetBefore", before.getMoovOffset());
+            if (before.getMoovOffset() < 0) {
+                skipped.incrementAndGet();
+                result.put("status", "SKIPPED_NOT_MP4");
+                return;
+            }
+            if (before.isFaststart()) {
+                alreadyFaststart.incrementAndGet();
+                result.put("status", "ALREADY_FASTSTART");
+                return;
+            }
+
+            boolean local = storage == localStorageService;
+            source = local ? localStorageService.resolve(key).toFile() : download(storage, key, before.getSize());
+            remuxed = File.createTempFile("faststart-", ".mp4");
+            remuxFaststart(source, remuxed);
+            storage.replace(remuxed, key);
+
+            Mp4Layout after = Mp4Layout.probe(storage, key);
+            result.put("moovOffsetAfter", after.getMoovOffset());
+            result.put("sizeAfter", after.getSize());
+            result.put("status", after.isFaststart() ? "REWRITTEN" : "REWRITTEN_NOT_FASTSTART");
+            rewritten.incrementAndGet();
+            System.out.println("Faststart: " + key + " " + before + " -> " + after);
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            result.put("status", "FAILED");
+            result.put("error", e.getMessage());
+            System.err.println("Faststart rewrite failed for " + key + ": " + e.getMessage());
+        } finally {
+            if (source != null && storage != localStorageService) {
+                source.delete();
+            }
+            if (remuxed != null) {
+                remuxed.delete();
+            }
+            result.put("millis", (System.nanoTime() - started) / 1_000_000);
+            record(result);
+        }
+    }
+
+    private File download(StorageService storage, String key, long size) throws IOException {
+        File temp = File.createTempFile("faststart-src-", ".mp4");
+        try (InputStream in = storage.openRange(key, 0, size - 1)) {
+            Files.copy(in, temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+        return temp;
+    }
+
+    /**
+     * Stream-copy an MP4 into a new file with moov written first. The muxer rewrites the
+     * finished file once to move moov forward, so the target needs room for a second copy.
+     */
+    public void remuxFaststart(File source, File target) throws IOException {
+        FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(source);
+        try {
+            grabber.start();
+            FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(target,
+                    grabber.getImageWidth(), grabber.getImageHeight(), grabber.getAudioChannels());
+            try {
+                recorder.setFormat("mp4");
+                recorder.setOption("movflags", "+faststart");
+                recorder.start(grabber.getFormatContext());
+
+                AVPacket packet;
+                while ((packet = grabber.grabPacket()) != null) {
+                    recorder.recordPacket(packet);
+                }
+            } finally {
+                recorder.stop();
+                recorder.release();
+            }
+        } finally {
+            grabber.stop();
+            grabber.release();
+        }
+    }
+
+    private void record(Map<String, Object> result) {
+        synchronized (results) {
+            if (results.size() >= maxResults) {
+                results.remove(0);
+            }
+            results.add(result);
+        }
+    }
+
+    public Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("running", running.get());
+        status.put("startedAt", startedAt);
+        status.put("finishedAt", finishedAt);
+        status.put("scanned", scanned.get());
+        status.put("rewritten", rewritten.get());
+        status.put("alreadyFaststart", alreadyFaststart.get());
+        status.put("skipped", skipped.get());
+        status.put("failed", failed.get());
+        synchronized (results) {
+            status.put("results", new ArrayList<>(results));
+        }
+        return status;
+    }
+}
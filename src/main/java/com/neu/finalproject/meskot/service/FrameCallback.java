@@ -0,0 +1,17 @@
+package com.neu.finalproject.meskot.service;
+
+import org.bytedeco.javacv.Frame;
+
+/**
+ * Sees every decoded video frame of an encode, so thumbnails and posters can be taken from
+ * the pass that already decodes the file. The frame's buffers are reused by the pipeline once
+ * the callback returns; copy anything that must outlive the call.
+ * <p>
+ * A split encode decodes its segments concurrently, so the callback is then called from
+ * several threads at once, each in timestamp order within its own segment. Implementations
+ * must be thread-safe and key their work on frame timestamps rather than arrival order.
+ */
+@FunctionalInterface
+public interface FrameCallback {
+    void onFrame(Frame frame);
+}
@@ -0,0 +1,564 @@
+package com.neu.finalproject.meskot.service;
+
+import org.bytedeco.ffmpeg.avutil.AVFrame;
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.ffmpeg.global.swscale;
+import org.bytedeco.ffmpeg.swscale.SwsContext;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.DoublePointer;
+import org.bytedeco.javacpp.PointerPointer;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+/**
+ * Runs one decode as three overlapping stages instead of a single grab/record loop:
+ * <ul>
+ *   <li>decode, on the calling thread, copies each picture into a pooled buffer;</li>
+ *   <li>scale, on its own thread, feeds inline branches (frame callbacks) and resizes each
+ *       picture once per output size;</li>
+ *   <li>encode, one thread per output branch, hands frames to that branch's recorder.</li>
+ * </ul>
+ * Stages are joined by bounded queues and frame buffers come from bounded pools, so a slow
+ * encoder holds the decoder back instead of letting frames pile up, and steady state allocates
+ * no picture memory. Each branch is opened, fed and closed by a single thread. A branch that
+ * throws is marked failed and fed nothing more; the others carry on. A pipeline runs once.
+ */
+public final class FramePipeline {
+
+    public static final int DEFAULT_QUEUE_FRAMES = 8;
+
+    private static final Frame END = new Frame();
+    private static final long POLL_MILLIS = 100;
+
+    private final int queueFrames;
+    private final BlockingQueue<Frame> decoded;
+    private final FramePool sourcePool;
+    private volatile boolean aborted;
+    private volatile RuntimeException stageFailure;
+
+    public FramePipeline(int queueFrames) {
+        this.queueFrames = Math.max(1, queueFrames);
+        this.decoded = new ArrayBlockingQueue<>(this.queueFrames);
+        // one frame in the decoder's hand and one in the scaler's on top of the queue
+        this.sourcePool = new FramePool(this.queueFrames + 2, 0, 0);
+    }
+
+    /**
+     * One output of a pipeline.
+     */
+    public abstract static class Branch {
+
+        private final String name;
+        private volatile int progress;
+        private volatile Exception failure;
+
+        protected Branch(String name) {
+            this.name = name;
+        }
+
+        boolean wantsVideo() {
+            return true;
+        }
+
+        boolean wantsAudio() {
+            return true;
+        }
+
+        /**
+         * Inline branches run on the scale thread and see source frames; keep them cheap.
+         * Others get a thread of their own.
+         */
+        boolean inline() {
+            return false;
+        }
+
+        /**
+         * {width, height} this branch's video frames are scaled to, or null for source size.
+         * Called after open.
+         */
+        int[] outputSize(FFmpegFrameGrabber source) {
+            return null;
+        }
+
+        abstract void open(FFmpegFrameGrabber source) throws Exception;
+
+        /**
+         * Video frames are YUV420P with stride equal to width; record them with
+         * recorder.record(frame, AV_PIX_FMT_YUV420P). The buffers are reused once this returns.
+         */
+        abstract void accept(Frame frame) throws Exception;
+
+        abstract void close() throws Exception;
+
+        public String getName() {
+            return name;
+        }
+
+        /** Percent of the source's video frames this branch has taken. */
+        public int getProgress() {
+            return progress;
+        }
+
+        public boolean isFailed() {
+            return failure != null;
+        }
+
+        public Exception getFailure() {
+            return failure;
+        }
+    }
+
+    /**
+     * Decoded video frames (YUV420P, source size, in order) handed to a callback on the scale
+     * thread.
+     */
+    public static Branch frames(String name, FrameCallback callback) {
+        return new Branch(name) {
+            @Override
+            boolean wantsAudio() {
+                return false;
+            }
+
+            @Override
+            boolean inline() {
+                return true;
+            }
+
+            @Override
+            void open(FFmpegFrameGrabber source) {
+            }
+
+            @Override
+            void accept(Frame frame) {
+                callback.onFrame(frame);
+            }
+
+            @Override
+            void close() {
+            }
+        };
+    }
+
+    /**
+     * Feed the frames of a started grabber with timestamps in [fromMicros, toMicros) to the
+     * branches; the caller seeks beforehand and releases the grabber afterwards. onVideoFrame
+     * runs on the calling thread with the running count of video frames decoded in the range.
+     * Throws if the source cannot be read; branch failures are left on the branches, which are
+     * all closed by the time this returns.
+     */
+    public void run(FFmpegFrameGrabber grabber, long fromMicros, long toMicros, List<Branch> branches,
+                    LongConsumer onVideoFrame) throws Exception {
+        boolean doVideo = branches.stream().anyMatch(Branch::wantsVideo);
+        boolean doAudio = grabber.hasAudio() && branches.stream().anyMatch(Branch::wantsAudio);
+        long totalFrames = grabber.getLengthInFrames();
+
+        List<Branch> inline = new ArrayList<>();
+        List<Lane> lanes = new ArrayList<>();
+        for (Branch branch : branches) {
+            try {
+                branch.open(grabber);
+                if (branch.inline()) {
+                    inline.add(branch);
+                } else {
+                    lanes.add(new Lane(branch, branch.wantsVideo() ? branch.outputSize(grabber) : null, totalFrames));
+                }
+            } catch (Exception e) {
+                fail(branch, e);
+                close(branch);
+            }
+        }
+
+        List<Thread> threads = new ArrayList<>();
+        threads.add(start("transcode-scale", () -> scaleStage(inline, lanes)));
+        for (Lane lane : lanes) {
+            threads.add(start("transcode-encode-" + lane.branch.getName(), () -> encodeStage(lane)));
+        }
+
+        Exception error = null;
+        try {
+            long videoFrames = 0;
+            Frame frame;
+            while ((frame = grabber.grabFrame(doAudio, doVideo, true, false)) != null) {
+                if (frame.timestamp < fromMicros) {
+                    continue;
+                }
+                if (frame.timestamp >= toMicros) {
+                    if (frame.image != null) {
+                        break;
+                    }
+                    continue; // audio can run slightly ahead of the video cut
+                }
+                if (frame.image == null) {
+                    if (frame.samples != null) {
+                        put(decoded, frame.clone());
+                    }
+                    continue;
+                }
+                Frame copy = sourcePool.take();
+                copyPicture(frame, copy);
+                put(decoded, copy);
+
+                videoFrames++;
+                if (totalFrames > 0 && videoFrames % 100 == 0) {
+                    // branches without an encoder of their own advance with the decoder
+                    int percent = (int) Math.min(99, videoFrames * 100 / totalFrames);
+                    for (Branch branch : inline) {
+                        branch.progress = percent;
+                    }
+                    for (Lane lane : lanes) {
+                        if (lane.pool == null) {
+                            lane.branch.progress = percent;
+                        }
+                    }
+                }
+                if (onVideoFrame != null) {
+                    onVideoFrame.accept(videoFrames);
+                }
+            }
+            put(decoded, END);
+        } catch (Exception e) {
+            error = e;
+            aborted = true;
+        } finally {
+            joinAll(threads);
+            for (Branch branch : inline) {
+                close(branch);
+            }
+        }
+        if (stageFailure != null) {
+            throw stageFailure;
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Per-branch state of a branch with its own encode thread.
+     */
+    private final class Lane {
+        final Branch branch;
+        final int width;
+        final int height;
+        final long totalFrames;
+        final BlockingQueue<Frame> queue = new ArrayBlockingQueue<>(queueFrames);
+        // null for audio-only branches
+        final FramePool pool;
+        long frames;
+        // scale thread only
+        SwsContext scaler;
+        AVFrame sourcePicture;
+        AVFrame targetPicture;
+
+        Lane(Branch branch, int[] size, long totalFrames) {
+            this.branch = branch;
+            this.width = size != null ? size[0] : 0;
+            this.height = size != null ? size[1] : 0;
+            this.totalFrames = totalFrames;
+            this.pool = branch.wantsVideo() ? new FramePool(queueFrames + 2, width, height) : null;
+        }
+
+        /**
+         * The source picture at this lane's size, in a frame from its pool.
+         */
+        Frame convert(Frame source) throws InterruptedException {
+            Frame target = pool.take();
+            try {
+                if (width == 0 || (width == source.imageWidth && height == source.imageHeight)) {
+                    copyPicture(source, target);
+                    return target;
+                }
+                scaler = swscale.sws_getCachedContext(scaler,
+                        source.imageWidth, source.imageHeight, avutil.AV_PIX_FMT_YUV420P,
+                        width, height, avutil.AV_PIX_FMT_YUV420P,
+                        swscale.SWS_BILINEAR, null, null, (DoublePointer) null);
+                if (scaler == null) {
+                    throw new IllegalStateException("Cannot scale " + source.imageWidth + "x" + source.imageHeight
+                            + " to " + width + "x" + height);
+                }
+                if (sourcePicture == null) {
+                    sourcePicture = avutil.av_frame_alloc();
+                    targetPicture = avutil.av_frame_alloc();
+                }
+                wrap(sourcePicture, (ByteBuffer) source.image[0], source.imageHeight, source.imageStride);
+                wrap(targetPicture, (ByteBuffer) target.image[0], height, target.imageStride);
+                swscale.sws_scale(scaler, new PointerPointer(sourcePicture), sourcePicture.linesize(),
+                        0, source.imageHeight, new PointerPointer(targetPicture), targetPicture.linesize());
+                target.imageChannels = source.imageChannels;
+                target.timestamp = source.timestamp;
+                target.keyFrame = source.keyFrame;
+                return target;
+            } catch (RuntimeException e) {
+                pool.release(target);
+                throw e;
+            }
+        }
+
+        void freeScaler() {
+            if (scaler != null) {
+                swscale.sws_freeContext(scaler);
+                scaler = null;
+            }
+            if (sourcePicture != null) {
+                // the planes belong to pooled Java buffers; only the frame structs are freed
+                avutil.av_frame_free(sourcePicture);
+                avutil.av_frame_free(targetPicture);
+                sourcePicture = null;
+                targetPicture = null;
+            }
+        }
+    }
+
+    private void scaleStage(List<Branch> inline, List<Lane> lanes) {
+        try {
+            while (true) {
+                Frame frame = take(decoded);
+                if (frame == END) {
+                    break;
+                }
+                boolean video = frame.image != null;
+                for (Branch branch : inline) {
+                    if (!branch.isFailed() && (video ? branch.wantsVideo() : branch.wantsAudio())) {
+                        try {
+                            branch.accept(frame);
+                        } catch (Exception e) {
+                            fail(branch, e);
+                        }
+                    }
+                }
+                for (Lane lane : lanes) {
+                    if (lane.branch.isFailed() || (video ? !lane.branch.wantsVideo() : !lane.branch.wantsAudio())) {
+                        continue;
+                    }
+                    Frame out;
+                    try {
+                        out = video ? lane.convert(frame) : frame.clone();
+                    } catch (RuntimeException e) {
+                        fail(lane.branch, e);
+                        continue;
+                    }
+                    put(lane.queue, out);
+                }
+                if (video) {
+                    sourcePool.release(frame);
+                }
+            }
+            for (Lane lane : lanes) {
+                put(lane.queue, END);
+            }
+        } catch (CancellationException | InterruptedException e) {
+            aborted = true;
+        } catch (RuntimeException e) {
+            stageFailure = e;
+            aborted = true;
+        } finally {
+            for (Lane lane : lanes) {
+                lane.freeScaler();
+            }
+        }
+    }
+
+    private void encodeStage(Lane lane) {
+        Branch branch = lane.branch;
+        try {
+            while (true) {
+                Frame frame = take(lane.queue);
+                if (frame == END) {
+                    break;
+                }
+                boolean video = frame.image != null;
+                try {
+                    if (!branch.isFailed()) {
+                        branch.accept(frame);
+                    }
+                } catch (Exception e) {
+                    fail(branch, e);
+                } finally {
+                    if (video) {
+                        lane.pool.release(frame);
+                    }
+                }
+                if (video) {
+                    lane.frames++;
+                    if (lane.totalFrames > 0 && lane.frames % 100 == 0) {
+                        branch.progress = (int) Math.min(99, lane.frames * 100 / lane.totalFrames);
+                    }
+                }
+            }
+        } catch (CancellationException | InterruptedException e) {
+            aborted = true;
+        } catch (RuntimeException e) {
+            stageFailure = e;
+            aborted = true;
+        } finally {
+            close(branch);
+        }
+    }
+
+    private static void fail(Branch branch, Exception e) {
+        if (branch.failure == null) {
+            branch.failure = e;
+            System.err.println("Transcode branch " + branch.getName() + " failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Close a branch from the thread that fed it; a failed branch's close errors are ignored.
+     */
+    private static void close(Branch branch) {
+        try {
+            branch.close();
+            if (!branch.isFailed()) {
+                branch.progress = 100;
+            }
+        } catch (Exception e) {
+            fail(branch, e);
+        }
+    }
+
+    private void put(BlockingQueue<Frame> queue, Frame frame) throws InterruptedException {
+        while (!queue.offer(frame, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (aborted) {
+                throw new CancellationException();
+            }
+        }
+    }
+
+    private Frame take(BlockingQueue<Frame> queue) throws InterruptedException {
+        Frame frame;
+        while ((frame = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+            if (aborted) {
+                throw new CancellationException();
+            }
+        }
+        return frame;
+    }
+
+    private static Thread start(String name, Runnable stage) {
+        Thread thread = new Thread(stage, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private void joinAll(List<Thread> threads) {
+        boolean interrupted = false;
+        for (Thread thread : threads) {
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    aborted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Bytes of a YUV420P picture laid out the way the grabber and VideoFrames expect: the luma
+     * plane at stride, then both chroma planes at half stride.
+     */
+    private static int pictureBytes(int height, int stride) {
+        return stride * height + 2 * ((stride + 1) / 2) * ((height + 1) / 2);
+    }
+
+    private static void wrap(AVFrame picture, ByteBuffer buffer, int height, int stride) {
+        BytePointer base = new BytePointer(buffer);
+        int chromaStride = (stride + 1) / 2;
+        long uOffset = (long) stride * height;
+        long vOffset = uOffset + (long) chromaStride * ((height + 1) / 2);
+        picture.data(0, new BytePointer(base).position(0));
+        picture.data(1, new BytePointer(base).position(uOffset));
+        picture.data(2, new BytePointer(base).position(vOffset));
+        picture.linesize(0, stride);
+        picture.linesize(1, chromaStride);
+        picture.linesize(2, chromaStride);
+    }
+
+    /**
+     * Copy a picture into a pooled frame, growing its buffer if the source size changed.
+     */
+    private static void copyPicture(Frame source, Frame target) {
+        ByteBuffer from = ((ByteBuffer) source.image[0]).duplicate();
+        from.position(0).limit(pictureBytes(source.imageHeight, source.imageStride));
+        ByteBuffer to = target.image != null ? (ByteBuffer) target.image[0] : null;
+        if (to == null || to.capacity() < from.remaining()) {
+            to = ByteBuffer.allocateDirect(from.remaining()).order(ByteOrder.nativeOrder());
+            target.image = new Buffer[]{to};
+        }
+        to.clear();
+        to.put(from);
+        to.flip();
+        target.imageWidth = source.imageWidth;
+        target.imageHeight = source.imageHeight;
+        target.imageDepth = source.imageDepth;
+        target.imageChannels = source.imageChannels;
+        target.imageStride = source.imageStride;
+        target.timestamp = source.timestamp;
+        target.keyFrame = source.keyFrame;
+    }
+
+    /**
+     * A fixed number of reusable picture frames. Taking from an exhausted pool waits, which is
+     * what throttles the stage upstream of a slow one.
+     */
+    private final class FramePool {
+        private final int capacity;
+        private final int width;
+        private final int height;
+        private final BlockingQueue<Frame> free;
+        private int created;
+
+        FramePool(int capacity, int width, int height) {
+            this.capacity = capacity;
+            this.width = width;
+            this.height = height;
+            this.free = new ArrayBlockingQueue<>(capacity);
+        }
+
+        Frame take() throws InterruptedException {
+            Frame frame = free.poll();
+            if (frame != null) {
+                return frame;
+            }
+            if (created < capacity) {
+                created++;
+                return newFrame();
+            }
+            return FramePipeline.this.take(free);
+        }
+
+        void release(Frame frame) {
+            free.offer(frame);
+        }
+
+        private Frame newFrame() {
+            Frame frame = new Frame();
+            if (width > 0) {
+                frame.imageWidth = width;
+                frame.imageHeight = height;
+                frame.imageDepth = Frame.DEPTH_UBYTE;
+                frame.imageChannels = 1;
+                frame.imageStride = width;
+                frame.image = new Buffer[]{
+                        ByteBuffer.allocateDirect(pictureBytes(height, width)).order(ByteOrder.nativeOrder())};
+            }
+            return frame;
+        }
+    }
+}
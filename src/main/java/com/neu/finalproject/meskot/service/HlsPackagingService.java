@@ -0,0 +1,187 @@
+package com.neu.finalproject.meskot.service;
+
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+/**
+ * Packages an encoded MP4 rendition as HLS: a media playlist plus small segments that clients
+ * can fetch (and caches can keep) independently. Packaging is a remux - packets are copied,
+ * never re-encoded - so segment boundaries fall on the rendition's keyframes.
+ */
+@Service
+public class HlsPackagingService {
+
+    public static final String PLAYLIST_NAME = "index.m3u8";
+    public static final String MASTER_PLAYLIST_NAME = "master.m3u8";
+
+    /**
+     * A packaged rendition and the figures the master playlist advertises for it.
+     */
+    public record HlsPackage(File directory, String rendition, int width, int height, double frameRate,
+                             double durationSeconds, long peakBandwidth, long averageBandwidth) {
+    }
+
+    @Value("${app.hls.segment-seconds:4}")
+    private int segmentSeconds;
+
+    // "fmp4" (CMAF-style .m4s segments) or "mpegts" (.ts segments)
+    @Value("${app.hls.segment-type:fmp4}")
+    private String segmentType;
+
+    public int getSegmentSeconds() {
+        return segmentSeconds;
+    }
+
+    /**
+     * Remux an MP4 into an HLS directory containing index.m3u8 and its segments.
+     *
+     * @return the package: the directory holding the playlist, init segment (fMP4 only) and
+     *         media segments, plus the rendition's dimensions and measured bandwidth
+     */
+    public HlsPackage packageRendition(File mp4, String rendition) throws IOException {
+        Path outputDir = Files.createTempDirectory("hls-" + rendition + "-");
+        boolean fmp4 = "fmp4".equalsIgnoreCase(segmentType);
+        String segmentPattern = outputDir.resolve(fmp4 ? "seg_%05d.m4s" : "seg_%05d.ts").toString();
+
+        System.out.println("Packaging " + mp4.getName() + " as HLS (" + segmentType + ") into " + outputDir);
+
+        int width;
+        int height;
+        double frameRate;
+        FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(mp4);
+        try {
+            grabber.start();
+            width = grabber.getImageWidth();
+            height = grabber.getImageHeight();
+            frameRate = grabber.getFrameRate();
+
+            FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(
+                    outputDir.resolve(PLAYLIST_NAME).toFile(),
+                    grabber.getImageWidth(), grabber.getImageHeight(), grabber.getAudioChannels());
+            try {
+                recorder.setFormat("hls");
+                recorder.setOption("hls_time", String.valueOf(segmentSeconds));
+                recorder.setOption("hls_list_size", "0");
+                recorder.setOption("hls_playlist_type", "vod");
+                recorder.setOption("hls_segment_filename", segmentPattern);
+                if (fmp4) {
+                    recorder.setOption("hls_segment_type", "fmp4");
+                    recorder.setOption("hls_fmp4_init_filename", "init.mp4");
+                }
+
+                // Stream copy: take codec parameters from the input instead of opening encoders
+                recorder.start(grabber.getFormatContext());
+
+                AVPacket packet;
+                while ((packet = grabber.grabPacket()) != null) {
+                    recorder.recordPacket(packet);
+                }
+            } finally {
+                recorder.stop();
+                recorder.release();
+            }
+        } catch (IOException e) {
+            deleteDirectory(outputDir.toFile());
+            throw e;
+        } finally {
+            grabber.stop();
+            grabber.release();
+        }
+
+        return measure(outputDir, rendition, width, height, frameRate);
+    }
+
+    /**
+     * Work out duration and bandwidth from the media playlist. BANDWIDTH in a master playlist
+     * must be the peak segment bitrate, so every segment is measured, not just the average.
+     */
+    private HlsPackage measure(Path dir, String rendition, int width, int height, double frameRate)
+            throws IOException {
+        List<String> lines = Files.readAllLines(dir.resolve(PLAYLIST_NAME));
+        double totalSeconds = 0;
+        long totalBytes = 0;
+        long peak = 0;
+        double segmentSeconds = 0;
+        for (String line : lines) {
+            if (line.startsWith("#EXTINF:")) {
+                String value = line.substring("#EXTINF:".length());
+                int comma = value.indexOf(',');
+                segmentSeconds = Double.parseDouble(comma >= 0 ? value.substring(0, comma) : value);
+            } else if (!line.isBlank() && !line.startsWith("#")) {
+                long bytes = Files.size(dir.resolve(line.trim()));
+                totalBytes += bytes;
+                totalSeconds += segmentSeconds;
+                if (segmentSeconds > 0) {
+                    peak = Math.max(peak, (long) (bytes * 8 / segmentSeconds));
+                }
+            }
+        }
+        long average = totalSeconds > 0 ? (long) (totalBytes * 8 / totalSeconds) : peak;
+        return new HlsPackage(dir.toFile(), rendition, width, height, frameRate, totalSeconds, peak, average);
+    }
+
+    /**
+     * Build a master playlist listing every rung. Rendition playlists are referenced relative
+     * to the master, i.e. "{rendition}/index.m3u8".
+     */
+    public String buildMasterPlaylist(List<HlsPackage> rungs) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("#EXTM3U\n");
+        // fMP4 segments (EXT-X-MAP in the media playlists) need version 7
+        sb.append("#EXT-X-VERSION:").append("fmp4".equalsIgnoreCase(segmentType) ? 7 : 3).append("\n");
+        sb.append("#EXT-X-INDEPENDENT-SEGMENTS\n");
+        rungs.stream()
+                .sorted(Comparator.comparingLong(HlsPackage::peakBandwidth).reversed())
+                .forEach(rung -> {
+                    sb.append("#EXT-X-STREAM-INF:BANDWIDTH=").append(rung.peakBandwidth())
+                            .append(",AVERAGE-BANDWIDTH=").append(rung.averageBandwidth())
+                            .append(",RESOLUTION=").append(rung.width()).append('x').append(rung.height());
+                    if (rung.frameRate() > 0) {
+                        sb.append(",FRAME-RATE=").append(String.format(Locale.ROOT, "%.3f", rung.frameRate()));
+                    }
+                    sb.append("\n").append(rung.rendition()).append('/').append(PLAYLIST_NAME).append("\n");
+                });
+        return sb.toString();
+    }
+
+    /**
+     * Store every file of a packaged rendition under the given key prefix.
+     */
+    public void store(File packageDir, StorageService storage, String keyPrefix) throws IOException {
+        File[] files = packageDir.listFiles();
+        if (files == null) {
+            throw new IOException("HLS package directory is empty: " + packageDir);
+        }
+        for (File file : files) {
+            storage.store(file, keyPrefix + "/" + file.getName());
+        }
+    }
+
+    public void deleteDirectory(File dir) {
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Content type for a file inside an HLS package.
+     */
+    public static String contentTypeFor(String fileName) {
+        if (fileName.endsWith(".m3u8")) return "application/vnd.apple.mpegurl";
+        if (fileName.endsWith(".ts")) return "video/mp2t";
+        return "video/mp4"; // init.mp4 and .m4s segments
+    }
+}
@@ -6,10 +6,6 @@ import com.neu.finalproject.meskot.model.Movie;
 import com.neu.finalproject.meskot.repository.MovieRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.io.Resource;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.HttpStatus;
-import org.springframework.http.MediaType;
-import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.client.RestTemplate;
@@ -27,6 +23,12 @@ public class InternetArchiveMovieService {
     @Autowired
     private InternetArchiveStorageService storageService;
 
+    @Autowired
+    private ChunkCache chunkCache;
+
+    @Autowired
+    private MediaProbeService mediaProbeService;
+
     private final RestTemplate restTemplate;
     private final ObjectMapper objectMapper;
 
@@ -200,76 +202,60 @@ public class InternetArchiveMovieService {
 
         Movie savedMovie = movieRepository.save(movie);
         System.out.println("Movie saved successfully with ID: " + savedMovie.getId());
+
+        // Duration, resolution, codecs and a poster come from range reads of the file itself
+        mediaProbeService.probeAfterCommit(savedMovie.getId());
         System.out.println("=========================");
 
         return savedMovie;
     }
 
     /**
-     * Stream a movie from Internet Archive with range support
-     * @param movieId The database movie ID
-     * @param rangeHeader The HTTP Range header for partial content
-     * @return ResponseEntity with proper headers for streaming
+     * Range source for an Internet Archive movie, served through {@link RangeRequestEngine}
+     * @param movie The imported movie
+     * @return A source that reads byte ranges through the chunk cache, fetching missing
+     *         chunks from the archive on demand
      */
-    public ResponseEntity<Resource> streamMovieWithRange(Long movieId, String rangeHeader) throws Exception {
-        Movie movie = movieRepository.findById(movieId)
-                .orElseThrow(() -> new Exception("Movie not found"));
+    public StorageRangeSource rangeSource(Movie movie) throws Exception {
+        return new StorageRangeSource(storageService, resolveFilePath(movie), "video/mp4",
+                RemoteMetadataCache.INTERNET_ARCHIVE, chunkCache);
+    }
 
+    /**
+     * The movie's "item/file" path. Movies saved with only an item identifier have their main
+     * video file looked up once and the full path stored, so later requests skip the item
+     * metadata fetch.
+     */
+    private String resolveFilePath(Movie movie) throws Exception {
         String filePath = movie.getFilePath();
-        String[] parts = filePath.split("/", 2);
-
-        if (parts.length != 2) {
-            throw new Exception("Invalid file path format for Internet Archive movie");
+        if (filePath.contains("/")) {
+            return filePath;
         }
 
-        String itemIdentifier = parts[0];
-        String fileName = parts[1];
-
-        try {
-            // Get file size first
-            long fileLength = storageService.getContentLength(itemIdentifier, fileName);
+        String fileName = findMainVideoFile(filePath);
+        if (fileName == null) {
+            throw new Exception("No video file found for this movie");
+        }
+        String resolved = filePath + "/" + fileName;
+        movie.setFilePath(resolved);
+        movieRepository.save(movie);
+        System.out.println("Resolved Internet Archive file path: " + resolved);
+        return resolved;
+    }
 
-            long rangeStart = 0;
-            long rangeEnd = fileLength - 1;
+    private String findMainVideoFile(String itemIdentifier) throws Exception {
+        JsonNode metadata = fetchItemMetadata(itemIdentifier);
+        JsonNode filesNode = metadata.get("files");
 
-            // Parse range header
-            if (rangeHeader != null && rangeHeader.startsWith("bytes=")) {
-                String[] ranges = rangeHeader.substring(6).split("-");
-                try {
-                    rangeStart = Long.parseLong(ranges[0]);
-                    if (ranges.length > 1 && !ranges[1].isEmpty()) {
-                        rangeEnd = Long.parseLong(ranges[1]);
-                    }
-                } catch (NumberFormatException e) {
-                    // Invalid range, use defaults
+        if (filesNode != null && filesNode.isArray()) {
+            for (JsonNode file : filesNode) {
+                String format = file.has("format") ? file.get("format").asText() : null;
+                if (format != null && (format.contains("MPEG4") || format.contains("h.264"))) {
+                    return file.get("name").asText();
                 }
             }
-
-            if (rangeEnd > fileLength - 1) {
-                rangeEnd = fileLength - 1;
-            }
-
-            long contentLength = rangeEnd - rangeStart + 1;
-
-            // Build range header for Internet Archive request
-            String iaRangeHeader = "bytes=" + rangeStart + "-" + rangeEnd;
-
-            // Stream with range
-            Resource resource = storageService.streamFromArchiveWithRange(itemIdentifier, fileName, iaRangeHeader);
-
-            HttpHeaders headers = new HttpHeaders();
-            headers.add("Accept-Ranges", "bytes");
-            headers.add("Content-Range", "bytes " + rangeStart + "-" + rangeEnd + "/" + fileLength);
-            headers.setContentLength(contentLength);
-            headers.setContentType(MediaType.valueOf("video/mp4"));
-
-            HttpStatus status = (rangeHeader != null) ? HttpStatus.PARTIAL_CONTENT : HttpStatus.OK;
-
-            return new ResponseEntity<>(resource, headers, status);
-
-        } catch (Exception e) {
-            throw new Exception("Error streaming movie: " + e.getMessage(), e);
         }
+        return null;
     }
 
     /**
@@ -281,28 +267,8 @@ public class InternetArchiveMovieService {
         Movie movie = movieRepository.findById(movieId)
                 .orElseThrow(() -> new Exception("Movie not found"));
 
-        String filePath = movie.getFilePath();
-        String[] parts = filePath.split("/", 2);
-
-        if (parts.length == 2) {
-            return storageService.streamFromArchive(parts[0], parts[1]);
-        } else {
-            // If only item identifier, try to find the main video file
-            JsonNode metadata = fetchItemMetadata(filePath);
-            JsonNode filesNode = metadata.get("files");
-
-            if (filesNode != null && filesNode.isArray()) {
-                for (JsonNode file : filesNode) {
-                    String format = file.has("format") ? file.get("format").asText() : null;
-                    if (format != null && (format.contains("MPEG4") || format.contains("h.264"))) {
-                        String fileName = file.get("name").asText();
-                        return storageService.streamFromArchive(filePath, fileName);
-                    }
-                }
-            }
-
-            throw new Exception("No video file found for this movie");
-        }
+        String[] parts = resolveFilePath(movie).split("/", 2);
+        return storageService.streamFromArchive(parts[0], parts[1]);
     }
 
     /**
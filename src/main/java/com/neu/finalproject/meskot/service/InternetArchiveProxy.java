@@ -0,0 +1,305 @@
+package com.neu.finalproject.meskot.service;
+
+import jakarta.annotation.PreDestroy;
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.client5.http.classic.methods.HttpHead;
+import org.apache.hc.client5.http.classic.methods.HttpUriRequestBase;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * HTTP client for range reads from archive.org.
+ *
+ * archive.org/download/{item}/{file} always answers with a redirect to the data node that
+ * holds the item, so a naive client pays a TLS handshake to archive.org, the redirect and a
+ * second handshake to the node on every seek. This proxy keeps pooled keep-alive connections
+ * to both hosts, remembers where each file redirects to, and aborts the upstream transfer when
+ * the reader stops early (a player seeking away) instead of draining the rest of the range.
+ */
+@Component
+public class InternetArchiveProxy {
+
+    private static final String DOWNLOAD_BASE = "https://archive.org/download/";
+    private static final int MAX_REDIRECTS = 5;
+
+    private final CloseableHttpClient client;
+    private final PoolingHttpClientConnectionManager connectionManager;
+    // Remembers the data node each file redirects to, across restarts
+    private final RemoteMetadataCache metadataCache;
+
+    public InternetArchiveProxy(RemoteMetadataCache metadataCache,
+                                @Value("${app.ia.proxy.max-connections:200}") int maxConnections,
+                                @Value("${app.ia.proxy.max-connections-per-host:50}") int maxPerHost,
+                                @Value("${app.ia.proxy.connect-timeout-ms:5000}") long connectTimeoutMs,
+                                @Value("${app.ia.proxy.read-timeout-ms:60000}") long readTimeoutMs,
+                                @Value("${app.ia.proxy.idle-seconds:30}") long idleSeconds) {
+        this.metadataCache = metadataCache;
+        this.connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxPerHost)
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.ofMilliseconds(connectTimeoutMs))
+                        .setSocketTimeout(Timeout.ofMilliseconds(readTimeoutMs))
+                        .setValidateAfterInactivity(TimeValue.ofSeconds(2))
+                        .build())
+                .build();
+        this.client = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                // Redirects are followed by hand so the final URL can be cached
+                .disableRedirectHandling()
+                .evictIdleConnections(TimeValue.ofSeconds(idleSeconds))
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setResponseTimeout(Timeout.ofMilliseconds(readTimeoutMs))
+                        .build())
+                .build();
+    }
+
+    /**
+     * Size, modification time and content type of an archive file, from a HEAD against the
+     * data node (the redirect is only followed when it isn't cached yet).
+     */
+    public StorageService.ObjectStat stat(String itemIdentifier, String fileKey) throws IOException {
+        String key = itemIdentifier + "/" + fileKey;
+        ClassicHttpResponse response = execute(key, HttpHead::new, null);
+        try {
+            int status = response.getCode();
+            if (status == 404) {
+                throw new FileNotFoundException("Archive file not found: " + key);
+            }
+            if (status != 200) {
+                throw new IOException("Failed to get file info. HTTP " + status);
+            }
+            return new StorageService.ObjectStat(
+                    headerLong(response, "Content-Length"),
+                    headerDate(response, "Last-Modified"),
+                    headerValue(response, "Content-Type"),
+                    headerValue(response, "ETag"));
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Open bytes [start, end] of an archive file. Closing the stream before the range is fully
+     * read aborts the upstream request; a fully read stream returns its connection to the pool.
+     */
+    public InputStream openRange(String itemIdentifier, String fileKey, long start, long end) throws IOException {
+        String key = itemIdentifier + "/" + fileKey;
+        long expected = end - start + 1;
+        HttpUriRequestBase[] sent = new HttpUriRequestBase[1];
+        ClassicHttpResponse response = execute(key, uri -> {
+            HttpGet get = new HttpGet(uri);
+            sent[0] = get;
+            return get;
+        }, "bytes=" + start + "-" + end);
+
+        int status = response.getCode();
+        HttpEntity entity = response.getEntity();
+        if ((status != 200 && status != 206) || entity == null) {
+            sent[0].cancel();
+            response.close();
+            if (status == 404) {
+                throw new FileNotFoundException("Archive file not found: " + key);
+            }
+            throw new IOException("Failed to stream from Internet Archive. HTTP " + status);
+        }
+
+        UpstreamStream in = new UpstreamStream(entity.getContent(), sent[0], response, expected, status == 206);
+        if (status == 200 && start > 0) {
+            // Range ignored upstream: skip to the start ourselves
+            in.skipPrefix(start);
+        }
+        return in;
+    }
+
+    public String downloadUrl(String itemIdentifier, String fileKey) {
+        return DOWNLOAD_BASE + itemIdentifier + "/" + encodePath(fileKey);
+    }
+
+    public PoolStats poolStats() {
+        return connectionManager.getTotalStats();
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        client.close();
+    }
+
+    private interface RequestFactory {
+        HttpUriRequestBase create(URI uri);
+    }
+
+    /**
+     * Send the request to the cached data node URL if there is one, otherwise to the canonical
+     * download URL, following redirects by hand. A cached URL that stops working is dropped
+     * and the request retried once from the canonical URL.
+     */
+    private ClassicHttpResponse execute(String key, RequestFactory factory, String range) throws IOException {
+        String cached = metadataCache.resolvedUrl(RemoteMetadataCache.INTERNET_ARCHIVE, key);
+        if (cached != null) {
+            try {
+                ClassicHttpResponse response = send(factory.create(URI.create(cached)), range);
+                if (response.getCode() < 300) {
+                    return response;
+                }
+                discard(response);
+            } catch (IOException e) {
+                System.out.println("Cached archive.org node failed for " + key + ": " + e.getMessage());
+            }
+            metadataCache.forgetResolvedUrl(RemoteMetadataCache.INTERNET_ARCHIVE, key);
+        }
+
+        int slash = key.indexOf('/');
+        URI uri = URI.create(downloadUrl(key.substring(0, slash), key.substring(slash + 1)));
+        for (int hop = 0; hop <= MAX_REDIRECTS; hop++) {
+            ClassicHttpResponse response = send(factory.create(uri), range);
+            int status = response.getCode();
+            Header location = response.getFirstHeader("Location");
+            if (status < 300 || status >= 400 || location == null) {
+                if (hop > 0 && status < 300) {
+                    metadataCache.recordResolvedUrl(RemoteMetadataCache.INTERNET_ARCHIVE, key, uri.toString());
+                }
+                return response;
+            }
+            discard(response);
+            uri = uri.resolve(location.getValue());
+        }
+        throw new IOException("Too many redirects from archive.org for " + key);
+    }
+
+    private ClassicHttpResponse send(HttpUriRequestBase request, String range) throws IOException {
+        if (range != null) {
+            request.setHeader("Range", range);
+        }
+        return client.executeOpen(null, request, null);
+    }
+
+    /**
+     * Read out a small response (redirect or error page) so its connection can be reused.
+     */
+    private void discard(ClassicHttpResponse response) {
+        try {
+            EntityUtils.consume(response.getEntity());
+            response.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static String headerValue(ClassicHttpResponse response, String name) {
+        Header header = response.getFirstHeader(name);
+        return header != null ? header.getValue() : null;
+    }
+
+    private static long headerLong(ClassicHttpResponse response, String name) {
+        String value = headerValue(response, name);
+        try {
+            return value != null ? Long.parseLong(value.trim()) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static long headerDate(ClassicHttpResponse response, String name) {
+        String value = headerValue(response, name);
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    private static String encodePath(String fileKey) {
+        return URLEncoder.encode(fileKey, StandardCharsets.UTF_8).replace("+", "%20").replace("%2F", "/");
+    }
+
+    /**
+     * Body of a ranged GET. Stops after the requested range and, if closed early, cancels the
+     * request so the connection is dropped rather than drained to the end of the range.
+     */
+    private static final class UpstreamStream extends FilterInputStream {
+        private final HttpUriRequestBase request;
+        private final ClassicHttpResponse response;
+        private final boolean exact;
+        private long remaining;
+
+        /**
+         * @param exact whether the body is exactly the requested range (206); a 200 carries
+         *              the rest of the file after it, which must never be drained
+         */
+        UpstreamStream(InputStream in, HttpUriRequestBase request, ClassicHttpResponse response, long length,
+                       boolean exact) {
+            super(in);
+            this.request = request;
+            this.response = response;
+            this.remaining = length;
+            this.exact = exact;
+        }
+
+        void skipPrefix(long bytes) throws IOException {
+            in.skipNBytes(bytes);
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = in.read(b, off, (int) Math.min(len, remaining));
+            if (read > 0) {
+                remaining -= read;
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (remaining > 0 || !exact) {
+                // Client went away or seeked: don't pull the rest of the range from archive.org
+                request.cancel();
+            }
+            try {
+                response.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
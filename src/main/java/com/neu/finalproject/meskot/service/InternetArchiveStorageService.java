@@ -4,7 +4,6 @@ import com.neu.finalproject.meskot.model.StoredObject;
 import com.neu.finalproject.meskot.repository.StoredObjectRepository;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.ByteArrayResource;
-import org.springframework.core.io.InputStreamResource;
 import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -23,95 +22,35 @@ public class InternetArchiveStorageService implements StorageService {
     private String baseDir;
 
     private final StoredObjectRepository storedObjectRepository;
+    private final InternetArchiveProxy archiveProxy;
+    private final RemoteMetadataCache metadataCache;
 
-    public InternetArchiveStorageService(StoredObjectRepository storedObjectRepository) {
+    public InternetArchiveStorageService(StoredObjectRepository storedObjectRepository,
+                                         InternetArchiveProxy archiveProxy,
+                                         RemoteMetadataCache metadataCache) {
         this.storedObjectRepository = storedObjectRepository;
+        this.archiveProxy = archiveProxy;
+        this.metadataCache = metadataCache;
     }
 
     /**
-     * Stream a file from Internet Archive with range support
-     * Supports partial content (HTTP 206) for video seeking
+     * Get content length and metadata for a file without downloading it
      */
-    public Resource streamFromArchiveWithRange(String itemIdentifier, String fileKey, String rangeHeader) throws IOException {
-        try {
-            String encodedFileKey = java.net.URLEncoder.encode(fileKey, "UTF-8")
-                    .replace("+", "%20");
-
-            String url = String.format("https://archive.org/download/%s/%s", itemIdentifier, encodedFileKey);
-
-            System.out.println("Streaming with range from: " + url);
-            System.out.println("Range: " + rangeHeader);
-
-            java.net.URL downloadUrl = new java.net.URL(url);
-            java.net.HttpURLConnection connection = (java.net.HttpURLConnection) downloadUrl.openConnection();
-            connection.setRequestMethod("GET");
-            connection.setConnectTimeout(10000);
-            connection.setReadTimeout(60000);
-            connection.setInstanceFollowRedirects(true);
-
-            // Add Range header if provided
-            if (rangeHeader != null && !rangeHeader.isEmpty()) {
-                connection.setRequestProperty("Range", rangeHeader);
-            }
-
-            int responseCode = connection.getResponseCode();
-            System.out.println("Response code: " + responseCode);
-
-            // Accept both 200 (full content) and 206 (partial content)
-            if (responseCode == 200 || responseCode == 206) {
-                // Return the input stream directly without buffering entire file
-                InputStream inputStream = connection.getInputStream();
-                return new InputStreamResource(inputStream) {
-                    @Override
-                    public long contentLength() throws IOException {
-                        String contentLength = connection.getHeaderField("Content-Length");
-                        return contentLength != null ? Long.parseLong(contentLength) : -1;
-                    }
-                };
-            } else {
-                connection.disconnect();
-                throw new IOException("Failed to stream from Internet Archive. HTTP " + responseCode);
-            }
-
-        } catch (Exception e) {
-            throw new IOException("Error streaming from Internet Archive: " + e.getMessage(), e);
-        }
+    public long getContentLength(String itemIdentifier, String fileKey) throws IOException {
+        return getFileInfo(itemIdentifier, fileKey).size();
     }
 
     /**
-     * Get content length and metadata for a file without downloading it
+     * Get content length and last modification time for a file without downloading it
      */
-    public long getContentLength(String itemIdentifier, String fileKey) throws IOException {
-        try {
-            String encodedFileKey = java.net.URLEncoder.encode(fileKey, "UTF-8")
-                    .replace("+", "%20");
-
-            String url = String.format("https://archive.org/download/%s/%s", itemIdentifier, encodedFileKey);
-
-            java.net.URL downloadUrl = new java.net.URL(url);
-            java.net.HttpURLConnection connection = (java.net.HttpURLConnection) downloadUrl.openConnection();
-            connection.setRequestMethod("HEAD");
-            connection.setConnectTimeout(5000);
-            connection.setReadTimeout(10000);
-            connection.setInstanceFollowRedirects(true);
-
-            int responseCode = connection.getResponseCode();
-            if (responseCode == 200) {
-                long length = connection.getContentLengthLong();
-                connection.disconnect();
-                return length;
-            } else {
-                connection.disconnect();
-                throw new IOException("Failed to get file info. HTTP " + responseCode);
-            }
-        } catch (Exception e) {
-            throw new IOException("Error getting file info: " + e.getMessage(), e);
-        }
+    public ObjectStat getFileInfo(String itemIdentifier, String fileKey) throws IOException {
+        return metadataCache.stat(RemoteMetadataCache.INTERNET_ARCHIVE, itemIdentifier + "/" + fileKey,
+                () -> archiveProxy.stat(itemIdentifier, fileKey));
     }
 
     /**
      * Stream a file directly from Internet Archive without storing locally
-     * Downloads entire file - use streamFromArchiveWithRange for better performance
+     * Downloads entire file - use openRange for better performance
      */
     public Resource streamFromArchive(String itemIdentifier, String fileKey) throws IOException {
         try {
@@ -167,24 +106,38 @@ public class InternetArchiveStorageService implements StorageService {
      */
     public boolean existsInArchive(String itemIdentifier, String fileKey) {
         try {
-            String encodedFileKey = java.net.URLEncoder.encode(fileKey, "UTF-8")
-                    .replace("+", "%20");
-
-            String url = String.format("https://archive.org/download/%s/%s", itemIdentifier, encodedFileKey);
+            getFileInfo(itemIdentifier, fileKey);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
 
-            java.net.URL downloadUrl = new java.net.URL(url);
-            java.net.HttpURLConnection connection = (java.net.HttpURLConnection) downloadUrl.openConnection();
-            connection.setRequestMethod("HEAD");
-            connection.setConnectTimeout(5000);
-            connection.setInstanceFollowRedirects(true);
+    /**
+     * Stat an archive file. Keys are "itemIdentifier/fileName", the same form movies keep
+     * in their file path.
+     */
+    @Override
+    public ObjectStat stat(String objectKey) throws IOException {
+        String[] parts = splitArchiveKey(objectKey);
+        return getFileInfo(parts[0], parts[1]);
+    }
 
-            int responseCode = connection.getResponseCode();
-            connection.disconnect();
+    /**
+     * Ranged read of an archive file addressed as "itemIdentifier/fileName".
+     */
+    @Override
+    public InputStream openRange(String objectKey, long start, long end) throws IOException {
+        String[] parts = splitArchiveKey(objectKey);
+        return archiveProxy.openRange(parts[0], parts[1], start, end);
+    }
 
-            return responseCode == 200;
-        } catch (Exception e) {
-            return false;
+    private String[] splitArchiveKey(String objectKey) throws IOException {
+        String[] parts = objectKey.split("/", 2);
+        if (parts.length != 2) {
+            throw new IOException("Internet Archive keys have the form item/file: " + objectKey);
         }
+        return parts;
     }
 
     // Original local storage methods for uploading user content
@@ -236,6 +189,11 @@ public class InternetArchiveStorageService implements StorageService {
         return key;
     }
 
+    @Override
+    public void replace(File file, String objectKey) throws IOException {
+        throw new IOException("Internet Archive objects are read-only: " + objectKey);
+    }
+
     @Override
     public Resource loadAsResource(String objectKey) throws IOException {
         Path p = toPath(objectKey);
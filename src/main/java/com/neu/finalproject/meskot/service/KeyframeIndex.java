@@ -0,0 +1,107 @@
+package com.neu.finalproject.meskot.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Timestamp to byte offset of every video keyframe in one MP4 rendition, plus where its moov
+ * box sits. Stored as a small binary sidecar next to the rendition (12 bytes per keyframe,
+ * roughly 40 KB for two hours at a 2 second GOP).
+ */
+public final class KeyframeIndex {
+
+    private static final int MAGIC = 0x4B464931; // "KFI1"
+
+    /** A keyframe: presentation time in milliseconds and file offset of its first byte. */
+    public record Entry(long timeMillis, long offset) {
+    }
+
+    private final long fileSize;
+    private final long moovOffset;
+    private final long moovSize;
+    private final long[] times;
+    private final long[] offsets;
+
+    public KeyframeIndex(long fileSize, long moovOffset, long moovSize, long[] times, long[] offsets) {
+        if (times.length != offsets.length) {
+            throw new IllegalArgumentException("times and offsets differ in length");
+        }
+        this.fileSize = fileSize;
+        this.moovOffset = moovOffset;
+        this.moovSize = moovSize;
+        this.times = times;
+        this.offsets = offsets;
+    }
+
+    /**
+     * The last keyframe at or before the given time, or the first keyframe when the time
+     * precedes all of them. Null only for an empty index.
+     */
+    public Entry floor(long timeMillis) {
+        if (times.length == 0) {
+            return null;
+        }
+        int i = Arrays.binarySearch(times, timeMillis);
+        if (i < 0) {
+            i = Math.max(0, -i - 2);
+        }
+        return new Entry(times[i], offsets[i]);
+    }
+
+    public int size() {
+        return times.length;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public long getMoovOffset() {
+        return moovOffset;
+    }
+
+    public long getMoovSize() {
+        return moovSize;
+    }
+
+    public byte[] toBytes() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 + times.length * 12);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeLong(fileSize);
+            out.writeLong(moovOffset);
+            out.writeLong(moovSize);
+            out.writeInt(times.length);
+            for (int i = 0; i < times.length; i++) {
+                // millisecond times fit an int for anything under 24 days
+                out.writeInt((int) times[i]);
+                out.writeLong(offsets[i]);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static KeyframeIndex read(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a keyframe index");
+        }
+        long fileSize = in.readLong();
+        long moovOffset = in.readLong();
+        long moovSize = in.readLong();
+        int count = in.readInt();
+        long[] times = new long[count];
+        long[] offsets = new long[count];
+        for (int i = 0; i < count; i++) {
+            times[i] = in.readInt();
+            offsets[i] = in.readLong();
+        }
+        return new KeyframeIndex(fileSize, moovOffset, moovSize, times, offsets);
+    }
+}
@@ -0,0 +1,147 @@
+package com.neu.finalproject.meskot.service;
+
+import com.neu.finalproject.meskot.model.Movie;
+import com.neu.finalproject.meskot.model.MovieMetadata;
+import com.neu.finalproject.meskot.repository.MovieMetadataRepository;
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avutil.AVRational;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.bytedeco.ffmpeg.global.avcodec.AV_PKT_FLAG_KEY;
+import static org.bytedeco.ffmpeg.global.avutil.AV_NOPTS_VALUE;
+
+/**
+ * Builds keyframe indexes at ingest and answers time-to-byte lookups from them. Indexes are
+ * read from packet headers only - nothing is decoded - and loaded ones are kept in memory,
+ * so a seek costs no storage request once a rendition has been seeked before.
+ */
+@Service
+public class KeyframeIndexService {
+
+    public static final String INDEX_SUFFIX = ".kfi";
+
+    private final MovieMetadataRepository movieMetadataRepository;
+    private final LocalStorageService localStorageService;
+    private final SupabaseStorageService supabaseStorageService;
+
+    @Value("${app.keyframe-index.max-cached:500}")
+    private int maxCached;
+
+    // keyed by the index's storage key
+    private final Map<String, KeyframeIndex> loaded = new ConcurrentHashMap<>();
+
+    public KeyframeIndexService(MovieMetadataRepository movieMetadataRepository,
+                                LocalStorageService localStorageService,
+                                SupabaseStorageService supabaseStorageService) {
+        this.movieMetadataRepository = movieMetadataRepository;
+        this.localStorageService = localStorageService;
+        this.supabaseStorageService = supabaseStorageService;
+    }
+
+    /**
+     * Index the video keyframes of a finished MP4. Offsets are those of the file as given, so
+     * build it from the file that is actually stored (after any faststart rewrite).
+     */
+    public KeyframeIndex build(File mp4) throws IOException {
+        Mp4Layout layout = Mp4Layout.probe(mp4.toPath());
+        long[] times = new long[1024];
+        long[] offsets = new long[1024];
+        int count = 0;
+
+        FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(mp4);
+        try {
+            grabber.start();
+            int videoStream = grabber.getVideoStream();
+            AVRational timeBase = grabber.getFormatContext().streams(videoStream).time_base();
+            double secondsPerTick = (double) timeBase.num() / timeBase.den();
+
+            AVPacket packet;
+            while ((packet = grabber.grabPacket()) != null) {
+                if (packet.stream_index() != videoStream || (packet.flags() & AV_PKT_FLAG_KEY) == 0
+                        || packet.pos() < 0) {
+                    continue;
+                }
+                long pts = packet.pts() != AV_NOPTS_VALUE ? packet.pts() : packet.dts();
+                if (count == times.length) {
+                    times = Arrays.copyOf(times, count * 2);
+                    offsets = Arrays.copyOf(offsets, count * 2);
+                }
+                times[count] = Math.round(pts * secondsPerTick * 1000);
+                offsets[count] = packet.pos();
+                count++;
+            }
+        } finally {
+            grabber.stop();
+            grabber.release();
+        }
+
+        // Packets come in decode order; keyframes are sync samples, so this is presentation order too
+        return new KeyframeIndex(layout.getSize(), layout.getMoovOffset(), layout.getMoovSize(),
+                Arrays.copyOf(times, count), Arrays.copyOf(offsets, count));
+    }
+
+    /**
+     * Store an index as a sidecar and return its key.
+     */
+    public String store(KeyframeIndex index, StorageService storage, String key) throws IOException {
+        byte[] bytes = index.toBytes();
+        storage.store(new ByteArrayInputStream(bytes), key, bytes.length, "application/octet-stream");
+        loaded.put(key, index);
+        return key;
+    }
+
+    /**
+     * The index of the rendition /stream serves for a movie (its main file), or of the named
+     * rendition. Null when no index was built for it.
+     */
+    public KeyframeIndex indexFor(Movie movie, String rendition) throws IOException {
+        MovieMetadata meta = null;
+        for (MovieMetadata candidate : movieMetadataRepository.findByMovie(movie)) {
+            if (candidate.getKeyframeIndexPath() == null) {
+                continue;
+            }
+            boolean match = rendition != null
+                    ? rendition.equalsIgnoreCase(candidate.getResolution())
+                    : candidate.getFilePath() != null && candidate.getFilePath().equals(movie.getFilePath());
+            if (match) {
+                meta = candidate;
+                break;
+            }
+        }
+        if (meta == null) {
+            return null;
+        }
+
+        String key = meta.getKeyframeIndexPath();
+        KeyframeIndex index = loaded.get(key);
+        if (index != null) {
+            return index;
+        }
+        StorageService storage = "SUPABASE".equals(movie.getSourceType()) ? supabaseStorageService : localStorageService;
+        long size = storage.stat(key).size();
+        try (InputStream in = storage.openRange(key, 0, size - 1)) {
+            index = KeyframeIndex.read(in);
+        }
+        if (loaded.size() >= maxCached) {
+            // Not LRU, just bounded: indexes are cheap to reload
+            Iterator<String> it = loaded.keySet().iterator();
+            if (it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        }
+        loaded.put(key, index);
+        return index;
+    }
+}
@@ -0,0 +1,193 @@
+package com.neu.finalproject.meskot.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shares read-only FileChannels between concurrent range requests for the same local file.
+ * FileChannel positional transfers don't touch the channel position, so one open channel
+ * can serve every viewer of a movie instead of opening a RandomAccessFile per request.
+ */
+@Component
+public class LocalChannelPool {
+
+    @Value("${app.streaming.local.channel-idle-seconds:60}")
+    private long idleSeconds;
+
+    private final Map<Path, PooledChannel> channels = new ConcurrentHashMap<>();
+
+    /**
+     * Borrow the shared channel for a file. The lease must be closed when the transfer is done.
+     * If the file was replaced since the channel was opened, a fresh channel is opened and the
+     * old one is closed once its last borrower is finished.
+     */
+    public Lease acquire(Path path) throws IOException {
+        Path key = path.toAbsolutePath().normalize();
+        BasicFileAttributes attrs = Files.readAttributes(key, BasicFileAttributes.class);
+        PooledChannel shared = channels.computeIfPresent(key, (k, existing) -> {
+            if (existing.matches(attrs)) {
+                existing.retain();
+                return existing;
+            }
+            existing.retire();
+            return null;
+        });
+        if (shared != null) {
+            return new Lease(shared);
+        }
+
+        // Opened outside the map's lock: blocking I/O in there would pin a virtual thread
+        PooledChannel fresh = new PooledChannel(FileChannel.open(key, StandardOpenOption.READ), attrs);
+        PooledChannel pooled = channels.compute(key, (k, existing) -> {
+            if (existing != null && existing.matches(attrs)) {
+                existing.retain();
+                return existing;
+            }
+            if (existing != null) {
+                existing.retire();
+            }
+            fresh.retain();
+            return fresh;
+        });
+        if (pooled != fresh) {
+            // Another request opened the same file first
+            fresh.retire();
+        }
+        return new Lease(pooled);
+    }
+
+    public int openChannelCount() {
+        return channels.size();
+    }
+
+    /**
+     * Close channels nobody has borrowed for a while.
+     */
+    @Scheduled(fixedDelayString = "${app.streaming.local.channel-sweep-ms:30000}")
+    public void closeIdleChannels() {
+        long cutoff = System.currentTimeMillis() - idleSeconds * 1000;
+        for (Path key : channels.keySet()) {
+            channels.computeIfPresent(key, (k, pooled) -> {
+                if (pooled.refs.get() == 0 && pooled.lastUsed < cutoff) {
+                    pooled.retire();
+                    return null;
+                }
+                return pooled;
+            });
+        }
+    }
+
+    @PreDestroy
+    public void closeAll() {
+        channels.values().forEach(PooledChannel::retire);
+        channels.clear();
+    }
+
+    /**
+     * A borrowed reference to a pooled channel.
+     */
+    public static final class Lease implements AutoCloseable {
+        private final PooledChannel pooled;
+        private boolean closed;
+
+        private Lease(PooledChannel pooled) {
+            this.pooled = pooled;
+        }
+
+        public long size() {
+            return pooled.size;
+        }
+
+        public FileChannel channel() {
+            return pooled.channel;
+        }
+
+        /**
+         * Copy {@code count} bytes starting at {@code position} to the client. The JDK hands
+         * the copy to the kernel where it can and otherwise uses a direct buffer, so the bytes
+         * never pass through the Java heap.
+         */
+        public void transferTo(long position, long count, OutputStream out) throws IOException {
+            WritableByteChannel target = Channels.newChannel(out);
+            long pos = position;
+            long remaining = count;
+            while (remaining > 0) {
+                long written = pooled.channel.transferTo(pos, remaining, target);
+                if (written <= 0) {
+                    break;
+                }
+                pos += written;
+                remaining -= written;
+            }
+            out.flush();
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                pooled.release();
+            }
+        }
+    }
+
+    private static final class PooledChannel {
+        private final FileChannel channel;
+        private final long size;
+        private final long modified;
+        private final AtomicInteger refs = new AtomicInteger();
+        private volatile boolean retired;
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        private PooledChannel(FileChannel channel, BasicFileAttributes attrs) {
+            this.channel = channel;
+            this.size = attrs.size();
+            this.modified = attrs.lastModifiedTime().toMillis();
+        }
+
+        boolean matches(BasicFileAttributes attrs) {
+            return !retired && size == attrs.size() && modified == attrs.lastModifiedTime().toMillis();
+        }
+
+        void retain() {
+            refs.incrementAndGet();
+            lastUsed = System.currentTimeMillis();
+        }
+
+        void release() {
+            lastUsed = System.currentTimeMillis();
+            if (refs.decrementAndGet() == 0 && retired) {
+                closeQuietly();
+            }
+        }
+
+        void retire() {
+            retired = true;
+            if (refs.get() == 0) {
+                closeQuietly();
+            }
+        }
+
+        private void closeQuietly() {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.neu.finalproject.meskot.service;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Serves byte ranges of local files without copying them through the heap.
+ *
+ * When the servlet container supports sendfile (Tomcat NIO does by default) the range is
+ * handed to the container and written by the kernel straight from the page cache. Otherwise
+ * the range is written with FileChannel.transferTo over a channel shared through
+ * {@link LocalChannelPool}.
+ */
+@Component
+public class LocalFileStreamer {
+
+    private static final String SENDFILE_SUPPORTED = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    @Value("${app.streaming.local.zero-copy:true}")
+    private boolean zeroCopy;
+
+    @Value("${app.streaming.local.sendfile:true}")
+    private boolean sendfile;
+
+    // Below this size the sendfile setup costs more than it saves (same threshold as Tomcat's DefaultServlet)
+    @Value("${app.streaming.local.sendfile-min-bytes:49152}")
+    private long sendfileMinBytes;
+
+    private final LocalChannelPool channelPool;
+
+    public LocalFileStreamer(LocalChannelPool channelPool) {
+        this.channelPool = channelPool;
+    }
+
+    /**
+     * Build the body for bytes [start, end] of a file.
+     *
+     * @return the body to send, or null when the container will send the range itself via
+     *         sendfile and the response must go out without a body
+     */
+    public StreamingResponseBody body(Path path, long start, long end) throws IOException {
+        long count = end - start + 1;
+        if (zeroCopy && sendfile && count >= sendfileMinBytes && handToContainer(path, start, end)) {
+            return null;
+        }
+        if (!zeroCopy) {
+            return out -> {
+                try (InputStream in = Files.newInputStream(path)) {
+                    in.skipNBytes(start);
+                    byte[] buffer = new byte[8192];
+                    long remaining = count;
+                    int read;
+                    while (remaining > 0 && (read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+                        out.write(buffer, 0, read);
+                        remaining -= read;
+                    }
+                }
+            };
+        }
+        return out -> {
+            try (LocalChannelPool.Lease lease = channelPool.acquire(path)) {
+                lease.transferTo(start, count, out);
+            }
+        };
+    }
+
+    /**
+     * Bytes the container has been asked to send with sendfile for this request, or -1 if none.
+     */
+    static long sendfileLength(HttpServletRequest request) {
+        if (request.getAttribute(SENDFILE_FILENAME) instanceof String
+                && request.getAttribute(SENDFILE_START) instanceof Long start
+                && request.getAttribute(SENDFILE_END) instanceof Long end) {
+            return end - start;
+        }
+        return -1;
+    }
+
+    /**
+     * Take back a sendfile hand-off, so a response replaced after the body was built (a 503
+     * from admission control) doesn't carry the file anyway.
+     */
+    static void cancelSendfile(HttpServletRequest request) {
+        request.removeAttribute(SENDFILE_FILENAME);
+        request.removeAttribute(SENDFILE_START);
+        request.removeAttribute(SENDFILE_END);
+    }
+
+    private boolean handToContainer(Path path, long start, long end) throws IOException {
+        if (!(RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes attributes)) {
+            return false;
+        }
+        HttpServletRequest request = attributes.getRequest();
+        if (!Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED))) {
+            return false;
+        }
+        request.setAttribute(SENDFILE_FILENAME, path.toRealPath().toString());
+        request.setAttribute(SENDFILE_START, start);
+        request.setAttribute(SENDFILE_END, end + 1); // exclusive
+        return true;
+    }
+}
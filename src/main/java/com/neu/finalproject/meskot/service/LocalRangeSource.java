@@ -0,0 +1,67 @@
+package com.neu.finalproject.meskot.service;
+
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Range source over a file on local disk. Single ranges go out via sendfile when the
+ * container supports it; every range is otherwise copied with pooled FileChannel transfers.
+ */
+public class LocalRangeSource implements RangeSource {
+
+    private final Path path;
+    private final LocalFileStreamer streamer;
+    private final LocalChannelPool channelPool;
+    private final String contentType;
+
+    public LocalRangeSource(Path path, LocalFileStreamer streamer, LocalChannelPool channelPool) {
+        this(path, streamer, channelPool, "video/mp4");
+    }
+
+    public LocalRangeSource(Path path, LocalFileStreamer streamer, LocalChannelPool channelPool, String contentType) {
+        this.path = path;
+        this.streamer = streamer;
+        this.channelPool = channelPool;
+        this.contentType = contentType;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    @Override
+    public long length() throws IOException {
+        return Files.size(path);
+    }
+
+    @Override
+    public String contentType() {
+        return contentType;
+    }
+
+    @Override
+    public String etag() throws IOException {
+        return RangeSource.etagOf(length(), lastModified());
+    }
+
+    @Override
+    public long lastModified() throws IOException {
+        return Files.getLastModifiedTime(path).toMillis();
+    }
+
+    @Override
+    public void writeRange(long start, long end, OutputStream out) throws IOException {
+        try (LocalChannelPool.Lease lease = channelPool.acquire(path)) {
+            lease.transferTo(start, end - start + 1, out);
+        }
+    }
+
+    @Override
+    public StreamingResponseBody body(long start, long end) throws IOException {
+        return streamer.body(path, start, end);
+    }
+}
@@ -10,9 +10,14 @@ import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.UUID;
 
 @Service
@@ -28,7 +33,16 @@ public class LocalStorageService implements StorageService {
     }
 
     private Path toPath(String key) {
-        return Paths.get(baseDir, key);
+        Path path = Paths.get(key);
+        // store(File, key) hands back an absolute path, which callers keep as the movie's file path
+        return path.isAbsolute() ? path : Paths.get(baseDir, key);
+    }
+
+    /**
+     * The file backing an object key, for callers that can send it without copying.
+     */
+    public Path resolve(String key) {
+        return toPath(key);
     }
 
     @Override
@@ -74,6 +88,25 @@ public class LocalStorageService implements StorageService {
         return key;
     }
 
+    @Override
+    @Transactional
+    public void replace(File file, String objectKey) throws IOException {
+        Path dest = toPath(objectKey);
+        if (!Files.exists(dest)) throw new FileNotFoundException("Object not found: " + objectKey);
+        // Copy next to the target and rename over it, so open channels keep the old inode
+        Path staging = dest.resolveSibling(dest.getFileName() + ".replace-" + UUID.randomUUID());
+        try {
+            Files.copy(file.toPath(), staging);
+            Files.move(staging, dest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(staging);
+        }
+        storedObjectRepository.findByObjectKey(objectKey).ifPresent(obj -> {
+            obj.setSize(file.length());
+            storedObjectRepository.save(obj);
+        });
+    }
+
     @Override
     public Resource loadAsResource(String objectKey) throws IOException {
         Path p = toPath(objectKey);
@@ -81,6 +114,28 @@ public class LocalStorageService implements StorageService {
         return new FileSystemResource(p.toFile());
     }
 
+    @Override
+    public ObjectStat stat(String objectKey) throws IOException {
+        Path p = toPath(objectKey);
+        if (!Files.exists(p)) throw new FileNotFoundException("Object not found: " + objectKey);
+        BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class);
+        return new ObjectStat(attrs.size(), attrs.lastModifiedTime().toMillis(), Files.probeContentType(p), null);
+    }
+
+    @Override
+    public InputStream openRange(String objectKey, long start, long end) throws IOException {
+        Path p = toPath(objectKey);
+        if (!Files.exists(p)) throw new FileNotFoundException("Object not found: " + objectKey);
+        FileChannel channel = FileChannel.open(p, StandardOpenOption.READ);
+        try {
+            channel.position(start);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new BoundedInputStream(Channels.newInputStream(channel), end - start + 1);
+    }
+
     @Override
     @Transactional
     public void delete(String objectKey) throws IOException {
@@ -0,0 +1,9 @@
+package com.neu.finalproject.meskot.service;
+
+/**
+ * Technical facts about one media file, as a probe found them; zero or null where the file
+ * did not say. Bitrates are in bits per second.
+ */
+public record MediaInfo(double durationSeconds, int width, int height, double frameRate, String videoCodec,
+                        long videoBitrate, String audioCodec, int audioChannels, int sampleRate, long audioBitrate) {
+}
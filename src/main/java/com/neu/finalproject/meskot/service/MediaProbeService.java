@@ -0,0 +1,468 @@
+package com.neu.finalproject.meskot.service;
+
+import com.neu.finalproject.meskot.model.Movie;
+import com.neu.finalproject.meskot.model.MovieMetadata;
+import com.neu.finalproject.meskot.repository.MovieMetadataRepository;
+import com.neu.finalproject.meskot.repository.MovieRepository;
+import org.bytedeco.ffmpeg.global.avformat;
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Records the technical facts of every stored file in MovieMetadata: duration, dimensions,
+ * frame rate, codecs, bitrate and audio layout. MP4s are probed from their moov box alone -
+ * located with tiny range reads and parsed without FFmpeg - so remote objects are never
+ * downloaded; other containers fall back to opening the file with FFmpeg.
+ * <p>
+ * Encoded renditions are probed at ingest, Internet Archive imports right after they commit
+ * (with a poster decoded from a single keyframe reached by a ranged seek), and the existing
+ * library by an admin-triggered backfill that probes several objects at once.
+ */
+@Service
+public class MediaProbeService {
+
+    private final MovieRepository movieRepository;
+    private final MovieMetadataRepository movieMetadataRepository;
+    private final InternetArchiveStorageService iaStorageService;
+    private final InternetArchiveProxy archiveProxy;
+    private final LocalStorageService localStorageService;
+    private final SupabaseStorageService supabaseStorageService;
+    private final PosterService posterService;
+    private final Executor encodingExecutor;
+
+    @Value("${app.probe.max-moov-bytes:8388608}")
+    private long maxMoovBytes;
+
+    @Value("${app.probe.poster-positions:0.1,0.25,0.4}")
+    private double[] posterPositions;
+
+    @Value("${app.poster.min-luma:35}")
+    private double minLuma;
+
+    @Value("${app.public-base-url:http://localhost:8080}")
+    private String publicBaseUrl;
+
+    // Probes are small range reads, so several can run while encodes hold the CPU
+    @Value("${app.probe.backfill.concurrency:4}")
+    private int backfillConcurrency;
+
+    @Value("${app.probe.backfill.max-results:500}")
+    private int maxResults;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicInteger scanned = new AtomicInteger();
+    private final AtomicInteger probed = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final List<Map<String, Object>> results = new ArrayList<>();
+    private volatile long startedAt;
+    private volatile long finishedAt;
+
+    public MediaProbeService(MovieRepository movieRepository,
+                             MovieMetadataRepository movieMetadataRepository,
+                             InternetArchiveStorageService iaStorageService,
+                             InternetArchiveProxy archiveProxy,
+                             LocalStorageService localStorageService,
+                             SupabaseStorageService supabaseStorageService,
+                             PosterService posterService,
+                             @Qualifier("encodingTaskExecutor") Executor encodingExecutor) {
+        this.movieRepository = movieRepository;
+        this.movieMetadataRepository = movieMetadataRepository;
+        this.iaStorageService = iaStorageService;
+        this.archiveProxy = archiveProxy;
+        this.localStorageService = localStorageService;
+        this.supabaseStorageService = supabaseStorageService;
+        this.posterService = posterService;
+        this.encodingExecutor = encodingExecutor;
+    }
+
+    /**
+     * Probe an imported movie in the background once the importing transaction has committed,
+     * so the probe sees the saved row and a slow archive never holds up the import response.
+     */
+    public void probeAfterCommit(Long movieId) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    encodingExecutor.execute(() -> probeImported(movieId));
+                }
+            });
+        } else {
+            encodingExecutor.execute(() -> probeImported(movieId));
+        }
+    }
+
+    /**
+     * Probe one imported movie and store what was learned. Failures are logged; the movie keeps
+     * the metadata the archive listing gave it.
+     */
+    public void probeImported(Long movieId) {
+        Movie movie = movieRepository.findById(movieId).orElse(null);
+        if (movie == null || movie.getFilePath() == null || !movie.getFilePath().contains("/")) {
+            return;
+        }
+        String key = movie.getFilePath();
+        System.out.println("Probing imported file: " + key);
+
+        MediaInfo info = null;
+        try {
+            Mp4Layout layout = Mp4Layout.probe(iaStorageService, key);
+            info = probeMp4(layout, key, iaStorageService);
+            if (info != null) {
+                saveMetadata(movie, key, layout.getSize(), info);
+            }
+        } catch (Exception e) {
+            System.err.println("Remote probe failed for " + key + ": " + e.getMessage());
+        }
+
+        try {
+            if (grabPoster(movie, key, info)) {
+                movieRepository.save(movie);
+            }
+        } catch (Exception e) {
+            System.err.println("Remote poster grab failed for " + key + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Read and parse the moov box of a stored MP4. Returns null for files that are not MP4 or
+     * whose moov is larger than the configured cap.
+     */
+    private MediaInfo probeMp4(Mp4Layout layout, String key, StorageService storage) throws IOException {
+        if (!hasReadableMoov(layout, key)) {
+            return null;
+        }
+        byte[] moov;
+        try (InputStream in = storage.openRange(key, layout.getMoovOffset(),
+                layout.getMoovOffset() + layout.getMoovSize() - 1)) {
+            moov = in.readAllBytes();
+        }
+        MediaInfo info = MoovParser.parse(moov);
+        System.out.println("Probed " + key + " from " + moov.length + " moov bytes: " + info);
+        return info;
+    }
+
+    /**
+     * Probe a stored object: from its moov when it is an MP4, otherwise with FFmpeg when the
+     * object is a local file. Returns null when neither applies.
+     */
+    public MediaInfo probeStored(StorageService storage, String key) throws Exception {
+        MediaInfo info = probeMp4(Mp4Layout.probe(storage, key), key, storage);
+        if (info == null && storage == localStorageService) {
+            info = probeWithFFmpeg(localStorageService.resolve(key).toFile());
+        }
+        return info;
+    }
+
+    /**
+     * Probe a local file, such as a rendition fresh out of the encoder.
+     */
+    public MediaInfo probeFile(File file) throws Exception {
+        Mp4Layout layout = Mp4Layout.probe(file.toPath());
+        if (!hasReadableMoov(layout, file.getName())) {
+            return probeWithFFmpeg(file);
+        }
+        byte[] moov = new byte[(int) layout.getMoovSize()];
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            in.seek(layout.getMoovOffset());
+            in.readFully(moov);
+        }
+        return MoovParser.parse(moov);
+    }
+
+    private boolean hasReadableMoov(Mp4Layout layout, String key) {
+        if (layout.getMoovOffset() < 0) {
+            System.out.println("No moov box in " + key + "; not an MP4");
+            return false;
+        }
+        if (layout.getMoovSize() > maxMoovBytes) {
+            System.out.println("moov of " + key + " is " + layout.getMoovSize() + " bytes; over the probe cap");
+            return false;
+        }
+        return true;
+    }
+
+    private MediaInfo probeWithFFmpeg(File file) throws Exception {
+        FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(file);
+        try {
+            grabber.start();
+            return new MediaInfo(grabber.getLengthInTime() / 1_000_000.0,
+                    grabber.getImageWidth(), grabber.getImageHeight(), grabber.getFrameRate(),
+                    grabber.hasVideo() ? grabber.getVideoCodecName() : null, grabber.getVideoBitrate(),
+                    grabber.hasAudio() ? grabber.getAudioCodecName() : null, grabber.getAudioChannels(),
+                    grabber.getSampleRate(), grabber.getAudioBitrate());
+        } finally {
+            grabber.stop();
+            grabber.release();
+        }
+    }
+
+    /**
+     * Copy probed facts onto a metadata row. Resolution and format labels are left to the
+     * caller; bitrate is the overall rate in kb/s, container included, as a viewer's
+     * connection sees it.
+     */
+    public void applyTo(MovieMetadata meta, MediaInfo info, long size) {
+        meta.setSize(size);
+        meta.setSizeInBytes(size);
+        if (info.height() > 0) {
+            meta.setWidth(info.width());
+            meta.setHeight(info.height());
+        }
+        meta.setCodec(info.videoCodec());
+        meta.setFrameRate(info.frameRate() > 0 ? info.frameRate() : null);
+        meta.setAudioCodec(info.audioCodec());
+        meta.setAudioChannels(info.audioChannels() > 0 ? info.audioChannels() : null);
+        meta.setSampleRate(info.sampleRate() > 0 ? info.sampleRate() : null);
+        if (info.durationSeconds() > 0) {
+            meta.setDuration(info.durationSeconds());
+            meta.setBitrate((int) (size * 8 / info.durationSeconds() / 1000));
+        }
+    }
+
+    private void saveMetadata(Movie movie, String key, long size, MediaInfo info) {
+        MovieMetadata meta = movieMetadataRepository.findByMovie(movie).stream()
+                .filter(m -> key.equals(m.getFilePath()))
+                .findFirst()
+                .orElseGet(MovieMetadata::new);
+        meta.setMovie(movie);
+        meta.setFilePath(key);
+        meta.setFormat("mp4");
+        if (info.height() > 0) {
+            meta.setResolution(info.height() + "p");
+        }
+        applyTo(meta, info, size);
+        if (info.durationSeconds() > 0) {
+            movie.setDurationMinutes((int) (info.durationSeconds() / 60));
+            movieRepository.save(movie);
+        }
+        movieMetadataRepository.save(meta);
+    }
+
+    /**
+     * Decode a poster from the remote file. Each attempt seeks to the keyframe before a
+     * position in the film and decodes only that frame, so the archive is asked for the index
+     * and one GOP's first packets rather than the whole file. Dark frames move on to the next
+     * position. Returns true if a poster was stored on the movie.
+     */
+    private boolean grabPoster(Movie movie, String key, MediaInfo info) throws Exception {
+        int slash = key.indexOf('/');
+        String url = archiveProxy.downloadUrl(key.substring(0, slash), key.substring(slash + 1));
+
+        FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(url);
+        grabber.setOption("probesize", "65536");
+        grabber.setOption("analyzeduration", "0");
+        grabber.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+        BufferedImage poster = null;
+        File posterDir = null;
+        try {
+            grabber.start();
+            double duration = info != null && info.durationSeconds() > 0
+                    ? info.durationSeconds() : grabber.getLengthInTime() / 1_000_000.0;
+            for (double position : posterPositions) {
+                long micros = (long) (duration * position * 1_000_000);
+                // Keyframe at or before the position; decoding stops at the first picture
+                avformat.av_seek_frame(grabber.getFormatContext(), -1, micros, avformat.AVSEEK_FLAG_BACKWARD);
+                Frame frame = grabber.grabImage();
+                if (frame == null) {
+                    continue;
+                }
+                boolean bright = VideoFrames.lumaStats(frame)[0] >= minLuma;
+                if (poster == null || bright) {
+                    poster = VideoFrames.toImage(frame);
+                }
+                if (bright) {
+                    break;
+                }
+            }
+            if (poster == null) {
+                return false;
+            }
+
+            posterDir = Files.createTempDirectory("poster_").toFile();
+            posterService.writeVariants(poster, posterDir);
+            String posterPath = "movies/ia/" + key.substring(0, slash) + "/poster";
+            posterService.store(posterDir, localStorageService, posterPath);
+            movie.setPosterPath(posterPath);
+            // Keep the archive's own thumbnail file when the item has one; replace its generic image
+            if (movie.getThumbnailUrl() == null || movie.getThumbnailUrl().contains("archive.org/services/img/")) {
+                movie.setThumbnailUrl(publicBaseUrl + "/api/movies/" + movie.getId() + "/poster");
+            }
+            System.out.println("Poster stored under: " + posterPath);
+            return true;
+        } finally {
+            grabber.stop();
+            grabber.release();
+            if (posterDir != null) {
+                File[] files = posterDir.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        file.delete();
+                    }
+                }
+                posterDir.delete();
+            }
+        }
+    }
+
+    /**
+     * Start probing every stored rendition that has not been probed yet, plus Internet Archive
+     * imports that never got a metadata row, with at most app.probe.backfill.concurrency
+     * probes in flight.
+     *
+     * @return false if a backfill is already running
+     */
+    public boolean startBackfill() {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        scanned.set(0);
+        probed.set(0);
+        failed.set(0);
+        synchronized (results) {
+            results.clear();
+        }
+        startedAt = System.currentTimeMillis();
+        finishedAt = 0;
+        try {
+            encodingExecutor.execute(this::runBackfill);
+        } catch (RuntimeException e) {
+            running.set(false);
+            throw e;
+        }
+        return true;
+    }
+
+    private void runBackfill() {
+        System.out.println("=== PROBE BACKFILL STARTED ===");
+        ExecutorService workers = Executors.newFixedThreadPool(Math.max(1, backfillConcurrency));
+        try {
+            for (Movie movie : movieRepository.findAll()) {
+                List<MovieMetadata> rows = movieMetadataRepository.findByMovie(movie);
+                if ("INTERNET_ARCHIVE".equals(movie.getSourceType()) && rows.isEmpty()) {
+                    scanned.incrementAndGet();
+                    workers.execute(() -> backfillImport(movie));
+                    continue;
+                }
+                for (MovieMetadata meta : rows) {
+                    if (meta.getFilePath() != null && meta.getHeight() == null) {
+                        scanned.incrementAndGet();
+                        workers.execute(() -> backfillRendition(movie, meta));
+                    }
+                }
+            }
+            workers.shutdown();
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("Probe backfill interrupted");
+        } catch (Exception e) {
+            System.err.println("Probe backfill aborted: " + e.getMessage());
+        } finally {
+            workers.shutdownNow();
+            finishedAt = System.currentTimeMillis();
+            running.set(false);
+            System.out.println("=== PROBE BACKFILL DONE: " + probed.get() + " probed, " + failed.get() + " failed ===");
+        }
+    }
+
+    private void backfillImport(Movie movie) {
+        Map<String, Object> result = newResult(movie, movie.getFilePath());
+        long started = System.nanoTime();
+        probeImported(movie.getId());
+        boolean stored = !movieMetadataRepository.findByMovie(movie).isEmpty();
+        (stored ? probed : failed).incrementAndGet();
+        result.put("status", stored ? "PROBED" : "FAILED");
+        finish(result, started);
+    }
+
+    private void backfillRendition(Movie movie, MovieMetadata meta) {
+        String key = meta.getFilePath();
+        Map<String, Object> result = newResult(movie, key);
+        long started = System.nanoTime();
+        try {
+            StorageService storage = storageFor(movie);
+            MediaInfo info = probeStored(storage, key);
+            if (info == null) {
+                failed.incrementAndGet();
+                result.put("status", "UNSUPPORTED");
+                return;
+            }
+            applyTo(meta, info, storage.stat(key).size());
+            movieMetadataRepository.save(meta);
+            probed.incrementAndGet();
+            result.put("status", "PROBED");
+            result.put("height", meta.getHeight());
+            result.put("codec", meta.getCodec());
+            result.put("duration", meta.getDuration());
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            result.put("status", "FAILED");
+            result.put("error", e.getMessage());
+            System.err.println("Probe failed for " + key + ": " + e.getMessage());
+        } finally {
+            finish(result, started);
+        }
+    }
+
+    private StorageService storageFor(Movie movie) {
+        if ("INTERNET_ARCHIVE".equals(movie.getSourceType())) {
+            return iaStorageService;
+        }
+        return "SUPABASE".equals(movie.getSourceType()) ? supabaseStorageService : localStorageService;
+    }
+
+    private Map<String, Object> newResult(Movie movie, String key) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("movieId", movie.getId());
+        result.put("objectKey", key);
+        return result;
+    }
+
+    private void finish(Map<String, Object> result, long started) {
+        result.put("millis", (System.nanoTime() - started) / 1_000_000);
+        synchronized (results) {
+            if (results.size() >= maxResults) {
+                results.remove(0);
+            }
+            results.add(result);
+        }
+    }
+
+    public Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("running", running.get());
+        status.put("startedAt", startedAt);
+        status.put("finishedAt", finishedAt);
+        status.put("scanned", scanned.get());
+        status.put("probed", probed.get());
+        status.put("failed", failed.get());
+        synchronized (results) {
+            status.put("results", new ArrayList<>(results));
+        }
+        return status;
+    }
+}
@@ -0,0 +1,207 @@
+package com.neu.finalproject.meskot.service;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the technical facts of an MP4 out of its moov box alone: duration, the first video
+ * track's dimensions, frame rate, codec and bitrate, and the first audio track's codec and
+ * layout. Sample tables are summed, not walked sample by sample into objects, so even a long
+ * film's moov parses in a few milliseconds.
+ */
+final class MoovParser {
+
+    private double movieDuration;
+    private int width;
+    private int height;
+    private double frameRate;
+    private String videoCodec;
+    private long videoBitrate;
+    private String audioCodec;
+    private int audioChannels;
+    private int sampleRate;
+    private long audioBitrate;
+
+    // per-track state while inside a trak box
+    private String handler;
+    private long trackTimescale;
+    private long trackDuration;
+    private String sampleFormat;
+    private int sampleWidth;
+    private int sampleHeight;
+    private int sampleChannels;
+    private int sampleRateHz;
+    private long sampleCount;
+    private long sampleBytes;
+    private int headerWidth;
+    private int headerHeight;
+
+    private MoovParser() {
+    }
+
+    /**
+     * @param moov the complete moov box, header included
+     */
+    static MediaInfo parse(byte[] moov) {
+        MoovParser parser = new MoovParser();
+        ByteBuffer buf = ByteBuffer.wrap(moov);
+        parser.walk(buf, 0, moov.length);
+        return new MediaInfo(parser.movieDuration, parser.width, parser.height, parser.frameRate, parser.videoCodec,
+                parser.videoBitrate, parser.audioCodec, parser.audioChannels, parser.sampleRate, parser.audioBitrate);
+    }
+
+    private void walk(ByteBuffer buf, int start, int end) {
+        int offset = start;
+        while (offset + 8 <= end) {
+            long size = buf.getInt(offset) & 0xFFFFFFFFL;
+            String type = fourcc(buf, offset + 4);
+            int header = 8;
+            if (size == 1) {
+                size = buf.getLong(offset + 8);
+                header = 16;
+            } else if (size == 0) {
+                size = end - offset;
+            }
+            if (size < header || offset + size > end) {
+                return; // truncated or malformed; keep what was read so far
+            }
+            int payload = offset + header;
+            int boxEnd = (int) (offset + size);
+
+            switch (type) {
+                case "moov", "mdia", "minf", "stbl" -> walk(buf, payload, boxEnd);
+                case "trak" -> {
+                    beginTrack();
+                    walk(buf, payload, boxEnd);
+                    endTrack();
+                }
+                case "mvhd" -> readMvhd(buf, payload);
+                case "tkhd" -> readTkhd(buf, payload);
+                case "mdhd" -> readMdhd(buf, payload);
+                case "hdlr" -> handler = fourcc(buf, payload + 8);
+                case "stsd" -> readStsd(buf, payload);
+                case "stsz" -> readStsz(buf, payload);
+                default -> {
+                    // not needed
+                }
+            }
+            offset = boxEnd;
+        }
+    }
+
+    private void readMvhd(ByteBuffer buf, int p) {
+        int version = buf.get(p) & 0xFF;
+        long timescale = version == 1 ? uint32(buf, p + 20) : uint32(buf, p + 12);
+        long duration = version == 1 ? buf.getLong(p + 24) : uint32(buf, p + 16);
+        if (timescale > 0) {
+            movieDuration = (double) duration / timescale;
+        }
+    }
+
+    private void readTkhd(ByteBuffer buf, int p) {
+        int version = buf.get(p) & 0xFF;
+        int sizeAt = version == 1 ? p + 88 : p + 76;
+        // 16.16 fixed point, already scaled for display (pixel aspect applied)
+        headerWidth = (int) (uint32(buf, sizeAt) >> 16);
+        headerHeight = (int) (uint32(buf, sizeAt + 4) >> 16);
+    }
+
+    private void readMdhd(ByteBuffer buf, int p) {
+        int version = buf.get(p) & 0xFF;
+        trackTimescale = version == 1 ? uint32(buf, p + 20) : uint32(buf, p + 12);
+        trackDuration = version == 1 ? buf.getLong(p + 24) : uint32(buf, p + 16);
+    }
+
+    private void readStsd(ByteBuffer buf, int p) {
+        // version/flags, entry count, then the first sample entry: size, format, 6 reserved, data ref
+        int entry = p + 8;
+        sampleFormat = fourcc(buf, entry + 4);
+        int fields = entry + 16;
+        if ("vide".equals(handler)) {
+            sampleWidth = buf.getShort(fields + 16) & 0xFFFF;
+            sampleHeight = buf.getShort(fields + 18) & 0xFFFF;
+        } else if ("soun".equals(handler)) {
+            sampleChannels = buf.getShort(fields + 8) & 0xFFFF;
+            sampleRateHz = (int) (uint32(buf, fields + 16) >> 16);
+        }
+    }
+
+    private void readStsz(ByteBuffer buf, int p) {
+        long uniformSize = uint32(buf, p + 4);
+        sampleCount = uint32(buf, p + 8);
+        if (uniformSize != 0) {
+            sampleBytes = uniformSize * sampleCount;
+            return;
+        }
+        long total = 0;
+        int table = p + 12;
+        for (long i = 0; i < sampleCount && table + 4 <= buf.limit(); i++, table += 4) {
+            total += buf.getInt(table) & 0xFFFFFFFFL;
+        }
+        sampleBytes = total;
+    }
+
+    private void beginTrack() {
+        handler = null;
+        trackTimescale = 0;
+        trackDuration = 0;
+        sampleFormat = null;
+        sampleWidth = 0;
+        sampleHeight = 0;
+        sampleChannels = 0;
+        sampleRateHz = 0;
+        sampleCount = 0;
+        sampleBytes = 0;
+        headerWidth = 0;
+        headerHeight = 0;
+    }
+
+    private void endTrack() {
+        double seconds = trackTimescale > 0 ? (double) trackDuration / trackTimescale : 0;
+        long bitrate = seconds > 0 ? Math.round(sampleBytes * 8 / seconds) : 0;
+        if ("vide".equals(handler) && videoCodec == null) {
+            videoCodec = codecName(sampleFormat);
+            width = headerWidth > 0 ? headerWidth : sampleWidth;
+            height = headerHeight > 0 ? headerHeight : sampleHeight;
+            frameRate = seconds > 0 ? sampleCount / seconds : 0;
+            videoBitrate = bitrate;
+        } else if ("soun".equals(handler) && audioCodec == null) {
+            audioCodec = codecName(sampleFormat);
+            audioChannels = sampleChannels;
+            sampleRate = sampleRateHz;
+            audioBitrate = bitrate;
+        }
+        if (movieDuration == 0 && seconds > 0) {
+            movieDuration = seconds;
+        }
+    }
+
+    private static String codecName(String fourcc) {
+        if (fourcc == null) {
+            return null;
+        }
+        return switch (fourcc) {
+            case "avc1", "avc3" -> "h264";
+            case "hvc1", "hev1" -> "hevc";
+            case "av01" -> "av1";
+            case "vp09" -> "vp9";
+            case "mp4v" -> "mpeg4";
+            case "mp4a" -> "aac";
+            case "ac-3" -> "ac3";
+            case "ec-3" -> "eac3";
+            case "Opus" -> "opus";
+            case ".mp3" -> "mp3";
+            default -> fourcc.trim();
+        };
+    }
+
+    private static String fourcc(ByteBuffer buf, int at) {
+        byte[] b = new byte[4];
+        buf.get(at, b);
+        return new String(b, StandardCharsets.US_ASCII);
+    }
+
+    private static long uint32(ByteBuffer buf, int at) {
+        return buf.getInt(at) & 0xFFFFFFFFL;
+    }
+}
@@ -3,27 +3,33 @@ package com.neu.finalproject.meskot.service;
 import com.neu.finalproject.meskot.dto.MovieDto;
 import com.neu.finalproject.meskot.model.Movie;
 import com.neu.finalproject.meskot.model.MovieMetadata;
-import com.neu.finalproject.meskot.model.UploadJob;
 import com.neu.finalproject.meskot.repository.MovieMetadataRepository;
 import com.neu.finalproject.meskot.repository.MovieRepository;
 import com.neu.finalproject.meskot.repository.UploadJobRepository;
 import com.neu.finalproject.meskot.service.impl.MovieServiceImpl;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.UrlResource;
 import org.springframework.http.*;
 import org.springframework.stereotype.Service;
-import org.springframework.core.io.InputStreamResource;
-import org.springframework.scheduling.annotation.Async;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
 
@@ -39,8 +45,8 @@ public class MovieService implements MovieServiceImpl {
     private UploadJobRepository uploadJobRepository;
     @Autowired
     private UploadHistoryService uploadHistoryService;
-
-    private final EncodingService encodingService;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
 
     private final CompressionService compressionService;
     private final LocalStorageService localStorageService;
@@ -48,6 +54,37 @@ public class MovieService implements MovieServiceImpl {
     private final SupabaseStorageService supabaseStorageService;
     private final InternetArchiveStorageService iaStorageService;
     private final CacheService cacheService;
+    private final LocalFileStreamer localFileStreamer;
+    private final LocalChannelPool localChannelPool;
+    private final RangeRequestEngine rangeRequestEngine;
+    private final HlsPackagingService hlsPackagingService;
+    private final ChunkCache chunkCache;
+    private final ReadAheadPrefetcher readAheadPrefetcher;
+    private final StreamScheduler streamScheduler;
+    private final KeyframeIndexService keyframeIndexService;
+    private final TrickplayService trickplayService;
+    private final PosterService posterService;
+    private final MediaProbeService mediaProbeService;
+    private final SegmentedEncodingService segmentedEncodingService;
+
+    /** Response header carrying the time of the keyframe a ?t= stream starts at, in milliseconds. */
+    public static final String KEYFRAME_TIME_HEADER = "X-Keyframe-Time";
+
+    // Absolute base for URLs stored on movies (thumbnailUrl), which clients load directly
+    @Value("${app.public-base-url:http://localhost:8080}")
+    private String publicBaseUrl;
+
+    @Value("${app.encoding.ladder:1080p,720p,480p,360p}")
+    private String[] encodingLadder;
+
+    @Value("${app.streaming.cache.local-max-age-seconds:86400}")
+    private long localCacheMaxAgeSeconds;
+
+    @Value("${app.streaming.cache.supabase-max-age-seconds:86400}")
+    private long supabaseCacheMaxAgeSeconds;
+
+    @Value("${app.streaming.cache.internet-archive-max-age-seconds:3600}")
+    private long iaCacheMaxAgeSeconds;
 
     @Override
     public Movie saveMovie(Movie movie) {
@@ -76,10 +113,36 @@ public class MovieService implements MovieServiceImpl {
     // STREAMING
     // =========================================================================
 
-    public ResponseEntity<Resource> streamMovie(Long id, String rangeHeader) {
+    public ResponseEntity<StreamingResponseBody> streamMovie(Long id, String rangeHeader) {
+        return streamMovie(id, rangeHeader, false);
+    }
+
+    public ResponseEntity<StreamingResponseBody> streamMovie(Long id, String rangeHeader, boolean headOnly) {
+        HttpHeaders requestHeaders = new HttpHeaders();
+        if (rangeHeader != null) {
+            requestHeaders.set(HttpHeaders.RANGE, rangeHeader);
+        }
+        return streamMovie(id, requestHeaders, headOnly);
+    }
+
+    /**
+     * Serve a movie through the shared range engine. With headOnly the response carries the
+     * same headers as the GET would but no body is opened. Conditional headers in the request
+     * (If-None-Match, If-Modified-Since, If-Range) are honoured.
+     */
+    public ResponseEntity<StreamingResponseBody> streamMovie(Long id, HttpHeaders requestHeaders, boolean headOnly) {
+        return streamMovie(id, requestHeaders, headOnly, null);
+    }
+
+    /**
+     * As above; with a start time and no Range header the response starts at the nearest
+     * keyframe at or before it (see {@link #seekRequestHeaders}).
+     */
+    public ResponseEntity<StreamingResponseBody> streamMovie(Long id, HttpHeaders requestHeaders, boolean headOnly,
+                                                             Double startSeconds) {
         System.out.println("=== STREAM REQUEST ===");
         System.out.println("Movie ID: " + id);
-        System.out.println("Range Header: " + rangeHeader);
+        System.out.println("Range Header: " + requestHeaders.getFirst(HttpHeaders.RANGE));
 
         Optional<Movie> movieOpt = movieRepository.findById(id);
         if (movieOpt.isEmpty()) {
@@ -88,42 +151,25 @@ public class MovieService implements MovieServiceImpl {
         }
 
         Movie movie = movieOpt.get();
-        String sourceType = movie.getSourceType();
-        String filePath = movie.getFilePath();
 
         System.out.println("Title: " + movie.getTitle());
-        System.out.println("Source Type: " + sourceType);
-        System.out.println("File Path: " + filePath);
+        System.out.println("Source Type: " + movie.getSourceType());
+        System.out.println("File Path: " + movie.getFilePath());
 
         try {
-            if ("INTERNET_ARCHIVE".equals(sourceType)) {
-                System.out.println("Routing to Internet Archive streaming...");
-                return iaMovieService.streamMovieWithRange(id, rangeHeader);
-
-            } else if ("SUPABASE".equals(sourceType)) {
-                System.out.println("Routing to Supabase streaming...");
-                Resource resource = supabaseStorageService.loadAsResource(filePath);
-                return ResponseEntity.ok()
-                        .contentType(MediaType.parseMediaType("video/mp4"))
-                        .header(HttpHeaders.CONTENT_DISPOSITION,
-                                "inline; filename=\"" + movie.getTitle() + ".mp4\"")
-                        .body(resource);
-
-            } else {
-                // LOCAL storage
-                System.out.println("Routing to Local storage streaming...");
-                Path moviePath = Paths.get(filePath);
-                System.out.println("Resolved path: " + moviePath.toAbsolutePath());
-                System.out.println("File exists: " + Files.exists(moviePath));
-
-                if (!Files.exists(moviePath)) {
-                    System.out.println("ERROR: File does not exist at path: " + moviePath);
-                    return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
-                }
-
-                System.out.println("File size: " + Files.size(moviePath) + " bytes");
-                return buildStreamingResponse(moviePath.toFile(), rangeHeader);
+            RangeSource source = rangeSourceFor(movie);
+            if (source == null) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
             }
+
+            HttpHeaders responseHeaders = new HttpHeaders();
+            responseHeaders.setCacheControl(cacheControlFor(movie.getSourceType()));
+            requestHeaders = seekRequestHeaders(movie, source, requestHeaders, startSeconds, responseHeaders);
+            return streamScheduler.schedule(StreamScheduler.StreamClass.PLAYBACK,
+                    rangeRequestEngine.serve(source, requestHeaders, responseHeaders, headOnly));
+        } catch (FileNotFoundException e) {
+            System.out.println("ERROR: Stored object not found: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
         } catch (Exception e) {
             System.out.println("ERROR: Exception during streaming");
             e.printStackTrace();
@@ -131,62 +177,314 @@ public class MovieService implements MovieServiceImpl {
         }
     }
 
-    private ResponseEntity<Resource> buildStreamingResponse(File file, String rangeHeader) throws IOException {
-        long fileLength = file.length();
-        long rangeStart = 0;
-        long rangeEnd = fileLength - 1;
+    /**
+     * Turn ?t= into a byte range: bytes from the keyframe at or before t to the end of the
+     * file, answered as a normal 206. The bytes are media data, so this is for clients that
+     * already hold the moov box (its range is in the /seek response) and want to resume at a
+     * keyframe in one request. An explicit Range header wins, and without an index for the
+     * served file, or one older than the file, t is ignored.
+     */
+    public HttpHeaders seekRequestHeaders(Movie movie, RangeSource source, HttpHeaders requestHeaders,
+                                          Double startSeconds, HttpHeaders responseHeaders) throws IOException {
+        if (startSeconds == null || startSeconds <= 0 || requestHeaders.containsKey(HttpHeaders.RANGE)) {
+            return requestHeaders;
+        }
+        KeyframeIndex index = keyframeIndexService.indexFor(movie, null);
+        if (index == null || index.getFileSize() != source.length()) {
+            return requestHeaders;
+        }
+        KeyframeIndex.Entry keyframe = index.floor(Math.round(startSeconds * 1000));
+        if (keyframe == null) {
+            return requestHeaders;
+        }
+        HttpHeaders seekHeaders = new HttpHeaders();
+        seekHeaders.addAll(requestHeaders);
+        seekHeaders.set(HttpHeaders.RANGE, "bytes=" + keyframe.offset() + "-");
+        responseHeaders.set(KEYFRAME_TIME_HEADER, String.valueOf(keyframe.timeMillis()));
+        return seekHeaders;
+    }
 
-        if (rangeHeader != null && rangeHeader.startsWith("bytes=")) {
-            String[] ranges = rangeHeader.substring(6).split("-");
-            try {
-                rangeStart = Long.parseLong(ranges[0]);
-                if (ranges.length > 1 && !ranges[1].isEmpty()) {
-                    rangeEnd = Long.parseLong(ranges[1]);
-                }
-            } catch (NumberFormatException ignored) {
-                rangeStart = 0;
-                rangeEnd = fileLength - 1;
+    /**
+     * Where to start reading for a given time: the keyframe at or before it and its byte
+     * offset in the file /stream serves (or in the named rendition), plus the moov range a
+     * client needs to decode from there. As with the t parameter of /stream, an index whose
+     * size no longer matches the file it was built for is treated as missing.
+     */
+    public ResponseEntity<Map<String, Object>> seek(Long id, double seconds, String rendition) {
+        Optional<Movie> movieOpt = movieRepository.findById(id);
+        if (movieOpt.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        try {
+            KeyframeIndex index = keyframeIndexService.indexFor(movieOpt.get(), rendition);
+            if (index == null || index.size() == 0 || index.getFileSize() != indexedFileSize(movieOpt.get(), rendition)) {
+                return ResponseEntity.notFound().build();
+            }
+            KeyframeIndex.Entry keyframe = index.floor(Math.round(Math.max(0, seconds) * 1000));
+
+            Map<String, Object> body = new LinkedHashMap<>();
+            body.put("requestedMillis", Math.round(Math.max(0, seconds) * 1000));
+            body.put("keyframeMillis", keyframe.timeMillis());
+            body.put("byteOffset", keyframe.offset());
+            body.put("moovOffset", index.getMoovOffset());
+            body.put("moovSize", index.getMoovSize());
+            body.put("size", index.getFileSize());
+            body.put("rendition", rendition);
+            // Immutable for a given file, so clients may cache it as long as the movie itself
+            return ResponseEntity.ok()
+                    .cacheControl(cacheControlFor(movieOpt.get().getSourceType()))
+                    .body(body);
+        } catch (FileNotFoundException e) {
+            return ResponseEntity.notFound().build();
+        } catch (IOException e) {
+            System.out.println("ERROR: Failed to read keyframe index for movie " + id + ": " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    /**
+     * Current size of the file /seek answers for: the movie's main file, or the named
+     * rendition's. -1 when there is no such file.
+     */
+    private long indexedFileSize(Movie movie, String rendition) throws IOException {
+        String filePath = rendition == null ? movie.getFilePath()
+                : movieMetadataRepository.findByMovie(movie).stream()
+                        .filter(m -> rendition.equalsIgnoreCase(m.getResolution()) && m.getFilePath() != null)
+                        .map(MovieMetadata::getFilePath)
+                        .findFirst()
+                        .orElse(null);
+        return filePath != null ? storageFor(movie.getSourceType()).stat(filePath).size() : -1;
+    }
+
+    /**
+     * The range source for a movie's stored file, or null when a local file is missing.
+     */
+    public RangeSource rangeSourceFor(Movie movie) throws Exception {
+        String sourceType = movie.getSourceType();
+        String filePath = movie.getFilePath();
+
+        if ("INTERNET_ARCHIVE".equals(sourceType)) {
+            System.out.println("Routing to Internet Archive streaming...");
+            return iaMovieService.rangeSource(movie).withReadAhead(readAheadPrefetcher);
+
+        } else if ("SUPABASE".equals(sourceType)) {
+            System.out.println("Routing to Supabase streaming...");
+            return new StorageRangeSource(supabaseStorageService, filePath, "video/mp4",
+                    RemoteMetadataCache.SUPABASE, chunkCache).withReadAhead(readAheadPrefetcher);
+
+        } else {
+            // LOCAL storage
+            System.out.println("Routing to Local storage streaming...");
+            Path moviePath = localStorageService.resolve(filePath);
+            System.out.println("Resolved path: " + moviePath.toAbsolutePath());
+
+            if (!Files.exists(moviePath)) {
+                System.out.println("ERROR: File does not exist at path: " + moviePath);
+                return null;
             }
+            return new LocalRangeSource(moviePath, localFileStreamer, localChannelPool);
         }
+    }
+
+    /**
+     * Cache policy per source type. A stored movie can be rewritten in place once, by the
+     * faststart backfill, which reorders its bytes; the rewrite gives it a new modification
+     * time and so a new ETag, so shared caches revalidate and refetch once max-age runs out,
+     * and If-Range never stitches ranges of the old layout onto the new one.
+     */
+    public CacheControl cacheControlFor(String sourceType) {
+        long maxAge;
+        if ("INTERNET_ARCHIVE".equals(sourceType)) {
+            maxAge = iaCacheMaxAgeSeconds;
+        } else if ("SUPABASE".equals(sourceType)) {
+            maxAge = supabaseCacheMaxAgeSeconds;
+        } else {
+            maxAge = localCacheMaxAgeSeconds;
+        }
+        return maxAge > 0
+                ? CacheControl.maxAge(Duration.ofSeconds(maxAge)).cachePublic()
+                : CacheControl.noCache();
+    }
+
+    // =========================================================================
+    // HLS
+    // =========================================================================
 
-        if (rangeEnd > fileLength - 1) {
-            rangeEnd = fileLength - 1;
+    /**
+     * Serve a playlist or segment from a movie's HLS package for one rendition.
+     */
+    public ResponseEntity<StreamingResponseBody> serveHlsFile(Long id, String rendition, String fileName,
+                                                              HttpHeaders requestHeaders) {
+        // Only plain file names inside the package directory
+        if (!fileName.matches("[A-Za-z0-9_.-]+") || fileName.startsWith(".")) {
+            return ResponseEntity.badRequest().build();
         }
 
-        long contentLength = rangeEnd - rangeStart + 1;
-        final RandomAccessFile raf = new RandomAccessFile(file, "r");
-        raf.seek(rangeStart);
+        Optional<Movie> movieOpt = movieRepository.findById(id);
+        if (movieOpt.isEmpty()) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        }
+        Movie movie = movieOpt.get();
+
+        Optional<MovieMetadata> rung = movieMetadataRepository.findByMovie(movie).stream()
+                .filter(m -> rendition.equalsIgnoreCase(m.getResolution()) && m.getHlsPath() != null)
+                .findFirst();
+        if (rung.isEmpty()) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        }
+
+        // Segments never change once written; the playlist is re-read now and then
+        CacheControl cacheControl = fileName.endsWith(".m3u8")
+                ? CacheControl.maxAge(Duration.ofMinutes(1)).cachePublic()
+                : CacheControl.maxAge(Duration.ofDays(365)).cachePublic().immutable();
+        return serveHlsObject(movie, rung.get().getHlsPath() + "/" + fileName, cacheControl, requestHeaders);
+    }
+
+    /**
+     * Serve the master playlist that lists every HLS rendition of a movie.
+     */
+    public ResponseEntity<StreamingResponseBody> serveHlsMaster(Long id, HttpHeaders requestHeaders) {
+        Optional<Movie> movieOpt = movieRepository.findById(id);
+        if (movieOpt.isEmpty()) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        }
+        Movie movie = movieOpt.get();
 
-        final long finalContentLength = contentLength;
-        InputStream inputStream = new BufferedInputStream(new FileInputStream(raf.getFD())) {
-            @Override
-            public int available() throws IOException {
-                return (int) finalContentLength;
+        Optional<String> hlsPath = movieMetadataRepository.findByMovie(movie).stream()
+                .map(MovieMetadata::getHlsPath)
+                .filter(p -> p != null && p.contains("/"))
+                .findFirst();
+        if (hlsPath.isEmpty()) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        }
+
+        // Renditions live in sibling directories of the master: .../hls/{rendition}
+        String hlsRoot = hlsPath.get().substring(0, hlsPath.get().lastIndexOf('/'));
+        return serveHlsObject(movie, hlsRoot + "/" + HlsPackagingService.MASTER_PLAYLIST_NAME,
+                CacheControl.maxAge(Duration.ofMinutes(1)).cachePublic(), requestHeaders);
+    }
+
+    /**
+     * Write the picked poster's variants to storage under keyPrefix. Returns their key prefix,
+     * or null when no frame was usable or storing failed; a missing poster never fails the upload.
+     */
+    private String storePoster(PosterService.Picker poster, String keyPrefix, String sourceType) {
+        File posterDir = null;
+        try {
+            posterDir = Files.createTempDirectory("poster-").toFile();
+            if (!poster.finish(posterDir)) {
+                System.out.println("No usable poster frame found");
+                return null;
             }
-            @Override
-            public void close() throws IOException {
-                super.close();
-                raf.close();
+            String posterPath = keyPrefix + "/poster";
+            posterService.store(posterDir, storageFor(sourceType), posterPath);
+            System.out.println("Poster stored under: " + posterPath);
+            return posterPath;
+        } catch (IOException e) {
+            System.err.println("Poster generation failed: " + e.getMessage());
+            return null;
+        } finally {
+            if (posterDir != null) {
+                hlsPackagingService.deleteDirectory(posterDir);
             }
-        };
+        }
+    }
 
-        InputStreamResource resource = new InputStreamResource(inputStream);
+    /**
+     * Serve a movie's generated poster: the smallest variant at least {@code width} pixels
+     * wide, or the largest one. Variants never change once written.
+     */
+    public ResponseEntity<StreamingResponseBody> servePoster(Long id, Integer width, HttpHeaders requestHeaders) {
+        Optional<Movie> movieOpt = movieRepository.findById(id);
+        if (movieOpt.isEmpty() || movieOpt.get().getPosterPath() == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        }
+        int[] widths = posterService.getWidths();
+        int chosen = widths[widths.length - 1];
+        int wanted = width != null ? width : widths[0];
+        for (int w : widths) {
+            if (w >= wanted) {
+                chosen = w;
+                break;
+            }
+        }
+        Movie movie = movieOpt.get();
+        return serveStoredObject(movie, movie.getPosterPath() + "/" + PosterService.variantName(chosen), "image/jpeg",
+                CacheControl.maxAge(Duration.ofDays(365)).cachePublic().immutable(), requestHeaders);
+    }
 
-        HttpHeaders headers = new HttpHeaders();
-        headers.add("Accept-Ranges", "bytes");
-        headers.add("Content-Range", "bytes " + rangeStart + "-" + rangeEnd + "/" + fileLength);
-        headers.setContentLength(contentLength);
-        headers.setContentType(MediaType.valueOf("video/mp4"));
+    /**
+     * Serve one file of a movie's seek-preview sprites: the WebVTT index or a sprite sheet.
+     * Everything is written once at ingest, so it is cached as immutable.
+     */
+    public ResponseEntity<StreamingResponseBody> serveTrickplayFile(Long id, String fileName, HttpHeaders requestHeaders) {
+        if (!fileName.matches("[A-Za-z0-9_.-]+") || fileName.startsWith(".")) {
+            return ResponseEntity.badRequest().build();
+        }
+        Optional<Movie> movieOpt = movieRepository.findById(id);
+        if (movieOpt.isEmpty() || movieOpt.get().getTrickplayPath() == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        }
+        Movie movie = movieOpt.get();
+        return serveStoredObject(movie, movie.getTrickplayPath() + "/" + fileName,
+                TrickplayService.contentTypeFor(fileName),
+                CacheControl.maxAge(Duration.ofDays(365)).cachePublic().immutable(), requestHeaders);
+    }
 
-        HttpStatus status = (rangeHeader != null) ? HttpStatus.PARTIAL_CONTENT : HttpStatus.OK;
-        return new ResponseEntity<>(resource, headers, status);
+    /**
+     * Serve one file of an HLS package through the range engine, so playlists and segments get
+     * the same validators and range support as the MP4 stream.
+     */
+    private ResponseEntity<StreamingResponseBody> serveHlsObject(Movie movie, String key, CacheControl cacheControl,
+                                                                 HttpHeaders requestHeaders) {
+        return serveStoredObject(movie, key, HlsPackagingService.contentTypeFor(key), cacheControl, requestHeaders);
+    }
+
+    private ResponseEntity<StreamingResponseBody> serveStoredObject(Movie movie, String key, String contentType,
+                                                                    CacheControl cacheControl,
+                                                                    HttpHeaders requestHeaders) {
+        try {
+            RangeSource source;
+            if ("SUPABASE".equals(movie.getSourceType())) {
+                source = new StorageRangeSource(supabaseStorageService, key, contentType);
+            } else {
+                Path path = localStorageService.resolve(key);
+                if (!Files.exists(path)) {
+                    return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+                }
+                source = new LocalRangeSource(path, localFileStreamer, localChannelPool, contentType);
+            }
+
+            HttpHeaders responseHeaders = new HttpHeaders();
+            responseHeaders.setCacheControl(cacheControl);
+            return streamScheduler.schedule(StreamScheduler.StreamClass.PLAYBACK,
+                    rangeRequestEngine.serve(source, requestHeaders, responseHeaders, false));
+        } catch (FileNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        } catch (Exception e) {
+            System.out.println("ERROR: Exception serving stored file " + key);
+            e.printStackTrace();
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    private StorageService storageFor(String sourceType) {
+        return "SUPABASE".equals(sourceType) ? supabaseStorageService : localStorageService;
     }
 
     // =========================================================================
     // DOWNLOAD
     // =========================================================================
 
-    public ResponseEntity<Resource> downloadMovie(Long id) {
+    public ResponseEntity<?> downloadMovie(Long id) {
+        return downloadMovie(id, new HttpHeaders());
+    }
+
+    /**
+     * Download the stored file. Local and Supabase movies go through the range engine, so a
+     * client can resume with Range + If-Range and revalidate with If-None-Match.
+     */
+    public ResponseEntity<?> downloadMovie(Long id, HttpHeaders requestHeaders) {
         System.out.println("=== DOWNLOAD REQUEST ===");
         System.out.println("Movie ID: " + id);
 
@@ -198,56 +496,38 @@ public class MovieService implements MovieServiceImpl {
 
         Movie movie = movieOpt.get();
         String sourceType = movie.getSourceType();
-        String filePath = movie.getFilePath();
 
         System.out.println("Title: " + movie.getTitle());
         System.out.println("Source Type: " + sourceType);
-        System.out.println("File Path: " + filePath);
+        System.out.println("File Path: " + movie.getFilePath());
 
         try {
             if ("INTERNET_ARCHIVE".equals(sourceType)) {
+                // archive.org handles ranges and validators itself
                 System.out.println("Redirecting to Internet Archive...");
                 String downloadUrl = iaMovieService.getMovieDownloadUrl(id);
                 System.out.println("Redirect URL: " + downloadUrl);
                 return ResponseEntity.status(HttpStatus.FOUND)
                         .header(HttpHeaders.LOCATION, downloadUrl)
                         .build();
+            }
 
-            } else if ("SUPABASE".equals(sourceType)) {
-                System.out.println("Loading from Supabase...");
-                Resource resource = supabaseStorageService.loadAsResource(filePath);
-                return ResponseEntity.ok()
-                        .header(HttpHeaders.CONTENT_DISPOSITION,
-                                "attachment; filename=\"" + movie.getTitle() + ".mp4\"")
-                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                        .body(resource);
-
-            } else {
-                // LOCAL storage
-                System.out.println("Loading from Local storage...");
-                Path path = Paths.get(filePath);
-                System.out.println("Resolved path: " + path.toAbsolutePath());
-                System.out.println("File exists: " + Files.exists(path));
-
-                if (!Files.exists(path)) {
-                    System.out.println("ERROR: File does not exist!");
-                    return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
-                }
-
-                long fileSize = Files.size(path);
-                System.out.println("File size: " + fileSize + " bytes");
-
-                Resource resource = new UrlResource(path.toUri());
-                String filename = movie.getTitle().replaceAll("[^a-zA-Z0-9.-]", "_") + ".mp4";
+            RangeSource source = rangeSourceFor(movie);
+            if (source == null) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+            }
 
-                System.out.println("Sending file as: " + filename);
+            String filename = movie.getTitle().replaceAll("[^a-zA-Z0-9.-]", "_") + ".mp4";
+            System.out.println("Sending file as: " + filename);
 
-                return ResponseEntity.ok()
-                        .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
-                        .header(HttpHeaders.CONTENT_LENGTH, String.valueOf(fileSize))
-                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                        .body(resource);
-            }
+            HttpHeaders responseHeaders = new HttpHeaders();
+            responseHeaders.set(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"");
+            responseHeaders.setCacheControl(cacheControlFor(sourceType));
+            return streamScheduler.schedule(StreamScheduler.StreamClass.DOWNLOAD,
+                    rangeRequestEngine.serve(source, requestHeaders, responseHeaders, false));
+        } catch (FileNotFoundException e) {
+            System.out.println("ERROR: Stored object not found: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
         } catch (Exception e) {
             System.out.println("ERROR: Exception during download");
             e.printStackTrace();
@@ -255,7 +535,15 @@ public class MovieService implements MovieServiceImpl {
         }
     }
 
-    public ResponseEntity<Resource> downloadMovieWithResolution(Long id, String resolution) {
+    public ResponseEntity<?> downloadMovieWithResolution(Long id, String resolution) {
+        return downloadMovieWithResolution(id, resolution, new HttpHeaders());
+    }
+
+    /**
+     * Download at a resolution. The original and stored renditions honour the client's Range
+     * and validator headers; a one-off conversion is sent whole.
+     */
+    public ResponseEntity<?> downloadMovieWithResolution(Long id, String resolution, HttpHeaders requestHeaders) {
         System.out.println("=== DOWNLOAD WITH RESOLUTION ===");
         System.out.println("Movie ID: " + id + ", Resolution: " + resolution);
 
@@ -267,20 +555,64 @@ public class MovieService implements MovieServiceImpl {
         Movie movie = movieOpt.get();
 
         if (resolution == null || resolution.isEmpty() || "Original".equalsIgnoreCase(resolution)) {
-            return downloadMovie(id);
+            return downloadMovie(id, requestHeaders);
+        }
+
+        // A rendition encoded at ingest is served as stored rather than decoded and encoded again
+        Optional<MovieMetadata> stored = movieMetadataRepository.findByMovie(movie).stream()
+                .filter(m -> resolution.equalsIgnoreCase(m.getResolution()) && m.getFilePath() != null)
+                .findFirst();
+        if (stored.isPresent()) {
+            if ("INTERNET_ARCHIVE".equals(movie.getSourceType())) {
+                return downloadMovie(id, requestHeaders);
+            }
+            return downloadStoredRendition(movie, stored.get(), requestHeaders);
         }
 
         if ("INTERNET_ARCHIVE".equals(movie.getSourceType())) {
-            return downloadAndConvertIAMovie(movie, resolution);
+            return downloadAndConvertRemoteMovie(movie, iaStorageService, resolution);
+        }
+        if ("SUPABASE".equals(movie.getSourceType())) {
+            return downloadAndConvertRemoteMovie(movie, supabaseStorageService, resolution);
         }
 
         return downloadAndConvertLocalMovie(movie, resolution);
     }
 
+    private ResponseEntity<?> downloadStoredRendition(Movie movie, MovieMetadata rendition, HttpHeaders requestHeaders) {
+        System.out.println("Serving stored " + rendition.getResolution() + " rendition: " + rendition.getFilePath());
+        try {
+            RangeSource source;
+            if ("SUPABASE".equals(movie.getSourceType())) {
+                source = new StorageRangeSource(supabaseStorageService, rendition.getFilePath(), "video/mp4",
+                        RemoteMetadataCache.SUPABASE, chunkCache);
+            } else {
+                Path path = localStorageService.resolve(rendition.getFilePath());
+                if (!Files.exists(path)) {
+                    return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+                }
+                source = new LocalRangeSource(path, localFileStreamer, localChannelPool);
+            }
+
+            String filename = movie.getTitle().replaceAll("[^a-zA-Z0-9.-]", "_") + "-" + rendition.getResolution() + ".mp4";
+            HttpHeaders responseHeaders = new HttpHeaders();
+            responseHeaders.set(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"");
+            responseHeaders.setCacheControl(cacheControlFor(movie.getSourceType()));
+            return streamScheduler.schedule(StreamScheduler.StreamClass.DOWNLOAD,
+                    rangeRequestEngine.serve(source, requestHeaders, responseHeaders, false));
+        } catch (FileNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        } catch (Exception e) {
+            System.out.println("ERROR: Exception serving stored rendition");
+            e.printStackTrace();
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
     private ResponseEntity<Resource> downloadAndConvertLocalMovie(Movie movie, String resolution) {
         System.out.println("Converting local movie to " + resolution);
         try {
-            File sourceFile = new File(movie.getFilePath());
+            File sourceFile = localStorageService.resolve(movie.getFilePath()).toFile();
             System.out.println("Source file: " + sourceFile.getAbsolutePath());
             System.out.println("Source exists: " + sourceFile.exists());
 
@@ -288,13 +620,7 @@ public class MovieService implements MovieServiceImpl {
                 return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
             }
 
-            File encodedFile = encodingService.encode(
-                    sourceFile,
-                    resolution,
-                    "mp4",
-                    "h265",
-                    null
-            );
+            File encodedFile = transcodeOne(sourceFile, resolution);
 
             System.out.println("Encoded file: " + encodedFile.getAbsolutePath());
             System.out.println("Encoded size: " + encodedFile.length());
@@ -317,48 +643,44 @@ public class MovieService implements MovieServiceImpl {
         }
     }
 
-    private ResponseEntity<Resource> downloadAndConvertIAMovie(Movie movie, String resolution) {
-        System.out.println("Converting IA movie to " + resolution);
+    /**
+     * One-off conversion for a download at a resolution no stored rendition has.
+     */
+    private File transcodeOne(File source, String resolution) throws Exception {
+        return segmentedEncodingService.encode(source, resolution, "h265", null, null);
+    }
+
+    /**
+     * Fetch a remote movie to a temp file through the storage range API, then convert it.
+     * The object is copied in bounded slices, so it never has to fit in memory.
+     */
+    private ResponseEntity<Resource> downloadAndConvertRemoteMovie(Movie movie, StorageService storage,
+                                                                   String resolution) {
+        System.out.println("Converting " + movie.getSourceType() + " movie to " + resolution);
         File downloadedFile = null;
         File encodedFile = null;
 
         try {
-            String filePath = movie.getFilePath();
-            String[] parts = filePath.split("/", 2);
-
-            if (parts.length != 2) {
-                System.out.println("ERROR: Invalid IA file path format: " + filePath);
-                return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
-            }
-
-            String itemIdentifier = parts[0];
-            String fileName = parts[1];
-            System.out.println("IA Item: " + itemIdentifier + ", File: " + fileName);
-
-            downloadedFile = File.createTempFile("ia-download-", ".mp4");
-            Resource iaResource = iaStorageService.streamFromArchive(itemIdentifier, fileName);
-
-            System.out.println("Downloading from IA...");
-            try (InputStream in = iaResource.getInputStream();
-                 FileOutputStream out = new FileOutputStream(downloadedFile)) {
-                byte[] buffer = new byte[8192];
-                int bytesRead;
-                long total = 0;
-                while ((bytesRead = in.read(buffer)) != -1) {
-                    out.write(buffer, 0, bytesRead);
-                    total += bytesRead;
+            String objectKey = movie.getFilePath();
+            System.out.println("Object key: " + objectKey);
+
+            downloadedFile = File.createTempFile("remote-download-", ".mp4");
+            long size = storage.stat(objectKey).size();
+
+            System.out.println("Downloading " + size + " bytes...");
+            try (FileOutputStream out = new FileOutputStream(downloadedFile)) {
+                long slice = 64L * 1024 * 1024;
+                for (long start = 0; start < size; start += slice) {
+                    long end = Math.min(size, start + slice) - 1;
+                    try (InputStream in = storage.openRange(objectKey, start, end)) {
+                        in.transferTo(out);
+                    }
                 }
-                System.out.println("Downloaded " + total + " bytes");
             }
+            System.out.println("Downloaded " + downloadedFile.length() + " bytes");
 
             System.out.println("Converting...");
-            encodedFile = encodingService.encode(
-                    downloadedFile,
-                    resolution,
-                    "mp4",
-                    "h265",
-                    null
-            );
+            encodedFile = transcodeOne(downloadedFile, resolution);
 
             Resource resource = new UrlResource(encodedFile.toURI());
             String outputFilename = movie.getTitle().replaceAll("[^a-zA-Z0-9.-]", "_") + "-" + resolution + ".mp4";
@@ -372,8 +694,11 @@ public class MovieService implements MovieServiceImpl {
                     .contentType(MediaType.APPLICATION_OCTET_STREAM)
                     .body(resource);
 
+        } catch (FileNotFoundException e) {
+            if (downloadedFile != null && downloadedFile.exists()) downloadedFile.delete();
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
         } catch (Exception e) {
-            System.out.println("ERROR during IA conversion:");
+            System.out.println("ERROR during remote conversion:");
             e.printStackTrace();
             if (downloadedFile != null && downloadedFile.exists()) downloadedFile.delete();
             if (encodedFile != null && encodedFile.exists()) encodedFile.delete();
@@ -385,133 +710,240 @@ public class MovieService implements MovieServiceImpl {
     // UPLOAD
     // =========================================================================
 
-    @Async("encodingTaskExecutor")
-    @Transactional
-    public void handleUpload(File uploadedFile, String title, String versionResolution,
-                             String jobId, Long uploaderId, String sourceType) {
+    /**
+     * Encode, store and register one upload. Runs on an encoding thread dispatched by
+     * {@link EncodingJobQueue}, which owns the job row's place in the queue and the uploaded
+     * file. Every write to the job row is fenced on workerId and attempt, the claim this run was
+     * dispatched under: once the job has been reclaimed they match nothing, and the completion
+     * is refused, rolling back the movie with it. Failures are thrown for the queue to record.
+     * <p>
+     * Only the final movie, renditions and completion share a transaction; an encode runs for
+     * minutes to hours and must not hold a database connection all that time.
+     */
+    public void handleUpload(File uploadedFile, String title, String versionResolution, String jobId,
+                             Long uploaderId, String sourceType, boolean packageHls,
+                             String workerId, int attempt) throws Exception {
         System.out.println("=== UPLOAD PROCESSING ===");
         System.out.println("Title: " + title);
         System.out.println("Resolution: " + versionResolution);
         System.out.println("Job ID: " + jobId);
         System.out.println("Source Type: " + sourceType);
+        System.out.println("HLS packaging: " + packageHls);
         System.out.println("Uploaded File: " + uploadedFile.getAbsolutePath());
         System.out.println("File exists: " + uploadedFile.exists());
         System.out.println("File size: " + uploadedFile.length());
 
-        UploadJob job = uploadJobRepository.findById(jobId).orElse(null);
-        if (job == null) {
-            System.err.println("ERROR: Job not found: " + jobId);
-            return;
+        if (!uploadJobRepository.existsById(jobId)) {
+            throw new IllegalStateException("Job not found: " + jobId);
         }
 
-        // Step 1: create UploadHistory record at start
-        uploadHistoryService.create(uploaderId != null ? uploaderId.intValue() : 1, title,
-            uploadedFile.getName(), uploadedFile.length(), versionResolution, jobId);
+        // Step 1: create UploadHistory record at start (queued jobs already have one)
+        if (uploadHistoryService.getByJobId(jobId).isEmpty()) {
+            uploadHistoryService.create(uploaderId != null ? uploaderId.intValue() : 1, title,
+                uploadedFile.getName(), uploadedFile.length(), versionResolution, jobId);
+        }
 
         try {
             // Step 2: markUploading (right before starting encoding)
             uploadHistoryService.markUploading(jobId);
-            job.setStatus("ENCODING");
-            job.setProgress(0);
-            uploadJobRepository.save(job);
+            if (uploadJobRepository.updateProgressIfOwned(jobId, workerId, attempt, 0) == 0) {
+                throw new IllegalStateException("Job " + jobId + " was reclaimed before its encode started");
+            }
             // Step 3: markEncoding as soon as encoding starts
             uploadHistoryService.markEncoding(jobId);
 
-            ProgressCallback callback = (percent) -> {
-                UploadJob currentJob = uploadJobRepository.findById(jobId).get();
-                currentJob.setProgress(percent);
-                uploadJobRepository.save(currentJob);
-                System.out.println("Encoding progress: " + percent + "%");
-            };
-
-            System.out.println("Starting encoding...");
-            File encodedFile = encodingService.encode(
-                    uploadedFile,
-                    versionResolution,
-                    "mp4",
-                    "h265",
-                    callback
-            );
-            System.out.println("Encoding complete: " + encodedFile.getAbsolutePath());
-
-            // Store based on source type
-            String storagePath;
             String finalSourceType = (sourceType != null && !sourceType.isEmpty()) ? sourceType : "LOCAL";
-
+            if (!"SUPABASE".equals(finalSourceType)) {
+                finalSourceType = "LOCAL";
+            }
             System.out.println("Storing with source type: " + finalSourceType);
+            String keyPrefix = attemptOutputPrefix(title, jobId, attempt);
+
+            // Adaptive uploads encode every ladder rung the source can fill; plain uploads just the one asked for
+            List<String> rungs = packageHls ? ladderFor(uploadedFile, versionResolution) : List.of(versionResolution);
+            System.out.println("Renditions: " + rungs);
+
+            List<MovieMetadata> renditions = new ArrayList<>();
+            List<HlsPackagingService.HlsPackage> packages = new ArrayList<>();
+            String storagePath = null;
+            String trickplayPath = null;
+
+            String posterPath = null;
+
+            // Preview sprites and the poster are branches of the same decode as the renditions
+            File trickplayDir = Files.createTempDirectory("trickplay-").toFile();
+            TrickplayService.Builder trickplay = trickplayService.newBuilder(trickplayDir);
+            PosterService.Picker poster = posterService.newPicker();
+            FrameCallback frameCallback = frame -> {
+                trickplay.onFrame(frame);
+                poster.onFrame(frame);
+            };
 
-            if ("SUPABASE".equals(finalSourceType)) {
-                storagePath = supabaseStorageService.store(encodedFile,
-                        "movies/" + title + "/" + encodedFile.getName());
-            } else {
-                storagePath = localStorageService.store(encodedFile,
-                        "movies/" + title + "/" + encodedFile.getName());
-                finalSourceType = "LOCAL";
+            // A reclaimed job's progress matches no row; the completion below is what is refused
+            ProgressCallback callback = (percent) -> {
+                uploadJobRepository.updateProgressIfOwned(jobId, workerId, attempt, percent);
+                System.out.println("Encoding progress " + rungs + ": " + percent + "%");
+            };
+            // Every rung, the sprites and the poster come from one decode of the upload
+            System.out.println("Starting encoding " + rungs + "...");
+            Map<String, File> encoded = segmentedEncodingService.encodeAll(uploadedFile, rungs, "h265", callback,
+                    frameCallback);
+            System.out.println("Encoding complete: " + encoded.keySet());
+
+            try {
+                int thumbnails = trickplay.finish();
+                trickplayPath = keyPrefix + "/trickplay";
+                trickplayService.store(trickplayDir, storageFor(finalSourceType), trickplayPath);
+                System.out.println("Trickplay: " + thumbnails + " thumbnails stored under " + trickplayPath);
+            } catch (IOException e) {
+                // Previews are optional; the movie is still playable without them
+                trickplayPath = null;
+                System.err.println("Trickplay generation failed: " + e.getMessage());
+            } finally {
+                hlsPackagingService.deleteDirectory(trickplayDir);
+            }
+            posterPath = storePoster(poster, keyPrefix, finalSourceType);
+
+            for (Map.Entry<String, File> rendition : encoded.entrySet()) {
+                String rung = rendition.getKey();
+                File encodedFile = rendition.getValue();
+                try {
+                    String rungPath = storageFor(finalSourceType).store(encodedFile,
+                            keyPrefix + "/" + encodedFile.getName());
+                    System.out.println("Stored at: " + rungPath);
+                    // Rungs are highest first; the top one is what /stream and /download serve
+                    if (storagePath == null) {
+                        storagePath = rungPath;
+                    }
+
+                    MovieMetadata meta = new MovieMetadata();
+                    meta.setResolution(rung);
+                    meta.setFilePath(rungPath);
+                    meta.setSizeInBytes(encodedFile.length());
+                    meta.setFormat("mp4-h265");
+                    try {
+                        mediaProbeService.applyTo(meta, mediaProbeService.probeFile(encodedFile), encodedFile.length());
+                    } catch (Exception e) {
+                        // A missing probe only leaves the technical columns empty for the backfill
+                        System.err.println("Rendition probe failed (" + rung + "): " + e.getMessage());
+                    }
+
+                    // Built from the stored bytes themselves (faststart already applied)
+                    KeyframeIndex keyframeIndex = keyframeIndexService.build(encodedFile);
+                    meta.setKeyframeIndexPath(keyframeIndexService.store(keyframeIndex, storageFor(finalSourceType),
+                            keyPrefix + "/index/" + rung + KeyframeIndexService.INDEX_SUFFIX));
+                    System.out.println("Keyframe index: " + keyframeIndex.size() + " keyframes");
+
+                    if (packageHls) {
+                        String hlsPath = keyPrefix + "/hls/" + rung;
+                        HlsPackagingService.HlsPackage hlsPackage = hlsPackagingService.packageRendition(encodedFile, rung);
+                        try {
+                            hlsPackagingService.store(hlsPackage.directory(), storageFor(finalSourceType), hlsPath);
+                        } finally {
+                            hlsPackagingService.deleteDirectory(hlsPackage.directory());
+                        }
+                        System.out.println("HLS package stored under: " + hlsPath);
+                        packages.add(hlsPackage);
+                        meta.setHlsPath(hlsPath);
+                        if (meta.getDuration() == null) {
+                            meta.setDuration(hlsPackage.durationSeconds());
+                            meta.setBitrate((int) (hlsPackage.averageBandwidth() / 1000));
+                        }
+                    }
+                    renditions.add(meta);
+                } finally {
+                    // Clean up encoded file (storage service already copied it)
+                    encodedFile.delete();
+                }
             }
 
-            System.out.println("Stored at: " + storagePath);
+            if (!packages.isEmpty()) {
+                byte[] master = hlsPackagingService.buildMasterPlaylist(packages).getBytes(StandardCharsets.UTF_8);
+                storageFor(finalSourceType).store(new ByteArrayInputStream(master),
+                        keyPrefix + "/hls/" + HlsPackagingService.MASTER_PLAYLIST_NAME,
+                        master.length, "application/vnd.apple.mpegurl");
+                System.out.println("Master playlist stored with " + packages.size() + " renditions");
+            }
 
             Movie movie = new Movie();
             movie.setTitle(title);
             movie.setFilePath(storagePath);
+            movie.setTrickplayPath(trickplayPath);
+            movie.setPosterPath(posterPath);
             movie.setUploadedDate(LocalDateTime.now());
             movie.setCreatedAt(LocalDateTime.now());
             movie.setStatus("ACTIVE");
             movie.setSourceType(finalSourceType);
             movie.setUploaderId(uploaderId != null ? uploaderId : 1L);
 
-            Movie savedMovie = movieRepository.save(movie);
-            System.out.println("Movie saved with ID: " + savedMovie.getId());
+            String finalPosterPath = posterPath;
+            Long movieId = new TransactionTemplate(transactionManager).execute(tx -> {
+                Movie savedMovie = movieRepository.save(movie);
+                System.out.println("Movie saved with ID: " + savedMovie.getId());
+                if (finalPosterPath != null) {
+                    // Needs the id, so it is set once the movie has one
+                    savedMovie.setThumbnailUrl(publicBaseUrl + "/api/movies/" + savedMovie.getId() + "/poster");
+                    savedMovie = movieRepository.save(savedMovie);
+                }
 
-            MovieMetadata meta = new MovieMetadata();
-            meta.setMovie(savedMovie);
-            meta.setResolution(versionResolution);
-            meta.setSizeInBytes(encodedFile.length());
-            meta.setFormat("mp4-h265");
-            meta.setDuration(0.0);
-            movieMetadataRepository.save(meta);
+                for (MovieMetadata meta : renditions) {
+                    meta.setMovie(savedMovie);
+                    movieMetadataRepository.save(meta);
+                }
 
-            job.setStatus("COMPLETED");
-            job.setProgress(100);
-            job.setResultingMovieId(savedMovie.getId());
-            uploadJobRepository.save(job);
+                if (uploadJobRepository.completeIfOwned(jobId, workerId, attempt, savedMovie.getId()) == 0) {
+                    throw new IllegalStateException("Job " + jobId + " was reclaimed by another worker; discarding this encode");
+                }
 
-            // Step 4: markCompleted after movie, meta, and job all saved
-            uploadHistoryService.markCompleted(jobId, savedMovie.getId());
+                // Step 4: markCompleted after movie, meta, and job all saved
+                uploadHistoryService.markCompleted(jobId, savedMovie.getId());
+                return savedMovie.getId();
+            });
+            System.out.println("Movie " + movieId + " registered for job " + jobId);
 
             System.out.println("=== UPLOAD COMPLETE ===");
 
-            // Clean up encoded file (storage service already copied it)
-            encodedFile.delete();
-
         } catch (Exception e) {
             System.err.println("=== UPLOAD FAILED ===");
             System.err.println("Error: " + e.getMessage());
             e.printStackTrace();
-            job.setStatus("FAILED");
-            job.setErrorMessage(e.getMessage());
-            uploadJobRepository.save(job);
-            // Step 5: markFailed
-            uploadHistoryService.markFailed(jobId, e.getMessage());
-        } finally {
-            // Clean up original uploaded file
-            if (uploadedFile.exists()) {
-                uploadedFile.delete();
-            }
+            throw e;
         }
     }
 
-    // Backward compatible overloads
-    @Async("encodingTaskExecutor")
-    @Transactional
-    public void handleUpload(File uploadedFile, String title, String versionResolution,
-                             String jobId, Long uploaderId) {
-        handleUpload(uploadedFile, title, versionResolution, jobId, uploaderId, "LOCAL");
+    /**
+     * Key prefix of everything an upload job stores. Titles repeat, so the job id is part of it.
+     */
+    public static String jobOutputPrefix(String title, String jobId) {
+        return "movies/" + title + "/" + jobId;
     }
 
-    @Async("encodingTaskExecutor")
-    @Transactional
-    public void handleUpload(File uploadedFile, String title, String versionResolution, String jobId) {
-        handleUpload(uploadedFile, title, versionResolution, jobId, 1L, "LOCAL");
+    /**
+     * Key prefix of one attempt's outputs, so a retry never collides with what an interrupted
+     * attempt stored and each attempt's objects can be deleted without touching another's.
+     */
+    public static String attemptOutputPrefix(String title, String jobId, int attempt) {
+        return jobOutputPrefix(title, jobId) + "/attempt-" + attempt;
+    }
+
+    /**
+     * The ladder rungs (highest first) that don't upscale the source. Falls back to the requested
+     * resolution when the source is smaller than every rung or can't be probed.
+     */
+    public List<String> ladderFor(File source, String requestedResolution) {
+        int sourceHeight;
+        try {
+            sourceHeight = compressionService.getVideoInfo(source).height;
+        } catch (Exception e) {
+            System.out.println("Could not probe source, encoding " + requestedResolution + " only: " + e.getMessage());
+            return List.of(requestedResolution);
+        }
+        List<String> rungs = Arrays.stream(encodingLadder)
+                .map(String::trim)
+                .filter(r -> r.matches("\\d+p") && Integer.parseInt(r.substring(0, r.length() - 1)) <= sourceHeight)
+                .distinct()
+                .sorted(Comparator.comparingInt((String r) -> Integer.parseInt(r.substring(0, r.length() - 1))).reversed())
+                .collect(Collectors.toList());
+        return rungs.isEmpty() ? List.of(requestedResolution) : rungs;
     }
 }
\ No newline at end of file
@@ -0,0 +1,130 @@
+package com.neu.finalproject.meskot.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Where the top-level boxes of an MP4 sit, read from box headers alone. Only a few
+ * header-sized ranges are fetched, so probing a remote object costs a handful of small
+ * requests rather than a download.
+ */
+public final class Mp4Layout {
+
+    private static final int MAX_TOP_LEVEL_BOXES = 64;
+
+    private final long size;
+    private long moovOffset = -1;
+    private long moovSize = -1;
+    private long mdatOffset = -1;
+
+    private Mp4Layout(long size) {
+        this.size = size;
+    }
+
+    /**
+     * Opens bytes [start, end] (inclusive) of the file being probed.
+     */
+    private interface RangeOpener {
+        InputStream open(long start, long end) throws IOException;
+    }
+
+    public static Mp4Layout probe(StorageService storage, String objectKey) throws IOException {
+        return probe(storage.stat(objectKey).size(), objectKey, (start, end) -> storage.openRange(objectKey, start, end));
+    }
+
+    public static Mp4Layout probe(Path file) throws IOException {
+        return probe(Files.size(file), file.toString(), (start, end) -> {
+            InputStream in = Files.newInputStream(file);
+            in.skipNBytes(start);
+            return new BoundedInputStream(in, end - start + 1);
+        });
+    }
+
+    private static Mp4Layout probe(long size, String objectKey, RangeOpener opener) throws IOException {
+        Mp4Layout layout = new Mp4Layout(size);
+        long offset = 0;
+        for (int i = 0; i < MAX_TOP_LEVEL_BOXES && offset + 8 <= layout.size; i++) {
+            byte[] header = readHeader(opener, objectKey, offset, layout.size);
+            long boxSize = readUInt32(header, 0);
+            String type = new String(header, 4, 4, StandardCharsets.US_ASCII);
+            if (boxSize == 1) {
+                if (header.length < 16) {
+                    break;
+                }
+                boxSize = readUInt32(header, 8) << 32 | readUInt32(header, 12);
+            } else if (boxSize == 0) {
+                // box runs to the end of the file
+                boxSize = layout.size - offset;
+            }
+            if (boxSize < 8) {
+                throw new IOException("Malformed MP4 box '" + type + "' at " + offset + " in " + objectKey);
+            }
+
+            if ("moov".equals(type) && layout.moovOffset < 0) {
+                layout.moovOffset = offset;
+                layout.moovSize = boxSize;
+            } else if ("mdat".equals(type) && layout.mdatOffset < 0) {
+                layout.mdatOffset = offset;
+            }
+            if (layout.moovOffset >= 0 && layout.mdatOffset >= 0) {
+                break;
+            }
+            offset += boxSize;
+        }
+        return layout;
+    }
+
+    private static byte[] readHeader(RangeOpener opener, String objectKey, long offset, long size)
+            throws IOException {
+        long end = Math.min(offset + 15, size - 1);
+        byte[] header = new byte[(int) (end - offset + 1)];
+        try (InputStream in = opener.open(offset, end)) {
+            int read = 0;
+            while (read < header.length) {
+                int n = in.read(header, read, header.length - read);
+                if (n < 0) {
+                    throw new IOException("Unexpected end of " + objectKey + " at " + (offset + read));
+                }
+                read += n;
+            }
+        }
+        return header;
+    }
+
+    private static long readUInt32(byte[] b, int at) {
+        return (b[at] & 0xFFL) << 24 | (b[at + 1] & 0xFFL) << 16 | (b[at + 2] & 0xFFL) << 8 | (b[at + 3] & 0xFFL);
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    /** Offset of the moov box, or -1 if none was found. */
+    public long getMoovOffset() {
+        return moovOffset;
+    }
+
+    public long getMoovSize() {
+        return moovSize;
+    }
+
+    /** Offset of the first mdat box, or -1 if none was found. */
+    public long getMdatOffset() {
+        return mdatOffset;
+    }
+
+    /**
+     * True when a player can start from the first bytes: moov comes before the media data.
+     */
+    public boolean isFaststart() {
+        return moovOffset >= 0 && (mdatOffset < 0 || moovOffset < mdatOffset);
+    }
+
+    @Override
+    public String toString() {
+        return "moov@" + moovOffset + (moovSize >= 0 ? "+" + moovSize : "") + " mdat@" + mdatOffset + " of " + size;
+    }
+}
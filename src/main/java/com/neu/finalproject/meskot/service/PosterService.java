@@ -0,0 +1,180 @@
+package com.neu.finalproject.meskot.service;
+
+import org.bytedeco.javacv.Frame;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Picks a poster frame for an uploaded movie during the ingest encode. Candidates are sampled
+ * every few seconds after the opening; black frames, fades and flat title cards are rejected by
+ * brightness, contrast and how much the picture changed since the previous sample, and the
+ * most detailed survivor wins. Frames are judged from a sparse read of the luma plane; only a
+ * new leader is converted to an image.
+ */
+@Service
+public class PosterService {
+
+    @Value("${app.poster.widths:240,480}")
+    private int[] widths;
+
+    @Value("${app.poster.skip-seconds:5}")
+    private int skipSeconds;
+
+    @Value("${app.poster.window-seconds:600}")
+    private int windowSeconds;
+
+    @Value("${app.poster.sample-seconds:2}")
+    private int sampleSeconds;
+
+    @Value("${app.poster.min-luma:35}")
+    private double minLuma;
+
+    @Value("${app.poster.max-luma:220}")
+    private double maxLuma;
+
+    @Value("${app.poster.min-contrast:25}")
+    private double minContrast;
+
+    // mean luma change between samples above which a frame counts as mid-fade
+    @Value("${app.poster.max-luma-change:30}")
+    private double maxLumaChange;
+
+    @Value("${app.poster.jpeg-quality:0.85}")
+    private float jpegQuality;
+
+    public Picker newPicker() {
+        return new Picker();
+    }
+
+    public static String variantName(int width) {
+        return "poster-" + width + ".jpg";
+    }
+
+    /**
+     * Configured variant widths, smallest first.
+     */
+    public int[] getWidths() {
+        int[] sorted = widths.clone();
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * Samples the first frame seen in each sample-length slot after the opening. Frames may
+     * arrive from several segments of a split encode at once, so a sample's change is judged
+     * against the slot before it when that one has been seen.
+     */
+    public class Picker implements FrameCallback {
+
+        private BufferedImage best;
+        private double bestScore = -1;
+        // best frame that is merely not black, in case nothing passes every test
+        private BufferedImage fallback;
+        private double fallbackContrast = -1;
+        private final Map<Long, Double> slotMeans = new HashMap<>();
+
+        @Override
+        public synchronized void onFrame(Frame frame) {
+            long skipMicros = skipSeconds * 1_000_000L;
+            if (frame.timestamp < skipMicros || frame.timestamp > windowSeconds * 1_000_000L) {
+                return;
+            }
+            long slot = (frame.timestamp - skipMicros) / (sampleSeconds * 1_000_000L);
+            if (slotMeans.containsKey(slot)) {
+                return;
+            }
+
+            double[] stats = VideoFrames.lumaStats(frame);
+            double mean = stats[0];
+            double contrast = stats[1];
+            Double previousMean = slotMeans.get(slot - 1);
+            boolean steady = previousMean == null || Math.abs(mean - previousMean) <= maxLumaChange;
+            slotMeans.put(slot, mean);
+
+            if (mean < minLuma / 2) {
+                return; // black
+            }
+            if (mean >= minLuma && mean <= maxLuma && contrast >= minContrast && steady) {
+                // Prefer detail, and mid-range exposure over near-clipped frames
+                double score = contrast * (1 - Math.abs(mean - 128) / 256);
+                if (score > bestScore) {
+                    bestScore = score;
+                    best = capture(frame);
+                }
+            } else if (best == null && contrast > fallbackContrast) {
+                fallbackContrast = contrast;
+                fallback = capture(frame);
+            }
+        }
+
+        /**
+         * Copy a frame at the largest variant's width; the grabber reuses the frame's buffers.
+         */
+        private BufferedImage capture(Frame frame) {
+            BufferedImage image = VideoFrames.toImage(frame);
+            int width = Arrays.stream(widths).max().orElse(image.getWidth());
+            if (image.getWidth() <= width) {
+                return image;
+            }
+            int height = Math.max(1, (int) Math.round((double) width * image.getHeight() / image.getWidth()));
+            return VideoFrames.scale(image, width, height);
+        }
+
+        /**
+         * Write one JPEG per configured width into outputDir. Returns false if the movie
+         * gave no usable frame at all.
+         */
+        public synchronized boolean finish(File outputDir) throws IOException {
+            BufferedImage poster = best != null ? best : fallback;
+            if (poster == null) {
+                return false;
+            }
+            writeVariants(poster, outputDir);
+            return true;
+        }
+    }
+
+    /**
+     * Write one JPEG per configured width of a chosen poster image into outputDir.
+     */
+    public void writeVariants(BufferedImage poster, File outputDir) throws IOException {
+        for (int width : widths) {
+            int height = Math.max(1, (int) Math.round((double) width * poster.getHeight() / poster.getWidth()));
+            write(VideoFrames.scale(poster, width, height), new File(outputDir, variantName(width)));
+        }
+    }
+
+    /**
+     * Store the variants written to posterDir under keyPrefix.
+     */
+    public void store(File posterDir, StorageService storage, String keyPrefix) throws IOException {
+        for (int width : widths) {
+            storage.store(new File(posterDir, variantName(width)), keyPrefix + "/" + variantName(width));
+        }
+    }
+
+    private void write(BufferedImage image, File target) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(target)) {
+            writer.setOutput(out);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(jpegQuality);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+}
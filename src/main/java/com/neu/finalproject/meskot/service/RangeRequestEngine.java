@@ -0,0 +1,343 @@
+package com.neu.finalproject.meskot.service;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * RFC 7233 range handling shared by every movie source.
+ *
+ * Supports single ranges ("bytes=0-499"), open-ended ranges ("bytes=500-"), suffix ranges
+ * ("bytes=-500", used by players probing for a trailing moov atom) and multi-range requests,
+ * which are answered as multipart/byteranges. Unsatisfiable ranges get a 416 and syntactically
+ * invalid Range headers are ignored, as the RFC requires.
+ *
+ * Responses carry the source's validators (ETag, Last-Modified) and the engine answers
+ * If-None-Match / If-Modified-Since with 304 and honours If-Range (RFC 7232), so a client
+ * that already holds the bytes, or part of them, doesn't fetch them again.
+ */
+@Component
+public class RangeRequestEngine {
+
+    // More ranges than this in one request is abuse, not a player; serve the whole object instead
+    private static final int MAX_RANGES = 32;
+
+    /**
+     * One resolved, satisfiable byte range (inclusive on both ends).
+     */
+    public record ByteRange(long start, long end) {
+        public long length() {
+            return end - start + 1;
+        }
+
+        String contentRange(long total) {
+            return "bytes " + start + "-" + end + "/" + total;
+        }
+    }
+
+    /**
+     * What to send for a request: status, headers, and the byte ranges of the body.
+     *
+     * @param ranges      the ranges the body is made of, in order; empty when there is no body
+     *                    (304, 416, a zero-length object)
+     * @param partHeaders for multipart/byteranges, the header block written before each range;
+     *                    null for a plain body
+     * @param closing     the closing boundary of a multipart body, otherwise null
+     */
+    public record Plan(HttpStatus status, HttpHeaders headers, List<ByteRange> ranges,
+                       List<byte[]> partHeaders, byte[] closing) {
+        public boolean multipart() {
+            return partHeaders != null;
+        }
+    }
+
+    /**
+     * Build the response for a GET or HEAD carrying only a Range header.
+     */
+    public ResponseEntity<StreamingResponseBody> serve(RangeSource source, String rangeHeader, boolean headOnly)
+            throws IOException {
+        HttpHeaders request = new HttpHeaders();
+        if (rangeHeader != null) {
+            request.set(HttpHeaders.RANGE, rangeHeader);
+        }
+        return serve(source, request, null, headOnly);
+    }
+
+    /**
+     * Build the response for a GET or HEAD against a range source. For HEAD no body is opened,
+     * so remote sources only pay for the length lookup.
+     *
+     * @param requestHeaders  the client's headers; Range and the conditional headers are read
+     * @param responseHeaders extra headers for every response (Cache-Control,
+     *                        Content-Disposition, ...), may be null
+     */
+    public ResponseEntity<StreamingResponseBody> serve(RangeSource source, HttpHeaders requestHeaders,
+                                                       HttpHeaders responseHeaders, boolean headOnly)
+            throws IOException {
+        Plan plan = plan(source, requestHeaders, responseHeaders);
+        StreamingResponseBody body = null;
+        if (!headOnly && !plan.ranges().isEmpty()) {
+            if (plan.multipart()) {
+                body = out -> writeMultipart(source, plan, out);
+            } else {
+                ByteRange range = plan.ranges().get(0);
+                body = source.body(range.start(), range.end());
+            }
+        }
+        return new ResponseEntity<>(body, plan.headers(), plan.status());
+    }
+
+    /**
+     * Work out the response for a request without producing a body, so callers on another
+     * I/O model (the reactive gateway) can write the bytes their own way.
+     */
+    public Plan plan(RangeSource source, HttpHeaders requestHeaders, HttpHeaders responseHeaders)
+            throws IOException {
+        long length = source.length();
+        MediaType contentType = MediaType.parseMediaType(source.contentType());
+        String etag = source.etag();
+        long lastModified = source.lastModified();
+
+        HttpHeaders headers = new HttpHeaders();
+        if (responseHeaders != null) {
+            headers.putAll(responseHeaders);
+        }
+        headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+        if (etag != null) {
+            headers.setETag(etag);
+        }
+        if (lastModified > 0) {
+            headers.setLastModified(lastModified);
+        }
+
+        if (notModified(requestHeaders, etag, lastModified)) {
+            return new Plan(HttpStatus.NOT_MODIFIED, headers, List.of(), null, null);
+        }
+
+        String rangeHeader = requestHeaders.getFirst(HttpHeaders.RANGE);
+        if (rangeHeader != null && !ifRangeMatches(requestHeaders.getFirst(HttpHeaders.IF_RANGE), etag, lastModified)) {
+            // The client's partial copy is stale: send the whole current object instead
+            rangeHeader = null;
+        }
+
+        List<ByteRange> ranges = parse(rangeHeader, length);
+
+        if (ranges == null) {
+            headers.setContentType(contentType);
+            headers.setContentLength(length);
+            List<ByteRange> whole = length == 0 ? List.of() : List.of(new ByteRange(0, length - 1));
+            return new Plan(HttpStatus.OK, headers, whole, null, null);
+        }
+
+        if (ranges.isEmpty()) {
+            headers.set(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+            return new Plan(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE, headers, List.of(), null, null);
+        }
+
+        if (ranges.size() == 1) {
+            ByteRange range = ranges.get(0);
+            headers.setContentType(contentType);
+            headers.set(HttpHeaders.CONTENT_RANGE, range.contentRange(length));
+            headers.setContentLength(range.length());
+            return new Plan(HttpStatus.PARTIAL_CONTENT, headers, ranges, null, null);
+        }
+
+        String boundary = UUID.randomUUID().toString().replace("-", "");
+        List<byte[]> partHeaders = new ArrayList<>(ranges.size());
+        long total = 0;
+        for (ByteRange range : ranges) {
+            byte[] partHeader = ("\r\n--" + boundary + "\r\n"
+                    + HttpHeaders.CONTENT_TYPE + ": " + contentType + "\r\n"
+                    + HttpHeaders.CONTENT_RANGE + ": " + range.contentRange(length) + "\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII);
+            partHeaders.add(partHeader);
+            total += partHeader.length + range.length();
+        }
+        byte[] closing = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        total += closing.length;
+
+        headers.setContentType(MediaType.parseMediaType("multipart/byteranges; boundary=" + boundary));
+        headers.setContentLength(total);
+        return new Plan(HttpStatus.PARTIAL_CONTENT, headers, ranges, partHeaders, closing);
+    }
+
+    /**
+     * If-None-Match wins over If-Modified-Since when both are present. If-None-Match uses the
+     * weak comparison, so W/"x" matches "x".
+     */
+    private boolean notModified(HttpHeaders request, String etag, long lastModified) {
+        List<String> ifNoneMatch;
+        try {
+            ifNoneMatch = request.getIfNoneMatch();
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        if (!ifNoneMatch.isEmpty()) {
+            if (etag == null) {
+                return false;
+            }
+            String opaque = opaqueTag(etag);
+            return ifNoneMatch.stream().anyMatch(tag -> "*".equals(tag.trim()) || opaqueTag(tag).equals(opaque));
+        }
+        long ifModifiedSince;
+        try {
+            ifModifiedSince = request.getIfModifiedSince();
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        // HTTP dates have one-second resolution
+        return ifModifiedSince >= 0 && lastModified > 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+
+    /**
+     * If-Range holds either an entity tag, compared strongly, or an HTTP date that must match
+     * the modification time exactly.
+     */
+    private boolean ifRangeMatches(String ifRange, String etag, long lastModified) {
+        if (ifRange == null || ifRange.isBlank()) {
+            return true;
+        }
+        String value = ifRange.trim();
+        if (value.startsWith("\"") || value.startsWith("W/")) {
+            return etag != null && !value.startsWith("W/") && !etag.startsWith("W/") && value.equals(etag);
+        }
+        if (lastModified <= 0) {
+            return false;
+        }
+        try {
+            long date = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toEpochSecond();
+            return date == lastModified / 1000;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    private static String opaqueTag(String tag) {
+        String trimmed = tag.trim();
+        return trimmed.startsWith("W/") ? trimmed.substring(2) : trimmed;
+    }
+
+    /**
+     * Write a planned body: the single range, or every part of a multipart/byteranges body.
+     */
+    public void writeBody(RangeSource source, Plan plan, OutputStream out) throws IOException {
+        if (plan.multipart()) {
+            writeMultipart(source, plan, out);
+            return;
+        }
+        for (ByteRange range : plan.ranges()) {
+            source.writeRange(range.start(), range.end(), out);
+        }
+        out.flush();
+    }
+
+    private void writeMultipart(RangeSource source, Plan plan, OutputStream out) throws IOException {
+        for (int i = 0; i < plan.ranges().size(); i++) {
+            ByteRange range = plan.ranges().get(i);
+            out.write(plan.partHeaders().get(i));
+            source.writeRange(range.start(), range.end(), out);
+        }
+        out.write(plan.closing());
+        out.flush();
+    }
+
+    /**
+     * Resolve a Range header against an object length.
+     *
+     * @return null when there is no usable Range header (serve the whole object), an empty list
+     *         when no range is satisfiable (416), otherwise the satisfiable ranges sorted by
+     *         offset with overlapping ranges coalesced
+     */
+    public List<ByteRange> parse(String rangeHeader, long length) {
+        if (rangeHeader == null || rangeHeader.isBlank()) {
+            return null;
+        }
+        String header = rangeHeader.trim();
+        int eq = header.indexOf('=');
+        if (eq < 0 || !header.substring(0, eq).trim().equalsIgnoreCase("bytes")) {
+            return null;
+        }
+
+        List<ByteRange> ranges = new ArrayList<>();
+        int specs = 0;
+        for (String rawSpec : header.substring(eq + 1).split(",")) {
+            String spec = rawSpec.trim();
+            if (spec.isEmpty()) {
+                continue;
+            }
+            if (++specs > MAX_RANGES) {
+                return null;
+            }
+            int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            try {
+                if (first.isEmpty()) {
+                    // Suffix range: the last N bytes
+                    if (last.isEmpty()) {
+                        return null;
+                    }
+                    long suffix = Long.parseLong(last);
+                    if (suffix < 0) {
+                        return null;
+                    }
+                    if (suffix > 0 && length > 0) {
+                        ranges.add(new ByteRange(Math.max(0, length - suffix), length - 1));
+                    }
+                } else {
+                    long start = Long.parseLong(first);
+                    long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+                    if (start < 0 || end < start) {
+                        return null;
+                    }
+                    if (start < length) {
+                        ranges.add(new ByteRange(start, Math.min(end, length - 1)));
+                    }
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        if (specs == 0) {
+            return null;
+        }
+        return coalesce(ranges);
+    }
+
+    private List<ByteRange> coalesce(List<ByteRange> ranges) {
+        if (ranges.size() < 2) {
+            return ranges;
+        }
+        ranges.sort(Comparator.comparingLong(ByteRange::start));
+        List<ByteRange> merged = new ArrayList<>();
+        ByteRange current = ranges.get(0);
+        for (int i = 1; i < ranges.size(); i++) {
+            ByteRange next = ranges.get(i);
+            if (next.start() <= current.end() + 1) {
+                current = new ByteRange(current.start(), Math.max(current.end(), next.end()));
+            } else {
+                merged.add(current);
+                current = next;
+            }
+        }
+        merged.add(current);
+        return merged;
+    }
+}
@@ -0,0 +1,56 @@
+package com.neu.finalproject.meskot.service;
+
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A byte-addressable movie object that {@link RangeRequestEngine} can serve ranges from,
+ * regardless of where the bytes actually live.
+ */
+public interface RangeSource {
+
+    /**
+     * Total size of the object in bytes. Must not transfer the body.
+     */
+    long length() throws IOException;
+
+    String contentType();
+
+    /**
+     * Strong entity tag (quoted) that changes whenever the bytes change, or null if the source
+     * can't tell. Used for If-None-Match and If-Range.
+     */
+    default String etag() throws IOException {
+        return null;
+    }
+
+    /**
+     * Last modification time in epoch millis, or -1 if unknown.
+     */
+    default long lastModified() throws IOException {
+        return -1;
+    }
+
+    /**
+     * Write bytes [start, end] (inclusive) to the client.
+     */
+    void writeRange(long start, long end, OutputStream out) throws IOException;
+
+    /**
+     * Body for a single-range response. Sources that can hand the transfer to the container
+     * override this and may return null when the container sends the bytes itself.
+     */
+    default StreamingResponseBody body(long start, long end) throws IOException {
+        return out -> writeRange(start, end, out);
+    }
+
+    /**
+     * Strong validator built from the object's size and modification time, the same recipe
+     * Tomcat and nginx use for static files.
+     */
+    static String etagOf(long length, long lastModified) {
+        return "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+    }
+}
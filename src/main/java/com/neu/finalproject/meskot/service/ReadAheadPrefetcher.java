@@ -0,0 +1,292 @@
+package com.neu.finalproject.meskot.service;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Read-ahead for remote movies played through the chunk cache.
+ *
+ * Each viewer of an object gets a session (keyed by client address, user agent and object)
+ * that follows where its reads land, one cursor per position the player is reading from. Once
+ * a cursor has read a few chunks back to back it is playing, not probing, and the next chunks
+ * are fetched into the cache in the background so they are on disk before the player asks for
+ * them. A read that lands away from every cursor - a seek, or a probe beside the main playback -
+ * starts a new cursor rather than cancelling the others; the least recently used one is dropped,
+ * prefetches and all, once a session has too many.
+ */
+@Service
+public class ReadAheadPrefetcher {
+
+    @Value("${app.prefetch.enabled:true}")
+    private boolean enabled;
+
+    // chunks kept fetched ahead of the read position
+    @Value("${app.prefetch.chunks:4}")
+    private int prefetchChunks;
+
+    // chunks read in sequence before read-ahead starts; header and moov probes stay below it
+    @Value("${app.prefetch.sequential-threshold:2}")
+    private int sequentialThreshold;
+
+    // read positions tracked per viewer and object: main playback, a probe, a seek in progress
+    @Value("${app.prefetch.cursors-per-session:3}")
+    private int maxCursors;
+
+    @Value("${app.prefetch.session-idle-seconds:300}")
+    private long sessionIdleSeconds;
+
+    private final ChunkCache chunkCache;
+    private final AsyncTaskExecutor executor;
+
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong scheduled = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+
+    public ReadAheadPrefetcher(ChunkCache chunkCache,
+                               @Qualifier("prefetchTaskExecutor") AsyncTaskExecutor executor) {
+        this.chunkCache = chunkCache;
+        this.executor = executor;
+    }
+
+    /**
+     * The current client's session for an object, or null when read-ahead is off or there is
+     * no request to identify the client by. Must be called on the request thread.
+     */
+    public Session session(String sourceType, StorageService storage, String objectKey) {
+        if (!enabled || !chunkCache.isEnabled() || prefetchChunks <= 0) {
+            return null;
+        }
+        if (!(RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes attributes)) {
+            return null;
+        }
+        HttpServletRequest request = attributes.getRequest();
+        String key = request.getRemoteAddr() + "|" + request.getHeader(HttpHeaders.USER_AGENT)
+                + "|" + sourceType + ":" + objectKey;
+        Session session = sessions.computeIfAbsent(key, k -> new Session(sourceType, storage, objectKey));
+        session.lastUsed = System.currentTimeMillis();
+        return session;
+    }
+
+    /**
+     * Drop sessions whose viewer has gone away.
+     */
+    @Scheduled(fixedDelayString = "${app.prefetch.sweep-ms:60000}")
+    public void sweep() {
+        long cutoff = System.currentTimeMillis() - sessionIdleSeconds * 1000;
+        sessions.values().removeIf(session -> {
+            if (session.lastUsed >= cutoff) {
+                return false;
+            }
+            session.cancelPending();
+            return true;
+        });
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    public long getScheduledCount() {
+        return scheduled.get();
+    }
+
+    public long getCancelledCount() {
+        return cancelled.get();
+    }
+
+    /**
+     * One client's reads of one object. A player often reads the same object along more than
+     * one path at once - its main playback plus a probe for the moov box or a seek target - so
+     * each path is tracked as its own {@link Cursor}, and a read far from every cursor opens a
+     * new one instead of cancelling the others' read-ahead. Past maxCursors the least recently
+     * used cursor is dropped with its prefetches, which is where an abandoned position ends up
+     * after a seek.
+     */
+    public final class Session {
+        private final String sourceType;
+        private final StorageService storage;
+        private final String objectKey;
+        private final List<Cursor> cursors = new ArrayList<>();
+        private final ReentrantLock lock = new ReentrantLock();
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        private Session(String sourceType, StorageService storage, String objectKey) {
+            this.sourceType = sourceType;
+            this.storage = storage;
+            this.objectKey = objectKey;
+        }
+
+        /**
+         * A range read is starting at {@code start}. It continues the cursor whose last read
+         * stopped within a chunk of it; anything further from every cursor starts a new one.
+         */
+        Cursor rangeStarted(long start) {
+            lock.lock();
+            try {
+                lastUsed = System.currentTimeMillis();
+                long chunkSize = chunkCache.getChunkSize();
+                Cursor cursor = null;
+                for (Cursor candidate : cursors) {
+                    if (Math.abs(start - candidate.expectedOffset) <= chunkSize
+                            && (cursor == null || candidate.lastUsed > cursor.lastUsed)) {
+                        cursor = candidate;
+                    }
+                }
+                if (cursor == null) {
+                    if (cursors.size() >= Math.max(1, maxCursors)) {
+                        Cursor oldest = cursors.get(0);
+                        for (Cursor candidate : cursors) {
+                            if (candidate.lastUsed < oldest.lastUsed) {
+                                oldest = candidate;
+                            }
+                        }
+                        oldest.cancelPending();
+                        cursors.remove(oldest);
+                    }
+                    cursor = new Cursor(start);
+                    cursors.add(cursor);
+                }
+                cursor.lastUsed = System.currentTimeMillis();
+                return cursor;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void prefetch(StorageService.ObjectStat stat, String version, long index, Prefetch task) {
+            try {
+                chunkCache.prefetch(sourceType, storage, objectKey, stat, version, index, task::upstreamOpened);
+            } catch (IOException e) {
+                if (!task.cancelled) {
+                    System.out.println("Prefetch of chunk " + index + " of " + objectKey + " failed: " + e.getMessage());
+                }
+            }
+        }
+
+        private void cancelPending() {
+            lock.lock();
+            try {
+                for (Cursor cursor : cursors) {
+                    cursor.cancelPending();
+                }
+                cursors.clear();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * One scheduled chunk fetch. Interrupting a thread blocked in a socket read doesn't
+         * unblock it, so cancelling also closes the upstream stream the fill is reading from.
+         */
+        private static final class Prefetch {
+            private Future<?> future;
+            private volatile Closeable upstream;
+            private volatile boolean cancelled;
+
+            void upstreamOpened(Closeable in) {
+                upstream = in;
+                if (cancelled) {
+                    // cancelled between the open and now: close() below may have missed it
+                    closeQuietly(in);
+                }
+            }
+
+            boolean cancel() {
+                cancelled = true;
+                boolean stopped = future.cancel(true);
+                Closeable in = upstream;
+                if (in != null) {
+                    closeQuietly(in);
+                }
+                return stopped;
+            }
+
+            private static void closeQuietly(Closeable in) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        /**
+         * One sequential path through the object. Guarded by the session's lock.
+         */
+        public final class Cursor {
+            private final List<Prefetch> pending = new ArrayList<>();
+            // offset the next read starts at if this path keeps playing
+            private long expectedOffset;
+            private int sequentialChunks;
+            private long prefetchedThrough = -1;
+            private long lastUsed = System.currentTimeMillis();
+
+            private Cursor(long start) {
+                this.expectedOffset = start;
+            }
+
+            /**
+             * Chunk {@code index} is about to be sent, up to byte {@code end}. Schedules the
+             * chunks after it once the cursor counts as sequential.
+             */
+            void chunkRead(StorageService.ObjectStat stat, String version, long index, long end) {
+                lock.lock();
+                try {
+                    Session.this.lastUsed = System.currentTimeMillis();
+                    lastUsed = Session.this.lastUsed;
+                    expectedOffset = end + 1;
+                    if (++sequentialChunks < sequentialThreshold) {
+                        return;
+                    }
+                    long lastChunk = (stat.size() - 1) / chunkCache.getChunkSize();
+                    long from = Math.max(index + 1, prefetchedThrough + 1);
+                    long to = Math.min(lastChunk, index + prefetchChunks);
+                    pending.removeIf(task -> task.future.isDone());
+                    for (long next = from; next <= to; next++) {
+                        long chunkIndex = next;
+                        Prefetch task = new Prefetch();
+                        try {
+                            task.future = executor.submit(() -> prefetch(stat, version, chunkIndex, task));
+                            pending.add(task);
+                        } catch (TaskRejectedException e) {
+                            // Prefetch pool is full; the next chunk read will try again
+                            break;
+                        }
+                        scheduled.incrementAndGet();
+                        prefetchedThrough = chunkIndex;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+
+            private void cancelPending() {
+                for (Prefetch task : pending) {
+                    // A running fill fails on the closed stream and discards its partial chunk
+                    if (task.cancel()) {
+                        cancelled.incrementAndGet();
+                    }
+                }
+                pending.clear();
+            }
+        }
+    }
+}
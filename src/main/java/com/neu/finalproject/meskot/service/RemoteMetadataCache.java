@@ -0,0 +1,200 @@
+package com.neu.finalproject.meskot.service;
+
+import com.neu.finalproject.meskot.model.RemoteObjectMetadata;
+import com.neu.finalproject.meskot.repository.RemoteObjectMetadataRepository;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of remote object metadata: size, modification time, ETag, content type and the URL a
+ * download finally redirects to. Lookups are served from memory; every entry is also written to
+ * remote_object_metadata so a restart starts warm. Entries expire after a TTL and the cache is
+ * bounded, dropping the oldest fetched entries first.
+ */
+@Service
+public class RemoteMetadataCache {
+
+    public static final String INTERNET_ARCHIVE = "INTERNET_ARCHIVE";
+    public static final String SUPABASE = "SUPABASE";
+
+    @Value("${app.remote-metadata.ttl-seconds:86400}")
+    private long ttlSeconds;
+
+    @Value("${app.remote-metadata.max-entries:10000}")
+    private int maxEntries;
+
+    private final RemoteObjectMetadataRepository repository;
+
+    // in-memory index keyed by sourceType + ":" + objectKey
+    private final Map<String, RemoteObjectMetadata> index = new ConcurrentHashMap<>();
+
+    public RemoteMetadataCache(RemoteObjectMetadataRepository repository) {
+        this.repository = repository;
+    }
+
+    /**
+     * Loads an object's metadata from the remote on a cache miss.
+     */
+    public interface StatLoader {
+        StorageService.ObjectStat load() throws IOException;
+    }
+
+    @PostConstruct
+    public void warm() {
+        try {
+            repository.findByExpiresAtAfterOrderByFetchedAtDesc(LocalDateTime.now(), PageRequest.of(0, maxEntries))
+                    .forEach(e -> index.put(indexKey(e.getSourceType(), e.getObjectKey()), e));
+            System.out.println("Remote metadata cache warmed with " + index.size() + " entries");
+        } catch (DataAccessException e) {
+            System.out.println("Remote metadata cache starting cold: " + e.getMessage());
+        }
+    }
+
+    /**
+     * The cached stat for an object, or the loader's result (which is then cached).
+     */
+    public StorageService.ObjectStat stat(String sourceType, String objectKey, StatLoader loader) throws IOException {
+        Optional<RemoteObjectMetadata> cached = get(sourceType, objectKey);
+        if (cached.isPresent() && cached.get().getSize() != null) {
+            RemoteObjectMetadata e = cached.get();
+            return new StorageService.ObjectStat(e.getSize(),
+                    e.getLastModified() != null ? e.getLastModified() : -1, e.getContentType(), e.getEtag());
+        }
+        StorageService.ObjectStat stat = loader.load();
+        update(sourceType, objectKey, e -> {
+            e.setSize(stat.size());
+            e.setLastModified(stat.lastModified() > 0 ? stat.lastModified() : null);
+            e.setContentType(stat.contentType());
+            e.setEtag(stat.etag());
+        });
+        return stat;
+    }
+
+    /**
+     * The URL an object's download last redirected to, or null if unknown or expired.
+     */
+    public String resolvedUrl(String sourceType, String objectKey) {
+        return get(sourceType, objectKey).map(RemoteObjectMetadata::getResolvedUrl).orElse(null);
+    }
+
+    public void recordResolvedUrl(String sourceType, String objectKey, String url) {
+        update(sourceType, objectKey, e -> e.setResolvedUrl(url));
+    }
+
+    public void forgetResolvedUrl(String sourceType, String objectKey) {
+        RemoteObjectMetadata e = index.get(indexKey(sourceType, objectKey));
+        if (e != null && e.getResolvedUrl() != null) {
+            update(sourceType, objectKey, entry -> entry.setResolvedUrl(null));
+        }
+    }
+
+    @Transactional
+    public void invalidate(String sourceType, String objectKey) {
+        index.remove(indexKey(sourceType, objectKey));
+        try {
+            repository.deleteBySourceTypeAndObjectKey(sourceType, objectKey);
+        } catch (DataAccessException e) {
+            System.out.println("Could not drop cached metadata for " + objectKey + ": " + e.getMessage());
+        }
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Drop expired entries and trim the table back to the size bound.
+     */
+    @Scheduled(fixedDelayString = "${app.remote-metadata.purge-ms:600000}")
+    @Transactional
+    public void purge() {
+        LocalDateTime now = LocalDateTime.now();
+        index.values().removeIf(e -> e.getExpiresAt() != null && e.getExpiresAt().isBefore(now));
+        repository.deleteByExpiresAtBefore(now);
+        long excess = repository.count() - maxEntries;
+        if (excess > 0) {
+            repository.findAllByOrderByFetchedAtAsc(PageRequest.of(0, (int) excess)).forEach(e -> {
+                index.remove(indexKey(e.getSourceType(), e.getObjectKey()));
+                repository.delete(e);
+            });
+        }
+    }
+
+    private Optional<RemoteObjectMetadata> get(String sourceType, String objectKey) {
+        String key = indexKey(sourceType, objectKey);
+        RemoteObjectMetadata cached = index.get(key);
+        if (cached == null) {
+            // Not in memory (evicted, or written by another instance): try the table
+            try {
+                cached = repository.findBySourceTypeAndObjectKey(sourceType, objectKey).orElse(null);
+            } catch (DataAccessException e) {
+                return Optional.empty();
+            }
+            if (cached == null) {
+                return Optional.empty();
+            }
+            index.put(key, cached);
+        }
+        if (cached.getExpiresAt() != null && cached.getExpiresAt().isBefore(LocalDateTime.now())) {
+            index.remove(key);
+            return Optional.empty();
+        }
+        return Optional.of(cached);
+    }
+
+    private interface Mutation {
+        void apply(RemoteObjectMetadata entry);
+    }
+
+    private void update(String sourceType, String objectKey, Mutation mutation) {
+        String key = indexKey(sourceType, objectKey);
+        RemoteObjectMetadata entry = index.get(key);
+        if (entry == null || (entry.getExpiresAt() != null && entry.getExpiresAt().isBefore(LocalDateTime.now()))) {
+            entry = new RemoteObjectMetadata();
+            entry.setSourceType(sourceType);
+            entry.setObjectKey(objectKey);
+        }
+        RemoteObjectMetadata target = entry;
+        mutation.apply(target);
+        target.setFetchedAt(LocalDateTime.now());
+        target.setExpiresAt(LocalDateTime.now().plusSeconds(ttlSeconds));
+        try {
+            if (target.getId() == null) {
+                repository.findBySourceTypeAndObjectKey(sourceType, objectKey)
+                        .ifPresent(existing -> target.setId(existing.getId()));
+            }
+            index.put(key, repository.save(target));
+        } catch (DataAccessException e) {
+            // A concurrent writer got there first; the in-memory copy is still good
+            index.put(key, target);
+        }
+        if (index.size() > maxEntries) {
+            trimIndex();
+        }
+    }
+
+    private void trimIndex() {
+        index.entrySet().stream()
+                .sorted(Comparator.comparing(e -> e.getValue().getFetchedAt()))
+                .limit(Math.max(1, index.size() - maxEntries))
+                .map(Map.Entry::getKey)
+                .toList()
+                .forEach(index::remove);
+    }
+
+    private static String indexKey(String sourceType, String objectKey) {
+        return sourceType + ":" + objectKey;
+    }
+}
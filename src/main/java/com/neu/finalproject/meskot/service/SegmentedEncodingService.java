@@ -0,0 +1,453 @@
+package com.neu.finalproject.meskot.service;
+
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avformat.AVFormatContext;
+import org.bytedeco.ffmpeg.avformat.AVIOContext;
+import org.bytedeco.ffmpeg.avformat.AVOutputFormat;
+import org.bytedeco.ffmpeg.avformat.AVStream;
+import org.bytedeco.ffmpeg.avutil.AVDictionary;
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.ffmpeg.global.avformat;
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Encodes one source into every requested rendition, decoding it once per pass through
+ * {@link TranscodeService}. Long sources are also spread over several cores: the source is cut
+ * at keyframes into segments, and each segment is decoded once and encoded into every rung
+ * concurrently on a pool of its own, the frame callback riding along on every segment. Audio
+ * is shared by every rung and never cut, so no AAC priming gaps pile up at the joins: it is
+ * copied packet for packet from the source when MP4 can carry its codec, and otherwise
+ * encoded once, whole, alongside the segments. Each rung's segments are then joined by
+ * copying packets - no re-encode - into a single faststart MP4.
+ * <p>
+ * Sources too short to be worth splitting, or with no video, are transcoded in one pass.
+ */
+@Service
+public class SegmentedEncodingService {
+
+    private final TranscodeService transcodeService;
+    private final ThreadPoolTaskExecutor segmentExecutor;
+
+    @Value("${app.encoding.split.enabled:true}")
+    private boolean enabled;
+
+    // Sources shorter than this are encoded whole; the split and join overhead isn't worth it
+    @Value("${app.encoding.split.min-seconds:300}")
+    private int minSeconds;
+
+    // 0 = one segment per segment pool thread (half the cores, as AsyncConfig sizes it)
+    @Value("${app.encoding.split.segments:0}")
+    private int segmentCount;
+
+    public SegmentedEncodingService(TranscodeService transcodeService,
+                                    @Qualifier("segmentTaskExecutor") ThreadPoolTaskExecutor segmentExecutor) {
+        this.transcodeService = transcodeService;
+        this.segmentExecutor = segmentExecutor;
+    }
+
+    /**
+     * Encode input into one MP4 per resolution, handing each decoded video frame to
+     * frameCallback (concurrently, per segment, when the source is split). Returns the rungs that succeeded, in the order asked for; a rung
+     * that fails is logged and left out, and only a source nobody could encode throws.
+     * Progress is reported on the calling thread only, so callers that write it to the
+     * database stay in their own transaction.
+     */
+    public Map<String, File> encodeAll(File input, List<String> resolutions, String codec, ProgressCallback callback,
+                                       FrameCallback frameCallback) throws Exception {
+        List<Long> cuts = null;
+        int audioChannels;
+        boolean audioCopyable;
+        double frameRate;
+        long totalFrames;
+        FFmpegFrameGrabber probe = new FFmpegFrameGrabber(input);
+        try {
+            probe.start();
+            double seconds = probe.getLengthInTime() / 1_000_000.0;
+            int segments = segmentCount > 0 ? segmentCount : Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+            if (enabled && probe.hasVideo() && seconds >= minSeconds && segments >= 2) {
+                cuts = keyframeCuts(probe, probe.getLengthInTime(), segments);
+            }
+            audioChannels = probe.hasAudio() ? probe.getAudioChannels() : 0;
+            audioCopyable = audioChannels > 0 && muxableInMp4(probe.getAudioCodec());
+            frameRate = probe.getFrameRate();
+            totalFrames = probe.getLengthInFrames();
+        } finally {
+            probe.stop();
+            probe.release();
+        }
+
+        String baseName = input.getName().substring(0, input.getName().lastIndexOf('.'));
+        Map<String, File> outputs = new LinkedHashMap<>();
+        for (String resolution : resolutions) {
+            outputs.put(resolution, new File(input.getParentFile(), baseName + "_" + resolution + "_" + codec + ".mp4"));
+        }
+
+        if (cuts == null || cuts.size() < 3) {
+            List<FramePipeline.Branch> branches = new ArrayList<>();
+            for (Map.Entry<String, File> output : outputs.entrySet()) {
+                branches.add(transcodeService.rendition(output.getKey(), codec, output.getValue(), true, 0));
+            }
+            if (frameCallback != null) {
+                branches.add(transcodeService.frames("frames", frameCallback));
+            }
+            transcodeService.transcode(input, branches, callback);
+            for (FramePipeline.Branch branch : branches) {
+                if (branch.isFailed() && outputs.containsKey(branch.getName())) {
+                    outputs.remove(branch.getName()).delete();
+                }
+            }
+            return requireAny(outputs);
+        }
+
+        int segments = cuts.size() - 1;
+        System.out.println("Split encode " + resolutions + ": " + segments + " segments of " + input.getName());
+        File workDir = Files.createTempDirectory("split-").toFile();
+        try {
+            // Split the cores between the segment encoders instead of letting each x264 claim all of them
+            int encoderThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / (segments * resolutions.size()));
+            long halfFrameMicros = (long) (500_000 / Math.max(1.0, frameRate));
+            AtomicLong framesDone = new AtomicLong();
+
+            List<Callable<Void>> tasks = new ArrayList<>();
+            // per segment, one video-only branch per rung, then the frame callback
+            List<List<FramePipeline.Branch>> segmentBranches = new ArrayList<>();
+            for (int i = 0; i < segments; i++) {
+                List<FramePipeline.Branch> branches = new ArrayList<>();
+                for (String resolution : resolutions) {
+                    branches.add(transcodeService.rendition(resolution, codec,
+                            segmentFile(workDir, resolution, i), false, encoderThreads));
+                }
+                segmentBranches.add(branches);
+                List<FramePipeline.Branch> decoded = new ArrayList<>(branches);
+                if (frameCallback != null) {
+                    decoded.add(transcodeService.frames("frames-" + i, frameCallback));
+                }
+                long from = cuts.get(i) - halfFrameMicros;
+                long to = cuts.get(i + 1) == Long.MAX_VALUE ? Long.MAX_VALUE : cuts.get(i + 1) - halfFrameMicros;
+                AtomicLong segmentFrames = new AtomicLong();
+                tasks.add(() -> {
+                    transcodeService.transcode(input, from, to, decoded,
+                            n -> framesDone.addAndGet(n - segmentFrames.getAndSet(n)));
+                    return null;
+                });
+            }
+            // Audio MP4 can't carry is encoded by a pass that decodes no video
+            FramePipeline.Branch audioBranch = null;
+            File audioFile = null;
+            if (audioChannels > 0 && !audioCopyable) {
+                audioFile = new File(workDir, "audio.mp4");
+                audioBranch = transcodeService.audioOnly(audioFile);
+                List<FramePipeline.Branch> audioBranches = List.of(audioBranch);
+                tasks.add(() -> {
+                    transcodeService.transcode(input, 0, Long.MAX_VALUE, audioBranches, null);
+                    return null;
+                });
+            }
+            File audioSource = audioCopyable ? input : audioFile;
+
+            AtomicInteger lastPercent = new AtomicInteger(-1);
+            runAll(tasks, () -> report(callback, framesDone.get(), totalFrames, lastPercent));
+            if (audioBranch != null && audioBranch.isFailed()) {
+                throw new IOException("Audio encode failed", audioBranch.getFailure());
+            }
+
+            for (int r = 0; r < resolutions.size(); r++) {
+                String resolution = resolutions.get(r);
+                File output = outputs.get(resolution);
+                List<File> parts = new ArrayList<>();
+                boolean failed = false;
+                for (int i = 0; i < segments; i++) {
+                    failed |= segmentBranches.get(i).get(r).isFailed();
+                    parts.add(segmentFile(workDir, resolution, i));
+                }
+                try {
+                    if (failed) {
+                        throw new IOException("a segment failed to encode");
+                    }
+                    concatenate(parts, audioSource, output);
+                } catch (Exception e) {
+                    System.err.println("Split encode of " + resolution + " failed: " + e.getMessage());
+                    outputs.remove(resolution);
+                    output.delete();
+                }
+            }
+            if (callback != null) {
+                callback.onProgress(100);
+            }
+            return requireAny(outputs);
+        } finally {
+            File[] files = workDir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            workDir.delete();
+        }
+    }
+
+    /**
+     * Single-rung form of {@link #encodeAll}; throws if the rung could not be encoded.
+     */
+    public File encode(File input, String resolution, String codec, ProgressCallback callback,
+                       FrameCallback frameCallback) throws Exception {
+        return encodeAll(input, List.of(resolution), codec, callback, frameCallback).get(resolution);
+    }
+
+    /**
+     * Whether the MP4 muxer takes codecId as is, so the track can be copied without a decode.
+     */
+    private static boolean muxableInMp4(int codecId) {
+        AVOutputFormat mp4 = avformat.av_guess_format("mp4", null, null);
+        return mp4 != null && avformat.avformat_query_codec(mp4, codecId, avcodec.FF_COMPLIANCE_NORMAL) == 1;
+    }
+
+    private static Map<String, File> requireAny(Map<String, File> outputs) throws IOException {
+        if (outputs.isEmpty()) {
+            throw new IOException("No rendition could be encoded");
+        }
+        return outputs;
+    }
+
+    private static File segmentFile(File workDir, String resolution, int index) {
+        return new File(workDir, resolution + "-" + index + ".mp4");
+    }
+
+    /**
+     * Segment boundaries in microseconds: 0, then the keyframe at or before each even share of
+     * the duration, then Long.MAX_VALUE. Found by seeking, so only a few packets are read.
+     */
+    private List<Long> keyframeCuts(FFmpegFrameGrabber grabber, long durationMicros, int segments) throws Exception {
+        AVFormatContext context = grabber.getFormatContext();
+        int videoStream = grabber.getVideoStream();
+        AVStream stream = context.streams(videoStream);
+        List<Long> cuts = new ArrayList<>();
+        cuts.add(0L);
+        for (int i = 1; i < segments; i++) {
+            long target = durationMicros * i / segments;
+            if (avformat.av_seek_frame(context, -1, target, avformat.AVSEEK_FLAG_BACKWARD) < 0) {
+                continue;
+            }
+            AVPacket packet;
+            while ((packet = grabber.grabPacket()) != null && packet.stream_index() != videoStream) {
+                // skip audio packets up to the first video packet, the keyframe sought to
+            }
+            if (packet == null || (packet.flags() & avcodec.AV_PKT_FLAG_KEY) == 0
+                    || packet.pts() == avutil.AV_NOPTS_VALUE) {
+                continue;
+            }
+            long micros = 1_000_000L * packet.pts() * stream.time_base().num() / stream.time_base().den();
+            if (micros > cuts.get(cuts.size() - 1)) {
+                cuts.add(micros);
+            }
+        }
+        cuts.add(Long.MAX_VALUE);
+        return cuts;
+    }
+
+    /**
+     * Run every task on the segment pool with at most one per pool thread in flight, and wait
+     * for them, calling onTick about once a second meanwhile so progress moves within a segment
+     * rather than only between them. All tasks run even if one fails; the first failure is
+     * thrown at the end.
+     */
+    private void runAll(List<Callable<Void>> tasks, Runnable onTick) throws Exception {
+        CompletionService<Void> completion = new ExecutorCompletionService<>(segmentExecutor);
+        int window = Math.max(1, segmentExecutor.getMaxPoolSize());
+        Iterator<Callable<Void>> pending = tasks.iterator();
+        int inFlight = 0;
+        Exception failure = null;
+        while (pending.hasNext() || inFlight > 0) {
+            while (inFlight < window && pending.hasNext()) {
+                completion.submit(pending.next());
+                inFlight++;
+            }
+            Future<Void> done = completion.poll(1, TimeUnit.SECONDS);
+            onTick.run();
+            if (done == null) {
+                continue;
+            }
+            inFlight--;
+            try {
+                done.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof Exception cause ? cause : e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static void report(ProgressCallback callback, long framesDone, long totalFrames,
+                               AtomicInteger lastPercent) {
+        if (callback == null || totalFrames <= 0) {
+            return;
+        }
+        // 100 is reported once the segments are joined
+        int percent = (int) Math.min(99, framesDone * 100 / totalFrames);
+        if (percent > lastPercent.get()) {
+            lastPercent.set(percent);
+            callback.onProgress(percent);
+        }
+    }
+
+    /**
+     * Join the video segments, shifting each one's timestamps to follow the last, and
+     * interleave the audio track of audioSource (the source itself, or the audio encoded from
+     * it) alongside, all by packet copy.
+     */
+    private void concatenate(List<File> segments, File audioSource, File output) throws Exception {
+        List<FFmpegFrameGrabber> inputs = new ArrayList<>();
+        FFmpegFrameGrabber audio = null;
+        AVFormatContext oc = new AVFormatContext(null);
+        try {
+            for (File segment : segments) {
+                FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(segment);
+                grabber.start();
+                inputs.add(grabber);
+            }
+            if (audioSource != null) {
+                audio = new FFmpegFrameGrabber(audioSource);
+                audio.setFormat("mp4");
+                audio.start();
+            }
+
+            check(avformat.avformat_alloc_output_context2(oc, null, "mp4", output.getAbsolutePath()), "open muxer");
+            AVStream videoIn = inputs.get(0).getFormatContext().streams(inputs.get(0).getVideoStream());
+            AVStream videoOut = copyStream(oc, videoIn);
+            AVStream audioIn = audio != null ? audio.getFormatContext().streams(audio.getAudioStream()) : null;
+            AVStream audioOut = audioIn != null ? copyStream(oc, audioIn) : null;
+
+            AVIOContext pb = new AVIOContext(null);
+            check(avformat.avio_open(pb, output.getAbsolutePath(), avformat.AVIO_FLAG_WRITE), "open " + output);
+            oc.pb(pb);
+            AVDictionary options = new AVDictionary(null);
+            avutil.av_dict_set(options, "movflags", "+faststart", 0);
+            try {
+                check(avformat.avformat_write_header(oc, options), "write header");
+            } finally {
+                avutil.av_dict_free(options);
+            }
+
+            // The segments start at zero; start the audio there too, keeping its lead or lag
+            long audioOffset = 0;
+            long audioStart = audio != null ? audio.getFormatContext().start_time() : avutil.AV_NOPTS_VALUE;
+            if (audioStart != avutil.AV_NOPTS_VALUE) {
+                audioOffset = -avutil.av_rescale(audioStart, audioOut.time_base().den(),
+                        (long) audioOut.time_base().num() * avutil.AV_TIME_BASE);
+            }
+            AVPacket pendingAudio = audio != null ? nextPacket(audio, audioIn, audioOut, audioOffset) : null;
+            long offset = 0;
+            for (FFmpegFrameGrabber segment : inputs) {
+                AVStream in = segment.getFormatContext().streams(segment.getVideoStream());
+                long segmentEnd = offset;
+                AVPacket packet;
+                while ((packet = nextPacket(segment, in, videoOut, offset)) != null) {
+                    if (packet.pts() != avutil.AV_NOPTS_VALUE) {
+                        segmentEnd = Math.max(segmentEnd, packet.pts() + packet.duration());
+                    }
+                    while (pendingAudio != null && avutil.av_compare_ts(pendingAudio.dts(), audioOut.time_base(),
+                            packet.dts(), videoOut.time_base()) <= 0) {
+                        write(oc, pendingAudio);
+                        pendingAudio = nextPacket(audio, audioIn, audioOut, audioOffset);
+                    }
+                    write(oc, packet);
+                }
+                offset = segmentEnd;
+            }
+            while (pendingAudio != null) {
+                write(oc, pendingAudio);
+                pendingAudio = nextPacket(audio, audioIn, audioOut, audioOffset);
+            }
+            check(avformat.av_write_trailer(oc), "write trailer");
+        } finally {
+            if (!oc.isNull()) {
+                if (oc.pb() != null) {
+                    avformat.avio_closep(oc.pb());
+                }
+                avformat.avformat_free_context(oc);
+            }
+            for (FFmpegFrameGrabber grabber : inputs) {
+                grabber.stop();
+                grabber.release();
+            }
+            if (audio != null) {
+                audio.stop();
+                audio.release();
+            }
+        }
+    }
+
+    private static AVStream copyStream(AVFormatContext oc, AVStream in) throws IOException {
+        AVStream out = avformat.avformat_new_stream(oc, null);
+        check(avcodec.avcodec_parameters_copy(out.codecpar(), in.codecpar()), "copy stream parameters");
+        out.codecpar().codec_tag(0);
+        out.time_base(in.time_base());
+        return out;
+    }
+
+    /**
+     * The next packet of in's stream, as a copy retimed to out and shifted by offset (in out's
+     * time base), or null at the end of the input.
+     */
+    private static AVPacket nextPacket(FFmpegFrameGrabber grabber, AVStream in, AVStream out, long offset)
+            throws Exception {
+        AVPacket packet;
+        while ((packet = grabber.grabPacket()) != null) {
+            if (packet.stream_index() != in.index()) {
+                continue;
+            }
+            AVPacket copy = avcodec.av_packet_clone(packet);
+            avcodec.av_packet_rescale_ts(copy, in.time_base(), out.time_base());
+            if (copy.pts() != avutil.AV_NOPTS_VALUE) {
+                copy.pts(copy.pts() + offset);
+            }
+            if (copy.dts() != avutil.AV_NOPTS_VALUE) {
+                copy.dts(copy.dts() + offset);
+            }
+            copy.stream_index(out.index());
+            copy.pos(-1);
+            return copy;
+        }
+        return null;
+    }
+
+    private static void write(AVFormatContext oc, AVPacket packet) throws IOException {
+        try {
+            check(avformat.av_interleaved_write_frame(oc, packet), "write packet");
+        } finally {
+            avcodec.av_packet_free(packet);
+        }
+    }
+
+    private static void check(int ret, String what) throws IOException {
+        if (ret < 0) {
+            throw new IOException("Segment join failed to " + what + " (error " + ret + ")");
+        }
+    }
+}
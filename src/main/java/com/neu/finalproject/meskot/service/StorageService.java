@@ -2,6 +2,7 @@ package com.neu.finalproject.meskot.service;
 
 import org.springframework.core.io.Resource;
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -13,11 +14,39 @@ public interface StorageService {
      */
     String store(InputStream data, String targetKey, long contentLength, String contentType) throws IOException;
 
+    /**
+     * Overwrite an existing object's content, keeping its key. Readers see either the old or
+     * the new content, never a mix, where the backend allows it.
+     */
+    void replace(File file, String objectKey) throws IOException;
+
     /**
      * Retrieve as Spring Resource (so controllers can stream to client).
      */
     Resource loadAsResource(String objectKey) throws IOException;
 
+    /**
+     * Size, last modification time (epoch millis, -1 if unknown), content type and the
+     * backend's own ETag (null if none) of an object.
+     */
+    record ObjectStat(long size, long lastModified, String contentType, String etag) {
+    }
+
+    /**
+     * Look up an object's size and modification time without reading its content.
+     *
+     * @throws FileNotFoundException if the object does not exist
+     */
+    ObjectStat stat(String objectKey) throws IOException;
+
+    /**
+     * Open bytes [start, end] (inclusive) of an object. Only that range is transferred, so
+     * callers can stream slices of objects far larger than the heap.
+     *
+     * @throws FileNotFoundException if the object does not exist
+     */
+    InputStream openRange(String objectKey, long start, long end) throws IOException;
+
     /**
      * Delete object
      */
@@ -0,0 +1,444 @@
+package com.neu.finalproject.meskot.service;
+
+import com.neu.finalproject.meskot.model.User;
+import com.neu.finalproject.meskot.security.SessionManager;
+import jakarta.annotation.PostConstruct;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpSession;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admission control and bandwidth shaping for response bodies.
+ *
+ * Every body is paced by three token buckets: its own connection's, its client's and its
+ * class's. Playback may use the whole aggregate rate; downloads get whatever playback leaves,
+ * but never less than a minimum share, so bulk transfers soak up spare capacity without
+ * starving viewers. New streams are refused with 503 and Retry-After once open streams or
+ * measured bandwidth reach their ceiling; downloads are refused earlier than playback so
+ * there is always headroom for someone pressing play, and playback admission only counts
+ * download bandwidth up to the downloads' guaranteed share, since the rest is theirs only
+ * until playback wants it.
+ *
+ * Ranges the container sends with sendfile (local files) are admitted the same way, and
+ * their bytes are charged to the class and client buckets up front, but they can't be paced
+ * since the bytes never pass through the application. Their slot is held for as long as the
+ * range takes at the connection rate.
+ *
+ * Client budgets are kept per signed-in user where there is one, otherwise per address: the
+ * one a trusted proxy forwarded for, or else the peer's.
+ */
+@Service
+public class StreamScheduler {
+
+    public enum StreamClass { PLAYBACK, DOWNLOAD }
+
+    // bytes per pacing step; small enough to keep rates smooth, large enough to be cheap
+    private static final int SLICE = 64 * 1024;
+
+    @Value("${app.scheduler.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.scheduler.max-open-streams:2000}")
+    private int maxOpenStreams;
+
+    // aggregate outbound ceiling, 0 = unlimited
+    @Value("${app.scheduler.max-bytes-per-second:125000000}")
+    private long maxBytesPerSecond;
+
+    @Value("${app.scheduler.playback.connection-bytes-per-second:6250000}")
+    private long playbackConnectionRate;
+
+    @Value("${app.scheduler.download.connection-bytes-per-second:2500000}")
+    private long downloadConnectionRate;
+
+    @Value("${app.scheduler.client-bytes-per-second:12500000}")
+    private long clientRate;
+
+    // fraction of both ceilings downloads are admitted up to; the rest is kept for playback
+    @Value("${app.scheduler.download.max-share:0.8}")
+    private double downloadMaxShare;
+
+    // fraction of the aggregate rate downloads keep even while playback could use all of it
+    @Value("${app.scheduler.download.min-share:0.1}")
+    private double downloadMinShare;
+
+    @Value("${app.scheduler.retry-after-seconds:5}")
+    private long retryAfterSeconds;
+
+    // peers whose X-Forwarded-For names the client (our reverse proxies); empty = trust none
+    @Value("${app.scheduler.trusted-proxies:}")
+    private Set<String> trustedProxies;
+
+    private TokenBucket playbackBucket;
+    private TokenBucket downloadBucket;
+
+    private final Map<String, ClientShare> clients = new ConcurrentHashMap<>();
+    private final AtomicInteger openPlayback = new AtomicInteger();
+    private final AtomicInteger openDownload = new AtomicInteger();
+    private final AtomicLong playbackBytes = new AtomicLong();
+    private final AtomicLong downloadBytes = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    // slots of sendfile ranges, released by rebalance once the range should have gone out
+    private final Queue<SendfileHold> sendfileHolds = new ConcurrentLinkedQueue<>();
+
+    private record SendfileHold(Ticket ticket, long releaseAt) {
+    }
+
+    // measured over the last rebalance interval
+    private volatile long playbackRate;
+    private volatile long downloadRate;
+    private long lastPlaybackBytes;
+    private long lastDownloadBytes;
+    private long lastRebalance = System.nanoTime();
+
+    @PostConstruct
+    public void init() {
+        playbackBucket = new TokenBucket(maxBytesPerSecond);
+        downloadBucket = new TokenBucket(maxBytesPerSecond);
+    }
+
+    private static final class ClientShare {
+        final TokenBucket bucket;
+        final AtomicLong bytes = new AtomicLong();
+        int streams; // only changed inside clients.compute
+        volatile long rate;
+        long lastBytes;
+
+        ClientShare(long bytesPerSecond) {
+            this.bucket = new TokenBucket(bytesPerSecond);
+        }
+    }
+
+    /**
+     * Admit a response's body and pace it. Responses without a body (HEAD, 304, 416) pass
+     * through untouched; if the node is at capacity the response becomes a 503.
+     * Must be called on the request thread.
+     */
+    public ResponseEntity<StreamingResponseBody> schedule(StreamClass streamClass,
+                                                          ResponseEntity<StreamingResponseBody> response) {
+        StreamingResponseBody body = response.getBody();
+        if (!enabled) {
+            return response;
+        }
+        if (body == null) {
+            return scheduleSendfile(streamClass, response);
+        }
+        Ticket ticket = admit(streamClass, clientKey());
+        if (ticket == null) {
+            return unavailable();
+        }
+        StreamingResponseBody paced = out -> {
+            try (ticket) {
+                body.writeTo(ticket.wrap(out));
+            }
+        };
+        return new ResponseEntity<>(paced, response.getHeaders(), response.getStatusCode());
+    }
+
+    /**
+     * A body-less response may still carry a range the container will send with sendfile.
+     * Admit it like any other stream; refused, the hand-off is taken back so the 503 really
+     * goes out empty.
+     */
+    private ResponseEntity<StreamingResponseBody> scheduleSendfile(StreamClass streamClass,
+                                                                   ResponseEntity<StreamingResponseBody> response) {
+        if (!(RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes attributes)) {
+            return response;
+        }
+        HttpServletRequest request = attributes.getRequest();
+        long bytes = LocalFileStreamer.sendfileLength(request);
+        if (bytes < 0) {
+            // HEAD, 304, 416: nothing to send
+            return response;
+        }
+        Ticket ticket = admit(streamClass, clientKey(request));
+        if (ticket == null) {
+            LocalFileStreamer.cancelSendfile(request);
+            return unavailable();
+        }
+        ticket.charge(bytes);
+        long connectionRate = streamClass == StreamClass.DOWNLOAD ? downloadConnectionRate : playbackConnectionRate;
+        long holdNanos = connectionRate > 0 ? (long) (bytes * 1_000_000_000.0 / connectionRate) : 0;
+        sendfileHolds.add(new SendfileHold(ticket, System.nanoTime() + holdNanos));
+        return response;
+    }
+
+    private ResponseEntity<StreamingResponseBody> unavailable() {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                .build();
+    }
+
+    /**
+     * Take a stream slot for a client, or null if the node is at capacity for this class.
+     * The ticket must be closed when the body is finished.
+     */
+    public Ticket admit(StreamClass streamClass, String client) {
+        boolean download = streamClass == StreamClass.DOWNLOAD;
+        double ceilingShare = download ? downloadMaxShare : 1.0;
+        if (maxBytesPerSecond > 0) {
+            // Download bandwidth above the guaranteed floor is borrowed and gives way to playback
+            long counted = download ? downloadRate : Math.min(downloadRate, downloadFloor());
+            if (playbackRate + counted >= maxBytesPerSecond * ceilingShare) {
+                rejected.incrementAndGet();
+                return null;
+            }
+        }
+        AtomicInteger open = download ? openDownload : openPlayback;
+        open.incrementAndGet();
+        if (openPlayback.get() + openDownload.get() > maxOpenStreams * ceilingShare) {
+            open.decrementAndGet();
+            rejected.incrementAndGet();
+            return null;
+        }
+        ClientShare clientShare = clients.compute(client, (k, existing) -> {
+            ClientShare s = existing != null ? existing : new ClientShare(clientRate);
+            s.streams++;
+            return s;
+        });
+        if (!download && maxBytesPerSecond > 0) {
+            // Make room for the new viewer now rather than at the next rebalance
+            long room = Math.max(downloadFloor(), maxBytesPerSecond - playbackRate - playbackConnectionRate);
+            if (downloadBucket.getRate() > room) {
+                downloadBucket.setRate(room);
+            }
+        }
+        return new Ticket(streamClass, client, clientShare);
+    }
+
+    private long downloadFloor() {
+        return (long) (maxBytesPerSecond * downloadMinShare);
+    }
+
+    /**
+     * One admitted body. Closing it releases the stream slot.
+     */
+    public final class Ticket implements AutoCloseable {
+        private final StreamClass streamClass;
+        private final String client;
+        private final ClientShare clientShare;
+        private final TokenBucket connection;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        Ticket(StreamClass streamClass, String client, ClientShare clientShare) {
+            this.streamClass = streamClass;
+            this.client = client;
+            this.clientShare = clientShare;
+            this.connection = new TokenBucket(streamClass == StreamClass.DOWNLOAD
+                    ? downloadConnectionRate : playbackConnectionRate);
+        }
+
+        /**
+         * The output paced under this ticket's buckets.
+         */
+        public OutputStream wrap(OutputStream out) {
+            return new PacedOutputStream(out, this);
+        }
+
+        /**
+         * Count bytes sent outside the paced stream (sendfile, or a zero-copy file region on the
+         * gateway): they take tokens from the class and client buckets, so paced streams sharing
+         * those buckets slow down to make room, and they count toward admission.
+         */
+        public void charge(long bytes) {
+            TokenBucket classBucket = streamClass == StreamClass.DOWNLOAD ? downloadBucket : playbackBucket;
+            classBucket.reserve(bytes);
+            clientShare.bucket.reserve(bytes);
+            (streamClass == StreamClass.DOWNLOAD ? downloadBytes : playbackBytes).addAndGet(bytes);
+            clientShare.bytes.addAndGet(bytes);
+        }
+
+        /**
+         * Block until {@code bytes} may be sent under all three buckets.
+         */
+        void pace(int bytes) throws IOException {
+            TokenBucket classBucket = streamClass == StreamClass.DOWNLOAD ? downloadBucket : playbackBucket;
+            long wait = Math.max(connection.reserve(bytes),
+                    Math.max(clientShare.bucket.reserve(bytes), classBucket.reserve(bytes)));
+            if (wait > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while pacing stream");
+                }
+            }
+            (streamClass == StreamClass.DOWNLOAD ? downloadBytes : playbackBytes).addAndGet(bytes);
+            clientShare.bytes.addAndGet(bytes);
+        }
+
+        @Override
+        public void close() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            (streamClass == StreamClass.DOWNLOAD ? openDownload : openPlayback).decrementAndGet();
+            clients.computeIfPresent(client, (k, s) -> --s.streams <= 0 ? null : s);
+        }
+    }
+
+    private static final class PacedOutputStream extends FilterOutputStream {
+        private final Ticket ticket;
+
+        PacedOutputStream(OutputStream out, Ticket ticket) {
+            super(out);
+            this.ticket = ticket;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            ticket.pace(1);
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int n = Math.min(len, SLICE);
+                ticket.pace(n);
+                out.write(b, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    /**
+     * Measure the last interval's rates and give downloads whatever playback left over.
+     */
+    @Scheduled(fixedRateString = "${app.scheduler.rebalance-ms:1000}")
+    public void rebalance() {
+        long now = System.nanoTime();
+        double seconds = Math.max(0.001, (now - lastRebalance) / 1_000_000_000.0);
+        lastRebalance = now;
+
+        long playback = playbackBytes.get();
+        long download = downloadBytes.get();
+        playbackRate = (long) ((playback - lastPlaybackBytes) / seconds);
+        downloadRate = (long) ((download - lastDownloadBytes) / seconds);
+        lastPlaybackBytes = playback;
+        lastDownloadBytes = download;
+
+        for (ClientShare share : clients.values()) {
+            long bytes = share.bytes.get();
+            share.rate = (long) ((bytes - share.lastBytes) / seconds);
+            share.lastBytes = bytes;
+        }
+
+        if (maxBytesPerSecond > 0) {
+            downloadBucket.setRate(Math.max(downloadFloor(), maxBytesPerSecond - playbackRate));
+        }
+
+        sendfileHolds.removeIf(hold -> {
+            if (hold.releaseAt() - now > 0) {
+                return false;
+            }
+            hold.ticket().close();
+            return true;
+        });
+    }
+
+    /**
+     * Current allocations, for the admin stats endpoint.
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("openPlaybackStreams", openPlayback.get());
+        stats.put("openDownloadStreams", openDownload.get());
+        stats.put("maxOpenStreams", maxOpenStreams);
+        stats.put("sendfileStreams", sendfileHolds.size());
+        stats.put("playbackBytesPerSecond", playbackRate);
+        stats.put("downloadBytesPerSecond", downloadRate);
+        stats.put("maxBytesPerSecond", maxBytesPerSecond);
+        stats.put("downloadAllotmentBytesPerSecond", downloadBucket.getRate());
+        stats.put("rejectedStreams", rejected.get());
+        List<Map<String, Object>> perClient = new ArrayList<>();
+        clients.forEach((client, share) -> {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("client", client);
+            entry.put("streams", share.streams);
+            entry.put("bytesPerSecond", share.rate);
+            entry.put("limitBytesPerSecond", share.bucket.getRate());
+            perClient.add(entry);
+        });
+        stats.put("clients", perClient);
+        return stats;
+    }
+
+    /**
+     * The key a client budget is kept under. A signed-in user is one client wherever they
+     * connect from, so viewers sharing a NAT don't share a budget. Anonymous requests fall back
+     * to their address: X-Forwarded-For is only believed when the peer is a trusted proxy, since
+     * anyone can send it, and then the rightmost hop not added by one of our own proxies is the
+     * client. Otherwise the peer address is used, which behind an untrusted proxy lumps all its
+     * users together.
+     */
+    public String clientKey(Long userId, String remoteAddr, String forwardedFor) {
+        if (userId != null) {
+            return "user:" + userId;
+        }
+        if (forwardedFor != null && remoteAddr != null && trustedProxies.contains(remoteAddr)) {
+            String[] hops = forwardedFor.split(",");
+            for (int i = hops.length - 1; i >= 0; i--) {
+                String hop = hops[i].trim();
+                if (!hop.isEmpty() && !trustedProxies.contains(hop)) {
+                    return hop;
+                }
+            }
+        }
+        return remoteAddr != null ? remoteAddr : "unknown";
+    }
+
+    private String clientKey(HttpServletRequest request) {
+        Long userId = null;
+        // getSession(false): an anonymous viewer must not be handed a session just for this
+        HttpSession session = request.getSession(false);
+        if (session != null && session.getAttribute(SessionManager.USER_SESSION_ATTR) instanceof User user) {
+            userId = user.getId();
+        }
+        List<String> forwarded = Collections.list(request.getHeaders("X-Forwarded-For"));
+        return clientKey(userId, request.getRemoteAddr(), forwarded.isEmpty() ? null : String.join(",", forwarded));
+    }
+
+    private String clientKey() {
+        if (RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes attributes) {
+            return clientKey(attributes.getRequest());
+        }
+        return "unknown";
+    }
+}
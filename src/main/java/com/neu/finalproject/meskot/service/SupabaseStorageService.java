@@ -4,14 +4,18 @@ import com.neu.finalproject.meskot.model.StoredObject;
 import com.neu.finalproject.meskot.repository.StoredObjectRepository;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.FileSystemResource;
 import org.springframework.core.io.Resource;
 import org.springframework.http.*;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.util.UriComponentsBuilder;
 
 import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URI;
 import java.nio.file.Files;
 import java.util.UUID;
 
@@ -28,10 +32,12 @@ public class SupabaseStorageService implements StorageService {
     private String bucketName;
 
     private final StoredObjectRepository storedObjectRepository;
+    private final RemoteMetadataCache metadataCache;
     private final RestTemplate restTemplate;
 
-    public SupabaseStorageService(StoredObjectRepository storedObjectRepository) {
+    public SupabaseStorageService(StoredObjectRepository storedObjectRepository, RemoteMetadataCache metadataCache) {
         this.storedObjectRepository = storedObjectRepository;
+        this.metadataCache = metadataCache;
         this.restTemplate = new RestTemplate();
     }
 
@@ -51,13 +57,12 @@ public class SupabaseStorageService implements StorageService {
     public String store(File file, String targetKey) throws IOException {
         String key = targetKey != null ? targetKey : UUID.randomUUID().toString() + "-" + file.getName();
 
-        byte[] fileBytes = Files.readAllBytes(file.toPath());
         String contentType = Files.probeContentType(file.toPath());
         if (contentType == null) {
             contentType = "application/octet-stream";
         }
 
-        uploadToSupabase(key, fileBytes, contentType);
+        uploadToSupabase(key, new FileSystemResource(file), file.length(), contentType, HttpMethod.POST);
 
         StoredObject obj = new StoredObject();
         obj.setObjectKey(key);
@@ -80,7 +85,7 @@ public class SupabaseStorageService implements StorageService {
             contentType = "application/octet-stream";
         }
 
-        uploadToSupabase(key, fileBytes, contentType);
+        uploadToSupabase(key, fileBytes, fileBytes.length, contentType, HttpMethod.POST);
 
         StoredObject obj = new StoredObject();
         obj.setObjectKey(key);
@@ -93,18 +98,39 @@ public class SupabaseStorageService implements StorageService {
         return key;
     }
 
-    private void uploadToSupabase(String key, byte[] data, String contentType) throws IOException {
+    @Override
+    @Transactional
+    public void replace(File file, String objectKey) throws IOException {
+        String contentType = Files.probeContentType(file.toPath());
+        if (contentType == null) {
+            contentType = "video/mp4";
+        }
+        // PUT updates an existing object where POST would fail with a duplicate
+        uploadToSupabase(objectKey, new FileSystemResource(file), file.length(), contentType, HttpMethod.PUT);
+        storedObjectRepository.findByObjectKey(objectKey).ifPresent(obj -> {
+            obj.setSize(file.length());
+            storedObjectRepository.save(obj);
+        });
+    }
+
+    /**
+     * The body is a byte[] or a Resource; with a known length a file is streamed from disk in
+     * fixed-length mode rather than read onto the heap, so movies past 2 GB upload too.
+     */
+    private void uploadToSupabase(String key, Object body, long contentLength, String contentType,
+                                  HttpMethod method) throws IOException {
         HttpHeaders headers = createHeaders();
         headers.setContentType(MediaType.parseMediaType(contentType));
+        headers.setContentLength(contentLength);
 
-        HttpEntity<byte[]> requestEntity = new HttpEntity<>(data, headers);
+        HttpEntity<Object> requestEntity = new HttpEntity<>(body, headers);
 
         String url = getStorageUrl() + "/" + key;
 
         try {
             ResponseEntity<String> response = restTemplate.exchange(
                     url,
-                    HttpMethod.POST,
+                    method,
                     requestEntity,
                     String.class
             );
@@ -112,6 +138,7 @@ public class SupabaseStorageService implements StorageService {
             if (!response.getStatusCode().is2xxSuccessful()) {
                 throw new IOException("Failed to upload to Supabase: " + response.getStatusCode());
             }
+            metadataCache.invalidate(RemoteMetadataCache.SUPABASE, key);
         } catch (Exception e) {
             throw new IOException("Error uploading to Supabase: " + e.getMessage(), e);
         }
@@ -142,6 +169,70 @@ public class SupabaseStorageService implements StorageService {
         }
     }
 
+    @Override
+    public ObjectStat stat(String objectKey) throws IOException {
+        return metadataCache.stat(RemoteMetadataCache.SUPABASE, objectKey, () -> headObject(objectKey));
+    }
+
+    private ObjectStat headObject(String objectKey) throws IOException {
+        HttpURLConnection connection = openConnection(objectKey, "HEAD");
+        try {
+            int responseCode = connection.getResponseCode();
+            if (responseCode == 404 || responseCode == 400) {
+                // Supabase answers a missing object with 400 as often as 404
+                throw new FileNotFoundException("Object not found: " + objectKey);
+            }
+            if (responseCode != 200) {
+                throw new IOException("Failed to stat Supabase object. HTTP " + responseCode);
+            }
+            long lastModified = connection.getLastModified();
+            return new ObjectStat(connection.getContentLengthLong(),
+                    lastModified > 0 ? lastModified : -1, connection.getContentType(),
+                    connection.getHeaderField("ETag"));
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Ranged GET against the object endpoint; Supabase Storage passes Range through to the
+     * underlying object store and answers 206, so only the requested bytes leave the bucket.
+     */
+    @Override
+    public InputStream openRange(String objectKey, long start, long end) throws IOException {
+        HttpURLConnection connection = openConnection(objectKey, "GET");
+        connection.setRequestProperty("Range", "bytes=" + start + "-" + end);
+
+        int responseCode = connection.getResponseCode();
+        if (responseCode == 404 || responseCode == 400) {
+            connection.disconnect();
+            throw new FileNotFoundException("Object not found: " + objectKey);
+        }
+        if (responseCode == 206) {
+            return connection.getInputStream();
+        }
+        if (responseCode == 200) {
+            // Range ignored upstream: skip to the start and stop at the end ourselves
+            InputStream in = connection.getInputStream();
+            in.skipNBytes(start);
+            return new BoundedInputStream(in, end - start + 1);
+        }
+        connection.disconnect();
+        throw new IOException("Failed to read Supabase object range. HTTP " + responseCode);
+    }
+
+    private HttpURLConnection openConnection(String objectKey, String method) throws IOException {
+        // Same encoding RestTemplate applies to the URLs used above
+        URI uri = UriComponentsBuilder.fromUriString(getStorageUrl() + "/" + objectKey).build().encode().toUri();
+        HttpURLConnection connection = (HttpURLConnection) uri.toURL().openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(10000);
+        connection.setReadTimeout(60000);
+        connection.setRequestProperty("Authorization", "Bearer " + supabaseKey);
+        connection.setRequestProperty("apikey", supabaseKey);
+        return connection;
+    }
+
     @Override
     @Transactional
     public void delete(String objectKey) throws IOException {
@@ -159,6 +250,7 @@ public class SupabaseStorageService implements StorageService {
             );
 
             storedObjectRepository.findByObjectKey(objectKey).ifPresent(storedObjectRepository::delete);
+            metadataCache.invalidate(RemoteMetadataCache.SUPABASE, objectKey);
         } catch (Exception e) {
             throw new IOException("Error deleting from Supabase: " + e.getMessage(), e);
         }
@@ -0,0 +1,68 @@
+package com.neu.finalproject.meskot.service;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Byte-rate limiter. Callers reserve bytes up front and are told how long to wait before
+ * sending them, so a large write is paced instead of refused. Holds one second of burst.
+ */
+final class TokenBucket {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private double rate;
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+
+    /**
+     * @param bytesPerSecond the refill rate; zero or less means unlimited
+     */
+    TokenBucket(long bytesPerSecond) {
+        this.rate = bytesPerSecond;
+        this.tokens = bytesPerSecond;
+    }
+
+    /**
+     * Take {@code bytes} from the bucket, going into debt if needed.
+     *
+     * @return nanoseconds to wait before sending them, 0 if they can go now
+     */
+    long reserve(long bytes) {
+        lock.lock();
+        try {
+            if (rate <= 0) {
+                return 0;
+            }
+            refill();
+            tokens -= bytes;
+            return tokens >= 0 ? 0 : (long) (-tokens / rate * 1_000_000_000L);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void setRate(long bytesPerSecond) {
+        lock.lock();
+        try {
+            refill();
+            rate = bytesPerSecond;
+            tokens = Math.min(tokens, rate);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getRate() {
+        lock.lock();
+        try {
+            return (long) rate;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(rate, tokens + (now - lastRefill) / 1_000_000_000.0 * rate);
+        lastRefill = now;
+    }
+}
@@ -0,0 +1,128 @@
+package com.neu.finalproject.meskot.service;
+
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.bytedeco.javacv.Frame;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+/**
+ * Decodes a source once and fans every frame out to several branches: renditions, an
+ * audio-only track, and frame consumers such as trickplay sprites and the poster picker. The
+ * decode, scaling and each encoder run as separate {@link FramePipeline} stages. A branch that
+ * throws is marked failed; the rest carry on, and each branch reports its own progress.
+ */
+@Service
+public class TranscodeService {
+
+    private final EncodingService encodingService;
+
+    // frames buffered between each pair of pipeline stages
+    @Value("${app.transcode.queue-frames:8}")
+    private int queueFrames;
+
+    public TranscodeService(EncodingService encodingService) {
+        this.encodingService = encodingService;
+    }
+
+    /**
+     * An H.264 rendition at resolution written to output. Video-only branches are used for
+     * segments whose audio is encoded separately; encoderThreads 0 leaves x264 its default.
+     */
+    public FramePipeline.Branch rendition(String resolution, String codec, File output, boolean withAudio,
+                                          int encoderThreads) {
+        return encodingService.rendition(resolution, codec, output, "mp4", withAudio, encoderThreads);
+    }
+
+    /**
+     * The audio track alone, AAC in an MP4 container.
+     */
+    public FramePipeline.Branch audioOnly(File output) {
+        return new FramePipeline.Branch("audio") {
+            private FFmpegFrameRecorder recorder;
+
+            @Override
+            boolean wantsVideo() {
+                return false;
+            }
+
+            @Override
+            void open(FFmpegFrameGrabber source) throws Exception {
+                recorder = new FFmpegFrameRecorder(output, source.getAudioChannels());
+                recorder.setFormat("mp4");
+                recorder.setAudioCodec(avcodec.AV_CODEC_ID_AAC);
+                recorder.setSampleRate(source.getSampleRate());
+                recorder.start();
+            }
+
+            @Override
+            void accept(Frame frame) throws Exception {
+                recorder.recordSamples(frame.sampleRate, frame.audioChannels, frame.samples);
+            }
+
+            @Override
+            void close() throws Exception {
+                if (recorder != null) {
+                    recorder.stop();
+                    recorder.release();
+                }
+            }
+        };
+    }
+
+    /**
+     * Decoded video frames (YUV420P, source size, in order) handed to a callback.
+     */
+    public FramePipeline.Branch frames(String name, FrameCallback callback) {
+        return FramePipeline.frames(name, callback);
+    }
+
+    /**
+     * Transcode the whole source, reporting overall progress (the least advanced live branch)
+     * on the calling thread. Throws only if the source cannot be read; branch failures are
+     * left on the branches.
+     */
+    public void transcode(File input, List<FramePipeline.Branch> branches, ProgressCallback callback) throws Exception {
+        int[] lastPercent = {-1};
+        transcode(input, 0, Long.MAX_VALUE, branches, framesDone -> {
+            if (framesDone % 100 != 0) {
+                return;
+            }
+            int percent = branches.stream().filter(b -> !b.isFailed()).mapToInt(FramePipeline.Branch::getProgress).min().orElse(100);
+            if (callback != null && percent > lastPercent[0] && percent < 100) {
+                lastPercent[0] = percent;
+                callback.onProgress(percent);
+            }
+        });
+        if (callback != null) {
+            callback.onProgress(100);
+        }
+    }
+
+    /**
+     * Transcode the frames with timestamps in [fromMicros, toMicros). onVideoFrame is told the
+     * running count of video frames decoded in the range.
+     */
+    public void transcode(File input, long fromMicros, long toMicros, List<FramePipeline.Branch> branches,
+                          LongConsumer onVideoFrame) throws Exception {
+        FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(input);
+        grabber.setFormat("mp4");
+        grabber.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+        try {
+            grabber.start();
+            if (fromMicros > 0) {
+                grabber.setTimestamp(fromMicros);
+            }
+            new FramePipeline(queueFrames).run(grabber, fromMicros, toMicros, branches, onVideoFrame);
+        } finally {
+            grabber.stop();
+            grabber.release();
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package com.neu.finalproject.meskot.service;
+
+import org.bytedeco.javacv.Frame;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Seek-bar preview sprites. During the ingest encode one small thumbnail is taken every few
+ * seconds and tiled into JPEG sheets; a WebVTT index maps each time span to its tile with a
+ * #xywh fragment, the layout players already understand for thumbnail tracks.
+ */
+@Service
+public class TrickplayService {
+
+    public static final String INDEX_NAME = "thumbnails.vtt";
+
+    @Value("${app.trickplay.interval-seconds:10}")
+    private int intervalSeconds;
+
+    @Value("${app.trickplay.thumbnail-width:160}")
+    private int thumbnailWidth;
+
+    @Value("${app.trickplay.columns:10}")
+    private int columns;
+
+    @Value("${app.trickplay.rows:10}")
+    private int rows;
+
+    @Value("${app.trickplay.jpeg-quality:0.7}")
+    private float jpegQuality;
+
+    /**
+     * A builder that collects thumbnails into outputDir as frames arrive.
+     */
+    public Builder newBuilder(File outputDir) {
+        return new Builder(outputDir);
+    }
+
+    /**
+     * Store every file of a finished trickplay directory under keyPrefix.
+     */
+    public void store(File trickplayDir, StorageService storage, String keyPrefix) throws IOException {
+        File[] files = trickplayDir.listFiles();
+        if (files == null) {
+            throw new IOException("Trickplay directory is empty: " + trickplayDir);
+        }
+        for (File file : files) {
+            storage.store(file, keyPrefix + "/" + file.getName());
+        }
+    }
+
+    public static String contentTypeFor(String fileName) {
+        return fileName.endsWith(".vtt") ? "text/vtt" : "image/jpeg";
+    }
+
+    /**
+     * Thumbnail k is the earliest frame seen in [k, k + 1) intervals and sits at tile k of the
+     * sheets, so frames may arrive from several segments of a split encode at once, each in
+     * its own order. A sheet is written as soon as every tile on it is filled.
+     */
+    public class Builder implements FrameCallback {
+
+        private final File outputDir;
+        private final int tilesPerSheet = columns * rows;
+        private final Map<Integer, Sheet> openSheets = new HashMap<>();
+        private final Set<Integer> writtenSheets = new HashSet<>();
+        private final BitSet thumbnails = new BitSet();
+        private int thumbnailHeight;
+        // a failed sheet write stops the builder without failing the encode it rides on
+        private IOException failure;
+
+        private Builder(File outputDir) {
+            this.outputDir = outputDir;
+        }
+
+        @Override
+        public void onFrame(Frame frame) {
+            long slotLong = frame.timestamp / (intervalSeconds * 1_000_000L);
+            if (frame.timestamp < 0 || slotLong > Integer.MAX_VALUE) {
+                return;
+            }
+            int slot = (int) slotLong;
+            synchronized (this) {
+                if (failure != null || !wanted(slot, frame.timestamp)) {
+                    return;
+                }
+                if (thumbnailHeight == 0) {
+                    // Even height keeps tiles aligned when a player scales the sheet
+                    thumbnailHeight = Math.max(2, (int) Math.round(
+                            (double) thumbnailWidth * frame.imageHeight / frame.imageWidth) & ~1);
+                }
+            }
+            // Convert outside the lock; other segments keep going meanwhile
+            BufferedImage thumbnail = VideoFrames.scale(VideoFrames.toImage(frame), thumbnailWidth, thumbnailHeight);
+            synchronized (this) {
+                if (failure != null || !wanted(slot, frame.timestamp)) {
+                    return;
+                }
+                int sheetIndex = slot / tilesPerSheet;
+                Sheet sheet = openSheets.computeIfAbsent(sheetIndex, i -> new Sheet());
+                int tile = slot % tilesPerSheet;
+                Graphics2D g = sheet.image.createGraphics();
+                try {
+                    g.drawImage(thumbnail, x(tile), y(tile), null);
+                } finally {
+                    g.dispose();
+                }
+                if (sheet.tileMicros[tile] == Long.MAX_VALUE) {
+                    sheet.filled++;
+                    thumbnails.set(slot);
+                }
+                sheet.tileMicros[tile] = frame.timestamp;
+                if (sheet.filled == tilesPerSheet) {
+                    openSheets.remove(sheetIndex);
+                    writtenSheets.add(sheetIndex);
+                    try {
+                        writeSheet(sheet.image, sheetIndex);
+                    } catch (IOException e) {
+                        failure = e;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Whether a frame at micros should become the thumbnail for slot: the slot is empty, or
+         * holds a later frame on a sheet not yet written.
+         */
+        private boolean wanted(int slot, long micros) {
+            int sheetIndex = slot / tilesPerSheet;
+            if (writtenSheets.contains(sheetIndex)) {
+                return false;
+            }
+            Sheet sheet = openSheets.get(sheetIndex);
+            return sheet == null || micros < sheet.tileMicros[slot % tilesPerSheet];
+        }
+
+        /**
+         * Write the partly filled sheets and the index. Returns the number of thumbnails.
+         */
+        public synchronized int finish() throws IOException {
+            if (failure != null) {
+                throw failure;
+            }
+            for (Map.Entry<Integer, Sheet> open : openSheets.entrySet()) {
+                Sheet sheet = open.getValue();
+                int lastTile = 0;
+                for (int tile = 0; tile < tilesPerSheet; tile++) {
+                    if (sheet.tileMicros[tile] != Long.MAX_VALUE) {
+                        lastTile = tile;
+                    }
+                }
+                int usedRows = lastTile / columns + 1;
+                writeSheet(sheet.image.getSubimage(0, 0, sheet.image.getWidth(), usedRows * thumbnailHeight),
+                        open.getKey());
+            }
+            openSheets.clear();
+
+            StringBuilder vtt = new StringBuilder("WEBVTT\n\n");
+            for (int slot = thumbnails.nextSetBit(0); slot >= 0; slot = thumbnails.nextSetBit(slot + 1)) {
+                long startMillis = (long) slot * intervalSeconds * 1000;
+                int tile = slot % tilesPerSheet;
+                vtt.append(cueTime(startMillis)).append(" --> ").append(cueTime(startMillis + intervalSeconds * 1000L))
+                        .append('\n')
+                        .append(sheetName(slot / tilesPerSheet)).append("#xywh=")
+                        .append(x(tile)).append(',').append(y(tile)).append(',')
+                        .append(thumbnailWidth).append(',').append(thumbnailHeight)
+                        .append("\n\n");
+            }
+            Files.writeString(outputDir.toPath().resolve(INDEX_NAME), vtt, StandardCharsets.UTF_8);
+            return thumbnails.cardinality();
+        }
+
+        private int x(int tile) {
+            return (tile % columns) * thumbnailWidth;
+        }
+
+        private int y(int tile) {
+            return (tile / columns) * thumbnailHeight;
+        }
+
+        private void writeSheet(BufferedImage image, int sheetIndex) throws IOException {
+            ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
+            try (ImageOutputStream out = ImageIO.createImageOutputStream(new File(outputDir, sheetName(sheetIndex)))) {
+                writer.setOutput(out);
+                ImageWriteParam param = writer.getDefaultWriteParam();
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(jpegQuality);
+                writer.write(null, new IIOImage(image, null, null), param);
+            } finally {
+                writer.dispose();
+            }
+        }
+
+        private class Sheet {
+            final BufferedImage image = new BufferedImage(thumbnailWidth * columns, thumbnailHeight * rows,
+                    BufferedImage.TYPE_INT_RGB);
+            // timestamp of the frame in each tile, Long.MAX_VALUE while empty
+            final long[] tileMicros = new long[tilesPerSheet];
+            int filled;
+
+            Sheet() {
+                Arrays.fill(tileMicros, Long.MAX_VALUE);
+            }
+        }
+    }
+
+    private static String sheetName(int index) {
+        return "sprite-" + index + ".jpg";
+    }
+
+    private static String cueTime(long millis) {
+        return String.format(Locale.ROOT, "%02d:%02d:%02d.%03d",
+                millis / 3_600_000, (millis / 60_000) % 60, (millis / 1000) % 60, millis % 1000);
+    }
+}
@@ -9,6 +9,7 @@ public interface UploadHistoryService {
     UploadHistory create(Integer userId, String movieTitle, String fileName, Long fileSizeBytes, String resolution, String jobId);
 
     // Status updates
+    void markPending(String jobId);
     void markUploading(String jobId);
     void markEncoding(String jobId);
     void markCompleted(String jobId, Long movieId);
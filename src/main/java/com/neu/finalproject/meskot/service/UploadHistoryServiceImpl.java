@@ -36,6 +36,12 @@ public class UploadHistoryServiceImpl implements UploadHistoryService {
         return uploadHistoryRepository.save(history);
     }
 
+    @Override
+    @Transactional
+    public void markPending(String jobId) {
+        updateStatus(jobId, UploadStatus.PENDING, null, null);
+    }
+
     @Override
     @Transactional
     public void markUploading(String jobId) {
@@ -0,0 +1,99 @@
+package com.neu.finalproject.meskot.service;
+
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.Java2DFrameConverter;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+
+/**
+ * Turns decoded frames into images for thumbnails and posters.
+ */
+final class VideoFrames {
+
+    private VideoFrames() {
+    }
+
+    /**
+     * Copy a frame into a new RGB image. EncodingService grabs YUV420P (one buffer holding
+     * the Y, U and V planes back to back); packed BGR frames from other grabbers are handed
+     * to JavaCV's converter.
+     */
+    static BufferedImage toImage(Frame frame) {
+        if (frame.imageChannels >= 3) {
+            BufferedImage converted = new Java2DFrameConverter().convert(frame);
+            return scale(converted, converted.getWidth(), converted.getHeight());
+        }
+
+        int width = frame.imageWidth;
+        int height = frame.imageHeight;
+        int yStride = frame.imageStride;
+        int cStride = (yStride + 1) / 2;
+        ByteBuffer buf = (ByteBuffer) frame.image[0];
+        int uPlane = yStride * height;
+        int vPlane = uPlane + cStride * ((height + 1) / 2);
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int luma = buf.get(y * yStride + x) & 0xFF;
+                int chroma = (y / 2) * cStride + x / 2;
+                int u = (buf.get(uPlane + chroma) & 0xFF) - 128;
+                int v = (buf.get(vPlane + chroma) & 0xFF) - 128;
+                int c = luma - 16;
+                int r = clamp((298 * c + 409 * v + 128) >> 8);
+                int g = clamp((298 * c - 100 * u - 208 * v + 128) >> 8);
+                int b = clamp((298 * c + 516 * u + 128) >> 8);
+                row[x] = r << 16 | g << 8 | b;
+            }
+            image.setRGB(0, y, width, 1, row, 0, width);
+        }
+        return image;
+    }
+
+    /**
+     * Mean luma (0-255) and its standard deviation over a coarse grid of samples, read straight
+     * from the Y plane without building an image. Cheap enough to run on every candidate frame.
+     */
+    static double[] lumaStats(Frame frame) {
+        if (frame.imageChannels >= 3) {
+            return new double[]{128, 64}; // packed frames are not inspected; treat as usable
+        }
+        ByteBuffer buf = (ByteBuffer) frame.image[0];
+        int stepX = Math.max(1, frame.imageWidth / 32);
+        int stepY = Math.max(1, frame.imageHeight / 18);
+        double sum = 0;
+        double sumSquares = 0;
+        int n = 0;
+        for (int y = 0; y < frame.imageHeight; y += stepY) {
+            for (int x = 0; x < frame.imageWidth; x += stepX) {
+                int luma = buf.get(y * frame.imageStride + x) & 0xFF;
+                sum += luma;
+                sumSquares += (double) luma * luma;
+                n++;
+            }
+        }
+        double mean = sum / n;
+        return new double[]{mean, Math.sqrt(Math.max(0, sumSquares / n - mean * mean))};
+    }
+
+    static BufferedImage scale(BufferedImage source, int width, int height) {
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = scaled.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return scaled;
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : Math.min(255, value);
+    }
+}
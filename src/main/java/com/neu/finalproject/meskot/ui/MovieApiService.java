@@ -19,11 +19,15 @@ import org.apache.http.entity.mime.content.FileBody;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.util.EntityUtils;
 
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
 import java.io.*;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.List;
 import java.util.function.Consumer;
 
@@ -137,6 +141,59 @@ public class MovieApiService {
         }
     }
 
+    // =========================================================================
+    // SEEK
+    // =========================================================================
+
+    /**
+     * Time in milliseconds of the keyframe at or before the given time, from the server's
+     * keyframe index, or -1 when the movie has no index.
+     */
+    public long getKeyframeBefore(Long movieId, long timeMillis) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(
+                baseUrl + "/movies/" + movieId + "/seek?t=" + (timeMillis / 1000.0)).openConnection();
+        conn.setRequestMethod("GET");
+        conn.setConnectTimeout(2000);
+        conn.setReadTimeout(2000);
+
+        if (conn.getResponseCode() != 200) {
+            return -1;
+        }
+        try (InputStream in = conn.getInputStream()) {
+            return objectMapper.readTree(in).path("keyframeMillis").asLong(-1);
+        }
+    }
+
+    // =========================================================================
+    // TRICKPLAY
+    // =========================================================================
+
+    public String getTrickplayIndex(Long movieId) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(
+                baseUrl + "/movies/" + movieId + "/trickplay/thumbnails.vtt").openConnection();
+        conn.setConnectTimeout(5000);
+        conn.setReadTimeout(10000);
+        if (conn.getResponseCode() != 200) {
+            throw new IOException("No trickplay index (HTTP " + conn.getResponseCode() + ")");
+        }
+        try (InputStream in = conn.getInputStream()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    public BufferedImage getTrickplaySheet(Long movieId, String sheet) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(
+                baseUrl + "/movies/" + movieId + "/trickplay/" + sheet).openConnection();
+        conn.setConnectTimeout(5000);
+        conn.setReadTimeout(10000);
+        if (conn.getResponseCode() != 200) {
+            throw new IOException("Sprite sheet " + sheet + " unavailable (HTTP " + conn.getResponseCode() + ")");
+        }
+        try (InputStream in = conn.getInputStream()) {
+            return ImageIO.read(in);
+        }
+    }
+
     // =========================================================================
     // UPLOAD
     // =========================================================================
@@ -148,6 +205,14 @@ public class MovieApiService {
 
     public JobResponse startUpload(File file, String title, String resolution,
                                    String sourceType, Consumer<Integer> progressCallback) throws IOException {
+        return startUpload(file, title, resolution, sourceType, "mp4", progressCallback);
+    }
+
+    /**
+     * @param packaging "mp4" for a single rendition, "hls" for the adaptive ladder plus HLS packaging
+     */
+    public JobResponse startUpload(File file, String title, String resolution, String sourceType,
+                                   String packaging, Consumer<Integer> progressCallback) throws IOException {
         HttpPost post = new HttpPost(baseUrl + "/movies/upload");
 
         MultipartEntityBuilder builder = MultipartEntityBuilder.create();
@@ -156,6 +221,7 @@ public class MovieApiService {
         builder.addTextBody("title", title, ContentType.TEXT_PLAIN);
         builder.addTextBody("resolution", resolution, ContentType.TEXT_PLAIN);
         builder.addTextBody("sourceType", sourceType, ContentType.TEXT_PLAIN);
+        builder.addTextBody("packaging", packaging, ContentType.TEXT_PLAIN);
 
         HttpEntity entity = builder.build();
         ProgressiveHttpEntity progressiveEntity = new ProgressiveHttpEntity(entity, progressCallback);
@@ -220,11 +286,25 @@ public class MovieApiService {
         String endpoint = baseUrl + "/movies/" + movieId + "/download?resolution=" + encodedResolution;
         System.out.println("Downloading from: " + endpoint);
 
+        // An interrupted download leaves a .part file plus the validator it was fetched against;
+        // resuming asks for the rest only if the movie hasn't changed since (If-Range)
+        File partFile = new File(outputFile.getPath() + ".part");
+        File validatorFile = new File(outputFile.getPath() + ".part.etag");
+        String validator = null;
+        if (partFile.length() > 0 && validatorFile.exists()) {
+            validator = new String(Files.readAllBytes(validatorFile.toPath()), StandardCharsets.UTF_8).trim();
+        }
+
         HttpURLConnection conn = (HttpURLConnection) new URL(endpoint).openConnection();
         conn.setRequestMethod("GET");
         conn.setConnectTimeout(30000);
         conn.setReadTimeout(0); // No timeout for large downloads
         conn.setInstanceFollowRedirects(true);
+        if (validator != null && !validator.isEmpty()) {
+            System.out.println("Resuming download at byte " + partFile.length());
+            conn.setRequestProperty("Range", "bytes=" + partFile.length() + "-");
+            conn.setRequestProperty("If-Range", validator);
+        }
 
         int responseCode = conn.getResponseCode();
         System.out.println("Download response code: " + responseCode);
@@ -243,16 +323,26 @@ public class MovieApiService {
             responseCode = conn.getResponseCode();
         }
 
-        if (responseCode == 200) {
+        if (responseCode == 200 || responseCode == 206) {
+            boolean resuming = responseCode == 206;
             long contentLength = conn.getContentLengthLong();
-            System.out.println("Content length: " + contentLength);
+            System.out.println("Content length: " + contentLength + (resuming ? " (resumed)" : ""));
+
+            String etag = conn.getHeaderField("ETag");
+            String lastModified = conn.getHeaderField("Last-Modified");
+            String newValidator = etag != null && !etag.startsWith("W/") ? etag : lastModified;
+            if (newValidator != null) {
+                Files.write(validatorFile.toPath(), newValidator.getBytes(StandardCharsets.UTF_8));
+            } else {
+                validatorFile.delete();
+            }
 
             try (InputStream in = conn.getInputStream();
-                 FileOutputStream out = new FileOutputStream(outputFile)) {
+                 FileOutputStream out = new FileOutputStream(partFile, resuming)) {
 
                 byte[] buffer = new byte[8192];
                 int bytesRead;
-                long totalBytes = 0;
+                long totalBytes = resuming ? partFile.length() : 0;
 
                 while ((bytesRead = in.read(buffer)) != -1) {
                     out.write(buffer, 0, bytesRead);
@@ -265,6 +355,10 @@ public class MovieApiService {
 
                 System.out.println("Download complete: " + totalBytes + " bytes");
             }
+
+            Files.move(partFile.toPath(), outputFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+            validatorFile.delete();
         } else {
             // Read error message
             String errorMessage = "HTTP " + responseCode;
@@ -8,6 +8,7 @@ import com.neu.finalproject.meskot.service.CompressionService;
 
 import javax.swing.*;
 import java.io.File;
+import java.io.IOException;
 import java.time.LocalDateTime;
 import java.util.Collections;
 import java.util.List;
@@ -166,11 +167,43 @@ public class PlayerPresenter {
         onNavigate(VideoPlayerUI.PAGE_PLAYER);
 
         // Prepare the stream URL but DON'T auto-play
-        String streamUrl = apiService.getBaseUrl() + "/movies/" + selectedMovie.getId() + "/stream";
+        // Adaptive movies play from the master playlist so the player can switch renditions
+        String streamUrl = selectedMovie.isAdaptive()
+                ? apiService.getBaseUrl() + "/movies/" + selectedMovie.getId() + "/hls/master.m3u8"
+                : apiService.getBaseUrl() + "/movies/" + selectedMovie.getId() + "/stream";
         System.out.println("▶ Ready to play: " + selectedMovie.getTitle() + " (" + streamUrl + ")");
 
         // Load media but don't play yet - user must click play button
         view.getMediaPlayer().mediaPlayer().media().prepare(streamUrl, ":network-caching=300");
+        loadTrickplay(selectedMovie);
+    }
+
+    /**
+     * Fetch the movie's seek-preview sprites in the background; the seek bar shows hover
+     * previews once they are in memory.
+     */
+    private void loadTrickplay(MovieDto movie) {
+        view.setTrickplayTrack(null);
+        if (!movie.isTrickplay()) {
+            return;
+        }
+        new SwingWorker<TrickplayTrack, Void>() {
+            @Override
+            protected TrickplayTrack doInBackground() throws Exception {
+                return TrickplayTrack.load(apiService, movie.getId());
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    if (movie == currentlyPlayingMovie) {
+                        view.setTrickplayTrack(get());
+                    }
+                } catch (Exception e) {
+                    System.out.println("Trickplay unavailable for " + movie.getTitle() + ": " + e.getMessage());
+                }
+            }
+        }.execute();
     }
 
     /**
@@ -280,6 +313,7 @@ public class PlayerPresenter {
             @Override
             protected String doInBackground() throws Exception {
                 JobResponse job = apiService.startUpload(result.file, result.title, result.resolution,
+                        "LOCAL", result.adaptive ? "hls" : "mp4",
                         percent -> { if (!cancelRequested.get()) publish(percent); });
                 return job.getJobId();
             }
@@ -493,6 +527,45 @@ public class PlayerPresenter {
         view.getMediaPlayer().mediaPlayer().controls().setTime(timeInMillis);
     }
 
+    /**
+     * Seek bar released: land on the keyframe at or before the target so the player can show
+     * it without decoding forward from an earlier one. Falls back to the exact time for local
+     * files, HLS and movies without a keyframe index.
+     */
+    public void onSeekCommitted(long timeInMillis) {
+        MovieDto movie = currentlyPlayingMovie;
+        if (movie == null || movie.getId() == null || movie.getId() < 0 || movie.isAdaptive()) {
+            onSeek(timeInMillis);
+            return;
+        }
+        new SwingWorker<Long, Void>() {
+            @Override
+            protected Long doInBackground() {
+                try {
+                    return apiService.getKeyframeBefore(movie.getId(), timeInMillis);
+                } catch (IOException e) {
+                    return -1L;
+                }
+            }
+
+            @Override
+            protected void done() {
+                long target = timeInMillis;
+                try {
+                    long keyframe = get();
+                    if (keyframe >= 0) {
+                        target = keyframe;
+                    }
+                } catch (Exception ignored) {
+                    // seek to the exact time instead
+                }
+                if (movie == currentlyPlayingMovie) {
+                    onSeek(target);
+                }
+            }
+        }.execute();
+    }
+
     public long getCurrentTime() {
         return view.getMediaPlayer().mediaPlayer().status().time();
     }
@@ -0,0 +1,90 @@
+package com.neu.finalproject.meskot.ui;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A movie's seek-preview thumbnails, held in memory. The WebVTT index and every sprite sheet
+ * are fetched once when the movie is selected, so hovering the seek bar never touches the
+ * network or the video stream.
+ */
+public class TrickplayTrack {
+
+    private record Cue(long startMillis, long endMillis, String sheet, int x, int y, int width, int height) {
+    }
+
+    private final List<Cue> cues;
+    private final Map<String, BufferedImage> sheets;
+
+    private TrickplayTrack(List<Cue> cues, Map<String, BufferedImage> sheets) {
+        this.cues = cues;
+        this.sheets = sheets;
+    }
+
+    public static TrickplayTrack load(MovieApiService apiService, Long movieId) throws IOException {
+        List<Cue> cues = new ArrayList<>();
+        String[] lines = apiService.getTrickplayIndex(movieId).split("\r?\n");
+        for (int i = 0; i < lines.length - 1; i++) {
+            if (!lines[i].contains("-->")) {
+                continue;
+            }
+            String[] times = lines[i].split("-->");
+            String target = lines[++i].trim();
+            int hash = target.indexOf("#xywh=");
+            if (hash < 0) {
+                continue;
+            }
+            String[] xywh = target.substring(hash + 6).split(",");
+            cues.add(new Cue(parseTime(times[0]), parseTime(times[1]), target.substring(0, hash),
+                    Integer.parseInt(xywh[0]), Integer.parseInt(xywh[1]),
+                    Integer.parseInt(xywh[2]), Integer.parseInt(xywh[3])));
+        }
+
+        Map<String, BufferedImage> sheets = new HashMap<>();
+        for (Cue cue : cues) {
+            if (!sheets.containsKey(cue.sheet())) {
+                sheets.put(cue.sheet(), apiService.getTrickplaySheet(movieId, cue.sheet()));
+            }
+        }
+        return new TrickplayTrack(cues, sheets);
+    }
+
+    /**
+     * The thumbnail covering the given time, or null past the last one.
+     */
+    public BufferedImage thumbnailAt(long timeMillis) {
+        int low = 0;
+        int high = cues.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            Cue cue = cues.get(mid);
+            if (timeMillis < cue.startMillis()) {
+                high = mid - 1;
+            } else if (timeMillis >= cue.endMillis()) {
+                low = mid + 1;
+            } else {
+                BufferedImage sheet = sheets.get(cue.sheet());
+                return sheet == null ? null : sheet.getSubimage(cue.x(), cue.y(), cue.width(), cue.height());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * End of the last thumbnail, for mapping the seek bar before the player knows the length.
+     */
+    public long getDurationMillis() {
+        return cues.isEmpty() ? 0 : cues.get(cues.size() - 1).endMillis();
+    }
+
+    private static long parseTime(String value) {
+        // hh:mm:ss.mmm
+        String[] parts = value.trim().split("[:.]");
+        return Long.parseLong(parts[0]) * 3_600_000 + Long.parseLong(parts[1]) * 60_000
+                + Long.parseLong(parts[2]) * 1000 + Long.parseLong(parts[3]);
+    }
+}
@@ -9,6 +9,7 @@ import javax.swing.border.EmptyBorder;
 import java.awt.*;
 import java.awt.event.*;
 import java.awt.geom.RoundRectangle2D;
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.net.HttpURLConnection;
@@ -64,6 +65,9 @@ public class VideoPlayerUI extends JFrame {
     private final JTextField mainSearchField;
     private final JLabel movieTitleLabel = new JLabel("Select a movie");
     private final JSlider volumeSlider;
+    private TrickplayTrack trickplayTrack;
+    private JWindow previewWindow;
+    private final JLabel previewLabel = new JLabel();
     private final JButton downloadButton;
 
     private final JPanel globalStatusBar;
@@ -834,9 +838,35 @@ public class VideoPlayerUI extends JFrame {
         seekTimer.start();
 
         seekSlider.addChangeListener(e -> {
+            long duration = presenter.getDuration();
+            if (duration <= 0) return;
             if (seekSlider.getValueIsAdjusting()) {
+                currentTimeLabel.setText(presenter.formatTime((seekSlider.getValue() * duration) / 100));
+            }
+        });
+        // Seek once on release rather than on every drag step, snapped to a keyframe
+        seekSlider.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseReleased(MouseEvent e) {
                 long duration = presenter.getDuration();
-                if (duration > 0) presenter.onSeek((seekSlider.getValue() * duration) / 100);
+                if (duration > 0) presenter.onSeekCommitted((seekSlider.getValue() * duration) / 100);
+            }
+
+            @Override
+            public void mouseExited(MouseEvent e) {
+                hideSeekPreview();
+            }
+        });
+        // Hover previews come from sprites already in memory, never from the stream
+        seekSlider.addMouseMotionListener(new MouseMotionAdapter() {
+            @Override
+            public void mouseMoved(MouseEvent e) {
+                showSeekPreview(seekSlider, e.getX());
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                showSeekPreview(seekSlider, e.getX());
             }
         });
 
@@ -1110,6 +1140,39 @@ public class VideoPlayerUI extends JFrame {
     public void showPage(String pageName) { mainCardLayout.show(mainPanel, pageName); }
     public void updateNowPlayingLabel(String title) { movieTitleLabel.setText(title); }
 
+    public void setTrickplayTrack(TrickplayTrack track) {
+        this.trickplayTrack = track;
+        if (track == null) hideSeekPreview();
+    }
+
+    private void showSeekPreview(JSlider slider, int mouseX) {
+        TrickplayTrack track = trickplayTrack;
+        if (track == null || slider.getWidth() <= 0) return;
+        long duration = presenter.getDuration() > 0 ? presenter.getDuration() : track.getDurationMillis();
+        double fraction = Math.max(0, Math.min(1, (double) mouseX / slider.getWidth()));
+        BufferedImage thumbnail = track.thumbnailAt((long) (fraction * duration));
+        if (thumbnail == null) {
+            hideSeekPreview();
+            return;
+        }
+
+        if (previewWindow == null) {
+            previewWindow = new JWindow(this);
+            previewLabel.setBorder(BorderFactory.createLineBorder(ACCENT));
+            previewWindow.add(previewLabel);
+        }
+        previewLabel.setIcon(new ImageIcon(thumbnail));
+        previewWindow.pack();
+        Point onScreen = slider.getLocationOnScreen();
+        previewWindow.setLocation(onScreen.x + mouseX - previewWindow.getWidth() / 2,
+                onScreen.y - previewWindow.getHeight() - 4);
+        previewWindow.setVisible(true);
+    }
+
+    private void hideSeekPreview() {
+        if (previewWindow != null) previewWindow.setVisible(false);
+    }
+
 
 
     public void updatePlayerMovieList(List<MovieDto> movies) {
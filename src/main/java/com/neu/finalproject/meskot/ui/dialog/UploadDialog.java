@@ -33,6 +33,7 @@ public class UploadDialog extends JDialog {
     private JLabel fileSizeLabel;
     private JTextField titleField;
     private JComboBox<String> resolutionCombo;
+    private JCheckBox adaptiveCheckBox;
     private JProgressBar progressBar;
     private JLabel statusLabel;
     private JButton uploadButton;
@@ -124,15 +125,23 @@ public class UploadDialog extends JDialog {
         styleComboBox(resolutionCombo);
         contentPanel.add(resolutionCombo, gbc);
 
+        // Adaptive streaming
+        gbc.gridx = 1; gbc.gridy = 4; gbc.gridwidth = 2;
+        adaptiveCheckBox = new JCheckBox("Adaptive streaming (HLS ladder)");
+        adaptiveCheckBox.setOpaque(false);
+        adaptiveCheckBox.setForeground(TEXT_SECONDARY);
+        adaptiveCheckBox.setFont(FONT_SMALL);
+        contentPanel.add(adaptiveCheckBox, gbc);
+
         // Progress
-        gbc.gridx = 0; gbc.gridy = 4; gbc.gridwidth = 3;
+        gbc.gridx = 0; gbc.gridy = 5; gbc.gridwidth = 3;
         gbc.insets = new Insets(20, 8, 4, 8);
         statusLabel = new JLabel("Ready");
         statusLabel.setForeground(TEXT_SECONDARY);
         statusLabel.setFont(FONT_SMALL);
         contentPanel.add(statusLabel, gbc);
 
-        gbc.gridy = 5;
+        gbc.gridy = 6;
         gbc.insets = new Insets(4, 8, 8, 8);
         progressBar = new JProgressBar(0, 100);
         progressBar.setStringPainted(false);
@@ -208,7 +217,8 @@ public class UploadDialog extends JDialog {
             onUploadStart.accept(new UploadResult(
                     selectedFile,
                     titleField.getText().trim(),
-                    (String) resolutionCombo.getSelectedItem()
+                    (String) resolutionCombo.getSelectedItem(),
+                    adaptiveCheckBox.isSelected()
             ));
         }
     }
@@ -251,6 +261,7 @@ public class UploadDialog extends JDialog {
         selectFileButton.setEnabled(enabled);
         titleField.setEnabled(enabled);
         resolutionCombo.setEnabled(enabled);
+        adaptiveCheckBox.setEnabled(enabled);
         uploadButton.setEnabled(enabled);
     }
 
@@ -335,11 +346,17 @@ public class UploadDialog extends JDialog {
         public final File file;
         public final String title;
         public final String resolution;
+        public final boolean adaptive;
 
         public UploadResult(File file, String title, String resolution) {
+            this(file, title, resolution, false);
+        }
+
+        public UploadResult(File file, String title, String resolution, boolean adaptive) {
             this.file = file;
             this.title = title;
             this.resolution = resolution;
+            this.adaptive = adaptive;
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,266 @@
+package com.neu.finalproject.meskot.service;
+
+import com.neu.finalproject.meskot.repository.CacheEntryRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.Resource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ChunkCacheTest {
+
+    private static final long CHUNK = 10;
+
+    @TempDir
+    Path dir;
+
+    private final byte[] data = new byte[60];
+    private final FakeStorage storage = new FakeStorage();
+    private final StorageService.ObjectStat stat = new StorageService.ObjectStat(data.length, 1_700_000_000_000L, "video/mp4", null);
+    private ChunkCache cache;
+
+    @BeforeEach
+    void setUp() {
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        CacheEntryRepository repository = mock(CacheEntryRepository.class);
+        when(repository.findByCacheKey(anyString())).thenReturn(Optional.empty());
+        when(repository.save(any())).thenAnswer(invocation -> invocation.getArgument(0));
+        cache = new ChunkCache(repository);
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        ReflectionTestUtils.setField(cache, "chunkSize", CHUNK);
+        ReflectionTestUtils.setField(cache, "cacheDir", dir.toString());
+        ReflectionTestUtils.setField(cache, "maxBytes", 25L);
+    }
+
+    private byte[] read(long start, long end) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        cache.writeRange("SUPABASE", storage, "movie.mp4", stat, start, end, out);
+        return out.toByteArray();
+    }
+
+    // --- read-through ---
+
+    @Test
+    void rangesAcrossChunksAreServedFromTheCache() throws IOException {
+        assertArrayEquals(Arrays.copyOfRange(data, 5, 16), read(5, 15));
+        assertEquals(2, storage.reads.get());
+        assertArrayEquals(Arrays.copyOfRange(data, 8, 13), read(8, 12));
+        assertEquals(2, storage.reads.get());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(2, cache.getHitCount());
+    }
+
+    // --- single-flight ---
+
+    @Test
+    void concurrentMissesShareOneUpstreamRead() throws Exception {
+        storage.gate = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<byte[]>> results = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                results.add(pool.submit(() -> read(0, 9)));
+            }
+            // one reader is parked upstream; release it once the other three wait on its fill
+            await(() -> cache.getCoalescedCount() == 3);
+            storage.gate.countDown();
+            for (Future<byte[]> result : results) {
+                assertArrayEquals(Arrays.copyOfRange(data, 0, 10), result.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(1, storage.reads.get());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void aWaiterFetchesItselfWhenTheFillItWaitedOnFails() throws Exception {
+        storage.gate = new CountDownLatch(1);
+        storage.failures.set(1);
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<byte[]> first = pool.submit(() -> read(0, 9));
+            Future<byte[]> second = pool.submit(() -> read(0, 9));
+            await(() -> cache.getCoalescedCount() == 1);
+            storage.gate.countDown();
+
+            int failed = 0;
+            for (Future<byte[]> result : List.of(first, second)) {
+                try {
+                    assertArrayEquals(Arrays.copyOfRange(data, 0, 10), result.get(5, TimeUnit.SECONDS));
+                } catch (ExecutionException e) {
+                    failed++;
+                }
+            }
+            // the leader sees its own failure; the waiter goes upstream once more and succeeds
+            assertEquals(1, failed);
+            assertEquals(2, storage.reads.get());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void aPrefetchDoesNotWaitForAFillInFlight() throws Exception {
+        storage.gate = new CountDownLatch(1);
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> reader = pool.submit(() -> {
+                cache.open("SUPABASE", storage, "movie.mp4", stat, "v1", 0).close();
+                return null;
+            });
+            await(() -> storage.reads.get() == 1);
+            cache.prefetch("SUPABASE", storage, "movie.mp4", stat, "v1", 0, upstream -> { });
+            assertEquals(1, storage.reads.get());
+            assertEquals(0, cache.getPrefetchCount());
+
+            storage.gate.countDown();
+            reader.get(5, TimeUnit.SECONDS);
+            assertEquals(1, storage.reads.get());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "timed out");
+            Thread.sleep(1);
+        }
+    }
+
+    // --- eviction ---
+
+    @Test
+    void leastRecentlyReadChunkIsEvictedPastTheBudget() throws Exception {
+        read(0, 9);
+        Thread.sleep(5);
+        read(10, 19);
+        Thread.sleep(5);
+        read(0, 9);
+        Thread.sleep(5);
+        // 30 bytes against a budget of 25: chunk 1 was read longest ago
+        read(20, 29);
+        assertEquals(20, cache.getUsedBytes());
+        assertEquals(3, storage.reads.get());
+
+        read(0, 9);
+        Thread.sleep(5);
+        read(20, 29);
+        assertEquals(3, storage.reads.get());
+        Thread.sleep(5);
+        read(10, 19);
+        assertEquals(4, storage.reads.get());
+    }
+
+    @Test
+    void aChunkJustFilledIsNotItsOwnFillsVictim() throws IOException {
+        // A budget below one chunk: every fill is over it, and the new chunk is the only candidate
+        ReflectionTestUtils.setField(cache, "maxBytes", 5L);
+        assertArrayEquals(Arrays.copyOfRange(data, 0, 10), read(0, 9));
+        assertArrayEquals(Arrays.copyOfRange(data, 10, 30), read(10, 29));
+        assertEquals(CHUNK, cache.getUsedBytes());
+    }
+
+    @Test
+    void anOpenChunkSurvivesEviction() throws Exception {
+        try (FileChannel channel = cache.open("SUPABASE", storage, "movie.mp4", stat, "v1", 0)) {
+            Thread.sleep(5);
+            read(10, 19);
+            Thread.sleep(5);
+            // evicts chunk 0, whose file is deleted while the channel is still open
+            read(20, 39);
+            ByteBuffer buffer = ByteBuffer.allocate((int) CHUNK);
+            while (buffer.hasRemaining() && channel.read(buffer) > 0) {
+            }
+            assertArrayEquals(Arrays.copyOfRange(data, 0, 10), buffer.array());
+        }
+    }
+
+    private class FakeStorage implements StorageService {
+        final AtomicInteger reads = new AtomicInteger();
+        // reads left to fail
+        final AtomicInteger failures = new AtomicInteger();
+        // when set, reads wait for it so a test can line up concurrent misses
+        volatile CountDownLatch gate;
+
+        @Override
+        public InputStream openRange(String objectKey, long start, long end) throws IOException {
+            reads.incrementAndGet();
+            if (gate != null) {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+            }
+            if (failures.getAndDecrement() > 0) {
+                throw new IOException("connection reset");
+            }
+            return new ByteArrayInputStream(data, (int) start, (int) (end - start + 1));
+        }
+
+        @Override
+        public ObjectStat stat(String objectKey) {
+            return stat;
+        }
+
+        @Override
+        public String store(File file, String targetKey) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String store(InputStream in, String targetKey, long contentLength, String contentType) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void replace(File file, String objectKey) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Resource loadAsResource(String objectKey) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void delete(String objectKey) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package com.neu.finalproject.meskot.service;
+
+import com.neu.finalproject.meskot.model.StoredObject;
+import com.neu.finalproject.meskot.model.UploadJob;
+import com.neu.finalproject.meskot.repository.EncodingWorkerRepository;
+import com.neu.finalproject.meskot.repository.StoredObjectRepository;
+import com.neu.finalproject.meskot.repository.UploadJobRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class EncodingJobQueueTest {
+
+    private static final String WORKER = "worker-1";
+    private static final String SPOOL_KEY = "spool/job-1/a.mp4";
+
+    private final UploadJobRepository uploadJobRepository = mock(UploadJobRepository.class);
+    private final StoredObjectRepository storedObjectRepository = mock(StoredObjectRepository.class);
+    private final UploadHistoryService uploadHistoryService = mock(UploadHistoryService.class);
+    private final MovieService movieService = mock(MovieService.class);
+    private final LocalStorageService localStorageService = mock(LocalStorageService.class);
+    // encodes handed to the executor; run() drains them on the test thread
+    private final List<Runnable> started = new ArrayList<>();
+    private Executor executor = started::add;
+    private UploadJob job;
+
+    @BeforeEach
+    void setUp() {
+        job = new UploadJob();
+        job.setId("job-1");
+        job.setStatus(EncodingJobQueue.PENDING);
+        job.setTitle("T");
+        job.setResolution("720p");
+        job.setSourceType("LOCAL");
+        job.setUploaderId(1L);
+        job.setSourcePath(SPOOL_KEY);
+        job.setAttempts(0);
+        when(uploadJobRepository.save(any())).thenAnswer(invocation -> invocation.getArgument(0));
+        when(uploadJobRepository.lockNextPending(60)).thenReturn(Optional.of(job), Optional.empty());
+        when(uploadJobRepository.lockOrphaned(60)).thenReturn(List.of());
+        when(uploadJobRepository.findPendingInDispatchOrder(60)).thenReturn(List.of());
+        when(localStorageService.resolve(SPOOL_KEY)).thenReturn(Path.of(SPOOL_KEY));
+        when(storedObjectRepository.findByObjectKeyStartingWith(anyString())).thenReturn(List.of());
+    }
+
+    private EncodingJobQueue queue() {
+        EncodingJobQueue queue = new EncodingJobQueue(uploadJobRepository, mock(EncodingWorkerRepository.class),
+                storedObjectRepository, uploadHistoryService, movieService, mock(CompressionService.class),
+                localStorageService, mock(SupabaseStorageService.class), command -> executor.execute(command),
+                mock(PlatformTransactionManager.class));
+        ReflectionTestUtils.setField(queue, "spoolStorage", "LOCAL");
+        ReflectionTestUtils.setField(queue, "workerEnabled", true);
+        ReflectionTestUtils.setField(queue, "workerId", WORKER);
+        ReflectionTestUtils.setField(queue, "concurrency", 1);
+        ReflectionTestUtils.setField(queue, "leaseSeconds", 60);
+        ReflectionTestUtils.setField(queue, "maxAttempts", 3);
+        ReflectionTestUtils.setField(queue, "maxWaitMinutes", 60);
+        queue.init();
+        return queue;
+    }
+
+    private static StoredObject stored(String key) {
+        StoredObject object = new StoredObject();
+        object.setObjectKey(key);
+        object.setLocationType("LOCAL");
+        return object;
+    }
+
+    private void runStarted() {
+        List<Runnable> runs = new ArrayList<>(started);
+        started.clear();
+        executor = Runnable::run;
+        runs.forEach(Runnable::run);
+    }
+
+    // --- claim ---
+
+    @Test
+    void aClaimMarksTheJobAsThisWorkersNextAttempt() {
+        EncodingJobQueue queue = queue();
+        queue.poll();
+
+        assertEquals(EncodingJobQueue.ENCODING, job.getStatus());
+        assertEquals(WORKER, job.getWorkerId());
+        assertEquals(1, job.getAttempts());
+        assertNotNull(job.getStartedAt());
+        assertEquals(1, started.size());
+        assertEquals(List.of("job-1"), queue.status().get("active"));
+    }
+
+    @Test
+    void noMoreIsClaimedThanThereAreSlots() {
+        EncodingJobQueue queue = queue();
+        queue.poll();
+        queue.poll();
+        verify(uploadJobRepository, times(1)).lockNextPending(60);
+    }
+
+    @Test
+    void aRunPassesItsClaimOnToTheUploadAndThenDropsTheSpool() throws Exception {
+        queue().poll();
+        runStarted();
+
+        verify(movieService).handleUpload(any(), eq("T"), eq("720p"), eq("job-1"), eq(1L), eq("LOCAL"),
+                anyBoolean(), eq(WORKER), eq(1));
+        verify(localStorageService).delete(SPOOL_KEY);
+    }
+
+    @Test
+    void aNewAttemptDeletesWhatEarlierAttemptsLeft() throws Exception {
+        job.setAttempts(1);
+        when(storedObjectRepository.findByObjectKeyStartingWith("movies/T/job-1/")).thenReturn(List.of(
+                stored("movies/T/job-1/attempt-1/720p.mp4"), stored("movies/T/job-1/attempt-2/720p.mp4")));
+        queue().poll();
+        runStarted();
+
+        verify(localStorageService).delete("movies/T/job-1/attempt-1/720p.mp4");
+        verify(localStorageService, never()).delete("movies/T/job-1/attempt-2/720p.mp4");
+    }
+
+    // --- fencing ---
+
+    @Test
+    void aFailedRunThatStillOwnsTheJobFailsIt() throws Exception {
+        doThrow(new IOException("encoder crashed")).when(movieService).handleUpload(any(), anyString(), anyString(),
+                anyString(), any(), anyString(), anyBoolean(), anyString(), anyInt());
+        when(uploadJobRepository.failIfOwned("job-1", WORKER, 1, "encoder crashed")).thenReturn(1);
+        when(storedObjectRepository.findByObjectKeyStartingWith("movies/T/job-1/attempt-1/"))
+                .thenReturn(List.of(stored("movies/T/job-1/attempt-1/720p.mp4")));
+        queue().poll();
+        runStarted();
+
+        verify(uploadHistoryService).markFailed("job-1", "encoder crashed");
+        verify(localStorageService).delete("movies/T/job-1/attempt-1/720p.mp4");
+        verify(localStorageService).delete(SPOOL_KEY);
+    }
+
+    @Test
+    void aRunFencedOutByAReclaimRecordsNothing() throws Exception {
+        doThrow(new IllegalStateException("Job job-1 was reclaimed")).when(movieService).handleUpload(any(),
+                anyString(), anyString(), anyString(), any(), anyString(), anyBoolean(), anyString(), anyInt());
+        when(uploadJobRepository.failIfOwned(anyString(), anyString(), anyInt(), anyString())).thenReturn(0);
+        when(storedObjectRepository.findByObjectKeyStartingWith("movies/T/job-1/attempt-1/"))
+                .thenReturn(List.of(stored("movies/T/job-1/attempt-1/720p.mp4")));
+        queue().poll();
+        runStarted();
+
+        // its own outputs go, but the job, its history and its upload belong to the new run
+        verify(localStorageService).delete("movies/T/job-1/attempt-1/720p.mp4");
+        verify(uploadHistoryService, never()).markFailed(anyString(), anyString());
+        verify(localStorageService, never()).delete(SPOOL_KEY);
+    }
+
+    // --- reclaim ---
+
+    private void orphan(int attempts) {
+        job.setStatus(EncodingJobQueue.ENCODING);
+        job.setWorkerId("dead-worker");
+        job.setAttempts(attempts);
+        job.setProgress(40);
+        when(uploadJobRepository.lockOrphaned(60)).thenReturn(List.of(job));
+    }
+
+    @Test
+    void anOrphanedJobGoesBackInTheQueue() {
+        orphan(1);
+        queue().heartbeat();
+
+        assertEquals(EncodingJobQueue.PENDING, job.getStatus());
+        assertNull(job.getWorkerId());
+        assertEquals(0, job.getProgress());
+        verify(uploadHistoryService).markPending("job-1");
+    }
+
+    @Test
+    void anOrphanedJobOutOfAttemptsFailsAndDropsEverything() throws Exception {
+        orphan(3);
+        when(storedObjectRepository.findByObjectKeyStartingWith("movies/T/job-1/"))
+                .thenReturn(List.of(stored("movies/T/job-1/attempt-3/720p.mp4")));
+        queue().heartbeat();
+
+        assertEquals(EncodingJobQueue.FAILED, job.getStatus());
+        assertTrue(job.getErrorMessage().contains("3 times"));
+        verify(uploadHistoryService).markFailed(eq("job-1"), anyString());
+        verify(localStorageService).delete(SPOOL_KEY);
+        verify(localStorageService).delete("movies/T/job-1/attempt-3/720p.mp4");
+    }
+
+    @Test
+    void anOrphanedJobWhoseUploadIsGoneFails() throws Exception {
+        orphan(1);
+        when(localStorageService.stat(SPOOL_KEY)).thenThrow(new FileNotFoundException(SPOOL_KEY));
+        queue().heartbeat();
+
+        assertEquals(EncodingJobQueue.FAILED, job.getStatus());
+        verify(uploadHistoryService, never()).markPending(anyString());
+    }
+
+    @Test
+    void aJobThisWorkerIsRunningIsNotReclaimed() {
+        EncodingJobQueue queue = queue();
+        queue.poll();
+        // our own lease is late, but the encode is still ours
+        when(uploadJobRepository.lockOrphaned(60)).thenReturn(List.of(job));
+        queue.heartbeat();
+
+        assertEquals(EncodingJobQueue.ENCODING, job.getStatus());
+        assertEquals(WORKER, job.getWorkerId());
+        verify(uploadHistoryService, never()).markPending(anyString());
+    }
+}
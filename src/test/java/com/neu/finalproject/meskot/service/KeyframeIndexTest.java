@@ -0,0 +1,54 @@
+package com.neu.finalproject.meskot.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class KeyframeIndexTest {
+
+    private final KeyframeIndex index = new KeyframeIndex(10_000, 32, 800,
+            new long[]{0, 2000, 4000, 6000}, new long[]{1000, 3000, 5000, 7000});
+
+    @Test
+    void floorFindsTheKeyframeAtOrBeforeTheTime() {
+        assertEquals(new KeyframeIndex.Entry(2000, 3000), index.floor(2000));
+        assertEquals(new KeyframeIndex.Entry(2000, 3000), index.floor(3999));
+        assertEquals(new KeyframeIndex.Entry(6000, 7000), index.floor(60_000));
+    }
+
+    @Test
+    void timesBeforeTheFirstKeyframeGetTheFirst() {
+        KeyframeIndex late = new KeyframeIndex(10_000, 32, 800, new long[]{500, 2500}, new long[]{1000, 3000});
+        assertEquals(new KeyframeIndex.Entry(500, 1000), late.floor(0));
+    }
+
+    @Test
+    void emptyIndexHasNoFloor() {
+        assertNull(new KeyframeIndex(0, -1, -1, new long[0], new long[0]).floor(1000));
+    }
+
+    @Test
+    void survivesARoundTripThroughItsSidecarFormat() throws IOException {
+        KeyframeIndex read = KeyframeIndex.read(new ByteArrayInputStream(index.toBytes()));
+        assertEquals(10_000, read.getFileSize());
+        assertEquals(32, read.getMoovOffset());
+        assertEquals(800, read.getMoovSize());
+        assertEquals(4, read.size());
+        assertEquals(new KeyframeIndex.Entry(4000, 5000), read.floor(4500));
+    }
+
+    @Test
+    void rejectsOtherFiles() {
+        assertThrows(IOException.class, () -> KeyframeIndex.read(new ByteArrayInputStream(new byte[]{0, 0, 0, 0, 0})));
+    }
+
+    @Test
+    void rejectsMismatchedArrays() {
+        assertThrows(IllegalArgumentException.class, () -> new KeyframeIndex(0, 0, 0, new long[1], new long[2]));
+    }
+}
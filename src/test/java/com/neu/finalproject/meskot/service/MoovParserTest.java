@@ -0,0 +1,118 @@
+package com.neu.finalproject.meskot.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class MoovParserTest {
+
+    @Test
+    void readsMovieVideoAndAudioFacts() {
+        MediaInfo info = MoovParser.parse(moov(mvhd(1000, 10_000), videoTrack(), audioTrack()));
+
+        assertEquals(10.0, info.durationSeconds(), 1e-9);
+        assertEquals(1280, info.width());
+        assertEquals(720, info.height());
+        assertEquals(25.0, info.frameRate(), 1e-9);
+        assertEquals("h264", info.videoCodec());
+        // 250 samples of 5000 bytes over 10 s
+        assertEquals(1_000_000, info.videoBitrate());
+        assertEquals("aac", info.audioCodec());
+        assertEquals(2, info.audioChannels());
+        assertEquals(48_000, info.sampleRate());
+        // 1000 + 2000 + 3000 bytes over 10 s
+        assertEquals(4800, info.audioBitrate());
+    }
+
+    @Test
+    void trackDurationStandsInForAMissingMovieHeader() {
+        MediaInfo info = MoovParser.parse(moov(videoTrack()));
+        assertEquals(10.0, info.durationSeconds(), 1e-9);
+        assertNull(info.audioCodec());
+    }
+
+    @Test
+    void truncatedMoovKeepsWhatWasReadBeforeTheCut() {
+        byte[] whole = moov(mvhd(1000, 10_000), videoTrack(), audioTrack());
+        MediaInfo info = MoovParser.parse(Arrays.copyOf(whole, whole.length - 10));
+        // the outer moov box no longer fits, so nothing inside it is trusted
+        assertEquals(0.0, info.durationSeconds(), 1e-9);
+        assertNull(info.videoCodec());
+    }
+
+    private static byte[] videoTrack() {
+        byte[] stsdEntry = ByteBuffer.allocate(86)
+                .putInt(0, 86).put(4, ascii("avc1"))
+                .putShort(32, (short) 1920).putShort(34, (short) 1080) // coded size, overridden by tkhd
+                .array();
+        return box("trak",
+                tkhd(1280, 720),
+                box("mdia",
+                        mdhd(90_000, 900_000),
+                        hdlr("vide"),
+                        box("minf", box("stbl",
+                                box("stsd", fullBox(1), stsdEntry),
+                                box("stsz", fullBox(5000), ByteBuffer.allocate(4).putInt(250).array())))));
+    }
+
+    private static byte[] audioTrack() {
+        byte[] stsdEntry = ByteBuffer.allocate(36)
+                .putInt(0, 36).put(4, ascii("mp4a"))
+                .putShort(24, (short) 2).putInt(32, 48_000 << 16)
+                .array();
+        byte[] sizes = ByteBuffer.allocate(16).putInt(3).putInt(1000).putInt(2000).putInt(3000).array();
+        return box("trak",
+                tkhd(0, 0),
+                box("mdia",
+                        mdhd(48_000, 480_000),
+                        hdlr("soun"),
+                        box("minf", box("stbl",
+                                box("stsd", fullBox(1), stsdEntry),
+                                box("stsz", fullBox(0), sizes)))));
+    }
+
+    private static byte[] moov(byte[]... children) {
+        return box("moov", children);
+    }
+
+    private static byte[] mvhd(int timescale, int duration) {
+        return box("mvhd", ByteBuffer.allocate(100).putInt(12, timescale).putInt(16, duration).array());
+    }
+
+    private static byte[] tkhd(int width, int height) {
+        return box("tkhd", ByteBuffer.allocate(84).putInt(76, width << 16).putInt(80, height << 16).array());
+    }
+
+    private static byte[] mdhd(int timescale, int duration) {
+        return box("mdhd", ByteBuffer.allocate(24).putInt(12, timescale).putInt(16, duration).array());
+    }
+
+    private static byte[] hdlr(String handler) {
+        return box("hdlr", ByteBuffer.allocate(25).put(8, ascii(handler)).array());
+    }
+
+    /** Version/flags of zero followed by one 32-bit field. */
+    private static byte[] fullBox(int field) {
+        return ByteBuffer.allocate(8).putInt(4, field).array();
+    }
+
+    private static byte[] box(String type, byte[]... payload) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (byte[] part : payload) {
+            body.writeBytes(part);
+        }
+        return ByteBuffer.allocate(8 + body.size())
+                .putInt(8 + body.size()).put(ascii(type)).put(body.toByteArray())
+                .array();
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
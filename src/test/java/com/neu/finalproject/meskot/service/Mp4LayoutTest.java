@@ -0,0 +1,83 @@
+package com.neu.finalproject.meskot.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class Mp4LayoutTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void moovBeforeMdatIsFaststart() throws IOException {
+        Mp4Layout layout = Mp4Layout.probe(write(box("ftyp", 16), box("moov", 100), box("mdat", 1000)));
+        assertEquals(24, layout.getMoovOffset());
+        assertEquals(108, layout.getMoovSize());
+        assertEquals(132, layout.getMdatOffset());
+        assertTrue(layout.isFaststart());
+    }
+
+    @Test
+    void moovAfterMdatIsNotFaststart() throws IOException {
+        Mp4Layout layout = Mp4Layout.probe(write(box("ftyp", 16), box("mdat", 1000), box("moov", 100)));
+        assertEquals(24, layout.getMdatOffset());
+        assertEquals(1032, layout.getMoovOffset());
+        assertFalse(layout.isFaststart());
+    }
+
+    @Test
+    void followsSixtyFourBitBoxSizes() throws IOException {
+        byte[] largeMdat = ByteBuffer.allocate(16 + 500)
+                .putInt(1).put(ascii("mdat")).putLong(16 + 500)
+                .array();
+        Mp4Layout layout = Mp4Layout.probe(write(box("ftyp", 16), largeMdat, box("moov", 100)));
+        assertEquals(24, layout.getMdatOffset());
+        assertEquals(24 + 516, layout.getMoovOffset());
+    }
+
+    @Test
+    void sizeZeroBoxRunsToTheEndOfTheFile() throws IOException {
+        byte[] openMdat = ByteBuffer.allocate(8 + 300).putInt(0).put(ascii("mdat")).array();
+        Mp4Layout layout = Mp4Layout.probe(write(box("ftyp", 16), openMdat));
+        assertEquals(24, layout.getMdatOffset());
+        assertEquals(-1, layout.getMoovOffset());
+        assertFalse(layout.isFaststart());
+    }
+
+    @Test
+    void malformedBoxSizeIsRejected() throws IOException {
+        byte[] broken = ByteBuffer.allocate(16).putInt(4).put(ascii("free")).array();
+        Path file = write(box("ftyp", 16), broken);
+        assertThrows(IOException.class, () -> Mp4Layout.probe(file));
+    }
+
+    private Path write(byte[]... boxes) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (byte[] box : boxes) {
+            bytes.writeBytes(box);
+        }
+        Path file = Files.createTempFile(dir, "layout", ".mp4");
+        Files.write(file, bytes.toByteArray());
+        return file;
+    }
+
+    private static byte[] box(String type, int payloadBytes) {
+        return ByteBuffer.allocate(8 + payloadBytes).putInt(8 + payloadBytes).put(ascii(type)).array();
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,343 @@
+package com.neu.finalproject.meskot.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RangeRequestEngineTest {
+
+    private static final long MODIFIED = 1_700_000_000_000L;
+    private static final String ETAG = "\"abc\"";
+
+    private final RangeRequestEngine engine = new RangeRequestEngine();
+
+    private static RangeRequestEngine.ByteRange range(long start, long end) {
+        return new RangeRequestEngine.ByteRange(start, end);
+    }
+
+    // --- parse ---
+
+    @Test
+    void noHeaderMeansWholeObject() {
+        assertNull(engine.parse(null, 1000));
+        assertNull(engine.parse("  ", 1000));
+    }
+
+    @Test
+    void singleClosedRange() {
+        assertEquals(List.of(range(0, 499)), engine.parse("bytes=0-499", 1000));
+    }
+
+    @Test
+    void closedRangePastTheEndIsClamped() {
+        assertEquals(List.of(range(900, 999)), engine.parse("bytes=900-5000", 1000));
+    }
+
+    @Test
+    void openEndedRange() {
+        assertEquals(List.of(range(500, 999)), engine.parse("bytes=500-", 1000));
+    }
+
+    @Test
+    void suffixRange() {
+        assertEquals(List.of(range(900, 999)), engine.parse("bytes=-100", 1000));
+    }
+
+    @Test
+    void suffixLongerThanObjectCoversAllOfIt() {
+        assertEquals(List.of(range(0, 999)), engine.parse("bytes=-5000", 1000));
+    }
+
+    @Test
+    void unitAndWhitespaceAreLenient() {
+        assertEquals(List.of(range(10, 19)), engine.parse(" BYTES = 10 - 19 ", 1000));
+    }
+
+    @Test
+    void rangeStartingPastTheEndIsUnsatisfiable() {
+        assertTrue(engine.parse("bytes=1000-", 1000).isEmpty());
+        assertTrue(engine.parse("bytes=2000-3000", 1000).isEmpty());
+    }
+
+    @Test
+    void zeroSuffixIsUnsatisfiable() {
+        assertTrue(engine.parse("bytes=-0", 1000).isEmpty());
+    }
+
+    @Test
+    void anyRangeOfAnEmptyObjectIsUnsatisfiable() {
+        assertTrue(engine.parse("bytes=0-", 0).isEmpty());
+        assertTrue(engine.parse("bytes=-10", 0).isEmpty());
+    }
+
+    @Test
+    void onlyTheSatisfiableRangesOfAMixedSetAreKept() {
+        assertEquals(List.of(range(0, 9)), engine.parse("bytes=0-9,5000-6000", 1000));
+    }
+
+    @Test
+    void malformedHeadersAreIgnored() {
+        assertNull(engine.parse("items=0-10", 1000));
+        assertNull(engine.parse("bytes=abc", 1000));
+        assertNull(engine.parse("bytes=10-5", 1000));
+        assertNull(engine.parse("bytes=x-5", 1000));
+        assertNull(engine.parse("bytes=-", 1000));
+        assertNull(engine.parse("bytes=", 1000));
+        assertNull(engine.parse("bytes=,", 1000));
+    }
+
+    @Test
+    void tooManyRangesAreIgnored() {
+        StringBuilder header = new StringBuilder("bytes=");
+        for (int i = 0; i < 33; i++) {
+            header.append(i == 0 ? "" : ",").append(i * 10).append('-').append(i * 10 + 1);
+        }
+        assertNull(engine.parse(header.toString(), 10_000));
+    }
+
+    @Test
+    void rangesAreSortedByOffset() {
+        assertEquals(List.of(range(0, 9), range(100, 109), range(500, 509)),
+                engine.parse("bytes=500-509,0-9,100-109", 1000));
+    }
+
+    @Test
+    void overlappingRangesAreCoalesced() {
+        assertEquals(List.of(range(0, 149)), engine.parse("bytes=0-99,50-149", 1000));
+        assertEquals(List.of(range(0, 99)), engine.parse("bytes=0-99,10-20", 1000));
+    }
+
+    @Test
+    void adjacentRangesAreCoalesced() {
+        assertEquals(List.of(range(0, 199)), engine.parse("bytes=100-199,0-99", 1000));
+    }
+
+    @Test
+    void suffixOverlappingAnExplicitRangeIsCoalesced() {
+        assertEquals(List.of(range(850, 999)), engine.parse("bytes=850-949,-100", 1000));
+    }
+
+    // --- plan ---
+
+    @Test
+    void noRangeServesTheWholeObjectWithValidators() throws IOException {
+        RangeRequestEngine.Plan plan = engine.plan(new BytesSource(1000), new HttpHeaders(), null);
+        assertEquals(HttpStatus.OK, plan.status());
+        assertEquals(1000, plan.headers().getContentLength());
+        assertEquals("bytes", plan.headers().getFirst(HttpHeaders.ACCEPT_RANGES));
+        assertEquals(ETAG, plan.headers().getETag());
+        assertEquals(MODIFIED, plan.headers().getLastModified());
+        assertEquals(List.of(range(0, 999)), plan.ranges());
+    }
+
+    @Test
+    void singleRangeIsPartialContent() throws IOException {
+        RangeRequestEngine.Plan plan = engine.plan(new BytesSource(1000), rangeRequest("bytes=-100"), null);
+        assertEquals(HttpStatus.PARTIAL_CONTENT, plan.status());
+        assertEquals("bytes 900-999/1000", plan.headers().getFirst(HttpHeaders.CONTENT_RANGE));
+        assertEquals(100, plan.headers().getContentLength());
+        assertEquals(MediaType.parseMediaType("video/mp4"), plan.headers().getContentType());
+    }
+
+    @Test
+    void unsatisfiableRangeIs416WithTheLength() throws IOException {
+        RangeRequestEngine.Plan plan = engine.plan(new BytesSource(1000), rangeRequest("bytes=1000-"), null);
+        assertEquals(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE, plan.status());
+        assertEquals("bytes */1000", plan.headers().getFirst(HttpHeaders.CONTENT_RANGE));
+        assertTrue(plan.ranges().isEmpty());
+    }
+
+    @Test
+    void multipartContentLengthMatchesTheBodyWritten() throws IOException {
+        BytesSource source = new BytesSource(1000);
+        RangeRequestEngine.Plan plan = engine.plan(source, rangeRequest("bytes=0-9,500-509"), null);
+        assertEquals(HttpStatus.PARTIAL_CONTENT, plan.status());
+        assertTrue(plan.multipart());
+        MediaType contentType = plan.headers().getContentType();
+        assertEquals("multipart/byteranges", contentType.getType() + "/" + contentType.getSubtype());
+        assertNotNull(contentType.getParameter("boundary"));
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        engine.writeBody(source, plan, body);
+        assertEquals(plan.headers().getContentLength(), body.size());
+        String text = body.toString(StandardCharsets.ISO_8859_1);
+        assertTrue(text.contains("Content-Range: bytes 0-9/1000"));
+        assertTrue(text.contains("Content-Range: bytes 500-509/1000"));
+    }
+
+    @Test
+    void singleRangeBodyIsExactlyTheRequestedBytes() throws IOException {
+        BytesSource source = new BytesSource(1000);
+        RangeRequestEngine.Plan plan = engine.plan(source, rangeRequest("bytes=10-13"), null);
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        engine.writeBody(source, plan, body);
+        assertArrayEquals(new byte[]{10, 11, 12, 13}, body.toByteArray());
+    }
+
+    @Test
+    void responseHeadersAreCarriedOnEveryPlan() throws IOException {
+        HttpHeaders extra = new HttpHeaders();
+        extra.setCacheControl("max-age=60");
+        RangeRequestEngine.Plan plan = engine.plan(new BytesSource(1000), rangeRequest("bytes=5000-"), extra);
+        assertEquals("max-age=60", plan.headers().getCacheControl());
+    }
+
+    // --- conditional requests ---
+
+    @Test
+    void ifNoneMatchUsesTheWeakComparison() throws IOException {
+        HttpHeaders request = new HttpHeaders();
+        request.set(HttpHeaders.IF_NONE_MATCH, "W/\"abc\"");
+        assertEquals(HttpStatus.NOT_MODIFIED, engine.plan(new BytesSource(1000), request, null).status());
+    }
+
+    @Test
+    void ifNoneMatchStarMatchesAnyTag() throws IOException {
+        HttpHeaders request = new HttpHeaders();
+        request.set(HttpHeaders.IF_NONE_MATCH, "*");
+        assertEquals(HttpStatus.NOT_MODIFIED, engine.plan(new BytesSource(1000), request, null).status());
+    }
+
+    @Test
+    void ifNoneMatchWithAnotherTagServesTheBody() throws IOException {
+        HttpHeaders request = new HttpHeaders();
+        request.set(HttpHeaders.IF_NONE_MATCH, "\"other\", \"older\"");
+        assertEquals(HttpStatus.OK, engine.plan(new BytesSource(1000), request, null).status());
+    }
+
+    @Test
+    void ifNoneMatchWinsOverIfModifiedSince() throws IOException {
+        HttpHeaders request = new HttpHeaders();
+        request.set(HttpHeaders.IF_NONE_MATCH, "\"other\"");
+        request.setIfModifiedSince(MODIFIED + 60_000);
+        assertEquals(HttpStatus.OK, engine.plan(new BytesSource(1000), request, null).status());
+    }
+
+    @Test
+    void ifModifiedSinceComparesWholeSeconds() throws IOException {
+        HttpHeaders request = new HttpHeaders();
+        request.setIfModifiedSince(MODIFIED);
+        assertEquals(HttpStatus.NOT_MODIFIED, engine.plan(new BytesSource(1000, MODIFIED + 500), request, null).status());
+
+        request.setIfModifiedSince(MODIFIED - 1000);
+        assertEquals(HttpStatus.OK, engine.plan(new BytesSource(1000), request, null).status());
+    }
+
+    @Test
+    void ifRangeWithTheCurrentStrongTagKeepsTheRange() throws IOException {
+        HttpHeaders request = rangeRequest("bytes=0-9");
+        request.set(HttpHeaders.IF_RANGE, ETAG);
+        assertEquals(HttpStatus.PARTIAL_CONTENT, engine.plan(new BytesSource(1000), request, null).status());
+    }
+
+    @Test
+    void ifRangeWithAStaleTagServesTheWholeObject() throws IOException {
+        HttpHeaders request = rangeRequest("bytes=0-9");
+        request.set(HttpHeaders.IF_RANGE, "\"stale\"");
+        RangeRequestEngine.Plan plan = engine.plan(new BytesSource(1000), request, null);
+        assertEquals(HttpStatus.OK, plan.status());
+        assertEquals(1000, plan.headers().getContentLength());
+    }
+
+    @Test
+    void ifRangeNeverMatchesAWeakTag() throws IOException {
+        HttpHeaders request = rangeRequest("bytes=0-9");
+        request.set(HttpHeaders.IF_RANGE, "W/\"abc\"");
+        assertEquals(HttpStatus.OK, engine.plan(new BytesSource(1000), request, null).status());
+
+        BytesSource weak = new BytesSource(1000) {
+            @Override
+            public String etag() {
+                return "W/\"abc\"";
+            }
+        };
+        HttpHeaders strongRequest = rangeRequest("bytes=0-9");
+        strongRequest.set(HttpHeaders.IF_RANGE, "W/\"abc\"");
+        assertEquals(HttpStatus.OK, engine.plan(weak, strongRequest, null).status());
+    }
+
+    @Test
+    void ifRangeDateMustMatchTheModificationTimeExactly() throws IOException {
+        HttpHeaders request = rangeRequest("bytes=0-9");
+        request.set(HttpHeaders.IF_RANGE, httpDate(MODIFIED));
+        assertEquals(HttpStatus.PARTIAL_CONTENT, engine.plan(new BytesSource(1000), request, null).status());
+
+        request.set(HttpHeaders.IF_RANGE, httpDate(MODIFIED + 1000));
+        assertEquals(HttpStatus.OK, engine.plan(new BytesSource(1000), request, null).status());
+    }
+
+    @Test
+    void ifRangeDateIsIgnoredWithoutAModificationTime() throws IOException {
+        HttpHeaders request = rangeRequest("bytes=0-9");
+        request.set(HttpHeaders.IF_RANGE, httpDate(MODIFIED));
+        assertEquals(HttpStatus.OK, engine.plan(new BytesSource(1000, -1), request, null).status());
+    }
+
+    private static HttpHeaders rangeRequest(String range) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RANGE, range);
+        return headers;
+    }
+
+    private static String httpDate(long millis) {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(millis).atZone(ZoneOffset.UTC));
+    }
+
+    /** An in-memory object whose byte at offset i is (byte) i. */
+    private static class BytesSource implements RangeSource {
+        private final long length;
+        private final long lastModified;
+
+        BytesSource(long length) {
+            this(length, MODIFIED);
+        }
+
+        BytesSource(long length, long lastModified) {
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+
+        @Override
+        public long length() {
+            return length;
+        }
+
+        @Override
+        public String contentType() {
+            return "video/mp4";
+        }
+
+        @Override
+        public String etag() {
+            return ETAG;
+        }
+
+        @Override
+        public long lastModified() {
+            return lastModified;
+        }
+
+        @Override
+        public void writeRange(long start, long end, OutputStream out) throws IOException {
+            for (long i = start; i <= end; i++) {
+                out.write((int) i);
+            }
+        }
+    }
+}
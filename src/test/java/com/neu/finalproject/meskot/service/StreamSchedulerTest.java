@@ -0,0 +1,171 @@
+package com.neu.finalproject.meskot.service;
+
+import com.neu.finalproject.meskot.model.User;
+import com.neu.finalproject.meskot.security.SessionManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class StreamSchedulerTest {
+
+    private final StreamScheduler scheduler = new StreamScheduler();
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(scheduler, "enabled", true);
+        ReflectionTestUtils.setField(scheduler, "maxOpenStreams", 10);
+        // bandwidth ceilings off, so only stream counts decide admission
+        ReflectionTestUtils.setField(scheduler, "maxBytesPerSecond", 0L);
+        ReflectionTestUtils.setField(scheduler, "playbackConnectionRate", 1000L);
+        ReflectionTestUtils.setField(scheduler, "downloadConnectionRate", 1000L);
+        ReflectionTestUtils.setField(scheduler, "clientRate", 0L);
+        ReflectionTestUtils.setField(scheduler, "downloadMaxShare", 0.5);
+        ReflectionTestUtils.setField(scheduler, "downloadMinShare", 0.1);
+        ReflectionTestUtils.setField(scheduler, "retryAfterSeconds", 5L);
+        ReflectionTestUtils.setField(scheduler, "trustedProxies", Set.of("10.0.0.1"));
+        scheduler.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    private int open(String key) {
+        return (Integer) scheduler.snapshot().get(key);
+    }
+
+    // --- admission ---
+
+    @Test
+    void streamsAreRefusedAtTheCeilingAndAdmittedAgainOnceOneCloses() {
+        StreamScheduler.Ticket[] tickets = new StreamScheduler.Ticket[10];
+        for (int i = 0; i < tickets.length; i++) {
+            tickets[i] = scheduler.admit(StreamScheduler.StreamClass.PLAYBACK, "c" + i);
+            assertNotNull(tickets[i]);
+        }
+        assertNull(scheduler.admit(StreamScheduler.StreamClass.PLAYBACK, "late"));
+        assertEquals(10, open("openPlaybackStreams"));
+
+        tickets[0].close();
+        assertNotNull(scheduler.admit(StreamScheduler.StreamClass.PLAYBACK, "late"));
+    }
+
+    @Test
+    void downloadsAreRefusedBeforePlayback() {
+        for (int i = 0; i < 5; i++) {
+            assertNotNull(scheduler.admit(StreamScheduler.StreamClass.DOWNLOAD, "c"));
+        }
+        // downloads may only take half the slots; the rest stay free for playback
+        assertNull(scheduler.admit(StreamScheduler.StreamClass.DOWNLOAD, "c"));
+        assertNotNull(scheduler.admit(StreamScheduler.StreamClass.PLAYBACK, "c"));
+        assertEquals(5, open("openDownloadStreams"));
+    }
+
+    @Test
+    void closingATicketTwiceReleasesOneSlot() {
+        StreamScheduler.Ticket first = scheduler.admit(StreamScheduler.StreamClass.PLAYBACK, "c");
+        scheduler.admit(StreamScheduler.StreamClass.PLAYBACK, "c");
+        first.close();
+        first.close();
+        assertEquals(1, open("openPlaybackStreams"));
+        assertEquals(1, ((List<?>) scheduler.snapshot().get("clients")).size());
+    }
+
+    // --- sendfile ---
+
+    private MockHttpServletRequest sendfileRequest(long start, long end) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/movies/stream/1");
+        request.setAttribute("org.apache.tomcat.sendfile.filename", "/movies/a.mp4");
+        request.setAttribute("org.apache.tomcat.sendfile.start", start);
+        request.setAttribute("org.apache.tomcat.sendfile.end", end);
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+        return request;
+    }
+
+    @Test
+    void aSendfileRangeHoldsItsSlotForItsTimeAtTheConnectionRate() throws InterruptedException {
+        sendfileRequest(0, 300);
+        ResponseEntity<StreamingResponseBody> response = ResponseEntity.status(HttpStatus.PARTIAL_CONTENT).build();
+        assertEquals(HttpStatus.PARTIAL_CONTENT, scheduler.schedule(StreamScheduler.StreamClass.PLAYBACK, response).getStatusCode());
+        assertEquals(1, open("sendfileStreams"));
+
+        // 300 bytes at 1000 bytes/s: still going
+        scheduler.rebalance();
+        assertEquals(1, open("openPlaybackStreams"));
+
+        Thread.sleep(400);
+        scheduler.rebalance();
+        assertEquals(0, open("openPlaybackStreams"));
+        assertEquals(0, open("sendfileStreams"));
+    }
+
+    @Test
+    void aRefusedSendfileRangeIsTakenBackFromTheContainer() {
+        ReflectionTestUtils.setField(scheduler, "maxOpenStreams", 0);
+        MockHttpServletRequest request = sendfileRequest(0, 300);
+        ResponseEntity<StreamingResponseBody> result = scheduler.schedule(StreamScheduler.StreamClass.PLAYBACK,
+                ResponseEntity.status(HttpStatus.PARTIAL_CONTENT).build());
+
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, result.getStatusCode());
+        assertEquals("5", result.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+        assertNull(request.getAttribute("org.apache.tomcat.sendfile.filename"));
+    }
+
+    @Test
+    void aBodylessResponseWithoutSendfilePassesThrough() {
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+        ResponseEntity<StreamingResponseBody> response = ResponseEntity.status(HttpStatus.NOT_MODIFIED).build();
+        assertEquals(response, scheduler.schedule(StreamScheduler.StreamClass.PLAYBACK, response));
+        assertEquals(0, open("openPlaybackStreams"));
+    }
+
+    // --- client keys ---
+
+    @Test
+    void aSignedInUserIsOneClientWhereverTheyConnectFrom() {
+        MockHttpServletRequest request = sendfileRequest(0, 10);
+        request.setRemoteAddr("203.0.113.9");
+        MockHttpSession session = new MockHttpSession();
+        User user = new User();
+        user.setId(7L);
+        session.setAttribute(SessionManager.USER_SESSION_ATTR, user);
+        request.setSession(session);
+
+        scheduler.schedule(StreamScheduler.StreamClass.PLAYBACK, ResponseEntity.ok().build());
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> clients = (List<Map<String, Object>>) scheduler.snapshot().get("clients");
+        assertEquals("user:7", clients.get(0).get("client"));
+    }
+
+    @Test
+    void forwardedForIsOnlyBelievedFromATrustedProxy() {
+        assertEquals("198.51.100.4", scheduler.clientKey(null, "10.0.0.1", "198.51.100.4"));
+        assertEquals("203.0.113.9", scheduler.clientKey(null, "203.0.113.9", "198.51.100.4"));
+        assertEquals("203.0.113.9", scheduler.clientKey(null, "203.0.113.9", null));
+    }
+
+    @Test
+    void theClientIsTheRightmostHopNotAddedByOurOwnProxies() {
+        // the leftmost entry is whatever the client claimed; only hops our proxies added are trusted
+        assertEquals("198.51.100.4", scheduler.clientKey(null, "10.0.0.1", "1.2.3.4, 198.51.100.4, 10.0.0.1"));
+        assertEquals("10.0.0.1", scheduler.clientKey(null, "10.0.0.1", "10.0.0.1"));
+    }
+}
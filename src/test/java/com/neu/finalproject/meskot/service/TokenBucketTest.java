@@ -0,0 +1,58 @@
+package com.neu.finalproject.meskot.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenBucketTest {
+
+    @Test
+    void oneSecondOfBurstGoesOutAtOnce() {
+        TokenBucket bucket = new TokenBucket(1_000_000);
+        assertEquals(0, bucket.reserve(600_000));
+        assertEquals(0, bucket.reserve(400_000));
+    }
+
+    @Test
+    void debtIsPaidOffAtTheRate() {
+        TokenBucket bucket = new TokenBucket(1_000_000);
+        bucket.reserve(1_000_000);
+        long wait = bucket.reserve(500_000);
+        // half a second of debt, less whatever refilled between the two calls
+        assertTrue(wait > 450_000_000L && wait <= 500_000_000L, "wait was " + wait);
+    }
+
+    @Test
+    void tokensRefillWithTime() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(1_000_000);
+        bucket.reserve(1_000_000);
+        Thread.sleep(200);
+        assertEquals(0, bucket.reserve(150_000));
+    }
+
+    @Test
+    void refillStopsAtOneSecondOfBurst() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(10_000_000);
+        Thread.sleep(300);
+        assertEquals(0, bucket.reserve(10_000_000));
+        assertTrue(bucket.reserve(1_000_000) > 0);
+    }
+
+    @Test
+    void zeroRateIsUnlimited() {
+        TokenBucket bucket = new TokenBucket(0);
+        assertEquals(0, bucket.reserve(Long.MAX_VALUE / 2));
+        assertEquals(0, bucket.reserve(Long.MAX_VALUE / 2));
+    }
+
+    @Test
+    void loweringTheRateCapsTheBurst() {
+        TokenBucket bucket = new TokenBucket(1_000_000);
+        bucket.setRate(100_000);
+        assertEquals(100_000, bucket.getRate());
+        assertEquals(0, bucket.reserve(100_000));
+        long wait = bucket.reserve(100_000);
+        assertTrue(wait > 900_000_000L && wait <= 1_000_000_000L, "wait was " + wait);
+    }
+}